@@ -14,4 +14,18 @@ dependencies {
     compileOnly("org.jetbrains:annotations:24.1.0")
     compileOnly("org.projectlombok:lombok:1.18.36")
     annotationProcessor("org.projectlombok:lombok:1.18.36")
+
+    testImplementation("org.junit.jupiter:junit-jupiter:5.10.2")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+    testCompileOnly("org.jetbrains:annotations:24.1.0")
+    testImplementation("org.spigotmc:spigot-api:1.12.2-R0.1-SNAPSHOT")
+    // relocation is compared with jar-relocator, which Zapper used before
+    testImplementation("me.lucko:jar-relocator:1.7")
+    testImplementation("org.ow2.asm:asm:9.7.1")
+    testImplementation("org.ow2.asm:asm-commons:9.7.1")
+    testImplementation("com.google.guava:guava:33.3.1-jre")
+}
+
+tasks.test {
+    useJUnitPlatform()
 }
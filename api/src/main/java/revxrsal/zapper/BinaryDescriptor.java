@@ -0,0 +1,286 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import revxrsal.zapper.relocation.ReachableClasses;
+import revxrsal.zapper.relocation.Relocation;
+import revxrsal.zapper.repository.Repository;
+import revxrsal.zapper.util.Checksums;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The zapper.bin file, which the Gradle plugin generates along with the text
+ * files so that they can all be read in one pass, without splitting lines.
+ * When it can be read, none of the text files are read.
+ * <p>
+ * The file starts with the {@link #MAGIC} and the {@link #VERSION}, followed
+ * by a table of every distinct string, which the sections refer to by index.
+ * Numbers are unsigned varints, strings are modified UTF-8 (as in
+ * {@link DataInputStream#readUTF()}), and optional strings are stored as
+ * their index plus one, where 0 is absent. The sections are, in order:
+ * <ol>
+ *     <li>dependencies: group, artifact, version, optional classifier, size
+ *     plus one (0 if unknown), the length of the SHA-256 (0 or 32) and its
+ *     bytes, and the optional repository it was resolved from</li>
+ *     <li>repositories: URL, and flags, where bit 0 marks pre-relocated repositories</li>
+ *     <li>relocations: pattern and relocated pattern</li>
+ *     <li>routes: group pattern and repository URL</li>
+ *     <li>packages of lazy dependencies: package and index of the dependency</li>
+ *     <li>background dependencies: index of the dependency</li>
+ *     <li>the properties of zapper.properties: key and value</li>
+ *     <li>jars in pre-relocated repositories: group, artifact, version,
+ *     classifier, size, the length of the SHA-256 and its bytes</li>
+ *     <li>reachable classes: the number of packages plus one (0 if there is
+ *     no reachable.txt), and for every package, its name and the simple
+ *     names of its classes</li>
+ * </ol>
+ * Every section starts with the number of its entries.
+ */
+final class BinaryDescriptor {
+
+    static final String RESOURCE = "zapper/zapper.bin";
+
+    static final int MAGIC = 0x5A415052; // ZAPR
+    static final int VERSION = 2;
+
+    private static final int PRE_RELOCATED = 1;
+
+    final @NotNull List<Dependency> dependencies;
+    final @NotNull List<Repository> repositories;
+    final @NotNull List<Relocation> relocations;
+    final @NotNull Map<Dependency, Repository> origins;
+    final @NotNull Map<String, Repository> routes;
+    final @NotNull Map<String, List<Dependency>> lazyPackages;
+    final @NotNull List<Dependency> background;
+    final @NotNull Properties config;
+    final @NotNull List<Dependency> relocatedJars;
+    final @Nullable ReachableClasses reachableClasses;
+
+    private BinaryDescriptor(
+            @NotNull List<Dependency> dependencies,
+            @NotNull List<Repository> repositories,
+            @NotNull List<Relocation> relocations,
+            @NotNull Map<Dependency, Repository> origins,
+            @NotNull Map<String, Repository> routes,
+            @NotNull Map<String, List<Dependency>> lazyPackages,
+            @NotNull List<Dependency> background,
+            @NotNull Properties config,
+            @NotNull List<Dependency> relocatedJars,
+            @Nullable ReachableClasses reachableClasses
+    ) {
+        this.dependencies = dependencies;
+        this.repositories = repositories;
+        this.relocations = relocations;
+        this.origins = origins;
+        this.routes = routes;
+        this.lazyPackages = lazyPackages;
+        this.background = background;
+        this.config = config;
+        this.relocatedJars = relocatedJars;
+        this.reachableClasses = reachableClasses;
+    }
+
+    /**
+     * Reads the descriptor from the given stream, and closes it
+     *
+     * @param stream The stream to read
+     * @return The descriptor, or null if it is of a different version
+     * @throws IOException if the stream could not be read, or is malformed
+     */
+    static @Nullable BinaryDescriptor read(@NotNull InputStream stream) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a Zapper descriptor");
+            // written by a newer plugin, so leave it to the text files
+            if (in.readUnsignedByte() != VERSION)
+                return null;
+
+            String[] strings = new String[readCount(in)];
+            for (int i = 0; i < strings.length; i++)
+                strings[i] = in.readUTF();
+
+            Map<String, Repository> repositoriesByUrl = new HashMap<>();
+            int dependencyCount = readCount(in);
+            List<Dependency> dependencies = new ArrayList<>(dependencyCount);
+            Map<Dependency, Repository> origins = new HashMap<>();
+            for (int i = 0; i < dependencyCount; i++) {
+                String group = string(in, strings);
+                String artifact = string(in, strings);
+                String version = string(in, strings);
+                String classifier = optionalString(in, strings);
+                long size = readVarLong(in) - 1;
+                byte[] sha256 = new byte[in.readUnsignedByte()];
+                in.readFully(sha256);
+                String origin = optionalString(in, strings);
+                Dependency dependency = new Dependency(
+                        group, artifact, version, classifier, size,
+                        sha256.length == 0 ? null : Checksums.toHex(sha256)
+                );
+                dependencies.add(dependency);
+                if (origin != null)
+                    origins.put(dependency, repositoriesByUrl.computeIfAbsent(origin, Repository::maven));
+            }
+
+            int repositoryCount = readCount(in);
+            List<Repository> repositories = new ArrayList<>(repositoryCount);
+            for (int i = 0; i < repositoryCount; i++) {
+                String url = string(in, strings);
+                int flags = in.readUnsignedByte();
+                repositories.add((flags & PRE_RELOCATED) != 0 ? Repository.preRelocated(url) : Repository.maven(url));
+            }
+
+            int relocationCount = readCount(in);
+            List<Relocation> relocations = new ArrayList<>(relocationCount);
+            for (int i = 0; i < relocationCount; i++)
+                relocations.add(new Relocation(string(in, strings), string(in, strings)));
+
+            int routeCount = readCount(in);
+            Map<String, Repository> routes = new LinkedHashMap<>();
+            for (int i = 0; i < routeCount; i++)
+                routes.put(string(in, strings), Repository.maven(string(in, strings)));
+
+            int packageCount = readCount(in);
+            Map<String, List<Dependency>> lazyPackages = new LinkedHashMap<>();
+            for (int i = 0; i < packageCount; i++) {
+                String packageName = string(in, strings);
+                lazyPackages.computeIfAbsent(packageName, k -> new ArrayList<>(1))
+                        .add(dependency(in, dependencies));
+            }
+
+            int backgroundCount = readCount(in);
+            List<Dependency> background = new ArrayList<>(backgroundCount);
+            for (int i = 0; i < backgroundCount; i++)
+                background.add(dependency(in, dependencies));
+
+            int propertyCount = readCount(in);
+            Properties config = new Properties();
+            for (int i = 0; i < propertyCount; i++)
+                config.setProperty(string(in, strings), string(in, strings));
+
+            int relocatedJarCount = readCount(in);
+            List<Dependency> relocatedJars = new ArrayList<>(relocatedJarCount);
+            for (int i = 0; i < relocatedJarCount; i++) {
+                String group = string(in, strings);
+                String artifact = string(in, strings);
+                String version = string(in, strings);
+                String classifier = string(in, strings);
+                long size = readVarLong(in);
+                byte[] sha256 = new byte[in.readUnsignedByte()];
+                in.readFully(sha256);
+                relocatedJars.add(new Dependency(group, artifact, version, classifier, size, Checksums.toHex(sha256)));
+            }
+
+            ReachableClasses reachableClasses = null;
+            int packageCountPlusOne = readCount(in);
+            if (packageCountPlusOne > 0) {
+                List<String> classes = new ArrayList<>();
+                for (int i = 0; i < packageCountPlusOne - 1; i++) {
+                    String packageName = string(in, strings);
+                    // classes in the default package are listed under an empty package
+                    String prefix = packageName.isEmpty() ? "" : packageName + '/';
+                    int classCount = readCount(in);
+                    for (int j = 0; j < classCount; j++)
+                        classes.add(prefix + string(in, strings));
+                }
+                reachableClasses = new ReachableClasses(classes);
+            }
+
+            return new BinaryDescriptor(
+                    dependencies,
+                    repositories,
+                    relocations,
+                    origins,
+                    routes.isEmpty() ? Collections.emptyMap() : routes,
+                    lazyPackages.isEmpty() ? Collections.emptyMap() : lazyPackages,
+                    background,
+                    config,
+                    relocatedJars,
+                    reachableClasses
+            );
+        }
+    }
+
+    private static @NotNull String string(@NotNull DataInputStream in, @NotNull String[] strings) throws IOException {
+        int index = readVarInt(in);
+        if (index >= strings.length)
+            throw new IOException("String index out of bounds: " + index);
+        return strings[index];
+    }
+
+    private static @Nullable String optionalString(@NotNull DataInputStream in, @NotNull String[] strings) throws IOException {
+        int index = readVarInt(in);
+        if (index > strings.length)
+            throw new IOException("String index out of bounds: " + (index - 1));
+        return index == 0 ? null : strings[index - 1];
+    }
+
+    private static @NotNull Dependency dependency(@NotNull DataInputStream in, @NotNull List<Dependency> dependencies) throws IOException {
+        int index = readVarInt(in);
+        if (index >= dependencies.size())
+            throw new IOException("Dependency index out of bounds: " + index);
+        return dependencies.get(index);
+    }
+
+    /**
+     * Reads the number of entries in a section, which is bounded so that a
+     * malformed file cannot allocate arbitrarily large arrays
+     */
+    private static int readCount(@NotNull DataInputStream in) throws IOException {
+        int count = readVarInt(in);
+        if (count > 1 << 20)
+            throw new IOException("Too many entries: " + count);
+        return count;
+    }
+
+    private static int readVarInt(@NotNull DataInputStream in) throws IOException {
+        long value = readVarLong(in);
+        if (value > Integer.MAX_VALUE)
+            throw new IOException("Number too large: " + value);
+        return (int) value;
+    }
+
+    private static long readVarLong(@NotNull DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 63; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed number");
+    }
+}
@@ -27,13 +27,29 @@ import org.apache.commons.lang.StringUtils;
 import org.jetbrains.annotations.CheckReturnValue;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import revxrsal.zapper.download.PartFile;
+import revxrsal.zapper.relocation.Relocation;
+import revxrsal.zapper.relocation.Relocator;
 import revxrsal.zapper.repository.Repository;
+import revxrsal.zapper.transport.HttpStatusException;
+import revxrsal.zapper.transport.Transport;
+import revxrsal.zapper.util.Checksums;
 
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.URL;
-import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -43,20 +59,47 @@ import java.util.Objects;
 public final class Dependency {
 
     private static final String MAVEN_PATH = "%s/%s/%s/%s-%s%s.jar";
+    private static final int HTTP_PARTIAL_CONTENT = 206;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
 
     private final String groupId;
     private final String artifactId;
     private final String version;
     private final String mavenPath;
+    private final long size;
+    private final @Nullable String sha256;
 
     public Dependency(@NotNull String groupId, @NotNull String artifactId, @NotNull String version) {
         this(groupId, artifactId, version, null);
     }
 
     public Dependency(@NotNull String groupId, @NotNull String artifactId, @NotNull String version, @Nullable String classifier) {
+        this(groupId, artifactId, version, classifier, -1);
+    }
+
+    /**
+     * Creates a new dependency with a known artifact size
+     *
+     * @param size The size of the artifact in bytes, or -1 if unknown. This is
+     *             only used as a hint for scheduling downloads
+     */
+    public Dependency(@NotNull String groupId, @NotNull String artifactId, @NotNull String version, @Nullable String classifier, long size) {
+        this(groupId, artifactId, version, classifier, size, null);
+    }
+
+    /**
+     * Creates a new dependency with a known artifact size and checksum. Downloads
+     * that do not match the given size or checksum are rejected.
+     *
+     * @param size   The size of the artifact in bytes, or -1 if unknown
+     * @param sha256 The lowercase hex SHA-256 of the artifact, or null if unknown
+     */
+    public Dependency(@NotNull String groupId, @NotNull String artifactId, @NotNull String version, @Nullable String classifier, long size, @Nullable String sha256) {
         this.groupId = groupId;
         this.artifactId = artifactId;
         this.version = version;
+        this.size = size;
+        this.sha256 = sha256;
         mavenPath = String.format(MAVEN_PATH,
                 this.groupId.replace('.', '/'),
                 this.artifactId,
@@ -84,28 +127,215 @@ public final class Dependency {
 
     @CheckReturnValue
     public @NotNull DependencyDownloadResult download(@NotNull File file, @NotNull Repository repository) {
+        return download(file, repository, Transport.urlConnection(), null);
+    }
+
+    /**
+     * Downloads this dependency from the given repository into the given file.
+     * <p>
+     * The download is written into a {@code .part} file first, and moved to
+     * the given file once it is complete. If a previous download was interrupted,
+     * it is resumed with a {@code Range} request, as long as the server can
+     * confirm (through {@code If-Range}) that the artifact has not changed, or
+     * the checksum of this dependency is known.
+     * <p>
+     * If the size or checksum of this dependency is known, the download is
+     * verified while it is being streamed, and rejected if it does not match.
+     * In that case, the downloaded bytes are deleted.
+     *
+     * @param file       The file to download into
+     * @param repository The repository to download from
+     * @param transport  The transport to send requests with
+     * @param listener   An optional listener to report progress to
+     * @return The download result
+     */
+    @CheckReturnValue
+    public @NotNull DependencyDownloadResult download(
+            @NotNull File file,
+            @NotNull Repository repository,
+            @NotNull Transport transport,
+            @Nullable LoadListener listener
+    ) {
+        PartFile part = new PartFile(file);
         try {
-            if (!file.exists()) {
-                file.getParentFile().mkdirs();
-                file.createNewFile();
-            }
+            file.getParentFile().mkdirs();
             URL url = repository.resolve(this);
-            try (InputStream depIn = url.openStream()) {
-                try (OutputStream outStream = Files.newOutputStream(file.toPath())) {
-                    byte[] buffer = new byte[8 * 1024];
-                    int bytesRead;
-                    while ((bytesRead = depIn.read(buffer)) != -1) {
-                        outStream.write(buffer, 0, bytesRead);
+            long offset = part.length();
+            String validator = part.getValidator();
+            // we can only resume if we can tell that the artifact did not change
+            if (validator == null && sha256 == null || size >= 0 && offset >= size)
+                offset = 0;
+            Transport.Response response;
+            try {
+                response = transport.get(url, rangeHeaders(offset, validator));
+            } catch (HttpStatusException e) {
+                if (offset == 0 || e.getStatusCode() != HTTP_RANGE_NOT_SATISFIABLE)
+                    throw e;
+                offset = 0;
+                response = transport.get(url, Collections.emptyMap());
+            }
+            long written, expected;
+            MessageDigest digest = sha256 == null ? null : Checksums.sha256();
+            try (Transport.Response r = response) {
+                if (offset > 0 && !resumes(r, offset))
+                    offset = 0;
+                if (offset == 0)
+                    part.setValidator(validatorOf(r));
+                expected = size >= 0 ? size : r.contentLength() < 0 ? -1 : offset + r.contentLength();
+                InputStream depIn = r.body();
+                try (RandomAccessFile outFile = new RandomAccessFile(part.getFile(), "rw")) {
+                    if (digest != null && offset > 0)
+                        readInto(outFile, offset, digest);
+                    // not pre-allocated, so that the length of the part is always what was downloaded
+                    outFile.seek(offset);
+                    written = offset;
+                    try {
+                        byte[] buffer = new byte[8 * 1024];
+                        int bytesRead;
+                        while ((bytesRead = depIn.read(buffer)) != -1) {
+                            if (digest != null)
+                                digest.update(buffer, 0, bytesRead);
+                            outFile.write(buffer, 0, bytesRead);
+                            written += bytesRead;
+                            if (listener != null)
+                                listener.onProgress(new LoadProgress(this, LoadProgress.Phase.DOWNLOADING, written, expected, -1));
+                        }
+                    } finally {
+                        // drop what is left of a download that was started over
+                        outFile.setLength(written);
                     }
                 }
             }
+            if (expected >= 0 && written < expected)
+                throw new EOFException("Connection closed after " + written + " of " + expected + " bytes of " + this);
+            try {
+                verify(written, expected, digest);
+            } catch (IOException e) {
+                part.delete();
+                throw e;
+            }
+            part.publish();
+            return DependencyDownloadResult.success();
+        } catch (IOException e) {
+            // keep what we have downloaded so far, so that it can be resumed
+            return DependencyDownloadResult.failure(e);
+        } catch (Throwable t) {
+            part.delete();
+            return DependencyDownloadResult.failure(t);
+        }
+    }
+
+    /**
+     * Downloads this dependency from the given repository and relocates it while
+     * it is being downloaded, so that only the relocated jar is written to the
+     * disk.
+     * <p>
+     * Unlike {@link #download(File, Repository, Transport, LoadListener)},
+     * interrupted downloads are not resumed, as the relocated output cannot be
+     * appended to.
+     *
+     * @param file        The file to write the relocated jar to
+     * @param repository  The repository to download from
+     * @param transport   The transport to send requests with
+     * @param listener    An optional listener to report progress to
+     * @param relocations The relocations to apply
+     * @param original    An optional file to also write the original jar to, so
+     *                    that it can be relocated again if the rules change
+     * @return The download result
+     */
+    @CheckReturnValue
+    public @NotNull DependencyDownloadResult downloadRelocated(
+            @NotNull File file,
+            @NotNull Repository repository,
+            @NotNull Transport transport,
+            @Nullable LoadListener listener,
+            @NotNull List<Relocation> relocations,
+            @Nullable File original
+    ) {
+        PartFile part = new PartFile(file);
+        PartFile originalPart = original == null ? null : new PartFile(original);
+        try {
+            file.getParentFile().mkdirs();
+            URL url = repository.resolve(this);
+            MessageDigest digest = sha256 == null ? null : Checksums.sha256();
+            long written, expected;
+            try (Transport.Response response = transport.get(url, Collections.emptyMap());
+                 OutputStream copy = originalPart == null ? null : new BufferedOutputStream(new FileOutputStream(originalPart.getFile()))) {
+                expected = size >= 0 ? size : response.contentLength();
+                MonitoredInputStream in = new MonitoredInputStream(response.body(), digest, listener, expected, copy);
+                Relocator.relocate(in, part.getFile(), relocations);
+                // the central directory is not read by the relocator, but is part of the checksum
+                in.drain();
+                written = in.read;
+            }
+            if (expected >= 0 && written < expected)
+                throw new EOFException("Connection closed after " + written + " of " + expected + " bytes of " + this);
+            verify(written, expected, digest);
+            part.publish();
+            if (originalPart != null)
+                originalPart.publish();
             return DependencyDownloadResult.success();
         } catch (Throwable t) {
-            file.delete();
+            part.delete();
+            if (originalPart != null)
+                originalPart.delete();
             return DependencyDownloadResult.failure(t);
         }
     }
 
+    private static @NotNull Map<String, String> rangeHeaders(long offset, @Nullable String validator) {
+        if (offset == 0)
+            return Collections.emptyMap();
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Range", "bytes=" + offset + "-");
+        if (validator != null)
+            headers.put("If-Range", validator);
+        return headers;
+    }
+
+    /**
+     * Tests whether the server responded with the remainder of the file
+     * starting at the given offset. If it did not, the artifact may have
+     * changed, and the server sent all of it instead.
+     */
+    private static boolean resumes(@NotNull Transport.Response response, long offset) {
+        if (response.statusCode() != HTTP_PARTIAL_CONTENT)
+            return false;
+        String range = response.header("Content-Range");
+        return range != null && range.trim().startsWith("bytes " + offset + "-");
+    }
+
+    private static @Nullable String validatorOf(@NotNull Transport.Response response) {
+        String etag = response.header("ETag");
+        // weak validators cannot be used in If-Range
+        if (etag != null && !etag.startsWith("W/"))
+            return etag;
+        return response.header("Last-Modified");
+    }
+
+    private static void readInto(@NotNull RandomAccessFile file, long length, @NotNull MessageDigest digest) throws IOException {
+        file.seek(0);
+        byte[] buffer = new byte[8 * 1024];
+        long remaining = length;
+        while (remaining > 0) {
+            int read = file.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read == -1)
+                throw new IOException("Partial download is shorter than expected");
+            digest.update(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+    private void verify(long written, long expected, @Nullable MessageDigest digest) throws IOException {
+        if (expected >= 0 && written != expected)
+            throw new ArtifactIntegrityException("Size mismatch for " + this + ": expected " + expected + " bytes, got " + written + " bytes");
+        if (digest != null) {
+            String actual = Checksums.toHex(digest.digest());
+            if (!actual.equalsIgnoreCase(sha256))
+                throw new ArtifactIntegrityException("Checksum mismatch for " + this + ": expected SHA-256 " + sha256 + ", got " + actual);
+        }
+    }
+
     public String getGroupId() {
         return this.groupId;
     }
@@ -121,4 +351,94 @@ public final class Dependency {
     public String getMavenPath() {
         return this.mavenPath;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the expected size of the artifact in bytes
+     *
+     * @return The size, or -1 if unknown
+     */
+    public long getSize() {
+        return this.size;
+    }
+
+    /**
+     * Returns the expected SHA-256 checksum of the artifact
+     *
+     * @return The lowercase hex checksum, or null if unknown
+     */
+    public @Nullable String getSha256() {
+        return this.sha256;
+    }
+
+    @Override
+    public String toString() {
+        return groupId + ':' + artifactId + ':' + version;
+    }
+
+    /**
+     * An input stream that hashes and counts the bytes read through it,
+     * reports them to a progress listener, and optionally copies them
+     */
+    private final class MonitoredInputStream extends FilterInputStream {
+
+        private final @Nullable MessageDigest digest;
+        private final @Nullable LoadListener listener;
+        private final long expected;
+        private final @Nullable OutputStream copy;
+        private long read;
+
+        MonitoredInputStream(
+                @NotNull InputStream in,
+                @Nullable MessageDigest digest,
+                @Nullable LoadListener listener,
+                long expected,
+                @Nullable OutputStream copy
+        ) {
+            super(in);
+            this.digest = digest;
+            this.listener = listener;
+            this.expected = expected;
+            this.copy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(@NotNull byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                if (digest != null)
+                    digest.update(b, off, n);
+                if (copy != null)
+                    copy.write(b, off, n);
+                read += n;
+                if (listener != null)
+                    listener.onProgress(new LoadProgress(Dependency.this, LoadProgress.Phase.DOWNLOADING, read, expected, -1));
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped bytes still have to be hashed
+            byte[] buffer = new byte[(int) Math.min(n, 8 * 1024)];
+            int r = read(buffer, 0, buffer.length);
+            return Math.max(r, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        void drain() throws IOException {
+            byte[] buffer = new byte[8 * 1024];
+            //noinspection StatementWithEmptyBody
+            while (read(buffer, 0, buffer.length) != -1) ;
+        }
+    }
+}
@@ -24,6 +24,7 @@
 package revxrsal.zapper;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * An exception thrown when a dependency fails to download.
@@ -37,4 +38,8 @@ public final class DependencyDownloadException extends RuntimeException {
     public DependencyDownloadException(@NotNull Dependency dependency, @NotNull String e) {
         super("Error downloading dependency " + dependency.getGroupId() + '.' + dependency.getArtifactId() + " v" + dependency.getVersion() + ": " + e);
     }
+
+    public DependencyDownloadException(@NotNull Dependency dependency, @NotNull String e, @Nullable Throwable cause) {
+        super("Error downloading dependency " + dependency.getGroupId() + '.' + dependency.getArtifactId() + " v" + dependency.getVersion() + ": " + e, cause);
+    }
 }
@@ -26,23 +26,62 @@ package revxrsal.zapper;
 import org.bukkit.Bukkit;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import revxrsal.zapper.classloader.LazyClassPath;
 import revxrsal.zapper.classloader.URLClassLoaderWrapper;
+import revxrsal.zapper.download.ArtifactStore;
+import revxrsal.zapper.download.DownloadCoordinator;
+import revxrsal.zapper.download.DownloadExecutors;
+import revxrsal.zapper.download.HedgedDownloader;
+import revxrsal.zapper.download.OfflineBundle;
+import revxrsal.zapper.download.ParallelDownloader;
+import revxrsal.zapper.download.PartFile;
+import revxrsal.zapper.download.RetryPolicy;
+import revxrsal.zapper.metrics.FlightRecorderEvents;
+import revxrsal.zapper.metrics.LoadMetrics;
+import revxrsal.zapper.metrics.MetricsCollector;
+import revxrsal.zapper.relocation.ParallelRelocator;
+import revxrsal.zapper.relocation.ReachableClasses;
+import revxrsal.zapper.relocation.RelocationCache;
 import revxrsal.zapper.relocation.Relocation;
 import revxrsal.zapper.relocation.Relocator;
 import revxrsal.zapper.repository.Repository;
+import revxrsal.zapper.repository.RepositoryCircuitBreaker;
+import revxrsal.zapper.repository.RepositoryRouter;
+import revxrsal.zapper.repository.RepositoryScorer;
+import revxrsal.zapper.transport.Transport;
+import revxrsal.zapper.util.Checksums;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
+import java.util.zip.ZipException;
 
 public final class DependencyManager implements DependencyScope {
 
     public static boolean FAILED_TO_DOWNLOAD = false;
     private static final Pattern COLON = Pattern.compile(":");
+    private static final String LIBRARY_ARCHIVE_PREFIX = "zapper-libraries-";
+    private static final String BACKGROUND_TIER = "background";
 
     private final File directory;
     private final URLClassLoaderWrapper loaderWrapper;
@@ -50,6 +89,33 @@ public final class DependencyManager implements DependencyScope {
     private final List<Dependency> dependencies = new ArrayList<>();
     private final Set<Repository> repositories = new LinkedHashSet<>();
     private final List<Relocation> relocations = new ArrayList<>();
+    private @Nullable ReachableClasses reachable;
+    private final Map<String, List<Dependency>> lazyPackages = new LinkedHashMap<>();
+    private final Set<Dependency> background = new HashSet<>();
+    private final List<File> bundles = new ArrayList<>();
+    private final RepositoryRouter router = new RepositoryRouter();
+    private final RepositoryRouter preRelocatedRouter = new RepositoryRouter();
+    private final Map<String, Dependency> relocatedJars = new HashMap<>();
+    private final RepositoryCircuitBreaker breaker = new RepositoryCircuitBreaker();
+    private @Nullable RepositoryScorer scorer;
+    private boolean missesLoaded;
+
+    private @Nullable Executor executor;
+    private int parallelism = DownloadExecutors.defaultParallelism();
+    private int relocationParallelism = ParallelRelocator.defaultParallelism();
+    private @Nullable LoadListener loadListener;
+    private LoadMetrics metrics = LoadMetrics.NONE;
+    private double hedgePercentile = 0.95;
+    private @Nullable Transport transport;
+    private @Nullable Transport defaultTransport;
+    private long connectTimeout = Transport.DEFAULT_CONNECT_TIMEOUT;
+    private long readTimeout = Transport.DEFAULT_READ_TIMEOUT;
+    private RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+    private boolean streamRelocation = true;
+    private boolean keepOriginals = true;
+    private @Nullable ArtifactStore store;
+    private @Nullable DownloadCoordinator coordinator;
+    private boolean mergeLibraries;
 
     public DependencyManager(@NotNull File directory, @NotNull URLClassLoaderWrapper loaderWrapper) {
         this.directory = directory;
@@ -57,44 +123,119 @@ public final class DependencyManager implements DependencyScope {
         this.repositories.add(Repository.mavenCentral());
     }
 
+    /**
+     * Loads all dependencies on the calling thread, and attaches the
+     * class path that loads dependencies on demand, if any
+     */
     public void load() {
+        boolean attachLazily = attachesLazily();
+        load(eagerDependencies(attachLazily, null), null);
+        if (attachLazily)
+            attachLazyClassPath();
+    }
+
+    /**
+     * Downloads the original jars of the dependencies that are not loaded on
+     * demand into the artifact store, unless they are there already. Nothing
+     * is relocated, added to the class loader, or linked into the libraries
+     * folder.
+     * <p>
+     * This is used to download the dependencies of a plugin before the plugin
+     * itself is loaded, so that it only has to link, relocate and load them.
+     *
+     * @throws IllegalStateException if there is no artifact store
+     * @see #store(ArtifactStore)
+     */
+    public void prefetch() {
+        ArtifactStore store = this.store;
+        if (store == null)
+            throw new IllegalStateException("Dependencies can only be prefetched into an artifact store");
+        List<Dependency> missing = new ArrayList<>();
+        for (Dependency dep : eagerDependencies(!lazyPackages.isEmpty(), null))
+            if (!store.contains(dep))
+                missing.add(dep);
+        downloadAll(missing, null, tracker(), true);
+    }
+
+    /**
+     * Loads the dependencies that are needed on startup on the calling thread,
+     * and the dependencies marked with {@link #background(Dependency)} on a
+     * background thread.
+     * <p>
+     * Classes from background dependencies must not be used before the
+     * returned future has completed.
+     *
+     * @return A future that completes once the background dependencies have
+     * been loaded, or completes exceptionally if they could not be loaded
+     */
+    public @NotNull CompletableFuture<Void> loadAsync() {
+        boolean attachLazily = attachesLazily();
+        List<Dependency> startup = eagerDependencies(attachLazily, false);
+        List<Dependency> later = eagerDependencies(attachLazily, true);
+        load(startup, null);
+        if (attachLazily)
+            attachLazyClassPath();
+        if (later.isEmpty())
+            return CompletableFuture.completedFuture(null);
+        return CompletableFuture.runAsync(() -> load(later, BACKGROUND_TIER), runnable -> {
+            Thread thread = new Thread(runnable, "zapper-background-load");
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    private boolean attachesLazily() {
+        return !lazyPackages.isEmpty() && supportsLazyLoading();
+    }
+
+    /**
+     * Returns the dependencies that are not loaded on demand, in declaration
+     * order. If a tier is given, only dependencies in the background tier
+     * (for true), or not in it (for false) are returned.
+     */
+    private @NotNull List<Dependency> eagerDependencies(boolean attachLazily, @Nullable Boolean background) {
+        Set<Dependency> lazy = new LinkedHashSet<>();
+        lazyPackages.values().forEach(lazy::addAll);
+        List<Dependency> eager = new ArrayList<>(dependencies.size());
+        for (Dependency dep : dependencies)
+            if (!attachLazily || !lazy.contains(dep))
+                eager.add(dep);
+        if (!attachLazily)
+            for (Dependency dep : lazy)
+                if (!eager.contains(dep))
+                    eager.add(dep);
+        if (background != null)
+            eager.removeIf(dep -> this.background.contains(dep) != background);
+        return eager;
+    }
+
+    private void load(@NotNull List<Dependency> dependencies, @Nullable String tier) {
         try {
-            for (Dependency dep : dependencies) {
-                File file = new File(directory, String.format("%s.%s-%s.jar", dep.getGroupId(), dep.getArtifactId(), dep.getVersion()));
-                File relocated = new File(directory, String.format("%s.%s-%s-relocated.jar", dep.getGroupId(),
-                        dep.getArtifactId(), dep.getVersion()));
-                if (hasRelocations() && relocated.exists()) {
-                    loaderWrapper.addURL(relocated.toURI().toURL());
-                    continue;
-                }
-                if (!file.exists()) {
-                    boolean succeeded = false;
-                    List<String> failedRepos = null;
-                    for (Repository repository : repositories) {
-                        DependencyDownloadResult result = dep.download(file, repository);
-                        if (result.wasSuccessful()) {
-                            succeeded = true;
-                            break;
-                        } else
-                            (failedRepos == null ? failedRepos = new ArrayList<>() : failedRepos).add(repository.toString());
-                    }
-                    if (failedRepos != null && !succeeded) {
-                        throw new DependencyDownloadException(dep, "Could not find dependency in any of the following repositories: " + String.join("\n", failedRepos));
-                    }
-                }
-                if (hasRelocations() && !relocated.exists()) {
-                    Relocator.relocate(file, relocated, relocations);
-                    file.delete(); // no longer need the original dependency
-                }
-                if (hasRelocations())
-                    loaderWrapper.addURL(relocated.toURI().toURL());
-                else
-                    loaderWrapper.addURL(file.toURI().toURL());
+            String configHash = StartupManifest.hash(dependencies, relocations, mergeLibraries, reachable);
+            StartupManifest manifest = StartupManifest.read(directory, tier);
+            List<URL> classpath = manifest == null ? null : manifest.validate(directory, configHash);
+            ProgressTracker tracker = tracker();
+            metrics.cacheLookup(LoadMetrics.Cache.STARTUP_MANIFEST, classpath != null);
+            if (classpath != null) {
+                attach(classpath);
+            } else {
+                if (manifest != null)
+                    StartupManifest.delete(directory, tier);
+                List<File> files = install(dependencies, tracker);
+                if (mergeLibraries)
+                    files = Collections.singletonList(merge(files, tier));
+                attach(toURLs(files));
+                writeManifest(tier, configHash, files);
             }
+            for (Dependency dep : dependencies)
+                tracker.loaded(dep);
         } catch (DependencyDownloadException e) {
-            if (e.getCause() instanceof UnknownHostException) {
-                Bukkit.getLogger().info("[Zapper] It appears you do not have an internet connection. Extract the zip in https://bit.ly/3cd3wGe at /Zapper/libraries.");
+            if (isOffline(e)) {
+                Bukkit.getLogger().info("[Zapper] It appears you do not have an internet connection. Build an offline bundle with the zapperBundle Gradle task, and put it in " + directory + ".");
                 FAILED_TO_DOWNLOAD = true;
+                // the future of loadAsync() must not tell that background classes can be used
+                if (BACKGROUND_TIER.equals(tier))
+                    throw e;
             } else throw e;
         } catch (RuntimeException d) {
             throw d;
@@ -103,6 +244,463 @@ public final class DependencyManager implements DependencyScope {
         }
     }
 
+    /**
+     * Tests whether the given error was caused by not being able to resolve
+     * the host of a repository, however deep in the causes it is
+     */
+    private static boolean isOffline(@NotNull Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof UnknownHostException)
+                return true;
+            for (Throwable suppressed : cause.getSuppressed())
+                if (isOffline(suppressed))
+                    return true;
+        }
+        return false;
+    }
+
+    /**
+     * Attaches the class path that loads dependencies on demand. This is
+     * only asked for classes that are not in any of the jars added before it.
+     */
+    private void attachLazyClassPath() {
+        loaderWrapper.addURL(new LazyClassPath(lazyPackages, deps -> {
+            ProgressTracker tracker = tracker();
+            attach(toURLs(install(deps, tracker)));
+            for (Dependency dep : deps)
+                tracker.loaded(dep);
+        }).toURL());
+    }
+
+    private void attach(@NotNull List<URL> urls) {
+        FlightRecorderEvents.Span span = FlightRecorderEvents.attach(urls.size());
+        long start = System.nanoTime();
+        loaderWrapper.addURLs(urls);
+        metrics.attached(urls.size(), System.nanoTime() - start);
+        span.commit();
+    }
+
+    private @NotNull ProgressTracker tracker() {
+        return new ProgressTracker(loadListener);
+    }
+
+    private boolean supportsLazyLoading() {
+        ClassLoader loader = loaderWrapper.getClassLoader();
+        if (loader != null && LazyClassPath.isSupported(loader))
+            return true;
+        Bukkit.getLogger().warning("[Zapper] The plugin class loader cannot load dependencies on demand. All dependencies will be loaded on startup.");
+        return false;
+    }
+
+    /**
+     * Downloads and relocates the given dependencies where needed, and returns
+     * the files to add to the classpath, in the same order
+     */
+    private @NotNull List<File> install(@NotNull List<Dependency> dependencies, @NotNull ProgressTracker tracker) {
+        RelocationCache cache = hasRelocations() || reachable != null ? new RelocationCache(directory, relocations, reachable) : null;
+        Map<Dependency, File> relocated = new HashMap<>();
+        List<Dependency> missing = new ArrayList<>();
+        for (Dependency dep : dependencies) {
+            if (cache != null && (dep.getSha256() != null || hasOriginal(dep))) {
+                File file = relocatedFile(cache, dep, relocated);
+                boolean hit = file.exists();
+                metrics.cacheLookup(LoadMetrics.Cache.RELOCATED, hit);
+                if (hit)
+                    continue;
+            }
+            boolean hasOriginal = hasOriginal(dep);
+            metrics.cacheLookup(LoadMetrics.Cache.ORIGINAL, hasOriginal);
+            if (!hasOriginal)
+                missing.add(dep);
+        }
+        downloadAll(missing, cache, tracker, false);
+        if (cache != null)
+            relocateAll(dependencies, cache, relocated, tracker);
+
+        // the classpath is always appended in declaration order, regardless
+        // of the order in which downloads have finished
+        List<File> files = new ArrayList<>(dependencies.size());
+        for (Dependency dep : dependencies)
+            files.add(cache != null ? relocated.get(dep) : originalFile(dep));
+        return files;
+    }
+
+    /**
+     * Merges the given jars into one archive, unless an archive of the same
+     * jars exists already. Archives of other jars in the same tier are deleted.
+     */
+    private @NotNull File merge(@NotNull List<File> files, @Nullable String tier) throws IOException {
+        MessageDigest digest = Checksums.sha256();
+        for (File file : files)
+            digest.update((file.getName() + ' ' + file.length() + '\n').getBytes(StandardCharsets.UTF_8));
+        String prefix = tier == null ? LIBRARY_ARCHIVE_PREFIX : LIBRARY_ARCHIVE_PREFIX + tier + "-";
+        String name = prefix + Checksums.toHex(digest.digest()).substring(0, 16) + ".jar";
+        File archive = new File(directory, name);
+        if (!archive.exists()) {
+            PartFile part = new PartFile(archive);
+            try {
+                Relocator.merge(files, part.getFile());
+                part.publish();
+            } finally {
+                part.delete();
+            }
+        }
+        File[] stale = directory.listFiles((dir, n) -> n.startsWith(prefix) && n.length() == name.length() && !n.equals(name));
+        if (stale != null)
+            for (File file : stale)
+                file.delete();
+        return archive;
+    }
+
+    private static @NotNull List<URL> toURLs(@NotNull List<File> files) {
+        List<URL> urls = new ArrayList<>(files.size());
+        try {
+            for (File file : files)
+                urls.add(file.toURI().toURL());
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+        return urls;
+    }
+
+    private void writeManifest(@Nullable String tier, @NotNull String configHash, @NotNull List<File> classpath) {
+        try {
+            StartupManifest.write(directory, tier, configHash, classpath);
+        } catch (IOException e) {
+            // not fatal, the next boot will simply take the slow path
+            Bukkit.getLogger().warning("[Zapper] Failed to write the startup manifest: " + e);
+        }
+    }
+
+    private void downloadAll(
+            @NotNull List<Dependency> missing,
+            @Nullable RelocationCache cache,
+            @NotNull ProgressTracker tracker,
+            boolean intoStore
+    ) {
+        if (missing.isEmpty())
+            return;
+        Executor executor = this.executor;
+        ExecutorService owned = null;
+        if (executor == null)
+            executor = coordinator != null ? coordinator.executor() : (owned = DownloadExecutors.create(parallelism));
+        ExecutorService requests = DownloadExecutors.createUnbounded();
+        RepositoryScorer scorer = scorer();
+        loadMisses();
+        Transport transport = transport();
+        HedgedDownloader downloader = new HedgedDownloader(scorer, router, transport, requests, hedgePercentile, metrics, retryPolicy, breaker);
+        HedgedDownloader mirrorDownloader = new HedgedDownloader(scorer, preRelocatedRouter, transport, requests, hedgePercentile, metrics, retryPolicy, breaker);
+        List<Repository> sources = new ArrayList<>(repositories.size());
+        List<Repository> mirrors = new ArrayList<>(0);
+        for (Repository repository : repositories)
+            (repository.isPreRelocated() ? mirrors : sources).add(repository);
+        List<OfflineBundle> bundles = openBundles();
+        try {
+            new ParallelDownloader(executor, parallelism).downloadAll(missing, dep -> {
+                try {
+                    if (intoStore && store != null) {
+                        store.fetch(dep, file -> download(downloader, sources, dep, file, null, tracker));
+                        return;
+                    }
+                    if (importFromBundle(bundles, dep, cache))
+                        return;
+                    if (downloadPreRelocated(mirrorDownloader, mirrors, dep, cache, tracker))
+                        return;
+                    if (coordinator == null) {
+                        obtain(downloader, sources, dep, cache, tracker);
+                        return;
+                    }
+                    // other plugins need the original to be linked to
+                    AtomicBoolean downloaded = new AtomicBoolean();
+                    coordinator.fetch(dep, originalFile(dep), file -> {
+                        downloaded.set(true);
+                        try {
+                            obtain(downloader, sources, dep, cache, tracker);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                    metrics.cacheLookup(LoadMetrics.Cache.COORDINATOR, !downloaded.get());
+                } catch (UncheckedIOException e) {
+                    metrics.dependencyFailed(dep, e.getCause());
+                    throw new DependencyDownloadException(dep, e.getCause());
+                } catch (IOException e) {
+                    metrics.dependencyFailed(dep, e);
+                    throw new DependencyDownloadException(dep, e);
+                } catch (RuntimeException | Error e) {
+                    metrics.dependencyFailed(dep, e);
+                    throw e;
+                }
+            });
+        } finally {
+            requests.shutdown();
+            if (owned != null)
+                owned.shutdown();
+            for (OfflineBundle bundle : bundles) {
+                try {
+                    bundle.close();
+                } catch (IOException ignored) {
+                }
+            }
+            // the background tier and dependencies loaded on demand may
+            // finish downloading at the same time
+            synchronized (router) {
+                try {
+                    scorer.save(directory);
+                    router.saveMisses(directory);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the statistics of the repositories, which are read from the
+     * libraries folder the first time they are needed
+     */
+    private synchronized @NotNull RepositoryScorer scorer() {
+        if (scorer == null)
+            scorer = RepositoryScorer.load(directory);
+        return scorer;
+    }
+
+    /**
+     * Returns the transport to download with. The default transport is created
+     * the first time it is needed, so that every download round reuses its
+     * connections.
+     */
+    private synchronized @NotNull Transport transport() {
+        if (transport != null)
+            return transport;
+        if (defaultTransport == null)
+            defaultTransport = coordinator != null ? coordinator.transport(connectTimeout, readTimeout) : Transport.create(connectTimeout, readTimeout);
+        return defaultTransport;
+    }
+
+    /**
+     * Reads the artifacts that repositories are known not to have from the
+     * libraries folder, the first time they are needed
+     */
+    private synchronized void loadMisses() {
+        if (missesLoaded)
+            return;
+        router.loadMisses(directory);
+        missesLoaded = true;
+    }
+
+    /**
+     * Downloads the given dependency, through the artifact store if there
+     * is one
+     */
+    private void obtain(
+            @NotNull HedgedDownloader downloader,
+            @NotNull List<Repository> sources,
+            @NotNull Dependency dep,
+            @Nullable RelocationCache cache,
+            @NotNull ProgressTracker tracker
+    ) throws IOException {
+        if (store == null) {
+            download(downloader, sources, dep, keepOriginals || coordinator != null ? originalFile(dep) : null, cache, tracker);
+            return;
+        }
+        AtomicBoolean downloaded = new AtomicBoolean();
+        store.obtain(dep, originalFile(dep), file -> {
+            downloaded.set(true);
+            download(downloader, sources, dep, file, cache, tracker);
+        });
+        metrics.cacheLookup(LoadMetrics.Cache.STORE, !downloaded.get());
+    }
+
+    /**
+     * Opens the bundles added with {@link #bundle(File)}, and the bundles in
+     * the libraries folder. Bundles that cannot be read are skipped.
+     */
+    private @NotNull List<OfflineBundle> openBundles() {
+        Set<File> files = new LinkedHashSet<>(bundles);
+        files.addAll(OfflineBundle.find(directory));
+        List<OfflineBundle> opened = new ArrayList<>(files.size());
+        for (File file : files) {
+            if (!file.isFile())
+                continue;
+            try {
+                OfflineBundle bundle = OfflineBundle.open(file);
+                if (bundle != null)
+                    opened.add(bundle);
+                else
+                    Bukkit.getLogger().warning("[Zapper] " + file + " is not a bundle, or was made by an incompatible version of Zapper.");
+            } catch (IOException e) {
+                Bukkit.getLogger().warning("[Zapper] Failed to read the offline bundle " + file + ": " + e);
+            }
+        }
+        return opened;
+    }
+
+    /**
+     * Extracts the given dependency from the first bundle that has it. Relocated
+     * jars are only used if they were relocated with the current rules, which
+     * is the case if they are named the same.
+     *
+     * @return Whether the dependency has been extracted
+     */
+    private boolean importFromBundle(
+            @NotNull List<OfflineBundle> bundles,
+            @NotNull Dependency dep,
+            @Nullable RelocationCache cache
+    ) {
+        for (OfflineBundle bundle : bundles) {
+            OfflineBundle.Entry entry = bundle.entry(dep);
+            if (entry == null)
+                continue;
+            File target = originalFile(dep);
+            if (!entry.getName().equals(target.getName())) {
+                if (cache == null || dep.getSha256() == null)
+                    continue;
+                target = cache.file(dep, dep.getSha256());
+                if (!entry.getName().equals(target.getName()))
+                    continue;
+            } else if (dep.getSha256() != null && !dep.getSha256().equalsIgnoreCase(entry.getSha256())) {
+                continue;
+            }
+            try {
+                bundle.extract(entry, target);
+                metrics.cacheLookup(LoadMetrics.Cache.BUNDLE, true);
+                return true;
+            } catch (IOException e) {
+                Bukkit.getLogger().warning("[Zapper] Failed to extract " + dep + " from the offline bundle: " + e.getMessage());
+            }
+        }
+        if (!bundles.isEmpty())
+            metrics.cacheLookup(LoadMetrics.Cache.BUNDLE, false);
+        return false;
+    }
+
+    /**
+     * Downloads the relocated jar of the given dependency from the
+     * pre-relocated repositories, if any of them has it
+     *
+     * @return Whether the relocated jar has been downloaded
+     */
+    private boolean downloadPreRelocated(
+            @NotNull HedgedDownloader downloader,
+            @NotNull List<Repository> mirrors,
+            @NotNull Dependency dep,
+            @Nullable RelocationCache cache,
+            @NotNull ProgressTracker tracker
+    ) {
+        // the relocated file is named after the checksum of the original, and
+        // mirrors only have jars that were relocated without being shrunk
+        if (mirrors.isEmpty() || cache == null || dep.getSha256() == null || reachable != null)
+            return false;
+        // jars that cannot be verified are relocated from the original instead
+        Dependency relocated = relocatedJars.get(new Dependency(dep.getGroupId(), dep.getArtifactId(), dep.getVersion(), cache.classifier()).getMavenPath());
+        if (relocated == null || relocated.getSha256() == null)
+            return false;
+        try {
+            downloader.download(relocated, cache.file(dep, dep.getSha256()), mirrors, tracker);
+            return true;
+        } catch (DependencyDownloadException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Downloads the given dependency into the given file, or relocates it
+     * while downloading, in which case the file may be null.
+     */
+    private void download(
+            @NotNull HedgedDownloader downloader,
+            @NotNull List<Repository> sources,
+            @NotNull Dependency dep,
+            @Nullable File original,
+            @Nullable RelocationCache cache,
+            @NotNull ProgressTracker tracker
+    ) {
+        // the relocated file is named after the checksum of the original,
+        // so we can only relocate while downloading if we know it upfront.
+        // shrunk jars are always relocated from the disk.
+        if (cache != null && streamRelocation && dep.getSha256() != null && reachable == null) {
+            try {
+                downloader.download(dep, cache.file(dep, dep.getSha256()), sources, tracker, relocations, original);
+                return;
+            } catch (DependencyDownloadException e) {
+                // jars that cannot be read as a stream are relocated from the disk instead
+                if (!(e.getCause() instanceof ZipException))
+                    throw e;
+            }
+        }
+        downloader.download(dep, original == null ? originalFile(dep) : original, sources, tracker);
+    }
+
+    private void relocateAll(
+            @NotNull List<Dependency> dependencies,
+            @NotNull RelocationCache cache,
+            @NotNull Map<Dependency, File> relocated,
+            @NotNull ProgressTracker tracker
+    ) {
+        Map<File, File> jars = new LinkedHashMap<>();
+        for (Dependency dep : dependencies) {
+            File file = relocatedFile(cache, dep, relocated);
+            if (!file.exists()) {
+                File original = originalFile(dep);
+                jars.put(original, file);
+                tracker.relocating(dep, original.length());
+            }
+        }
+        Map<File, Dependency> byOriginal = new HashMap<>();
+        for (Dependency dep : dependencies)
+            byOriginal.put(originalFile(dep), dep);
+        new ParallelRelocator(relocationParallelism).relocateAll(jars, relocations, reachable,
+                (original, nanos) -> metrics.relocated(byOriginal.get(original), nanos));
+        for (Dependency dep : dependencies) {
+            cache.prune(dep, relocated.get(dep));
+            if (!keepOriginals) {
+                originalFile(dep).delete();
+                new File(originalFile(dep).getPath() + Checksums.VERIFIED_SUFFIX).delete();
+            }
+        }
+    }
+
+    /**
+     * Tests whether the original jar of the given dependency has the size and
+     * checksum it was locked with, where these are known. Files that do not
+     * are downloaded again.
+     *
+     * @see Checksums#verify(File, String)
+     */
+    private boolean hasOriginal(@NotNull Dependency dep) {
+        File original = originalFile(dep);
+        if (!original.exists() || dep.getSize() >= 0 && original.length() != dep.getSize())
+            return false;
+        return dep.getSha256() == null || Checksums.verify(original, dep.getSha256());
+    }
+
+    private @NotNull File originalFile(@NotNull Dependency dep) {
+        return new File(directory, String.format("%s.%s-%s.jar", dep.getGroupId(), dep.getArtifactId(), dep.getVersion()));
+    }
+
+    /**
+     * Returns the file the given dependency is relocated into. If the checksum
+     * of the dependency is unknown, this hashes the original jar, which must
+     * exist.
+     */
+    private @NotNull File relocatedFile(
+            @NotNull RelocationCache cache,
+            @NotNull Dependency dep,
+            @NotNull Map<Dependency, File> relocated
+    ) throws UncheckedIOException {
+        File file = relocated.get(dep);
+        if (file == null) {
+            try {
+                String digest = dep.getSha256() != null ? dep.getSha256() : Checksums.sha256(originalFile(dep));
+                file = cache.file(dep, digest);
+                relocated.put(dep, file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return file;
+    }
+
     @Override
     public void dependency(@NotNull Dependency dependency) {
         dependencies.add(dependency);
@@ -121,13 +719,332 @@ public final class DependencyManager implements DependencyScope {
         dependencies.add(new Dependency(groupId, artifactId, version, classifier));
     }
 
+    /**
+     * Loads the given dependency on demand, the first time a class or
+     * resource from the given package is requested, instead of on
+     * {@link #load()}. Only the thread that requested it waits for the
+     * dependency to be downloaded.
+     * <p>
+     * A dependency should be registered for every package it contains.
+     * If the plugin class loader does not support this, the dependency is
+     * loaded on startup instead.
+     *
+     * @param packageName The name of the package, after relocation
+     * @param dependency  The dependency that contains the package
+     */
+    public void lazy(@NotNull String packageName, @NotNull Dependency dependency) {
+        lazyPackages.computeIfAbsent(packageName, k -> new ArrayList<>(1)).add(dependency);
+    }
+
+    /**
+     * Loads the given dependency in the background when using {@link #loadAsync()},
+     * after the dependencies that are needed on startup. With {@link #load()},
+     * this has no effect.
+     * <p>
+     * Dependencies that are loaded on demand are not affected by this.
+     *
+     * @param dependency The dependency to load in the background
+     */
+    public void background(@NotNull Dependency dependency) {
+        background.add(dependency);
+    }
+
     public void relocate(@NotNull Relocation relocation) {
         relocations.add(relocation);
     }
 
+    /**
+     * Shrinks dependencies to the given classes. Every other class is dropped
+     * when dependencies are relocated, which happens even if there are no
+     * relocation rules. Resources are always kept.
+     * <p>
+     * Shrunk jars are never relocated while downloading, nor downloaded from
+     * pre-relocated repositories, as those only have complete jars.
+     *
+     * @param reachable The classes to keep, or null to keep every class
+     * @see ReachableClasses
+     */
+    public void shrink(@Nullable ReachableClasses reachable) {
+        this.reachable = reachable;
+    }
+
+    /**
+     * Adds a repository to download dependencies from. Relocated jars are
+     * downloaded from {@link Repository#isPreRelocated() pre-relocated}
+     * repositories first, before any original jar.
+     *
+     * @param repository The repository
+     */
     public void repository(@NotNull Repository repository) {
         repositories.add(repository);
     }
+
+    /**
+     * Adds the size and SHA-256 of a jar in the pre-relocated repositories,
+     * which is the dependency with the {@link RelocationCache#classifier() classifier}
+     * of the relocation rules. Relocated jars are only downloaded from
+     * pre-relocated repositories if their size and SHA-256 are known, and
+     * they are rejected if they do not match.
+     *
+     * @param relocated The relocated jar, with its size and SHA-256
+     * @see Repository#isPreRelocated()
+     */
+    public void relocatedJar(@NotNull Dependency relocated) {
+        relocatedJars.put(relocated.getMavenPath(), relocated);
+    }
+
+    /**
+     * Pins the given dependency to the given repository, so that it is
+     * downloaded from it directly instead of trying every repository.
+     * Other repositories are only tried if the pinned one fails.
+     *
+     * @param dependency The dependency to pin
+     * @param repository The repository that has the dependency
+     */
+    public void pin(@NotNull Dependency dependency, @NotNull Repository repository) {
+        (repository.isPreRelocated() ? preRelocatedRouter : router).pin(dependency, repository);
+    }
+
+    /**
+     * Routes all dependencies whose group starts with the given prefix to the
+     * given repository, so that it is tried before any other repository.
+     *
+     * @param groupPrefix The group prefix, like {@code org.jetbrains} or {@code org.jetbrains.*}
+     * @param repository  The repository to route to
+     * @see RepositoryRouter#route(String, Repository)
+     */
+    public void route(@NotNull String groupPrefix, @NotNull Repository repository) {
+        (repository.isPreRelocated() ? preRelocatedRouter : router).route(groupPrefix, repository);
+    }
+
+    /**
+     * Sets how long a repository that did not have a dependency is skipped
+     * when downloading that dependency again. Defaults to 24 hours.
+     *
+     * @param ttl  The duration
+     * @param unit The unit of the duration
+     */
+    public void missTtl(long ttl, @NotNull TimeUnit unit) {
+        router.missTtl(ttl, unit);
+        preRelocatedRouter.missTtl(ttl, unit);
+    }
+
+    /**
+     * Sets the executor that dependencies are downloaded on. The executor
+     * is not shut down by this manager.
+     * <p>
+     * By default, a virtual-thread executor is used on Java 21+, and a
+     * fixed thread pool otherwise.
+     *
+     * @param executor The executor to download on
+     */
+    public void executor(@NotNull Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the maximum number of dependencies that are downloaded at
+     * the same time
+     *
+     * @param parallelism The maximum number of concurrent downloads
+     */
+    public void parallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1 (found " + parallelism + ")");
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets whether dependencies should be relocated while they are being
+     * downloaded. This avoids reading the original jar back from the disk, at
+     * the cost of not being able to resume interrupted downloads or split large
+     * jars across relocation threads.
+     * <p>
+     * This only has an effect when there are relocations, and only applies to
+     * dependencies whose checksum is known from the lock file, and that are not
+     * {@link #shrink(ReachableClasses) shrunk}. Enabled by default.
+     *
+     * @param streamRelocation Whether to relocate while downloading
+     */
+    public void streamRelocation(boolean streamRelocation) {
+        this.streamRelocation = streamRelocation;
+    }
+
+    /**
+     * Sets whether original jars should be kept after they are relocated.
+     * Relocated jars are named after the original jar and the relocation rules,
+     * so when the rules change, kept originals are simply relocated again rather
+     * than downloaded again.
+     * <p>
+     * Disabling this saves disk space and writes, at the cost of downloading
+     * everything again after a rule change. Enabled by default.
+     *
+     * @param keepOriginals Whether to keep the original jars
+     */
+    public void keepOriginals(boolean keepOriginals) {
+        this.keepOriginals = keepOriginals;
+    }
+
+    /**
+     * Sets whether dependencies should be merged into a single archive, which
+     * is added to the class loader instead of one jar per dependency. This
+     * saves a file handle and a central directory per dependency, and lets
+     * class lookups probe a single jar.
+     * <p>
+     * The archive is only rebuilt when the dependencies change. Dependencies
+     * that are loaded on demand are not merged. Disabled by default.
+     *
+     * @param mergeLibraries Whether to merge dependencies
+     */
+    public void mergeLibraries(boolean mergeLibraries) {
+        this.mergeLibraries = mergeLibraries;
+    }
+
+    /**
+     * Adds an offline bundle that dependencies are extracted from instead of
+     * being downloaded. Bundles in the libraries folder are always used.
+     * <p>
+     * Bundles are only opened when a dependency is missing, so they cost
+     * nothing once every dependency has been extracted.
+     *
+     * @param bundle The bundle file, which does not need to exist
+     * @see OfflineBundle
+     */
+    public void bundle(@NotNull File bundle) {
+        bundles.add(bundle);
+    }
+
+    /**
+     * Sets the store that artifacts are shared through. Artifacts are downloaded
+     * into the store once, and hard-linked into the libraries folder of every
+     * plugin that uses them.
+     *
+     * @param store The store, or null to download into the libraries folder
+     * @see ArtifactStore#fromSystemProperty()
+     */
+    public void store(@Nullable ArtifactStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Sets the coordinator that downloads are shared with the other plugins
+     * in the JVM through. Artifacts that another plugin is downloading, or
+     * has downloaded, are linked instead of being downloaded again, and the
+     * download executor and connections are shared as well.
+     * <p>
+     * Original jars are always kept until they are relocated when using a
+     * coordinator, so that other plugins can link to them.
+     *
+     * @param coordinator The coordinator, or null to download on our own
+     * @see DownloadCoordinator#shared()
+     */
+    public void coordinator(@Nullable DownloadCoordinator coordinator) {
+        this.coordinator = coordinator;
+        this.defaultTransport = null;
+    }
+
+    /**
+     * Sets the transport that artifacts are requested with. The transport is
+     * shared by all downloads, so that connections to the same host can be
+     * reused.
+     * <p>
+     * By default, {@link Transport#create(long, long)} is used, with the
+     * timeouts set by {@link #timeouts(long, long, TimeUnit)}.
+     *
+     * @param transport The transport
+     */
+    public void transport(@NotNull Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Sets the timeouts of the default transport. These are ignored if a
+     * transport is set with {@link #transport(Transport)}. Defaults to 10
+     * seconds to connect, and 30 seconds to read.
+     *
+     * @param connectTimeout The time to wait for a connection to be established,
+     *                       or 0 to wait forever
+     * @param readTimeout    The time to wait for a response, or for the next bytes
+     *                       of a response, or 0 to wait forever
+     * @param unit           The unit of the timeouts
+     */
+    public void timeouts(long connectTimeout, long readTimeout, @NotNull TimeUnit unit) {
+        if (connectTimeout < 0 || readTimeout < 0)
+            throw new IllegalArgumentException("timeouts cannot be negative");
+        this.connectTimeout = unit.toMillis(connectTimeout);
+        this.readTimeout = unit.toMillis(readTimeout);
+        this.defaultTransport = null;
+    }
+
+    /**
+     * Sets how failed requests are retried, and how long a dependency is
+     * tried for before giving up. Defaults to {@link RetryPolicy#DEFAULT}.
+     *
+     * @param retryPolicy The retry policy
+     * @see RetryPolicy#NONE
+     */
+    public void retryPolicy(@NotNull RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Sets the listener that is notified as every dependency is downloaded,
+     * relocated and loaded. Note that the listener may be invoked from
+     * several threads at once, including the background loading thread.
+     *
+     * @param listener The listener
+     * @see LoadListener#logging(java.util.logging.Logger)
+     */
+    public void loadListener(@NotNull LoadListener listener) {
+        this.loadListener = listener;
+    }
+
+    /**
+     * Sets the metrics that every request, relocation, class loader change
+     * and cache lookup is reported to
+     *
+     * @param metrics The metrics
+     * @see MetricsCollector
+     */
+    public void metrics(@NotNull LoadMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets the latency percentile after which a hedged request is sent to the
+     * next-best repository. For example, 0.95 means that a hedged request is
+     * sent if a repository takes longer to respond than it did in 95% of the
+     * previous requests.
+     *
+     * @param percentile The percentile, between 0 and 1 (exclusive)
+     */
+    public void hedgePercentile(double percentile) {
+        if (percentile <= 0 || percentile >= 1)
+            throw new IllegalArgumentException("percentile must be between 0 and 1 (found " + percentile + ")");
+        this.hedgePercentile = percentile;
+    }
+
+    /**
+     * Disables hedged requests. Repositories will still be tried in the order
+     * of their past performance, but only one at a time.
+     */
+    public void disableHedging() {
+        this.hedgePercentile = 1;
+    }
+
+    /**
+     * Sets the maximum number of threads used for relocating dependencies.
+     * Large jars are split across threads as well.
+     * <p>
+     * By default, half of the available processors are used.
+     *
+     * @param parallelism The maximum number of relocation threads
+     */
+    public void relocationParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1 (found " + parallelism + ")");
+        this.relocationParallelism = parallelism;
+    }
     
     public boolean hasRelocations() {
         return !relocations.isEmpty();
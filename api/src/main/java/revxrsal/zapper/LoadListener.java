@@ -0,0 +1,85 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * A listener that is notified as dependencies are being loaded.
+ * <p>
+ * Note that dependencies may be loaded concurrently, and in the background,
+ * so implementations must be thread-safe.
+ */
+@FunctionalInterface
+public interface LoadListener {
+
+    /**
+     * Invoked when a dependency enters a new phase, and every time a chunk
+     * of it has been processed
+     *
+     * @param progress The progress
+     */
+    void onProgress(@NotNull LoadProgress progress);
+
+    /**
+     * Returns a listener that logs the progress of every dependency that has
+     * to be downloaded or relocated, at most once every few seconds
+     *
+     * @param logger The logger to log to
+     * @return The listener
+     */
+    static @NotNull LoadListener logging(@NotNull Logger logger) {
+        long interval = TimeUnit.SECONDS.toNanos(3);
+        Map<Dependency, Long> lastLogged = new ConcurrentHashMap<>();
+        return progress -> {
+            Dependency dependency = progress.getDependency();
+            switch (progress.getPhase()) {
+                case DOWNLOADING: {
+                    long now = System.nanoTime();
+                    Long last = lastLogged.putIfAbsent(dependency, now);
+                    if (last != null) {
+                        if (now - last < interval || !lastLogged.replace(dependency, last, now))
+                            return;
+                    }
+                    long total = progress.getTotalBytes();
+                    String percentage = total > 0 ? " " + progress.getBytesDone() * 100 / total + "%" : "";
+                    String eta = progress.getEtaMillis() >= 0 ? ", " + (progress.getEtaMillis() + 999) / 1000 + "s left" : "";
+                    logger.info("[Zapper] Downloading " + dependency + percentage + eta);
+                    break;
+                }
+                case RELOCATING:
+                    logger.info("[Zapper] Relocating " + dependency);
+                    break;
+                case LOADED:
+                    lastLogged.remove(dependency);
+                    break;
+            }
+        };
+    }
+}
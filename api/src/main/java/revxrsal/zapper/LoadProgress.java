@@ -0,0 +1,112 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The progress of loading a single dependency
+ *
+ * @see LoadListener
+ */
+public final class LoadProgress {
+
+    private final Dependency dependency;
+    private final Phase phase;
+    private final long bytesDone;
+    private final long totalBytes;
+    private final long etaMillis;
+
+    public LoadProgress(@NotNull Dependency dependency, @NotNull Phase phase, long bytesDone, long totalBytes, long etaMillis) {
+        this.dependency = dependency;
+        this.phase = phase;
+        this.bytesDone = bytesDone;
+        this.totalBytes = totalBytes;
+        this.etaMillis = etaMillis;
+    }
+
+    public @NotNull Dependency getDependency() {
+        return dependency;
+    }
+
+    public @NotNull Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * Returns the number of bytes processed in the current phase
+     *
+     * @return The number of bytes
+     */
+    public long getBytesDone() {
+        return bytesDone;
+    }
+
+    /**
+     * Returns the total number of bytes to process in the current phase
+     *
+     * @return The number of bytes, or -1 if unknown
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Returns the estimated time until the current phase is finished,
+     * based on the throughput so far
+     *
+     * @return The estimate in milliseconds, or -1 if unknown
+     */
+    public long getEtaMillis() {
+        return etaMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "LoadProgress(dependency=" + dependency + ", phase=" + phase + ", bytesDone=" + bytesDone + ", totalBytes=" + totalBytes + ", etaMillis=" + etaMillis + ")";
+    }
+
+    /**
+     * The phases a dependency goes through. Dependencies that are already
+     * on the disk skip straight to {@link #LOADED}.
+     */
+    public enum Phase {
+
+        /**
+         * The dependency is being downloaded. Dependencies that are relocated
+         * while they are downloaded skip {@link #RELOCATING}.
+         */
+        DOWNLOADING,
+
+        /**
+         * The dependency is being relocated
+         */
+        RELOCATING,
+
+        /**
+         * The dependency has been added to the class loader
+         */
+        LOADED
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper;
+
+import org.bukkit.Bukkit;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import revxrsal.zapper.classloader.URLClassLoaderWrapper;
+import revxrsal.zapper.download.ArtifactStore;
+import revxrsal.zapper.download.DownloadCoordinator;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.zip.ZipFile;
+
+/**
+ * Downloads the dependencies of the other plugins that use Zapper into the
+ * {@link ArtifactStore} while the server is still loading plugins, so that
+ * each of them only has to link, relocate and load its dependencies once it
+ * is loaded itself.
+ * <p>
+ * Prefetching is off unless {@code -Dzapper.prefetch=true} is set, and needs
+ * both an artifact store and the {@link DownloadCoordinator}. The first plugin
+ * that is loaded prefetches for every plugin in the plugins folder, on a single
+ * daemon thread. Nothing is written into the folders of other plugins.
+ */
+final class PluginPrefetcher {
+
+    /**
+     * The system property that enables prefetching
+     */
+    static final String PROPERTY = "zapper.prefetch";
+
+    private PluginPrefetcher() {
+    }
+
+    /**
+     * Starts prefetching the dependencies of the plugins next to the given
+     * plugin jar, unless prefetching is disabled or another plugin has
+     * started already
+     *
+     * @param coordinator The coordinator, or null if it is disabled
+     * @param store       The artifact store, or null if there is none
+     * @param pluginJar   The jar of this plugin, or null if unknown
+     */
+    static void start(@Nullable DownloadCoordinator coordinator, @Nullable ArtifactStore store, @Nullable File pluginJar) {
+        if (!Boolean.getBoolean(PROPERTY) || pluginJar == null)
+            return;
+        if (coordinator == null || store == null) {
+            Bukkit.getLogger().warning("[Zapper] Prefetching needs an artifact store (-D" + ArtifactStore.PROPERTY
+                    + ") and the download coordinator. Not prefetching.");
+            return;
+        }
+        File pluginsFolder = pluginJar.getAbsoluteFile().getParentFile();
+        if (pluginsFolder == null || !coordinator.claim("prefetch/" + pluginsFolder))
+            return;
+        Thread thread = new Thread(() -> {
+            File[] jars = pluginsFolder.listFiles((dir, name) -> name.endsWith(".jar"));
+            if (jars == null)
+                return;
+            for (File jar : jars) {
+                if (jar.equals(pluginJar.getAbsoluteFile()))
+                    continue;
+                try {
+                    prefetch(coordinator, store, jar);
+                } catch (Exception e) {
+                    Bukkit.getLogger().warning("[Zapper] Failed to prefetch the dependencies of " + jar.getName() + ": " + e);
+                }
+            }
+        }, "zapper-prefetch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Downloads the dependencies of the given plugin into the store, if it
+     * uses Zapper
+     */
+    static void prefetch(@Nullable DownloadCoordinator coordinator, @NotNull ArtifactStore store, @NotNull File jar) throws IOException {
+        RuntimeLibPluginConfiguration config;
+        try (ZipFile zip = new ZipFile(jar)) {
+            if (zip.getEntry("zapper/zapper.properties") == null)
+                return;
+            config = RuntimeLibPluginConfiguration.parse(zip);
+        }
+        // nothing is loaded, as the plugin loads its dependencies itself
+        DependencyManager dependencyManager = new DependencyManager(new File(store.getRoot(), "prefetch"), new URLClassLoaderWrapper() {
+            @Override
+            public void addURL(@NotNull URL url) {
+                throw new UnsupportedOperationException("Dependencies are only prefetched");
+            }
+        });
+        config.getDependencies().forEach(dependencyManager::dependency);
+        config.getRepositories().forEach(dependencyManager::repository);
+        config.getOrigins().forEach(dependencyManager::pin);
+        config.getRoutes().forEach(dependencyManager::route);
+        config.getLazyPackages().forEach((packageName, dependencies) ->
+                dependencies.forEach(dependency -> dependencyManager.lazy(packageName, dependency)));
+        dependencyManager.store(store);
+        dependencyManager.coordinator(coordinator);
+        dependencyManager.prefetch();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Passes the raw download progress on to the {@link LoadListener}, with the
+ * time left for every download estimated from its throughput so far, and
+ * reports the other phases of loading
+ */
+final class ProgressTracker implements LoadListener {
+
+    private final @Nullable LoadListener loadListener;
+    private final Map<Dependency, long[]> started = new ConcurrentHashMap<>();
+
+    ProgressTracker(@Nullable LoadListener loadListener) {
+        this.loadListener = loadListener;
+    }
+
+    @Override
+    public void onProgress(@NotNull LoadProgress progress) {
+        if (loadListener == null)
+            return;
+        Dependency dependency = progress.getDependency();
+        long bytesDownloaded = progress.getBytesDone();
+        long totalBytes = progress.getTotalBytes();
+        long now = System.nanoTime();
+        // resumed downloads do not start from zero, so only count the bytes
+        // downloaded since the first event
+        long[] start = started.computeIfAbsent(dependency, k -> new long[]{now, bytesDownloaded});
+        long done = bytesDownloaded - start[1];
+        long eta = -1;
+        if (totalBytes > 0 && done > 0)
+            eta = (totalBytes - bytesDownloaded) * ((now - start[0]) / 1_000_000) / done;
+        loadListener.onProgress(new LoadProgress(dependency, LoadProgress.Phase.DOWNLOADING, bytesDownloaded, totalBytes, eta));
+    }
+
+    void relocating(@NotNull Dependency dependency, long size) {
+        if (loadListener != null)
+            loadListener.onProgress(new LoadProgress(dependency, LoadProgress.Phase.RELOCATING, 0, size, -1));
+    }
+
+    void loaded(@NotNull Dependency dependency) {
+        started.remove(dependency);
+        if (loadListener != null)
+            loadListener.onProgress(new LoadProgress(dependency, LoadProgress.Phase.LOADED, 0, 0, 0));
+    }
+}
@@ -2,6 +2,8 @@ package revxrsal.zapper;
 
 import lombok.SneakyThrows;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import revxrsal.zapper.relocation.ReachableClasses;
 import revxrsal.zapper.relocation.Relocation;
 import revxrsal.zapper.repository.Repository;
 import revxrsal.zapper.util.ClassLoaderReader;
@@ -10,56 +12,214 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 public final class RuntimeLibPluginConfiguration {
 
     private final @NotNull String libsFolder;
     private final @NotNull String relocationPrefix;
+    private final boolean indexedClassPath;
+    private final boolean mergeLibraries;
+    private final boolean profileClassLoading;
     private final @NotNull List<Dependency> dependencies;
     private final @NotNull List<Repository> repositories;
     private final @NotNull List<Relocation> relocations;
+    private final @NotNull Map<Dependency, Repository> origins;
+    private final @NotNull Map<String, Repository> routes;
+    private final @NotNull Map<String, List<Dependency>> lazyPackages;
+    private final @NotNull List<Dependency> background;
+    private final @Nullable ReachableClasses reachableClasses;
+    private final @NotNull List<Dependency> relocatedJars;
 
     RuntimeLibPluginConfiguration(
             @NotNull String libsFolder,
             @NotNull String relocationPrefix,
+            boolean indexedClassPath,
+            boolean mergeLibraries,
+            boolean profileClassLoading,
             @NotNull List<Dependency> dependencies,
             @NotNull List<Repository> repositories,
-            @NotNull List<Relocation> relocations
+            @NotNull List<Relocation> relocations,
+            @NotNull Map<Dependency, Repository> origins,
+            @NotNull Map<String, Repository> routes,
+            @NotNull Map<String, List<Dependency>> lazyPackages,
+            @NotNull List<Dependency> background,
+            @Nullable ReachableClasses reachableClasses,
+            @NotNull List<Dependency> relocatedJars
     ) {
         this.libsFolder = libsFolder;
         this.relocationPrefix = relocationPrefix;
+        this.indexedClassPath = indexedClassPath;
+        this.mergeLibraries = mergeLibraries;
+        this.profileClassLoading = profileClassLoading;
         this.dependencies = dependencies;
         this.repositories = repositories;
         this.relocations = relocations;
+        this.origins = origins;
+        this.routes = routes;
+        this.lazyPackages = lazyPackages;
+        this.background = background;
+        this.reachableClasses = reachableClasses;
+        this.relocatedJars = relocatedJars;
     }
 
     public static @NotNull RuntimeLibPluginConfiguration parse() {
+        return parse(ClassLoaderReader::getResource);
+    }
+
+    /**
+     * Parses the files that the Gradle plugin has generated into the given
+     * jar, like the jar of another plugin
+     *
+     * @param jar The jar
+     * @return The configuration
+     * @throws IllegalArgumentException if the jar does not have the generated files
+     * @throws UncheckedIOException     if the jar could not be read
+     */
+    public static @NotNull RuntimeLibPluginConfiguration parse(@NotNull ZipFile jar) {
+        if (jar.getEntry("zapper/zapper.properties") == null)
+            throw new IllegalArgumentException(jar.getName() + " does not have generated Zapper files.");
+        return parse(name -> {
+            ZipEntry entry = jar.getEntry(name);
+            try {
+                return entry == null ? null : jar.getInputStream(entry);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static @NotNull RuntimeLibPluginConfiguration parse(@NotNull Function<String, InputStream> resources) {
         try {
-            Properties config = parseProperties();
+            BinaryDescriptor descriptor = parseDescriptor(resources);
+            Properties config = descriptor != null ? descriptor.config : parseProperties(resources);
             String libsFolder = config.getProperty("libs-folder");
             String relocationPrefix = config.getProperty("relocation-prefix");
-            List<Repository> repositories = parseRepositories();
-            List<Dependency> dependencies = parseDependencies();
-            List<Relocation> relocations = parseRelocations();
+            boolean indexedClassPath = Boolean.parseBoolean(config.getProperty("indexed-class-path"));
+            boolean mergeLibraries = Boolean.parseBoolean(config.getProperty("merge-libraries"));
+            boolean profileClassLoading = Boolean.parseBoolean(config.getProperty("profile-class-loading"));
+            boolean shrink = Boolean.parseBoolean(config.getProperty("shrink"));
+            List<Repository> repositories;
+            Map<Dependency, Repository> origins;
+            List<Dependency> dependencies;
+            List<Relocation> relocations;
+            Map<String, Repository> routes;
+            Map<String, List<Dependency>> lazyPackages;
+            List<Dependency> background;
+            ReachableClasses reachableClasses;
+            List<Dependency> relocatedJars;
+            if (descriptor != null) {
+                repositories = descriptor.repositories;
+                origins = descriptor.origins;
+                dependencies = descriptor.dependencies;
+                relocations = descriptor.relocations;
+                routes = descriptor.routes;
+                lazyPackages = descriptor.lazyPackages;
+                background = descriptor.background;
+                reachableClasses = shrink ? descriptor.reachableClasses : null;
+                relocatedJars = descriptor.relocatedJars;
+            } else {
+                repositories = parseRepositories(resources);
+                origins = new HashMap<>();
+                dependencies = parseDependencies(resources, origins);
+                relocations = parseRelocations(resources);
+                routes = parseRoutes(resources);
+                lazyPackages = parseLazyPackages(resources, dependencies);
+                background = parseBackground(resources, dependencies);
+                reachableClasses = shrink ? parseReachableClasses(resources) : null;
+                relocatedJars = parseRelocatedLockFile(resources);
+            }
             return new RuntimeLibPluginConfiguration(
                     libsFolder,
                     relocationPrefix,
+                    indexedClassPath,
+                    mergeLibraries,
+                    profileClassLoading,
                     dependencies,
                     repositories,
-                    relocations
+                    relocations,
+                    origins,
+                    routes,
+                    lazyPackages,
+                    background,
+                    reachableClasses,
+                    relocatedJars
             );
         } catch (IOException e) {
             throw new IllegalArgumentException("Generated Zapper files are missing. Have you applied the Gradle plugin?");
         }
     }
 
-    private static @NotNull List<Relocation> parseRelocations() throws IOException {
-        InputStream stream = ClassLoaderReader.getResource("zapper/relocations.txt");
+    /**
+     * Reads the zapper.bin file, which has the content of all the text files.
+     * Jars built with older versions of the Gradle plugin do not have it, and
+     * newer versions may write a different version of it, in which case the
+     * text files are read instead.
+     *
+     * @return The descriptor, or null if the text files should be read
+     */
+    private static @Nullable BinaryDescriptor parseDescriptor(@NotNull Function<String, InputStream> resources) {
+        InputStream stream = resources.apply(BinaryDescriptor.RESOURCE);
+        if (stream == null)
+            return null;
+        try {
+            return BinaryDescriptor.read(stream);
+        } catch (IOException e) {
+            // the text files are always generated along with it
+            return null;
+        }
+    }
+
+    /**
+     * Parses the reachable.txt file, which lists the classes of the dependencies
+     * that are reachable from the plugin
+     *
+     * @return The reachable classes, or null if the file is missing
+     * @see ReachableClasses#RESOURCE
+     */
+    private static @Nullable ReachableClasses parseReachableClasses(@NotNull Function<String, InputStream> resources) throws IOException {
+        InputStream stream = resources.apply(ReachableClasses.RESOURCE);
+        if (stream == null)
+            return null;
+        return ReachableClasses.read(stream);
+    }
+
+    /**
+     * Parses the relocated.lock file, which contains the size and SHA-256 of
+     * the jars in pre-relocated repositories, in the format of
+     * {@code <group>:<artifact>:<version>:<classifier> <size> <sha256>}
+     *
+     * @return The relocated jars, or an empty list if the file is missing
+     */
+    private static @NotNull List<Dependency> parseRelocatedLockFile(@NotNull Function<String, InputStream> resources) {
+        InputStream stream = resources.apply("zapper/relocated.lock");
+        if (stream == null)
+            return Collections.emptyList();
+        List<Dependency> jars = new ArrayList<>();
+        for (String line : readAllLines(stream)) {
+            String[] split = line.split(" ");
+            String[] notation = split[0].split(":");
+            if (split.length == 3 && notation.length == 4)
+                jars.add(new Dependency(notation[0], notation[1], notation[2], notation[3], Long.parseLong(split[1]), split[2]));
+        }
+        return jars;
+    }
+
+    private static @NotNull List<Relocation> parseRelocations(@NotNull Function<String, InputStream> resources) throws IOException {
+        InputStream stream = resources.apply("zapper/relocations.txt");
         if (stream == null)
             return Collections.emptyList();
         List<Relocation> relocations = new ArrayList<>();
@@ -70,37 +230,129 @@ public final class RuntimeLibPluginConfiguration {
         return relocations;
     }
 
-    private static @NotNull List<Dependency> parseDependencies() {
-        InputStream stream = ClassLoaderReader.getResource("zapper/dependencies.txt");
+    /**
+     * Parses the dependencies, and collects the repositories that they were
+     * resolved from into the given map
+     */
+    private static @NotNull List<Dependency> parseDependencies(@NotNull Function<String, InputStream> resources, @NotNull Map<Dependency, Repository> origins) {
+        InputStream stream = resources.apply("zapper/dependencies.txt");
         if (stream == null)
             return Collections.emptyList();
+        Map<String, String[]> lock = parseLockFile(resources);
         List<Dependency> dependencies = new ArrayList<>();
         for (String line : readAllLines(stream)) {
             String[] split = line.split(":");
-            dependencies.add(new Dependency(
+            String[] locked = lock.get(line);
+            Dependency dependency = new Dependency(
                     split[0],
                     split[1],
                     split[2],
-                    split.length == 4 ? split[3] : null
-            ));
+                    split.length == 4 ? split[3] : null,
+                    locked == null ? -1 : Long.parseLong(locked[1]),
+                    locked == null ? null : locked[2]
+            );
+            dependencies.add(dependency);
+            if (locked != null && locked.length == 4)
+                origins.put(dependency, Repository.maven(locked[3]));
         }
         return dependencies;
     }
 
-    private static @NotNull List<Repository> parseRepositories() {
-        InputStream stream = ClassLoaderReader.getResource("zapper/repositories.txt");
+    private static @NotNull Map<String, Repository> parseRoutes(@NotNull Function<String, InputStream> resources) {
+        InputStream stream = resources.apply("zapper/routes.txt");
+        if (stream == null)
+            return Collections.emptyMap();
+        Map<String, Repository> routes = new LinkedHashMap<>();
+        for (String line : readAllLines(stream)) {
+            String[] split = line.split(" ", 2);
+            if (split.length == 2)
+                routes.put(split[0], Repository.maven(split[1]));
+        }
+        return routes;
+    }
+
+    /**
+     * Parses the packages.txt file, which maps the (relocated) packages of
+     * lazily loaded dependencies to the dependencies that contain them, in
+     * the format of {@code <package> <dependency>}
+     */
+    private static @NotNull Map<String, List<Dependency>> parseLazyPackages(@NotNull Function<String, InputStream> resources, @NotNull List<Dependency> dependencies) {
+        InputStream stream = resources.apply("zapper/packages.txt");
+        if (stream == null)
+            return Collections.emptyMap();
+        Map<String, Dependency> byNotation = new HashMap<>();
+        for (Dependency dependency : dependencies)
+            byNotation.put(dependency.toString(), dependency);
+        Map<String, List<Dependency>> packages = new LinkedHashMap<>();
+        for (String line : readAllLines(stream)) {
+            String[] split = line.split(" ");
+            Dependency dependency = split.length == 2 ? byNotation.get(split[1]) : null;
+            if (dependency != null)
+                packages.computeIfAbsent(split[0], k -> new ArrayList<>(1)).add(dependency);
+        }
+        return packages;
+    }
+
+    /**
+     * Parses the background.txt file, which lists the dependencies that
+     * should be loaded in the background, one per line
+     */
+    private static @NotNull List<Dependency> parseBackground(@NotNull Function<String, InputStream> resources, @NotNull List<Dependency> dependencies) {
+        InputStream stream = resources.apply("zapper/background.txt");
+        if (stream == null)
+            return Collections.emptyList();
+        Set<String> notations = new HashSet<>(readAllLines(stream));
+        List<Dependency> background = new ArrayList<>();
+        for (Dependency dependency : dependencies)
+            if (notations.contains(dependency.toString()))
+                background.add(dependency);
+        return background;
+    }
+
+    /**
+     * Parses the dependencies.lock file, which contains the size and SHA-256 of
+     * every dependency, in the format of {@code <dependency> <size> <sha256> [origin]}.
+     * The origin is the URL of the repository that served the dependency at
+     * build time, if known.
+     *
+     * @return The lock entries, mapped by their dependency notation
+     */
+    private static @NotNull Map<String, String[]> parseLockFile(@NotNull Function<String, InputStream> resources) {
+        InputStream stream = resources.apply("zapper/dependencies.lock");
+        if (stream == null)
+            return Collections.emptyMap();
+        Map<String, String[]> lock = new HashMap<>();
+        for (String line : readAllLines(stream)) {
+            String[] split = line.split(" ");
+            if (split.length == 3 || split.length == 4)
+                lock.put(split[0], split);
+        }
+        return lock;
+    }
+
+    /**
+     * Parses the repositories.txt file, which lists a repository URL per
+     * line, optionally followed by {@code pre-relocated} for repositories
+     * that serve relocated jars
+     */
+    private static @NotNull List<Repository> parseRepositories(@NotNull Function<String, InputStream> resources) {
+        InputStream stream = resources.apply("zapper/repositories.txt");
         if (stream == null)
             return Collections.emptyList();
         List<Repository> repos = new ArrayList<>();
         for (String line : readAllLines(stream)) {
-            repos.add(Repository.maven(line));
+            String[] split = line.split(" ");
+            if (split.length == 2 && split[1].equals("pre-relocated"))
+                repos.add(Repository.preRelocated(split[0]));
+            else
+                repos.add(Repository.maven(line));
         }
         return repos;
     }
 
-    private static @SneakyThrows @NotNull Properties parseProperties() {
+    private static @SneakyThrows @NotNull Properties parseProperties(@NotNull Function<String, InputStream> resources) {
         Properties properties = new Properties();
-        try (InputStream stream = ClassLoaderReader.getResource("zapper/zapper.properties")) {
+        try (InputStream stream = resources.apply("zapper/zapper.properties")) {
             properties.load(stream);
         }
         return properties;
@@ -120,6 +372,29 @@ public final class RuntimeLibPluginConfiguration {
         return this.relocationPrefix;
     }
 
+    /**
+     * Returns whether libraries should be added through an
+     * {@link revxrsal.zapper.classloader.IndexedClassPath}
+     */
+    public boolean isIndexedClassPath() {
+        return this.indexedClassPath;
+    }
+
+    /**
+     * Returns whether libraries should be merged into a single jar
+     */
+    public boolean isMergeLibraries() {
+        return this.mergeLibraries;
+    }
+
+    /**
+     * Returns whether the classes loaded from libraries should be profiled
+     * with a {@link revxrsal.zapper.classloader.ClassLoadingProfiler}
+     */
+    public boolean isProfileClassLoading() {
+        return this.profileClassLoading;
+    }
+
     public @NotNull List<Dependency> getDependencies() {
         return this.dependencies;
     }
@@ -132,7 +407,43 @@ public final class RuntimeLibPluginConfiguration {
         return this.relocations;
     }
 
+    public @NotNull Map<Dependency, Repository> getOrigins() {
+        return this.origins;
+    }
+
+    public @NotNull Map<String, Repository> getRoutes() {
+        return this.routes;
+    }
+
+    public @NotNull Map<String, List<Dependency>> getLazyPackages() {
+        return this.lazyPackages;
+    }
+
+    public @NotNull List<Dependency> getBackground() {
+        return this.background;
+    }
+
+    /**
+     * Returns the classes of the dependencies that are reachable from the
+     * plugin, if dependencies should be shrunk
+     *
+     * @return The reachable classes, or null to keep every class
+     */
+    public @Nullable ReachableClasses getReachableClasses() {
+        return this.reachableClasses;
+    }
+
+    /**
+     * Returns the jars in pre-relocated repositories, with the size and
+     * SHA-256 that they had when they were relocated at build time
+     *
+     * @return The relocated jars
+     */
+    public @NotNull List<Dependency> getRelocatedJars() {
+        return this.relocatedJars;
+    }
+
     public String toString() {
-        return "RuntimeLibPluginConfiguration(libsFolder=" + this.getLibsFolder() + ", relocationPrefix=" + this.getRelocationPrefix() + ", dependencies=" + this.getDependencies() + ", repositories=" + this.getRepositories() + ", relocations=" + this.getRelocations() + ")";
+        return "RuntimeLibPluginConfiguration(libsFolder=" + this.getLibsFolder() + ", relocationPrefix=" + this.getRelocationPrefix() + ", indexedClassPath=" + this.isIndexedClassPath() + ", mergeLibraries=" + this.isMergeLibraries() + ", profileClassLoading=" + this.isProfileClassLoading() + ", dependencies=" + this.getDependencies() + ", repositories=" + this.getRepositories() + ", relocations=" + this.getRelocations() + ", origins=" + this.getOrigins() + ", routes=" + this.getRoutes() + ", lazyPackages=" + this.getLazyPackages() + ", background=" + this.getBackground() + ", reachableClasses=" + this.getReachableClasses() + ", relocatedJars=" + this.getRelocatedJars() + ")";
     }
 }
@@ -0,0 +1,217 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import revxrsal.zapper.relocation.ReachableClasses;
+import revxrsal.zapper.relocation.Relocation;
+import revxrsal.zapper.util.Checksums;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A manifest that is written into the libraries folder after every successful
+ * load. It records the final classpath along with the size and modification
+ * time of every jar, and a hash of the configuration that produced it.
+ * <p>
+ * On the next boot, if the configuration hash matches and none of the jars
+ * have changed, the classpath can be attached directly without resolving,
+ * downloading or relocating anything.
+ */
+final class StartupManifest {
+
+    private static final String FILE_NAME = "zapper-manifest";
+    private static final String HEADER = "# Zapper startup manifest v1";
+
+    private final String configHash;
+    private final List<Entry> entries;
+
+    private StartupManifest(@NotNull String configHash, @NotNull List<Entry> entries) {
+        this.configHash = configHash;
+        this.entries = entries;
+    }
+
+    /**
+     * Computes a hash that changes whenever the dependencies or relocation
+     * rules change
+     *
+     * @param dependencies The dependencies
+     * @param relocations  The relocation rules
+     * @param merged       Whether the dependencies are merged into one archive
+     * @param reachable    The classes that are kept, or null if jars are not shrunk
+     * @return The configuration hash
+     */
+    public static @NotNull String hash(
+            @NotNull List<Dependency> dependencies,
+            @NotNull List<Relocation> relocations,
+            boolean merged,
+            @Nullable ReachableClasses reachable
+    ) {
+        MessageDigest digest = Checksums.sha256();
+        StringBuilder builder = new StringBuilder(HEADER).append('\n');
+        for (Dependency dependency : dependencies) {
+            builder.append("dependency ").append(dependency.getMavenPath())
+                    .append(' ').append(dependency.getSize())
+                    .append(' ').append(dependency.getSha256())
+                    .append('\n');
+        }
+        for (Relocation relocation : relocations) {
+            builder.append("relocation ").append(relocation.getPattern())
+                    .append(' ').append(relocation.getNewPattern())
+                    .append('\n');
+        }
+        if (merged)
+            builder.append("merged\n");
+        if (reachable != null)
+            builder.append("reachable ").append(reachable.hash()).append('\n');
+        digest.update(builder.toString().getBytes(StandardCharsets.UTF_8));
+        return Checksums.toHex(digest.digest());
+    }
+
+    /**
+     * Reads the manifest in the given directory
+     *
+     * @param directory The libraries directory
+     * @param tier      The tier the manifest was written for, or null for the startup tier
+     * @return The manifest, or null if it does not exist or is malformed
+     */
+    public static @Nullable StartupManifest read(@NotNull File directory, @Nullable String tier) {
+        Path path = file(directory, tier).toPath();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine()))
+                return null;
+            String configHash = reader.readLine();
+            if (configHash == null)
+                return null;
+            List<Entry> entries = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] split = line.split(" ", 3);
+                if (split.length != 3)
+                    return null;
+                entries.add(new Entry(split[2], Long.parseLong(split[0]), Long.parseLong(split[1])));
+            }
+            return new StartupManifest(configHash, entries);
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes a manifest for the given classpath into the given directory. The
+     * manifest is replaced atomically where the file system supports it.
+     *
+     * @param directory  The libraries directory
+     * @param tier       The tier the classpath belongs to, or null for the startup tier
+     * @param configHash The configuration hash
+     * @param classpath  The jars of the classpath, in order
+     */
+    public static void write(@NotNull File directory, @Nullable String tier, @NotNull String configHash, @NotNull List<File> classpath) throws IOException {
+        directory.mkdirs();
+        File manifest = file(directory, tier);
+        Path target = manifest.toPath();
+        Path temp = new File(directory, manifest.getName() + ".tmp").toPath();
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.write('\n');
+            writer.write(configHash);
+            for (File file : classpath) {
+                BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                writer.write('\n');
+                writer.write(attributes.size() + " " + attributes.lastModifiedTime().toMillis() + " " + file.getName());
+            }
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Deletes the manifest in the given directory, if any
+     *
+     * @param directory The libraries directory
+     * @param tier      The tier the manifest was written for, or null for the startup tier
+     */
+    public static void delete(@NotNull File directory, @Nullable String tier) {
+        file(directory, tier).delete();
+    }
+
+    private static @NotNull File file(@NotNull File directory, @Nullable String tier) {
+        return new File(directory, tier == null ? FILE_NAME + ".txt" : FILE_NAME + "-" + tier + ".txt");
+    }
+
+    /**
+     * Validates this manifest against the given configuration hash and the
+     * files on disk, in a single pass.
+     *
+     * @param directory  The libraries directory
+     * @param configHash The current configuration hash
+     * @return The classpath URLs, or null if anything has changed
+     */
+    public @Nullable List<URL> validate(@NotNull File directory, @NotNull String configHash) {
+        if (!this.configHash.equals(configHash))
+            return null;
+        List<URL> urls = new ArrayList<>(entries.size());
+        try {
+            for (Entry entry : entries) {
+                File file = new File(directory, entry.fileName);
+                BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                if (attributes.size() != entry.size || attributes.lastModifiedTime().toMillis() != entry.lastModified)
+                    return null;
+                urls.add(file.toURI().toURL());
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return urls;
+    }
+
+    private static final class Entry {
+
+        private final String fileName;
+        private final long size, lastModified;
+
+        Entry(String fileName, long size, long lastModified) {
+            this.fileName = fileName;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+}
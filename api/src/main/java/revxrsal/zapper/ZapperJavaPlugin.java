@@ -3,11 +3,26 @@ package revxrsal.zapper;
 import org.bukkit.Bukkit;
 import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import revxrsal.zapper.classloader.ClassLoadingProfiler;
 import revxrsal.zapper.classloader.URLClassLoaderWrapper;
+import revxrsal.zapper.download.ArtifactStore;
+import revxrsal.zapper.download.DownloadCoordinator;
+import revxrsal.zapper.download.OfflineBundle;
+import revxrsal.zapper.metrics.MetricsCollector;
 import revxrsal.zapper.util.ClassLoaderReader;
 
+import javax.management.JMException;
 import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
 import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.CodeSource;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An extension of {@link JavaPlugin} that downloads dependencies at runtime.
@@ -17,22 +32,167 @@ import java.net.URLClassLoader;
  */
 public abstract class ZapperJavaPlugin extends JavaPlugin {
 
+    /**
+     * Completes once the dependencies that are loaded in the background
+     * have been loaded
+     */
+    private static final CompletableFuture<Void> BACKGROUND_DEPENDENCIES;
+
+    /**
+     * The metrics of loading dependencies, which are also exposed over JMX
+     */
+    private static final MetricsCollector METRICS = new MetricsCollector();
+
+    /**
+     * Profiles the classes that are loaded from dependencies, if enabled
+     */
+    private static final @Nullable ClassLoadingProfiler PROFILER;
+
+    /**
+     * How long classes are profiled for, once dependencies have been loaded
+     */
+    private static final long PROFILE_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
     static {
         RuntimeLibPluginConfiguration config = RuntimeLibPluginConfiguration.parse();
-        File libraries = new File(ClassLoaderReader.getDataFolder(ZapperJavaPlugin.class), config.getLibsFolder());
+        File dataFolder = ClassLoaderReader.getDataFolder(ZapperJavaPlugin.class);
+        File libraries = new File(dataFolder, config.getLibsFolder());
         if (!libraries.exists()) {
             PluginDescriptionFile pdf = ClassLoaderReader.getDescription(ZapperJavaPlugin.class);
             // "ur plugin slow!!"
             Bukkit.getLogger().info("[" + pdf.getName() + "] It appears you're running " + pdf.getName() + " for the first time.");
             Bukkit.getLogger().info("[" + pdf.getName() + "] Please give me a few seconds to install dependencies. This is a one-time process.");
         }
-        DependencyManager dependencyManager = new DependencyManager(
-                libraries,
-                URLClassLoaderWrapper.wrap((URLClassLoader) ZapperJavaPlugin.class.getClassLoader())
-        );
+        URLClassLoader classLoader = (URLClassLoader) ZapperJavaPlugin.class.getClassLoader();
+        URLClassLoaderWrapper loaderWrapper;
+        if (config.isProfileClassLoading() || ClassLoadingProfiler.isEnabledBySystemProperty()) {
+            PROFILER = new ClassLoadingProfiler();
+            if (config.isIndexedClassPath()) {
+                loaderWrapper = URLClassLoaderWrapper.indexed(classLoader, PROFILER);
+            } else {
+                loaderWrapper = URLClassLoaderWrapper.profiled(classLoader, PROFILER);
+                if (!PROFILER.isRecording())
+                    Bukkit.getLogger().warning("[Zapper] Class loading can only be profiled with JFR (Java 8u262 or later), or with the indexed class path.");
+            }
+        } else {
+            PROFILER = null;
+            loaderWrapper = config.isIndexedClassPath() ? URLClassLoaderWrapper.indexed(classLoader) : URLClassLoaderWrapper.wrap(classLoader);
+        }
+        DependencyManager dependencyManager = new DependencyManager(libraries, loaderWrapper);
         config.getDependencies().forEach(dependencyManager::dependency);
         config.getRepositories().forEach(dependencyManager::repository);
         config.getRelocations().forEach(dependencyManager::relocate);
-        dependencyManager.load();
+        dependencyManager.shrink(config.getReachableClasses());
+        config.getOrigins().forEach(dependencyManager::pin);
+        config.getRoutes().forEach(dependencyManager::route);
+        config.getRelocatedJars().forEach(dependencyManager::relocatedJar);
+        config.getLazyPackages().forEach((packageName, dependencies) ->
+                dependencies.forEach(dependency -> dependencyManager.lazy(packageName, dependency)));
+        // offline bundles may also be put next to the plugin jar
+        File pluginJar = pluginJar();
+        if (pluginJar != null)
+            dependencyManager.bundle(new File(pluginJar.getParentFile(), pluginJar.getName().replaceFirst("\\.jar$", "") + OfflineBundle.EXTENSION));
+        dependencyManager.bundle(new File(dataFolder.getParentFile(), dataFolder.getName() + OfflineBundle.EXTENSION));
+        ArtifactStore store = ArtifactStore.fromSystemProperty();
+        dependencyManager.store(store);
+        DownloadCoordinator coordinator = DownloadCoordinator.shared();
+        dependencyManager.coordinator(coordinator);
+        // if enabled, the first plugin to load downloads the dependencies of the others meanwhile
+        PluginPrefetcher.start(coordinator, store, pluginJar);
+        dependencyManager.mergeLibraries(config.isMergeLibraries());
+        dependencyManager.loadListener(LoadListener.logging(Bukkit.getLogger()));
+        try {
+            METRICS.register(dataFolder.getName());
+        } catch (JMException e) {
+            Bukkit.getLogger().warning("[Zapper] Failed to expose metrics over JMX: " + e);
+        }
+        dependencyManager.metrics(METRICS);
+        config.getBackground().forEach(dependencyManager::background);
+        if (config.getBackground().isEmpty()) {
+            dependencyManager.load();
+            BACKGROUND_DEPENDENCIES = CompletableFuture.completedFuture(null);
+        } else {
+            BACKGROUND_DEPENDENCIES = dependencyManager.loadAsync();
+        }
+        if (PROFILER != null)
+            BACKGROUND_DEPENDENCIES.whenComplete((v, e) -> reportProfile(PROFILER, new File(libraries, "class-loading-profile.txt")));
+    }
+
+    /**
+     * Stops the profiler after a while on a daemon thread, and logs the
+     * heaviest libraries. The full profile is written to the given file.
+     */
+    private static void reportProfile(@NotNull ClassLoadingProfiler profiler, @NotNull File file) {
+        Thread thread = new Thread(() -> {
+            try {
+                Thread.sleep(PROFILE_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            profiler.close();
+            for (String line : profiler.summary(10).split("\\R"))
+                Bukkit.getLogger().info("[Zapper] " + line);
+            try {
+                Files.write(file.toPath(), profiler.summary(Integer.MAX_VALUE).getBytes(StandardCharsets.UTF_8));
+                Bukkit.getLogger().info("[Zapper] The full profile was written to " + file);
+            } catch (IOException e) {
+                Bukkit.getLogger().warning("[Zapper] Failed to write the class loading profile: " + e);
+            }
+        }, "zapper-class-loading-profiler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static @Nullable File pluginJar() {
+        try {
+            CodeSource source = ZapperJavaPlugin.class.getProtectionDomain().getCodeSource();
+            return source == null ? null : new File(source.getLocation().toURI());
+        } catch (URISyntaxException | IllegalArgumentException | SecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the metrics of loading dependencies. These are also exposed
+     * over JMX, under {@code zapper:type=Metrics,name=<plugin name>}.
+     *
+     * @return The metrics
+     */
+    protected static @NotNull MetricsCollector metrics() {
+        return METRICS;
+    }
+
+    /**
+     * Returns the profiler of the classes that are loaded from dependencies.
+     * This is enabled with {@code profileClassLoading} in the Gradle plugin,
+     * or with the {@value ClassLoadingProfiler#PROPERTY} system property.
+     *
+     * @return The profiler, or null if profiling is not enabled
+     */
+    protected static @Nullable ClassLoadingProfiler classLoadingProfiler() {
+        return PROFILER;
+    }
+
+    /**
+     * Returns a future that completes once the dependencies declared with
+     * {@code zapBackground} have been loaded. Classes from these dependencies
+     * must not be used before then.
+     *
+     * @return The future
+     */
+    protected static @NotNull CompletableFuture<Void> backgroundDependencies() {
+        return BACKGROUND_DEPENDENCIES;
+    }
+
+    /**
+     * Blocks until the dependencies declared with {@code zapBackground} have
+     * been loaded. Plugins that need them on startup should call this at the
+     * beginning of {@link #onEnable()}, which lets them be downloaded while
+     * the server loads other plugins.
+     *
+     * @throws java.util.concurrent.CompletionException if they could not be loaded
+     */
+    protected static void awaitDependencies() {
+        BACKGROUND_DEPENDENCIES.join();
     }
 }
\ No newline at end of file
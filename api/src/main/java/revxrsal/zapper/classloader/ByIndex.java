@@ -0,0 +1,89 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.classloader;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+
+/**
+ * An implementation that adds jars to an {@link IndexedClassPath}, which is
+ * added to the class loader in their place. Other URLs are added as-is, and
+ * jars that are added after them go into a new index, so the order in which
+ * URLs are searched is kept.
+ */
+final class ByIndex extends URLClassLoaderWrapper {
+
+    private final URLClassLoaderWrapper delegate;
+    private final @Nullable ClassLoadingProfiler profiler;
+    private @Nullable IndexedClassPath current;
+
+    public ByIndex(@NotNull URLClassLoaderWrapper delegate, @Nullable ClassLoadingProfiler profiler) {
+        this.delegate = delegate;
+        this.profiler = profiler;
+    }
+
+    @Override
+    public synchronized void addURL(@NotNull URL url) {
+        File jar = asJar(url);
+        if (jar == null) {
+            current = null;
+            delegate.addURL(url);
+            return;
+        }
+        try {
+            if (current != null) {
+                current.add(jar);
+                return;
+            }
+            IndexedClassPath index = new IndexedClassPath(profiler, delegate.getClassLoader());
+            index.add(jar);
+            // added after the jar is indexed, as a lookup may be waiting for it
+            delegate.addURL(index.toURL());
+            current = index;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public @Nullable ClassLoader getClassLoader() {
+        return delegate.getClassLoader();
+    }
+
+    static @Nullable File asJar(@NotNull URL url) {
+        if (!url.getProtocol().equals("file") || !url.getPath().endsWith(".jar"))
+            return null;
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.classloader;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collection;
+
+/**
+ * An implementation that adds URLs as-is, and has the profiler watch the
+ * classes of the jars among them
+ */
+final class ByProfiler extends URLClassLoaderWrapper {
+
+    private final URLClassLoaderWrapper delegate;
+    private final ClassLoadingProfiler profiler;
+
+    public ByProfiler(@NotNull URLClassLoaderWrapper delegate, @NotNull ClassLoadingProfiler profiler) {
+        this.delegate = delegate;
+        this.profiler = profiler;
+    }
+
+    @Override
+    public void addURL(@NotNull URL url) {
+        watch(url);
+        delegate.addURL(url);
+    }
+
+    @Override
+    public void addURLs(@NotNull Collection<URL> urls) {
+        for (URL url : urls)
+            watch(url);
+        delegate.addURLs(urls);
+    }
+
+    @Override
+    public @Nullable ClassLoader getClassLoader() {
+        return delegate.getClassLoader();
+    }
+
+    private void watch(@NotNull URL url) {
+        File jar = ByIndex.asJar(url);
+        if (jar == null)
+            return;
+        try {
+            profiler.watch(jar);
+        } catch (IOException ignored) {
+            // the class loader fails to read it as well
+        }
+    }
+}
@@ -38,17 +38,41 @@ import static revxrsal.zapper.classloader.UnsafeUtil.isJava8;
  */
 final class ByUnsafe extends URLClassLoaderWrapper {
 
+    private final URLClassLoader loader;
     private final Collection<URL> unopenedURLs;
     private final List<URL> pathURLs;
 
+    /**
+     * The monitor that the class path holds while it opens URLs, so that
+     * URLs can be added while classes are being loaded
+     */
+    private final Object lock;
+
     public ByUnsafe(@NotNull URLClassLoader loader) {
+        this.loader = loader;
         Object ucp = getField(loader, "ucp", URLClassLoader.class);
         unopenedURLs = getField(ucp, isJava8() ? "urls" : "unopenedUrls", ucp.getClass());
         pathURLs = getField(ucp, "path", ucp.getClass());
+        lock = isJava8() ? ucp : unopenedURLs;
     }
 
     public void addURL(@NotNull URL url) {
-        unopenedURLs.add(url);
-        pathURLs.add(url);
+        synchronized (lock) {
+            unopenedURLs.add(url);
+            pathURLs.add(url);
+        }
+    }
+
+    @Override
+    public void addURLs(@NotNull Collection<URL> urls) {
+        synchronized (lock) {
+            unopenedURLs.addAll(urls);
+            pathURLs.addAll(urls);
+        }
+    }
+
+    @Override
+    public @NotNull ClassLoader getClassLoader() {
+        return loader;
     }
 }
\ No newline at end of file
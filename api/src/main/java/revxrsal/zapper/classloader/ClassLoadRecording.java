@@ -0,0 +1,214 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.classloader;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Flight Recorder recording of the JVM's {@code jdk.ClassLoad} events,
+ * which tell how long it took to load every class. The duration of an event
+ * includes loading the classes that the class needs to be defined, like its
+ * superclass, so those are subtracted to get the time spent on the class
+ * itself.
+ * <p>
+ * As this library is compiled against Java 8, JFR is accessed through method
+ * handles that are looked up once.
+ */
+final class ClassLoadRecording implements Closeable {
+
+    private static final @Nullable Handles HANDLES = Handles.lookup();
+    private static final String EVENT = "jdk.ClassLoad";
+
+    private final Object recording;
+
+    private ClassLoadRecording(@NotNull Object recording) {
+        this.recording = recording;
+    }
+
+    /**
+     * Starts a new recording
+     *
+     * @return The recording, or null if JFR is not available
+     */
+    static @Nullable ClassLoadRecording start() {
+        Handles h = HANDLES;
+        if (h == null)
+            return null;
+        try {
+            Map<String, String> settings = new HashMap<>();
+            settings.put(EVENT + "#enabled", "true");
+            settings.put(EVENT + "#threshold", "0 ms");
+            settings.put(EVENT + "#stackTrace", "false");
+            Object recording = h.newRecording.invoke(settings);
+            h.setName.invoke(recording, "Zapper class loading");
+            h.start.invoke(recording);
+            return new ClassLoadRecording(recording);
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the time spent loading every class that has been loaded since
+     * the recording started, without the time spent loading other classes
+     * in the meantime
+     *
+     * @return The times in nanoseconds, by class name
+     * @throws IOException if the recording could not be read
+     */
+    @NotNull Map<String, Long> selfTimes() throws IOException {
+        Handles h = HANDLES;
+        Path file = Files.createTempFile("zapper-class-loading", ".jfr");
+        try {
+            h.dump.invoke(recording, file);
+            Map<Long, List<Load>> byThread = new HashMap<>();
+            for (Object event : (List<?>) h.readAllEvents.invoke(file)) {
+                // the file also has the events of other recordings that were running
+                if (!EVENT.equals(h.typeName.invoke(h.eventType.invoke(event))))
+                    continue;
+                Object thread = h.thread.invoke(event);
+                Object loadedClass = h.value.invoke(event, "loadedClass");
+                if (thread == null || loadedClass == null)
+                    continue;
+                Instant start = (Instant) h.startTime.invoke(event);
+                Duration duration = (Duration) h.duration.invoke(event);
+                long threadId = (long) h.javaThreadId.invoke(thread);
+                byThread.computeIfAbsent(threadId, k -> new ArrayList<>()).add(new Load(
+                        // internal names on newer versions
+                        ((String) h.className.invoke(loadedClass)).replace('/', '.'),
+                        start.getEpochSecond() * 1_000_000_000L + start.getNano(),
+                        duration.toNanos()
+                ));
+            }
+            Map<String, Long> times = new HashMap<>();
+            for (List<Load> loads : byThread.values()) {
+                loads.sort((a, b) -> a.start != b.start ? Long.compare(a.start, b.start) : Long.compare(b.duration, a.duration));
+                Deque<Load> enclosing = new ArrayDeque<>();
+                for (Load load : loads) {
+                    while (!enclosing.isEmpty() && enclosing.peek().end() <= load.start)
+                        enclosing.pop();
+                    if (!enclosing.isEmpty())
+                        enclosing.peek().self -= load.duration;
+                    enclosing.push(load);
+                }
+                for (Load load : loads)
+                    times.merge(load.className, Math.max(0, load.self), Long::sum);
+            }
+            return times;
+        } catch (IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IOException(t);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            HANDLES.close.invoke(recording);
+        } catch (Throwable ignored) {
+        }
+    }
+
+    private static final class Load {
+
+        private final String className;
+        private final long start, duration;
+        private long self;
+
+        Load(String className, long start, long duration) {
+            this.className = className;
+            this.start = start;
+            this.duration = duration;
+            this.self = duration;
+        }
+
+        long end() {
+            return start + duration;
+        }
+    }
+
+    /**
+     * The method handles into {@code jdk.jfr}
+     */
+    private static final class Handles {
+
+        private MethodHandle newRecording, setName, start, dump, close;
+        private MethodHandle readAllEvents;
+        private MethodHandle eventType, typeName, thread, startTime, duration, value;
+        private MethodHandle javaThreadId, className;
+
+        static @Nullable Handles lookup() {
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                Class<?> recording = Class.forName("jdk.jfr.Recording");
+                Class<?> recordingFile = Class.forName("jdk.jfr.consumer.RecordingFile");
+                Class<?> recordedObject = Class.forName("jdk.jfr.consumer.RecordedObject");
+                Class<?> recordedEvent = Class.forName("jdk.jfr.consumer.RecordedEvent");
+                Class<?> recordedThread = Class.forName("jdk.jfr.consumer.RecordedThread");
+                Class<?> recordedClass = Class.forName("jdk.jfr.consumer.RecordedClass");
+                Class<?> eventType = Class.forName("jdk.jfr.EventType");
+
+                Handles h = new Handles();
+                h.newRecording = lookup.findConstructor(recording, MethodType.methodType(void.class, Map.class));
+                h.setName = lookup.findVirtual(recording, "setName", MethodType.methodType(void.class, String.class));
+                h.start = lookup.findVirtual(recording, "start", MethodType.methodType(void.class));
+                h.dump = lookup.findVirtual(recording, "dump", MethodType.methodType(void.class, Path.class));
+                h.close = lookup.findVirtual(recording, "close", MethodType.methodType(void.class));
+                h.readAllEvents = lookup.findStatic(recordingFile, "readAllEvents", MethodType.methodType(List.class, Path.class));
+                h.eventType = lookup.findVirtual(recordedEvent, "getEventType", MethodType.methodType(eventType));
+                h.typeName = lookup.findVirtual(eventType, "getName", MethodType.methodType(String.class));
+                h.thread = lookup.findVirtual(recordedEvent, "getThread", MethodType.methodType(recordedThread));
+                h.startTime = lookup.findVirtual(recordedEvent, "getStartTime", MethodType.methodType(Instant.class));
+                h.duration = lookup.findVirtual(recordedEvent, "getDuration", MethodType.methodType(Duration.class));
+                h.value = lookup.findVirtual(recordedObject, "getValue", MethodType.methodType(Object.class, String.class));
+                h.javaThreadId = lookup.findVirtual(recordedThread, "getJavaThreadId", MethodType.methodType(long.class));
+                h.className = lookup.findVirtual(recordedClass, "getName", MethodType.methodType(String.class));
+                return h;
+            } catch (Throwable t) {
+                // not Java 11+ or 8u262+, or the jdk.jfr module is not available
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,459 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.classloader;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Profiles the classes that a class loader loads from libraries, to tell
+ * which libraries are the heaviest to load, and so are worth removing or
+ * loading lazily. For every jar, this records the number of classes loaded
+ * from it, their size, the time spent reading them, the time spent defining
+ * them, and the metaspace they take up.
+ * <p>
+ * Jars can be profiled in two ways:
+ * <ul>
+ *     <li>When they are added as-is, see {@link URLClassLoaderWrapper#profiled(java.net.URLClassLoader, ClassLoadingProfiler)},
+ *     the class loader reads classes itself, so they are only seen once they
+ *     have been defined. Only the classes, their size and the define time are
+ *     known, and nothing is if JFR is not available.</li>
+ *     <li>When they are added through an {@link IndexedClassPath}, see
+ *     {@link URLClassLoaderWrapper#indexed(java.net.URLClassLoader, ClassLoadingProfiler)},
+ *     classes are seen as the class loader reads them, which also gives the
+ *     read time and metaspace.</li>
+ * </ul>
+ * The JVM does not tell when it is done defining a class, so:
+ * <ul>
+ *     <li>The define time is taken from the {@code jdk.ClassLoad} events of a
+ *     Flight Recorder recording that the profiler runs. It is unknown if JFR is
+ *     not available (before Java 8u262).</li>
+ *     <li>The metaspace is sampled whenever a class is read, and the growth
+ *     since the previous class was read on the same thread is attributed to the
+ *     jar of that class. This is an estimate, as other classes may be loaded
+ *     in between.</li>
+ * </ul>
+ * Profiling slows down class loading, and should only be enabled to diagnose
+ * startup. When libraries are merged into a single jar, they are profiled as
+ * one.
+ */
+public final class ClassLoadingProfiler implements Closeable {
+
+    /**
+     * The system property that enables profiling in plugins that use
+     * {@link revxrsal.zapper.ZapperJavaPlugin}
+     */
+    public static final String PROPERTY = "zapper.profileClassLoading";
+
+    private static final String CLASS_SUFFIX = ".class";
+    private static final Pattern RELOCATED_SUFFIX = Pattern.compile("(-relocated-[0-9a-f]+)?\\.jar$");
+
+    private final Map<String, Stats> jars = new ConcurrentHashMap<>();
+    private final Map<String, Stats> classes = new ConcurrentHashMap<>();
+    private final Map<String, WatchedClass> watched = new ConcurrentHashMap<>();
+    private final ThreadLocal<Pending> lastRead = new ThreadLocal<>();
+    private final @Nullable MemoryPoolMXBean metaspace = metaspacePool();
+    private final @Nullable ClassLoadRecording recording = ClassLoadRecording.start();
+    private volatile boolean closed;
+
+    /**
+     * Tests whether profiling is enabled with the {@value #PROPERTY} system property
+     *
+     * @return if profiling is enabled
+     */
+    public static boolean isEnabledBySystemProperty() {
+        return Boolean.getBoolean(PROPERTY);
+    }
+
+    /**
+     * Tests whether define times are recorded, which needs JFR. Without
+     * it, only the jars of an {@link IndexedClassPath} are profiled.
+     *
+     * @return if define times are recorded
+     */
+    public boolean isRecording() {
+        return recording != null;
+    }
+
+    /**
+     * Watches the classes of a jar that is added to the class loader as-is.
+     * They are attributed to the jar once the recording tells that they
+     * have been defined.
+     *
+     * @param jar The jar
+     * @throws IOException if the jar could not be read
+     */
+    void watch(@NotNull File jar) throws IOException {
+        if (closed || recording == null)
+            return;
+        String path = jar.getPath();
+        try (ZipFile zip = new ZipFile(jar)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName();
+                // the class loader looks in the jars that were added first
+                if (name.endsWith(CLASS_SUFFIX) && !name.startsWith("META-INF/"))
+                    watched.putIfAbsent(className(name), new WatchedClass(path, entry.getSize()));
+            }
+        }
+    }
+
+    /**
+     * Wraps the stream that the class loader reads an entry from
+     *
+     * @param jar  The jar that contains the entry
+     * @param name The entry name
+     * @param in   The entry stream
+     * @return The stream to give to the class loader
+     */
+    @NotNull InputStream profile(@NotNull String jar, @NotNull String name, @NotNull InputStream in) {
+        if (closed || !name.endsWith(CLASS_SUFFIX))
+            return in;
+        Stats stats = jars.computeIfAbsent(jar, k -> new Stats());
+        stats.read = true;
+        Pending pending = lastRead.get();
+        if (pending != null) {
+            lastRead.remove();
+            long used = metaspaceUsed();
+            if (used >= 0)
+                pending.stats.metaspace.add(Math.max(0, used - pending.metaspaceUsed));
+        }
+        classes.put(className(name), stats);
+        return new ProfiledStream(in, stats);
+    }
+
+    /**
+     * Returns the profile of every jar that classes were loaded from, the
+     * heaviest first. These are ordered by define time if it is known, or
+     * by metaspace otherwise.
+     *
+     * @return The profiles
+     */
+    public synchronized @NotNull List<JarProfile> snapshot() {
+        if (!closed)
+            collectDefineTimes();
+        List<JarProfile> profiles = new ArrayList<>(jars.size());
+        for (Map.Entry<String, Stats> entry : jars.entrySet()) {
+            Stats stats = entry.getValue();
+            profiles.add(new JarProfile(
+                    jarName(entry.getKey()),
+                    stats.classes.sum(),
+                    stats.bytes.sum(),
+                    stats.read ? millis(stats.readNanos.sum()) : -1,
+                    stats.defineNanos < 0 ? -1 : millis(stats.defineNanos),
+                    metaspace == null || !stats.read ? -1 : stats.metaspace.sum()
+            ));
+        }
+        Comparator<JarProfile> heaviest = recording != null
+                ? Comparator.comparingDouble(JarProfile::getDefineTime)
+                : Comparator.comparingLong(JarProfile::getMetaspace);
+        profiles.sort(heaviest.thenComparingLong(JarProfile::getBytes).reversed());
+        return profiles;
+    }
+
+    /**
+     * Returns a summary of the heaviest jars, one per line
+     *
+     * @param limit The maximum number of jars to include
+     * @return The summary
+     */
+    public @NotNull String summary(int limit) {
+        List<JarProfile> profiles = snapshot();
+        StringBuilder summary = new StringBuilder("Class loading by library, heaviest first:");
+        for (int i = 0; i < profiles.size() && i < limit; i++) {
+            JarProfile p = profiles.get(i);
+            summary.append(String.format(Locale.ROOT, "%n  %-48s %6d classes %10s, define %s, read %s, metaspace %s",
+                    p.getName(), p.getClasses(), size(p.getBytes()),
+                    p.getDefineTime() < 0 ? "unknown" : String.format(Locale.ROOT, "%.1f ms", p.getDefineTime()),
+                    p.getReadTime() < 0 ? "unknown" : String.format(Locale.ROOT, "%.1f ms", p.getReadTime()),
+                    p.getMetaspace() < 0 ? "unknown" : "~" + size(p.getMetaspace())));
+        }
+        if (profiles.size() > limit)
+            summary.append(String.format(Locale.ROOT, "%n  and %d more", profiles.size() - limit));
+        return summary.toString();
+    }
+
+    /**
+     * Stops profiling. Classes that are loaded afterwards are not recorded,
+     * but the profile so far can still be read.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed)
+            return;
+        collectDefineTimes();
+        closed = true;
+        if (recording != null)
+            recording.close();
+    }
+
+    private void collectDefineTimes() {
+        if (recording == null)
+            return;
+        Map<String, Long> times;
+        try {
+            times = recording.selfTimes();
+        } catch (IOException e) {
+            return;
+        }
+        Map<Stats, Long> byJar = new HashMap<>();
+        for (Map.Entry<String, Stats> entry : classes.entrySet()) {
+            Long time = times.get(entry.getKey());
+            if (time != null)
+                byJar.merge(entry.getValue(), time, Long::sum);
+        }
+        for (Map.Entry<String, Long> time : times.entrySet()) {
+            WatchedClass watchedClass = watched.get(time.getKey());
+            if (watchedClass == null || classes.containsKey(time.getKey()))
+                continue;
+            Stats stats = jars.computeIfAbsent(watchedClass.jar, k -> new Stats());
+            if (watchedClass.defined.compareAndSet(false, true)) {
+                stats.classes.increment();
+                stats.bytes.add(Math.max(0, watchedClass.size));
+            }
+            byJar.merge(stats, time.getValue(), Long::sum);
+        }
+        // the class loader reads classes while they are being loaded
+        for (Stats stats : jars.values())
+            stats.defineNanos = Math.max(0, byJar.getOrDefault(stats, 0L) - stats.readNanos.sum());
+    }
+
+    private long metaspaceUsed() {
+        if (metaspace == null)
+            return -1;
+        try {
+            return metaspace.getUsage().getUsed();
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static @Nullable MemoryPoolMXBean metaspacePool() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getName().equals("Metaspace"))
+                return pool;
+        }
+        return null;
+    }
+
+    private static @NotNull String className(@NotNull String entryName) {
+        return entryName.substring(0, entryName.length() - CLASS_SUFFIX.length()).replace('/', '.');
+    }
+
+    private static @NotNull String jarName(@NotNull String jar) {
+        return RELOCATED_SUFFIX.matcher(new File(jar).getName()).replaceFirst("");
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private static @NotNull String size(long bytes) {
+        if (bytes < 1024)
+            return bytes + " B";
+        if (bytes < 1024 * 1024)
+            return String.format(Locale.ROOT, "%.1f KiB", bytes / 1024.0);
+        return String.format(Locale.ROOT, "%.1f MiB", bytes / (1024.0 * 1024));
+    }
+
+    /**
+     * The profile of a jar
+     */
+    public static final class JarProfile {
+
+        private final String name;
+        private final long classes, bytes;
+        private final double readTime, defineTime;
+        private final long metaspace;
+
+        JarProfile(String name, long classes, long bytes, double readTime, double defineTime, long metaspace) {
+            this.name = name;
+            this.classes = classes;
+            this.bytes = bytes;
+            this.readTime = readTime;
+            this.defineTime = defineTime;
+            this.metaspace = metaspace;
+        }
+
+        /**
+         * Returns the name of the jar, without the extension and the hash
+         * of relocation rules
+         */
+        public @NotNull String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the number of classes loaded from the jar
+         */
+        public long getClasses() {
+            return classes;
+        }
+
+        /**
+         * Returns the total size of the classes loaded from the jar
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Returns the time spent reading classes from the jar, in
+         * milliseconds, or -1 if unknown
+         */
+        public double getReadTime() {
+            return readTime;
+        }
+
+        /**
+         * Returns the time spent defining classes from the jar, in
+         * milliseconds, or -1 if unknown
+         */
+        public double getDefineTime() {
+            return defineTime;
+        }
+
+        /**
+         * Returns an estimate of the metaspace taken up by classes from the
+         * jar, in bytes, or -1 if unknown
+         */
+        public long getMetaspace() {
+            return metaspace;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "JarProfile(name=%s, classes=%d, bytes=%d, readTime=%.2fms, defineTime=%.2fms, metaspace=%d)",
+                    name, classes, bytes, readTime, defineTime, metaspace);
+        }
+    }
+
+    private static final class Stats {
+        final LongAdder classes = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder readNanos = new LongAdder();
+        final LongAdder metaspace = new LongAdder();
+        volatile long defineNanos = -1;
+        volatile boolean read;
+    }
+
+    /**
+     * A class of a jar that was added as-is
+     */
+    private static final class WatchedClass {
+        final String jar;
+        final long size;
+        final AtomicBoolean defined = new AtomicBoolean();
+
+        WatchedClass(String jar, long size) {
+            this.jar = jar;
+            this.size = size;
+        }
+    }
+
+    /**
+     * The last class that was read on a thread, which is defined next
+     */
+    private static final class Pending {
+        final Stats stats;
+        final long metaspaceUsed;
+
+        Pending(Stats stats, long metaspaceUsed) {
+            this.stats = stats;
+            this.metaspaceUsed = metaspaceUsed;
+        }
+    }
+
+    /**
+     * Counts the bytes of a class and the time spent reading them
+     */
+    private final class ProfiledStream extends FilterInputStream {
+
+        private final Stats stats;
+        private long bytes, nanos;
+        private boolean closed;
+
+        ProfiledStream(@NotNull InputStream in, @NotNull Stats stats) {
+            super(in);
+            this.stats = stats;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            nanos += System.nanoTime() - start;
+            if (b >= 0)
+                bytes++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            int n = super.read(b, off, len);
+            nanos += System.nanoTime() - start;
+            if (n > 0)
+                bytes += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            if (closed)
+                return;
+            closed = true;
+            stats.classes.increment();
+            stats.bytes.add(bytes);
+            stats.readNanos.add(nanos);
+            long used = metaspaceUsed();
+            if (used >= 0)
+                lastRead.set(new Pending(stats, used));
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.classloader;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * An entry of a {@link java.net.URLClassLoader}'s class path that stands in
+ * for any number of jars. The class loader would otherwise search every jar in
+ * turn for every class and resource that is not in the jars before it, which
+ * adds up with many libraries and with Bukkit's lookups across plugins.
+ * <p>
+ * Instead, the jars are indexed by the packages they contain, so a name is
+ * only looked up in the jars that have its package. Names that were looked up
+ * and not found are remembered until another jar is added.
+ * <p>
+ * Service files are merged across jars, as the class loader only sees one
+ * resource per class path entry. For other resources that exist in several
+ * jars, the first jar wins.
+ * <p>
+ * Like the jars on the class path, multi-release jars are read at the version
+ * of the running Java, and packages are defined with the attributes of the
+ * manifest of their jar. Unlike them, classes have the URL of this class path
+ * as their code source, rather than the URL of their jar, and packages are
+ * never sealed.
+ */
+public final class IndexedClassPath extends URLStreamHandler {
+
+    private static final String PROTOCOL = "zapper-index";
+    private static final String SERVICES = "META-INF/services/";
+    private static final String VERSIONS = "META-INF/versions/";
+
+    /**
+     * Opens jars at the version of the running Java, or null on Java 8
+     */
+    private static final @Nullable MethodHandle OPEN_VERSIONED = openVersioned();
+
+    /**
+     * The feature version of the running Java, like 8 or 17
+     */
+    private static final int JAVA_VERSION = javaVersion();
+
+    /**
+     * The maximum number of missing names to remember
+     */
+    private static final int MAX_MISSES = 8192;
+
+    /**
+     * Class loaders skip entries whose URL they have seen before, so
+     * every instance needs a URL of its own
+     */
+    private static final AtomicInteger IDS = new AtomicInteger();
+
+    private final String prefix = "/" + IDS.incrementAndGet() + "/";
+    private final Map<String, List<JarFile>> packages = new ConcurrentHashMap<>();
+    private final Set<String> misses = ConcurrentHashMap.newKeySet();
+    private final @Nullable ClassLoadingProfiler profiler;
+    private final @Nullable ClassLoader loader;
+
+    /**
+     * Incremented whenever a jar is added, so that lookups that raced with
+     * the jar being added do not remember a miss
+     */
+    private volatile int generation;
+
+    public IndexedClassPath() {
+        this(null);
+    }
+
+    /**
+     * Creates a new class path
+     *
+     * @param profiler The profiler to report the classes that are read to,
+     *                 or null to not profile them
+     */
+    public IndexedClassPath(@Nullable ClassLoadingProfiler profiler) {
+        this(profiler, null);
+    }
+
+    /**
+     * Creates a new class path
+     *
+     * @param profiler The profiler to report the classes that are read to,
+     *                 or null to not profile them
+     * @param loader   The class loader that this class path is added to, whose
+     *                 packages are defined with the manifests of the jars, or null
+     *                 to leave it to the class loader, which defines them without
+     */
+    public IndexedClassPath(@Nullable ClassLoadingProfiler profiler, @Nullable ClassLoader loader) {
+        this.profiler = profiler;
+        this.loader = loader;
+    }
+
+    /**
+     * Returns the URL to add to the class loader
+     *
+     * @return The URL
+     */
+    public @NotNull URL toURL() {
+        try {
+            // the trailing slash makes the class loader resolve names against this URL
+            return new URL(PROTOCOL, null, -1, prefix, this);
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Adds the given jar to this class path. Jars are searched in the order
+     * they are added.
+     *
+     * @param jar The jar to add
+     * @throws IOException if the jar could not be opened
+     */
+    public synchronized void add(@NotNull File jar) throws IOException {
+        // kept open for as long as the class loader lives, as the class loader would
+        JarFile file = open(jar);
+        Manifest manifest = file.getManifest();
+        boolean multiRelease = OPEN_VERSIONED != null && manifest != null
+                && Boolean.parseBoolean(manifest.getMainAttributes().getValue("Multi-Release"));
+        Set<String> added = new HashSet<>();
+        for (Enumeration<? extends ZipEntry> entries = file.entries(); entries.hasMoreElements(); ) {
+            String name = entries.nextElement().getName();
+            if (multiRelease && name.startsWith(VERSIONS))
+                name = unversioned(name);
+            if (name == null)
+                continue;
+            String packageName = packageOf(name);
+            if (added.add(packageName))
+                packages.computeIfAbsent(packageName, k -> new CopyOnWriteArrayList<>()).add(file);
+        }
+        if (manifest != null && loader instanceof URLClassLoader) {
+            for (String packageName : added)
+                if (!packageName.isEmpty() && !packageName.startsWith("META-INF"))
+                    PackageDefiner.define((URLClassLoader) loader, packageName.replace('/', '.'), manifest);
+        }
+        generation++;
+        misses.clear();
+    }
+
+    /**
+     * Opens the given jar, at the version of the running Java if it is a
+     * multi-release jar
+     */
+    private static @NotNull JarFile open(@NotNull File jar) throws IOException {
+        if (OPEN_VERSIONED == null)
+            return new JarFile(jar, false);
+        try {
+            return (JarFile) OPEN_VERSIONED.invoke(jar);
+        } catch (IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IOException(t);
+        }
+    }
+
+    /**
+     * Returns the name that the given entry of a multi-release jar is read
+     * as, like {@code com/example/Foo.class} for
+     * {@code META-INF/versions/11/com/example/Foo.class}
+     *
+     * @return The name, or null if the entry is for a newer version of Java
+     */
+    private static @Nullable String unversioned(@NotNull String name) {
+        int slash = name.indexOf('/', VERSIONS.length());
+        if (slash < 0)
+            return name;
+        try {
+            int version = Integer.parseInt(name.substring(VERSIONS.length(), slash));
+            return version > JAVA_VERSION ? null : name.substring(slash + 1);
+        } catch (NumberFormatException e) {
+            return name;
+        }
+    }
+
+    private static @Nullable MethodHandle openVersioned() {
+        try {
+            Class<?> version = Class.forName("java.lang.Runtime$Version");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            MethodHandle constructor = lookup.findConstructor(JarFile.class,
+                    MethodType.methodType(void.class, File.class, boolean.class, int.class, version));
+            Object runtimeVersion = lookup.findStatic(JarFile.class, "runtimeVersion", MethodType.methodType(version)).invoke();
+            return MethodHandles.insertArguments(constructor, 1, false, ZipFile.OPEN_READ, runtimeVersion);
+        } catch (Throwable t) {
+            // Java 8, which has no multi-release jars
+            return null;
+        }
+    }
+
+    private static int javaVersion() {
+        String version = System.getProperty("java.specification.version");
+        try {
+            return version.startsWith("1.") ? Integer.parseInt(version.substring(2)) : Integer.parseInt(version);
+        } catch (NumberFormatException e) {
+            return 8;
+        }
+    }
+
+    @Override
+    protected URLConnection openConnection(URL url) throws IOException {
+        String path = url.getPath();
+        if (!path.startsWith(prefix))
+            throw new ResourceNotFoundException(url);
+        String name = path.substring(prefix.length());
+        int generation = this.generation;
+        List<JarFile> jars = packages.get(packageOf(name));
+        if (jars == null || misses.contains(name))
+            throw new ResourceNotFoundException(url);
+        List<JarFile> found = new ArrayList<>(1);
+        for (JarFile jar : jars) {
+            // resolves to the versioned entry in multi-release jars
+            ZipEntry entry = jar.getEntry(name);
+            if (entry == null || entry.isDirectory())
+                continue;
+            found.add(jar);
+            if (!name.startsWith(SERVICES))
+                break;
+        }
+        if (found.isEmpty()) {
+            if (misses.size() >= MAX_MISSES)
+                misses.clear();
+            misses.add(name);
+            if (this.generation != generation)
+                misses.remove(name);
+            throw new ResourceNotFoundException(url);
+        }
+        return new EntryConnection(url, name, found, profiler);
+    }
+
+    private static @NotNull String packageOf(@NotNull String name) {
+        int slash = name.lastIndexOf('/');
+        return slash < 0 ? "" : name.substring(0, slash);
+    }
+
+    /**
+     * A connection to an entry, or to the entries of the same service file
+     * in several jars
+     */
+    private static final class EntryConnection extends URLConnection {
+
+        private final String name;
+        private final List<JarFile> jars;
+        private final @Nullable ClassLoadingProfiler profiler;
+
+        EntryConnection(@NotNull URL url, @NotNull String name, @NotNull List<JarFile> jars, @Nullable ClassLoadingProfiler profiler) {
+            super(url);
+            this.name = name;
+            this.jars = jars;
+            this.profiler = profiler;
+        }
+
+        @Override
+        public void connect() {
+            connected = true;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            connect();
+            if (jars.size() == 1) {
+                JarFile jar = jars.get(0);
+                return profiler == null ? open(jar) : profiler.profile(jar.getName(), name, open(jar));
+            }
+            List<InputStream> streams = new ArrayList<>(jars.size() * 2);
+            for (JarFile jar : jars) {
+                streams.add(open(jar));
+                // the last line of a service file may not end with a line break
+                streams.add(new ByteArrayInputStream(new byte[]{'\n'}));
+            }
+            return new SequenceInputStream(Collections.enumeration(streams));
+        }
+
+        private @NotNull InputStream open(@NotNull JarFile jar) throws IOException {
+            ZipEntry entry = jar.getEntry(name);
+            if (entry == null)
+                throw new FileNotFoundException(name);
+            return jar.getInputStream(entry);
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            if (jars.size() != 1)
+                return -1;
+            ZipEntry entry = jars.get(0).getEntry(name);
+            return entry == null ? -1 : entry.getSize();
+        }
+
+        @Override
+        public int getContentLength() {
+            long length = getContentLengthLong();
+            return length > Integer.MAX_VALUE ? -1 : (int) length;
+        }
+    }
+}
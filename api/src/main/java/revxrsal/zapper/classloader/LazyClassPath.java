@@ -0,0 +1,178 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.classloader;
+
+import org.bukkit.Bukkit;
+import org.jetbrains.annotations.NotNull;
+import revxrsal.zapper.Dependency;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * An entry of a {@link java.net.URLClassLoader}'s class path that attaches
+ * dependencies the first time a class or resource from one of their packages
+ * is requested.
+ * <p>
+ * This is added after every other entry, so it is only asked for names that
+ * could not be found anywhere else. When a name belongs to a lazy dependency,
+ * the dependency is attached to the class path after this entry, and the
+ * class loader finds the name there as it moves on to the next entry. Only
+ * the threads that requested names from the dependency wait for it, and it
+ * is attached once however many of them there are.
+ */
+public final class LazyClassPath extends URLStreamHandler {
+
+    private static final String PROTOCOL = "zapper-lazy";
+
+    private final Map<String, List<Dependency>> packages;
+    private final Consumer<List<Dependency>> attach;
+
+    /**
+     * The attempts to attach dependencies, which complete once they are
+     * attached. Failed attempts are removed, so they are tried again.
+     */
+    private final Map<Dependency, CompletableFuture<Void>> attached = new ConcurrentHashMap<>();
+
+    /**
+     * Set while this thread is attaching dependencies, so that the classes it
+     * loads in the meantime do not attach anything themselves
+     */
+    private final ThreadLocal<Boolean> attaching = new ThreadLocal<>();
+
+    /**
+     * Creates a new lazy class path
+     *
+     * @param packages The dependencies to attach, mapped by the (relocated)
+     *                 names of the packages they contain
+     * @param attach   Downloads, relocates and attaches the given dependencies
+     *                 to the class loader. Failures are logged, and tried
+     *                 again the next time a name from the dependencies is
+     *                 requested.
+     */
+    public LazyClassPath(@NotNull Map<String, List<Dependency>> packages, @NotNull Consumer<List<Dependency>> attach) {
+        this.packages = packages;
+        this.attach = attach;
+    }
+
+    /**
+     * Returns the URL to add to the class loader
+     *
+     * @return The URL
+     */
+    public @NotNull URL toURL() {
+        try {
+            // the trailing slash makes the class loader resolve names against this URL
+            return new URL(PROTOCOL, null, -1, "/", this);
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    protected URLConnection openConnection(URL url) throws IOException {
+        String path = url.getPath();
+        int slash = path.lastIndexOf('/');
+        List<Dependency> dependencies = slash <= 0 ? null : packages.get(path.substring(1, slash).replace('/', '.'));
+        if (dependencies != null && attaching.get() == null)
+            attach(dependencies);
+        // if anything was attached, it comes after this entry
+        throw new ResourceNotFoundException(url);
+    }
+
+    private void attach(@NotNull List<Dependency> dependencies) {
+        CompletableFuture<Void> attempt = new CompletableFuture<>();
+        List<Dependency> pending = new ArrayList<>(dependencies.size());
+        List<CompletableFuture<Void>> others = new ArrayList<>();
+        for (Dependency dependency : dependencies) {
+            CompletableFuture<Void> other = attached.putIfAbsent(dependency, attempt);
+            if (other == null)
+                pending.add(dependency);
+            else
+                others.add(other);
+        }
+        if (!pending.isEmpty()) {
+            attaching.set(Boolean.TRUE);
+            try {
+                attach.accept(Collections.unmodifiableList(pending));
+                attempt.complete(null);
+            } catch (Throwable t) {
+                for (Dependency dependency : pending)
+                    attached.remove(dependency, attempt);
+                attempt.completeExceptionally(t);
+                Bukkit.getLogger().severe("[Zapper] Failed to load " + pending + " on demand: " + t);
+            } finally {
+                attaching.remove();
+            }
+        }
+        // our own dependencies are attached first, so threads never wait for each other in a cycle
+        for (CompletableFuture<Void> other : others) {
+            try {
+                other.join();
+            } catch (CompletionException | CancellationException e) {
+                // logged by the thread that attempted it
+            }
+        }
+    }
+
+    /**
+     * Tests whether dependencies can be attached to the given class loader
+     * while it is loading a class. Class loaders that are not parallel capable
+     * hold a lock on themselves while loading a class, which would deadlock with
+     * the threads that download and relocate the dependencies.
+     *
+     * @param loader The class loader
+     * @return Whether lazy dependencies are supported
+     */
+    public static boolean isSupported(@NotNull ClassLoader loader) {
+        try {
+            // Java 9+
+            Method method = ClassLoader.class.getMethod("isRegisteredAsParallelCapable");
+            return (boolean) method.invoke(loader);
+        } catch (NoSuchMethodException e) {
+            try {
+                // Java 8 only creates a lock map for parallel capable class loaders
+                UnsafeUtil.getField(loader, "parallelLockMap", ClassLoader.class);
+                return true;
+            } catch (RuntimeException notParallel) {
+                return false;
+            }
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.classloader;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import sun.misc.Unsafe;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.jar.Manifest;
+
+/**
+ * Defines packages in a {@link URLClassLoader} with the attributes of the
+ * manifest of the jar that they are in, like the class loader does for the
+ * jars on its own class path. This is needed for jars that the class loader
+ * reads through another URL, as it would otherwise define their packages
+ * without a manifest, and so without an implementation version.
+ * <p>
+ * The methods are protected, so they are accessed through the trusted
+ * lookup, which is found with {@link Unsafe}.
+ */
+final class PackageDefiner {
+
+    private static final @Nullable MethodHandle GET_PACKAGE, DEFINE_PACKAGE;
+
+    static {
+        MethodHandle getPackage = null, definePackage = null;
+        try {
+            Field field = MethodHandles.Lookup.class.getDeclaredField("IMPL_LOOKUP");
+            Unsafe unsafe = UnsafeUtil.getUnsafe();
+            MethodHandles.Lookup lookup = (MethodHandles.Lookup) unsafe.getObject(unsafe.staticFieldBase(field), unsafe.staticFieldOffset(field));
+            MethodType type = MethodType.methodType(Package.class, String.class);
+            try {
+                // the packages of the class loader itself, like the class loader checks on Java 9+
+                getPackage = lookup.findVirtual(ClassLoader.class, "getDefinedPackage", type);
+            } catch (NoSuchMethodException e) {
+                getPackage = lookup.findVirtual(ClassLoader.class, "getPackage", type);
+            }
+            definePackage = lookup.findVirtual(URLClassLoader.class, "definePackage", MethodType.methodType(Package.class, String.class, Manifest.class, URL.class));
+        } catch (Throwable ignored) {
+            // packages are defined without a manifest, as before
+        }
+        GET_PACKAGE = getPackage;
+        DEFINE_PACKAGE = definePackage;
+    }
+
+    private PackageDefiner() {
+    }
+
+    /**
+     * Defines the given package with the given manifest, unless it has been
+     * defined already. Packages are never sealed, as their classes are not
+     * loaded from the URL of the jar.
+     *
+     * @param loader      The class loader
+     * @param packageName The name of the package, like {@code com.example}
+     * @param manifest    The manifest of the jar that the package is in
+     */
+    static void define(@NotNull URLClassLoader loader, @NotNull String packageName, @NotNull Manifest manifest) {
+        if (GET_PACKAGE == null || DEFINE_PACKAGE == null)
+            return;
+        try {
+            if (GET_PACKAGE.invoke(loader, packageName) == null)
+                DEFINE_PACKAGE.invoke(loader, packageName, manifest, (URL) null);
+        } catch (IllegalArgumentException e) {
+            // defined by a class that was loaded in the meantime
+        } catch (Throwable ignored) {
+        }
+    }
+}
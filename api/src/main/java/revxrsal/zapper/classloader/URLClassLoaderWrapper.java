@@ -24,9 +24,11 @@
 package revxrsal.zapper.classloader;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.Collection;
 
 /**
  * A wrapper for {@link URLClassLoader} that allows adding URLs to it.
@@ -38,10 +40,54 @@ public abstract class URLClassLoaderWrapper {
      */
     public abstract void addURL(@NotNull URL var1);
 
+    /**
+     * Adds all the given URLs to it, in order
+     */
+    public void addURLs(@NotNull Collection<URL> urls) {
+        for (URL url : urls)
+            addURL(url);
+    }
+
+    /**
+     * Returns the class loader that URLs are added to
+     *
+     * @return The class loader, or null if unknown
+     */
+    public @Nullable ClassLoader getClassLoader() {
+        return null;
+    }
+
     /**
      * Returns a {@link URLClassLoaderWrapper} for the given class loader
      */
     public static @NotNull URLClassLoaderWrapper wrap(@NotNull URLClassLoader classLoader) {
         return new ByUnsafe(classLoader);
     }
+
+    /**
+     * Returns a {@link URLClassLoaderWrapper} for the given class loader that
+     * adds URLs as-is, like {@link #wrap(URLClassLoader)}, and reports the
+     * classes that are loaded from jars to the given profiler.
+     */
+    public static @NotNull URLClassLoaderWrapper profiled(@NotNull URLClassLoader classLoader, @NotNull ClassLoadingProfiler profiler) {
+        return new ByProfiler(new ByUnsafe(classLoader), profiler);
+    }
+
+    /**
+     * Returns a {@link URLClassLoaderWrapper} for the given class loader that
+     * adds jars through an {@link IndexedClassPath}, so that looking up a class
+     * or resource does not search every jar.
+     */
+    public static @NotNull URLClassLoaderWrapper indexed(@NotNull URLClassLoader classLoader) {
+        return new ByIndex(new ByUnsafe(classLoader), null);
+    }
+
+    /**
+     * Returns a {@link URLClassLoaderWrapper} for the given class loader that
+     * adds jars through an {@link IndexedClassPath}, and reports the classes
+     * that are loaded from them to the given profiler.
+     */
+    public static @NotNull URLClassLoaderWrapper indexed(@NotNull URLClassLoader classLoader, @NotNull ClassLoadingProfiler profiler) {
+        return new ByIndex(new ByUnsafe(classLoader), profiler);
+    }
 }
@@ -0,0 +1,237 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.download;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import revxrsal.zapper.Dependency;
+import revxrsal.zapper.util.Checksums;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * A store of artifacts that is shared by every plugin on the server, and by
+ * every server on the host that points at the same folder. Each artifact is
+ * downloaded into the store once, and plugin libraries folders receive hard
+ * links to it.
+ * <p>
+ * Artifacts with a known checksum are stored by their SHA-256. Others are
+ * stored by their Maven path, as released artifacts never change.
+ * <p>
+ * Concurrent downloads of the same artifact are coordinated with a lock file
+ * next to it, so that other threads and other processes wait for the first
+ * download instead of starting their own.
+ */
+public final class ArtifactStore {
+
+    /**
+     * The system property that enables the store. Its value is the path of
+     * the store, or {@code true} to use {@link #DEFAULT_FOLDER} in the server
+     * root.
+     */
+    public static final String PROPERTY = "zapper.store";
+
+    /**
+     * The default store folder, relative to the server root
+     */
+    public static final String DEFAULT_FOLDER = "zapper-store";
+
+    /**
+     * File locks are held by the whole JVM, and locking a file twice from the
+     * same JVM fails instead of waiting, so threads wait on these first
+     */
+    private static final Map<File, ReentrantLock> LOCKS = new ConcurrentHashMap<>();
+
+    /**
+     * How long to wait before locking a file again that the copy of Zapper
+     * in another plugin has locked
+     */
+    private static final long LOCK_RETRY_MILLIS = 50;
+
+    private final File root;
+
+    public ArtifactStore(@NotNull File root) {
+        this.root = root;
+    }
+
+    /**
+     * Returns the store configured with the {@value #PROPERTY} system property
+     *
+     * @return The store, or null if none is configured
+     */
+    public static @Nullable ArtifactStore fromSystemProperty() {
+        String path = System.getProperty(PROPERTY);
+        if (path == null || path.trim().isEmpty() || path.equalsIgnoreCase("false"))
+            return null;
+        if (path.equalsIgnoreCase("true"))
+            return new ArtifactStore(new File(DEFAULT_FOLDER).getAbsoluteFile());
+        return new ArtifactStore(new File(path).getAbsoluteFile());
+    }
+
+    /**
+     * Returns the folder of this store
+     *
+     * @return The folder
+     */
+    public @NotNull File getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns the file the given dependency is stored in
+     *
+     * @param dependency The dependency
+     * @return The file. This may not exist.
+     */
+    public @NotNull File file(@NotNull Dependency dependency) {
+        String sha256 = dependency.getSha256();
+        if (sha256 != null) {
+            sha256 = sha256.toLowerCase(Locale.ROOT);
+            return new File(root, "sha256" + File.separator + sha256.substring(0, 2) + File.separator + sha256 + ".jar");
+        }
+        return new File(root, "maven" + File.separator + dependency.getMavenPath().replace('/', File.separatorChar));
+    }
+
+    /**
+     * Links the given dependency into the given file, downloading it into
+     * the store first if it is not there yet.
+     * <p>
+     * If another thread or process is already downloading the dependency, this
+     * waits for it to finish instead.
+     *
+     * @param dependency The dependency
+     * @param target     The file to link the dependency into
+     * @param download   Downloads the dependency into the file it is given.
+     *                   Downloads should be published atomically.
+     * @throws IOException if the store could not be locked, or the file could not be linked
+     */
+    public void obtain(@NotNull Dependency dependency, @NotNull File target, @NotNull Consumer<File> download) throws IOException {
+        link(fetch(dependency, download), target);
+    }
+
+    /**
+     * Downloads the given dependency into the store, unless it is there already.
+     * Stored files are verified against the size and SHA-256 of the dependency,
+     * where these are known, and downloaded again if they do not match.
+     * <p>
+     * If another thread or process is already downloading the dependency, this
+     * waits for it to finish instead.
+     *
+     * @param dependency The dependency
+     * @param download   Downloads the dependency into the file it is given.
+     *                   Downloads should be published atomically.
+     * @return The file the dependency is stored in
+     * @throws IOException if the store could not be locked
+     */
+    public @NotNull File fetch(@NotNull Dependency dependency, @NotNull Consumer<File> download) throws IOException {
+        File file = file(dependency);
+        if (!isComplete(dependency, file)) {
+            file.getParentFile().mkdirs();
+            File lockFile = new File(file.getParentFile(), file.getName() + ".lock");
+            ReentrantLock lock = LOCKS.computeIfAbsent(lockFile, f -> new ReentrantLock());
+            lock.lock();
+            try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock ignored = lock(channel)) {
+                // somebody else may have downloaded it while we were waiting
+                if (!isComplete(dependency, file))
+                    download.accept(file);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Tests whether the given dependency is in the store
+     *
+     * @param dependency The dependency
+     * @return true if it has been downloaded into the store
+     */
+    public boolean contains(@NotNull Dependency dependency) {
+        return isComplete(dependency, file(dependency));
+    }
+
+    /**
+     * Locks the given file. Copies of Zapper in other plugins do not share
+     * {@link #LOCKS}, so when one of them holds the lock, this waits for it
+     * to let go.
+     */
+    private static @NotNull FileLock lock(@NotNull FileChannel channel) throws IOException {
+        while (true) {
+            try {
+                return channel.lock();
+            } catch (OverlappingFileLockException e) {
+                try {
+                    Thread.sleep(LOCK_RETRY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for " + channel);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests whether the given file has the size and the SHA-256 of the given
+     * dependency, where these are known. Files that cannot be read are not.
+     */
+    static boolean isComplete(@NotNull Dependency dependency, @NotNull File file) {
+        if (!file.isFile() || dependency.getSize() >= 0 && file.length() != dependency.getSize())
+            return false;
+        return dependency.getSha256() == null || Checksums.verify(file, dependency.getSha256());
+    }
+
+    /**
+     * Creates a hard link to the given file. If the file system does not
+     * support hard links, or the files are on different file systems, the
+     * file is copied instead.
+     *
+     * @param file   The file to link to
+     * @param target The link to create. If this exists, it is replaced.
+     * @throws IOException if neither a link nor a copy could be created
+     */
+    public static void link(@NotNull File file, @NotNull File target) throws IOException {
+        target.getParentFile().mkdirs();
+        Files.deleteIfExists(target.toPath());
+        try {
+            Files.createLink(target.toPath(), file.toPath());
+        } catch (IOException | UnsupportedOperationException | SecurityException e) {
+            Files.copy(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
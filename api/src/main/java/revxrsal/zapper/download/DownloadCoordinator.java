@@ -0,0 +1,229 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.download;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import revxrsal.zapper.Dependency;
+import revxrsal.zapper.transport.Transport;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+
+/**
+ * Coordinates the downloads of every plugin that uses Zapper in the JVM.
+ * Each plugin has its own copy of Zapper, relocated into its own package,
+ * so the coordinator is found through the platform MBean server under
+ * {@value #OBJECT_NAME}, and only shares JDK types between copies:
+ * <ul>
+ *     <li>Artifacts that are being downloaded, so that an artifact that is
+ *     requested by several plugins at once is only downloaded once, and
+ *     linked into the libraries folder of the others</li>
+ *     <li>The executor that downloads are scheduled on</li>
+ *     <li>The {@code HttpClient}, and so the connection pool, of the default
+ *     transport</li>
+ * </ul>
+ * The first copy to look for the coordinator registers it, and it lives
+ * for as long as the JVM. Nothing is registered while the coordinator is
+ * disabled. The shared state is handed over through an operation rather
+ * than an attribute, so that JMX consoles never read it.
+ */
+public final class DownloadCoordinator implements DownloadCoordinatorMBean {
+
+    /**
+     * The system property that disables the coordinator when set to {@code false}
+     */
+    public static final String PROPERTY = "zapper.coordinator";
+
+    /**
+     * The name of the coordinator in the platform MBean server
+     */
+    public static final String OBJECT_NAME = "zapper:type=DownloadCoordinator";
+
+    private final ConcurrentMap<String, Object> registry;
+    private final ConcurrentMap<String, CompletableFuture<File>> downloads;
+
+    @SuppressWarnings("unchecked")
+    private DownloadCoordinator(@NotNull ConcurrentMap<String, Object> registry) {
+        this.registry = registry;
+        this.downloads = (ConcurrentMap<String, CompletableFuture<File>>) registry.computeIfAbsent("downloads", k -> new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Returns the coordinator of the JVM
+     *
+     * @return The coordinator, or null if it is disabled with the
+     * {@value #PROPERTY} system property
+     */
+    public static @Nullable DownloadCoordinator shared() {
+        if (!Boolean.parseBoolean(System.getProperty(PROPERTY, "true")))
+            return null;
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Finds the registry of the coordinator that another copy has registered,
+     * or registers this one. If the MBean server cannot be used, the registry
+     * is only shared within this copy.
+     */
+    @SuppressWarnings("unchecked")
+    private static @NotNull ConcurrentMap<String, Object> findRegistry() {
+        ConcurrentMap<String, Object> registry = new ConcurrentHashMap<>();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            try {
+                server.registerMBean(new DownloadCoordinator(registry), name);
+                return registry;
+            } catch (InstanceAlreadyExistsException e) {
+                return (ConcurrentMap<String, Object>) server.invoke(name, "registry", new Object[0], new String[0]);
+            }
+        } catch (Exception | LinkageError e) {
+            return registry;
+        }
+    }
+
+    /**
+     * Obtains the given dependency into the given file. If another plugin is
+     * downloading the same artifact, this waits for it and links its file
+     * instead, and so does it if another plugin has downloaded it before,
+     * and the file is still there.
+     * <p>
+     * Artifacts with a known checksum are the same if their SHA-256 is the
+     * same. Others are the same if their Maven path is the same.
+     *
+     * @param dependency The dependency
+     * @param target     The file to obtain the dependency into
+     * @param download   Downloads the dependency into the file it is given
+     * @throws IOException if the file of another plugin could not be linked
+     */
+    public void fetch(@NotNull Dependency dependency, @NotNull File target, @NotNull Consumer<File> download) throws IOException {
+        String key = key(dependency);
+        CompletableFuture<File> flight = new CompletableFuture<>();
+        for (CompletableFuture<File> existing; (existing = downloads.putIfAbsent(key, flight)) != null; ) {
+            File file;
+            try {
+                file = existing.join();
+            } catch (CompletionException | CancellationException e) {
+                // the other download failed, so we try for ourselves
+                downloads.remove(key, existing);
+                continue;
+            }
+            if (ArtifactStore.isComplete(dependency, file)) {
+                if (!file.equals(target))
+                    ArtifactStore.link(file, target);
+                return;
+            }
+            // deleted or changed since, like originals that are not kept after relocation
+            downloads.remove(key, existing);
+        }
+        try {
+            download.accept(target);
+            flight.complete(target);
+        } catch (Throwable t) {
+            downloads.remove(key, flight);
+            flight.completeExceptionally(t);
+            throw t;
+        }
+    }
+
+    /**
+     * Returns the executor that downloads are scheduled on. This is never
+     * shut down.
+     *
+     * @return The executor
+     */
+    public @NotNull ExecutorService executor() {
+        return (ExecutorService) registry.computeIfAbsent("executor", k -> DownloadExecutors.create(DownloadExecutors.defaultParallelism()));
+    }
+
+    /**
+     * Returns a transport that shares its connections with the transports
+     * of every other plugin
+     *
+     * @param connectTimeout The time to wait for a connection to be established,
+     *                       in milliseconds, or 0 to wait forever
+     * @param readTimeout    The time to wait for a response, or for the next bytes of
+     *                       a response body, in milliseconds, or 0 to wait forever
+     * @return The transport
+     * @see Transport#shared(ConcurrentMap, long, long)
+     */
+    public @NotNull Transport transport(long connectTimeout, long readTimeout) {
+        return Transport.shared(registry, connectTimeout, readTimeout);
+    }
+
+    /**
+     * Claims a task that should only run once in the JVM, like prefetching
+     * the dependencies of other plugins
+     *
+     * @param task The name of the task
+     * @return true if the task was claimed, false if it was claimed before
+     */
+    public boolean claim(@NotNull String task) {
+        return registry.putIfAbsent("claim/" + task, Boolean.TRUE) == null;
+    }
+
+    @Override
+    public @NotNull ConcurrentMap<String, Object> registry() {
+        return registry;
+    }
+
+    @Override
+    public int getDownloadsInFlight() {
+        int inFlight = 0;
+        for (CompletableFuture<File> download : downloads.values())
+            if (!download.isDone())
+                inFlight++;
+        return inFlight;
+    }
+
+    @Override
+    public int getDownloadedArtifacts() {
+        return downloads.size() - getDownloadsInFlight();
+    }
+
+    private static @NotNull String key(@NotNull Dependency dependency) {
+        String sha256 = dependency.getSha256();
+        return sha256 != null ? "sha256/" + sha256.toLowerCase(Locale.ROOT) : "maven/" + dependency.getMavenPath();
+    }
+
+    /**
+     * Registers the coordinator the first time it is used
+     */
+    private static final class Holder {
+        static final DownloadCoordinator INSTANCE = new DownloadCoordinator(findRegistry());
+    }
+}
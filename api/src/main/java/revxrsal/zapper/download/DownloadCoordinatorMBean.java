@@ -0,0 +1,54 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.download;
+
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The JMX view of a {@link DownloadCoordinator}, which is also how copies of
+ * Zapper that are relocated differently find the state they share.
+ */
+public interface DownloadCoordinatorMBean {
+
+    /**
+     * Returns the state that is shared by every copy of Zapper in the JVM.
+     * Values are only ever JDK types, as the classes of Zapper differ
+     * between copies.
+     * <p>
+     * This is an operation rather than an attribute, so that JMX consoles
+     * do not read it. It can only be used from within the JVM.
+     */
+    ConcurrentMap<String, Object> registry();
+
+    /**
+     * Returns the number of artifacts that are being downloaded
+     */
+    int getDownloadsInFlight();
+
+    /**
+     * Returns the number of artifacts that have been downloaded through
+     * the coordinator, and can be linked instead of downloaded again
+     */
+    int getDownloadedArtifacts();
+}
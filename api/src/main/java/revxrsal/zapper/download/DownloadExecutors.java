@@ -0,0 +1,103 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.download;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the default executors used for downloading dependencies
+ */
+public final class DownloadExecutors {
+
+    private DownloadExecutors() {
+    }
+
+    /**
+     * The default number of dependencies that are downloaded at the same time
+     */
+    public static int defaultParallelism() {
+        return Math.max(4, Math.min(16, Runtime.getRuntime().availableProcessors() * 2));
+    }
+
+    /**
+     * Creates a new executor for downloading dependencies. On Java 21+, this
+     * will create a virtual-thread-per-task executor. Otherwise, it will
+     * create a fixed pool of daemon threads.
+     * <p>
+     * Callers are responsible for shutting down the returned executor.
+     *
+     * @param parallelism The maximum number of threads, if platform threads are used
+     * @return The executor
+     */
+    public static @NotNull ExecutorService create(int parallelism) {
+        ExecutorService virtual = newVirtualThreadExecutor();
+        if (virtual != null)
+            return virtual;
+        return Executors.newFixedThreadPool(parallelism, new DaemonThreadFactory());
+    }
+
+    /**
+     * Creates a new executor with no bound on the number of threads. On Java 21+,
+     * this will create a virtual-thread-per-task executor. Otherwise, it will
+     * create a cached pool of daemon threads.
+     * <p>
+     * Callers are responsible for shutting down the returned executor.
+     *
+     * @return The executor
+     */
+    public static @NotNull ExecutorService createUnbounded() {
+        ExecutorService virtual = newVirtualThreadExecutor();
+        if (virtual != null)
+            return virtual;
+        return Executors.newCachedThreadPool(new DaemonThreadFactory());
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (Throwable t) {
+            // not Java 21+, or virtual threads are not available
+            return null;
+        }
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NotNull Runnable r) {
+            Thread thread = new Thread(r, "Zapper Download Thread #" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
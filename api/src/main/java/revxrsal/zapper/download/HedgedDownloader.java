@@ -0,0 +1,436 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.download;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import revxrsal.zapper.ArtifactIntegrityException;
+import revxrsal.zapper.Dependency;
+import revxrsal.zapper.DependencyDownloadException;
+import revxrsal.zapper.DependencyDownloadResult;
+import revxrsal.zapper.LoadListener;
+import revxrsal.zapper.LoadProgress;
+import revxrsal.zapper.metrics.FlightRecorderEvents;
+import revxrsal.zapper.metrics.LoadMetrics;
+import revxrsal.zapper.relocation.Relocation;
+import revxrsal.zapper.repository.Repository;
+import revxrsal.zapper.repository.RepositoryCircuitBreaker;
+import revxrsal.zapper.repository.RepositoryRouter;
+import revxrsal.zapper.repository.RepositoryScorer;
+import revxrsal.zapper.transport.Transport;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Downloads a dependency by trying repositories in the order decided by a
+ * {@link RepositoryRouter}, which puts pinned and routed repositories first
+ * and ranks the rest using a {@link RepositoryScorer}.
+ * <p>
+ * If a repository has not started responding once the configured percentile of
+ * its historical latency has passed, a hedged request is sent to the next-best
+ * repository, and whichever finishes first wins. The other request is abandoned.
+ * <p>
+ * Requests that fail transiently are retried against the same repository as
+ * decided by a {@link RetryPolicy}, and repositories that are down are skipped
+ * as decided by a {@link RepositoryCircuitBreaker}. A dependency is given up
+ * on once the deadline of the retry policy has passed.
+ * <p>
+ * Every request downloads into its own temporary file, which is moved into
+ * place once it has been downloaded successfully.
+ */
+public final class HedgedDownloader {
+
+    /**
+     * Never hedge sooner than this, to avoid doubling the load on healthy
+     * repositories because of a handful of very fast samples
+     */
+    private static final long MIN_HEDGE_DELAY = 100;
+
+    private final RepositoryScorer scorer;
+    private final RepositoryRouter router;
+    private final Transport transport;
+    private final ExecutorService executor;
+    private final double hedgePercentile;
+    private final LoadMetrics metrics;
+    private final RetryPolicy retryPolicy;
+    private final RepositoryCircuitBreaker breaker;
+
+    /**
+     * Creates a new hedged downloader
+     *
+     * @param scorer          The scorer to rank repositories with and record latencies into
+     * @param router          The router that decides which repositories to try, and
+     *                        that records repositories that do not have a dependency
+     * @param transport       The transport to send requests with
+     * @param executor        The executor to run requests on. This must be able to run at
+     *                        least two requests concurrently for every caller.
+     * @param hedgePercentile The percentile of latency after which a hedged request is sent,
+     *                        or a value {@code >= 1} to disable hedging
+     * @param metrics         The metrics to report every request to
+     * @param retryPolicy     The policy for retrying failed requests
+     * @param breaker         The circuit breaker that decides which repositories are skipped.
+     *                        This should be shared by all downloaders of the same repositories.
+     */
+    public HedgedDownloader(
+            @NotNull RepositoryScorer scorer,
+            @NotNull RepositoryRouter router,
+            @NotNull Transport transport,
+            @NotNull ExecutorService executor,
+            double hedgePercentile,
+            @NotNull LoadMetrics metrics,
+            @NotNull RetryPolicy retryPolicy,
+            @NotNull RepositoryCircuitBreaker breaker
+    ) {
+        this.scorer = scorer;
+        this.router = router;
+        this.transport = transport;
+        this.executor = executor;
+        this.hedgePercentile = hedgePercentile;
+        this.metrics = metrics;
+        this.retryPolicy = retryPolicy;
+        this.breaker = breaker;
+    }
+
+    /**
+     * Downloads the given dependency into the given file
+     *
+     * @param dependency   The dependency to download
+     * @param file         The file to download into
+     * @param repositories The repositories to try
+     * @param listener     An optional progress listener
+     * @throws DependencyDownloadException if no repository could provide the dependency
+     */
+    public void download(
+            @NotNull Dependency dependency,
+            @NotNull File file,
+            @NotNull Collection<Repository> repositories,
+            @Nullable LoadListener listener
+    ) {
+        download(dependency, file, repositories, listener, Collections.emptyList(), null);
+    }
+
+    /**
+     * Downloads the given dependency into the given file, relocating it
+     * while it is being downloaded
+     *
+     * @param dependency   The dependency to download
+     * @param file         The file to write the relocated jar to
+     * @param repositories The repositories to try
+     * @param listener     An optional progress listener
+     * @param relocations  The relocations to apply. If empty, the dependency
+     *                     is downloaded as-is
+     * @param original     An optional file to also write the original jar to
+     * @throws DependencyDownloadException if no repository could provide the dependency
+     * @see Dependency#downloadRelocated(File, Repository, Transport, LoadListener, List, File)
+     */
+    public void download(
+            @NotNull Dependency dependency,
+            @NotNull File file,
+            @NotNull Collection<Repository> repositories,
+            @Nullable LoadListener listener,
+            @NotNull List<Relocation> relocations,
+            @Nullable File original
+    ) {
+        List<Repository> ranked = router.candidates(dependency, repositories, scorer);
+        CompletionService<Attempt> completion = new ExecutorCompletionService<>(executor);
+        AtomicReference<Attempt> leader = new AtomicReference<>();
+        AtomicInteger attempts = new AtomicInteger();
+        long startedAt = System.nanoTime();
+        List<Attempt> running = new ArrayList<>(2);
+        List<String> failedRepos = new ArrayList<>();
+        Throwable lastError = null;
+        int next = 0;
+        try {
+            while (true) {
+                // repositories may go down while other repositories are tried
+                while (next < ranked.size() && !breaker.allows(ranked.get(next))) {
+                    Repository down = ranked.get(next++);
+                    failedRepos.add(down + " (skipped, as it is unavailable)");
+                    if (lastError == null)
+                        lastError = breaker.lastError(down);
+                }
+                if (running.isEmpty()) {
+                    if (next == ranked.size())
+                        break;
+                    running.add(submit(completion, new Attempt(dependency, file, original, ranked.get(next++), attempts, startedAt, leader, listener, relocations)));
+                }
+                long untilDeadline = remaining(startedAt);
+                if (untilDeadline <= 0) {
+                    TimeoutException timeout = new TimeoutException("Gave up after " + retryPolicy.getDeadline() + "ms");
+                    if (lastError != null)
+                        timeout.addSuppressed(lastError);
+                    for (Attempt attempt : running)
+                        failedRepos.add(attempt.repository + " (did not finish in time)");
+                    throw new DependencyDownloadException(dependency, "Timed out while trying the following repositories: " + String.join("\n", failedRepos), timeout);
+                }
+                Future<Attempt> done;
+                Attempt primary = running.get(0);
+                // only hedge repositories that have not started responding yet
+                if (running.size() == 1 && next < ranked.size() && hedgePercentile < 1 && primary.firstByteAt == 0) {
+                    long delay = Math.max(MIN_HEDGE_DELAY, scorer.latencyPercentile(primary.repository, hedgePercentile));
+                    long untilHedge = delay - primary.elapsed();
+                    done = untilHedge > 0 ? completion.poll(Math.min(untilHedge, untilDeadline), TimeUnit.MILLISECONDS) : null;
+                    if (done == null) {
+                        if (untilHedge <= untilDeadline && primary.firstByteAt == 0)
+                            running.add(submit(completion, new Attempt(dependency, file, original, ranked.get(next++), attempts, startedAt, leader, listener, relocations)));
+                        continue;
+                    }
+                } else {
+                    done = completion.poll(untilDeadline, TimeUnit.MILLISECONDS);
+                    if (done == null)
+                        continue;
+                }
+                Attempt attempt = done.get();
+                running.remove(attempt);
+                if (attempt.result.wasSuccessful()) {
+                    for (Attempt loser : running)
+                        loser.cancel();
+                    running.clear();
+                    publish(attempt.temp, file);
+                    if (original != null)
+                        publish(attempt.originalTemp, original);
+                    for (Repository repository : ranked) {
+                        new PartFile(tempFile(file, repository)).delete();
+                        if (original != null)
+                            new PartFile(tempFile(original, repository)).delete();
+                    }
+                    return;
+                }
+                lastError = attempt.result.asFailure().getError();
+                failedRepos.add(attempt.repository.toString());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DependencyDownloadException(dependency, e);
+        } catch (ExecutionException e) {
+            throw new DependencyDownloadException(dependency, e.getCause());
+        } catch (IOException e) {
+            throw new DependencyDownloadException(dependency, e);
+        } finally {
+            for (Attempt attempt : running)
+                attempt.cancel();
+        }
+        throw new DependencyDownloadException(dependency, "Could not find dependency in any of the following repositories: " + String.join("\n", failedRepos), lastError);
+    }
+
+    /**
+     * Returns the time left until the deadline of a dependency that has been
+     * requested since the given time
+     */
+    private long remaining(long startedAt) {
+        if (retryPolicy.getDeadline() == 0)
+            return Long.MAX_VALUE;
+        return retryPolicy.getDeadline() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+    }
+
+    private @NotNull Attempt submit(@NotNull CompletionService<Attempt> completion, @NotNull Attempt attempt) {
+        completion.submit(attempt::run);
+        return attempt;
+    }
+
+    private static @NotNull File tempFile(@NotNull File file, @NotNull Repository repository) {
+        return new File(file.getParentFile(), file.getName() + "." + Integer.toHexString(repository.toString().hashCode()));
+    }
+
+    private static void publish(@NotNull File temp, @NotNull File file) throws IOException {
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private final class Attempt implements LoadListener {
+
+        private final Dependency dependency;
+        private final Repository repository;
+        private final AtomicInteger attempts;
+        private final long dependencyStartedAt;
+        private final File temp;
+        private final @Nullable File originalTemp;
+        private final AtomicReference<Attempt> leader;
+        private final @Nullable LoadListener listener;
+        private final List<Relocation> relocations;
+        private final long startedAt = System.nanoTime();
+        private volatile long firstByteAt;
+        private volatile long bytes;
+        private volatile boolean cancelled;
+        private DependencyDownloadResult result;
+
+        Attempt(
+                Dependency dependency,
+                File file,
+                @Nullable File original,
+                Repository repository,
+                AtomicInteger attempts,
+                long dependencyStartedAt,
+                AtomicReference<Attempt> leader,
+                @Nullable LoadListener listener,
+                List<Relocation> relocations
+        ) {
+            this.dependency = dependency;
+            this.repository = repository;
+            this.attempts = attempts;
+            this.dependencyStartedAt = dependencyStartedAt;
+            // keyed by repository, so that an interrupted download is resumed
+            // from the same repository next time
+            this.temp = tempFile(file, repository);
+            this.originalTemp = original == null ? null : tempFile(original, repository);
+            this.leader = leader;
+            this.listener = listener;
+            this.relocations = relocations;
+        }
+
+        Attempt run() {
+            for (int retry = 0; ; retry++) {
+                request(attempts.getAndIncrement());
+                if (cancelled || result.wasSuccessful())
+                    return this;
+                Throwable error = result.asFailure().getError();
+                if (!retryPolicy.shouldRetry(retry, error) || !breaker.allows(repository) || !backOff(retryPolicy.delay(retry)))
+                    return this;
+            }
+        }
+
+        /**
+         * Sends a single request to the repository
+         */
+        private void request(int attempt) {
+            metrics.requestStarted(dependency, repository, attempt);
+            FlightRecorderEvents.Span span = FlightRecorderEvents.download(dependency, repository, attempt);
+            long requestedAt = System.nanoTime();
+            // bytes of an interrupted download that is resumed are not transferred again
+            long resumed = relocations.isEmpty() ? new PartFile(temp).length() : 0;
+            bytes = resumed;
+            result = relocations.isEmpty()
+                    ? dependency.download(temp, repository, transport, this)
+                    : dependency.downloadRelocated(temp, repository, transport, this, relocations, originalTemp);
+            long nanos = System.nanoTime() - requestedAt;
+            long transferred = Math.max(0, bytes - resumed);
+            if (cancelled) {
+                metrics.requestFailed(dependency, repository, new CancellationException("Another repository was faster"), nanos);
+                span.set("error", "cancelled");
+            } else if (result.wasSuccessful())
+                metrics.requestFinished(dependency, repository, transferred, nanos);
+            else {
+                metrics.requestFailed(dependency, repository, result.asFailure().getError(), nanos);
+                span.set("error", result.asFailure().getError().toString());
+            }
+            span.set("bytes", transferred).commit();
+            if (result.wasSuccessful() && cancelled) {
+                // finished right after another repository won the race
+                temp.delete();
+                if (originalTemp != null)
+                    originalTemp.delete();
+            } else if (result.wasSuccessful()) {
+                scorer.recordSuccess(repository, millis((firstByteAt > requestedAt ? firstByteAt : System.nanoTime()) - requestedAt));
+                breaker.recordSuccess(repository);
+            } else if (!cancelled) {
+                Throwable error = result.asFailure().getError();
+                // a corrupt artifact is reported against the artifact, as the
+                // repository itself is up. it is not retried, as it is not transient
+                if (error instanceof ArtifactIntegrityException)
+                    return;
+                breaker.recordFailure(repository, error);
+                // a repository that does not have an artifact is no less reliable
+                if (error instanceof FileNotFoundException)
+                    router.recordMiss(repository, dependency);
+                else
+                    scorer.recordFailure(repository);
+            }
+        }
+
+        /**
+         * Waits for the given delay before retrying, unless this attempt is
+         * cancelled in the meantime, or the delay would pass the deadline
+         *
+         * @return Whether the request should be retried
+         */
+        private synchronized boolean backOff(long delayMillis) {
+            if (delayMillis >= remaining(dependencyStartedAt))
+                return false;
+            long wakeUp = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+            try {
+                long left;
+                while (!cancelled && (left = wakeUp - System.nanoTime()) > 0)
+                    TimeUnit.NANOSECONDS.timedWait(this, left);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return !cancelled;
+        }
+
+        long elapsed() {
+            return millis(System.nanoTime() - startedAt);
+        }
+
+        void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                // wakes it up if it is waiting to retry
+                notifyAll();
+            }
+            // the time we have waited is a lower bound of this repository's latency
+            if (firstByteAt == 0)
+                scorer.recordLatency(repository, elapsed());
+        }
+
+        @Override
+        public void onProgress(@NotNull LoadProgress progress) {
+            if (cancelled)
+                throw new CancellationException("Another repository was faster");
+            if (firstByteAt == 0) {
+                firstByteAt = System.nanoTime();
+                leader.compareAndSet(null, this);
+            }
+            bytes = progress.getBytesDone();
+            if (listener != null && leader.get() == this)
+                listener.onProgress(progress);
+        }
+
+        private long millis(long nanos) {
+            return TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+    }
+}
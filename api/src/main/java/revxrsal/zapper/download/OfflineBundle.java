@@ -0,0 +1,231 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.download;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import revxrsal.zapper.Dependency;
+import revxrsal.zapper.util.Checksums;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * An offline bundle of dependencies, which is generated by the
+ * {@code zapperBundle} Gradle task for servers that cannot reach any
+ * repository.
+ * <p>
+ * A bundle is a zip of jars, along with an index that records the dependency,
+ * size and SHA-256 of every jar, in the format of
+ * {@code <dependency> <size> <sha256> <name>}. Jars are named the way they
+ * are named in the libraries folder, and may already be relocated.
+ * <p>
+ * Jars are extracted straight from the zip into the libraries folder, and
+ * verified against the index while they are being extracted. A bundle is
+ * safe to read from several threads at once.
+ */
+public final class OfflineBundle implements Closeable {
+
+    /**
+     * The suffix of bundle file names
+     */
+    public static final String EXTENSION = ".zapper-bundle.zip";
+
+    /**
+     * The name of the index inside the bundle
+     */
+    public static final String INDEX = "zapper-bundle.txt";
+
+    private static final String HEADER = "# Zapper bundle v1";
+
+    private final File file;
+    private final ZipFile zip;
+    private final Map<String, Entry> entries;
+
+    private OfflineBundle(@NotNull File file, @NotNull ZipFile zip, @NotNull Map<String, Entry> entries) {
+        this.file = file;
+        this.zip = zip;
+        this.entries = entries;
+    }
+
+    /**
+     * Lists the bundles in the given directory
+     *
+     * @param directory The directory to look in
+     * @return The bundle files, sorted by name
+     */
+    public static @NotNull List<File> find(@NotNull File directory) {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null || files.length == 0)
+            return Collections.emptyList();
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    /**
+     * Opens the given bundle and reads its index
+     *
+     * @param file The bundle file
+     * @return The bundle, or null if the file is not a bundle, or was written
+     * by an incompatible version
+     * @throws IOException if the file could not be read
+     */
+    public static @Nullable OfflineBundle open(@NotNull File file) throws IOException {
+        ZipFile zip = new ZipFile(file);
+        try {
+            ZipEntry index = zip.getEntry(INDEX);
+            if (index == null) {
+                zip.close();
+                return null;
+            }
+            Map<String, Entry> entries = new HashMap<>();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(zip.getInputStream(index), StandardCharsets.UTF_8))) {
+                if (!HEADER.equals(reader.readLine())) {
+                    zip.close();
+                    return null;
+                }
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] split = line.split(" ");
+                    if (split.length == 4)
+                        entries.put(split[0], new Entry(split[3], Long.parseLong(split[1]), split[2]));
+                }
+            }
+            return new OfflineBundle(file, zip, entries);
+        } catch (IOException | RuntimeException e) {
+            zip.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the entry of the given dependency
+     *
+     * @param dependency The dependency
+     * @return The entry, or null if the bundle does not contain the dependency
+     */
+    public @Nullable Entry entry(@NotNull Dependency dependency) {
+        return entries.get(dependency.toString());
+    }
+
+    /**
+     * Extracts the given entry into the given file, verifying its size and
+     * checksum. The file is only replaced once the entry has been fully
+     * extracted.
+     *
+     * @param entry  The entry to extract
+     * @param target The file to extract into
+     * @throws IOException if the entry could not be read, or does not match the index
+     */
+    public void extract(@NotNull Entry entry, @NotNull File target) throws IOException {
+        ZipEntry zipEntry = zip.getEntry(entry.getName());
+        if (zipEntry == null)
+            throw new IOException("Bundle " + file + " is missing " + entry.getName());
+        target.getParentFile().mkdirs();
+        PartFile part = new PartFile(target);
+        try {
+            MessageDigest digest = Checksums.sha256();
+            long size = 0;
+            try (InputStream in = zip.getInputStream(zipEntry);
+                 OutputStream out = Files.newOutputStream(part.getFile().toPath())) {
+                byte[] buffer = new byte[64 * 1024];
+                for (int read; (read = in.read(buffer)) != -1; ) {
+                    digest.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                    size += read;
+                }
+            }
+            String sha256 = Checksums.toHex(digest.digest());
+            if (size != entry.getSize() || !sha256.equalsIgnoreCase(entry.getSha256()))
+                throw new IOException("Bundle " + file + " has a corrupted " + entry.getName()
+                        + " (expected " + entry.getSha256() + ", found " + sha256 + ")");
+            part.publish();
+        } finally {
+            part.delete();
+        }
+    }
+
+    /**
+     * Returns the bundle file
+     *
+     * @return The file
+     */
+    public @NotNull File getFile() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        zip.close();
+    }
+
+    /**
+     * A jar in a bundle
+     */
+    public static final class Entry {
+
+        private final String name;
+        private final long size;
+        private final String sha256;
+
+        Entry(@NotNull String name, long size, @NotNull String sha256) {
+            this.name = name;
+            this.size = size;
+            this.sha256 = sha256;
+        }
+
+        /**
+         * Returns the name of the jar, which is also its name in
+         * the libraries folder
+         *
+         * @return The name
+         */
+        public @NotNull String getName() {
+            return name;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public @NotNull String getSha256() {
+            return sha256;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.download;
+
+import org.jetbrains.annotations.NotNull;
+import revxrsal.zapper.Dependency;
+import revxrsal.zapper.DependencyDownloadException;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Downloads a group of dependencies concurrently, with at most {@code parallelism}
+ * downloads running at the same time.
+ * <p>
+ * Dependencies are started largest-first (according to {@link Dependency#getSize()}),
+ * so that big artifacts do not end up being the only download left at the end.
+ * Dependencies with an unknown size keep their declaration order.
+ */
+public final class ParallelDownloader {
+
+    private static final Comparator<Dependency> LARGEST_FIRST =
+            Comparator.comparingLong(Dependency::getSize).reversed();
+
+    private final Executor executor;
+    private final Semaphore permits;
+
+    public ParallelDownloader(@NotNull Executor executor, int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1 (found " + parallelism + ")");
+        this.executor = executor;
+        this.permits = new Semaphore(parallelism);
+    }
+
+    /**
+     * Runs the given action for every dependency, and waits for all of them
+     * to finish.
+     * <p>
+     * If any of the downloads fail, the remaining downloads still run to
+     * completion, and then the failure of the first dependency (in declaration
+     * order) is rethrown.
+     *
+     * @param dependencies The dependencies to download
+     * @param action       The download action
+     * @throws DependencyDownloadException if any of the downloads fail
+     */
+    public void downloadAll(@NotNull List<Dependency> dependencies, @NotNull DownloadAction action) {
+        if (dependencies.isEmpty())
+            return;
+        List<Integer> order = new ArrayList<>(dependencies.size());
+        for (int i = 0; i < dependencies.size(); i++)
+            order.add(i);
+        order.sort((a, b) -> LARGEST_FIRST.compare(dependencies.get(a), dependencies.get(b)));
+
+        AtomicReferenceArray<Throwable> failures = new AtomicReferenceArray<>(dependencies.size());
+        CountDownLatch remaining = new CountDownLatch(dependencies.size());
+        for (int index : order) {
+            Dependency dependency = dependencies.get(index);
+            Runnable task = () -> {
+                try {
+                    action.download(dependency);
+                } catch (Throwable t) {
+                    failures.set(index, t);
+                } finally {
+                    permits.release();
+                    remaining.countDown();
+                }
+            };
+            permits.acquireUninterruptibly();
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                task.run();
+            }
+        }
+        try {
+            remaining.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while downloading dependencies", e);
+        }
+        for (int i = 0; i < dependencies.size(); i++) {
+            Throwable failure = failures.get(i);
+            if (failure == null)
+                continue;
+            if (failure instanceof RuntimeException)
+                throw (RuntimeException) failure;
+            if (failure instanceof Error)
+                throw (Error) failure;
+            throw new DependencyDownloadException(dependencies.get(i), failure);
+        }
+    }
+
+    /**
+     * Downloads a single dependency
+     */
+    @FunctionalInterface
+    public interface DownloadAction {
+
+        /**
+         * Downloads the given dependency
+         *
+         * @param dependency The dependency to download
+         * @throws Exception if the dependency could not be downloaded
+         */
+        void download(@NotNull Dependency dependency) throws Exception;
+    }
+}
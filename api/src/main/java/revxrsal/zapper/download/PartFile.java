@@ -0,0 +1,122 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.download;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A partially downloaded file. Downloads are written into a {@code .part}
+ * file next to their target, and only moved to the target once they are
+ * complete, so an interrupted download never looks like a finished one.
+ * <p>
+ * Alongside the part file, the validator ({@code ETag} or {@code Last-Modified})
+ * of the response it was downloaded from is kept, so that the download can be
+ * resumed with an {@code If-Range} request.
+ */
+public final class PartFile {
+
+    private final File target;
+    private final File file;
+    private final File validatorFile;
+
+    public PartFile(@NotNull File target) {
+        this.target = target;
+        this.file = new File(target.getParentFile(), target.getName() + ".part");
+        this.validatorFile = new File(target.getParentFile(), target.getName() + ".part.validator");
+    }
+
+    /**
+     * Returns the file that the download is written into
+     *
+     * @return The part file
+     */
+    public @NotNull File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the number of bytes that have been downloaded so far
+     *
+     * @return The downloaded bytes, or 0 if nothing has been downloaded
+     */
+    public long length() {
+        return file.length();
+    }
+
+    /**
+     * Returns the validator of the response this part was downloaded from
+     *
+     * @return The validator, or null if unknown
+     */
+    public @Nullable String getValidator() {
+        try {
+            if (!validatorFile.isFile())
+                return null;
+            String validator = new String(Files.readAllBytes(validatorFile.toPath()), StandardCharsets.UTF_8).trim();
+            return validator.isEmpty() ? null : validator;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sets the validator of the response this part is downloaded from
+     *
+     * @param validator The validator, or null if the response had none
+     */
+    public void setValidator(@Nullable String validator) throws IOException {
+        if (validator == null)
+            validatorFile.delete();
+        else
+            Files.write(validatorFile.toPath(), validator.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Atomically moves the completed download to its target
+     */
+    public void publish() throws IOException {
+        try {
+            Files.move(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        validatorFile.delete();
+    }
+
+    /**
+     * Deletes the downloaded bytes, so that the next download starts over
+     */
+    public void delete() {
+        file.delete();
+        validatorFile.delete();
+    }
+}
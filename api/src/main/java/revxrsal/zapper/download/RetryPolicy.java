@@ -0,0 +1,161 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.download;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import revxrsal.zapper.transport.HttpStatusException;
+
+import java.io.EOFException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides which failed requests are retried, and how long to wait before
+ * retrying them.
+ * <p>
+ * Only transient failures are retried: timeouts, refused or reset
+ * connections, connections that were closed early, and the HTTP status codes
+ * 408, 429, 500, 502, 503 and 504. Missing artifacts, unknown hosts and
+ * checksum mismatches are not, as retrying them would fail the same way.
+ * <p>
+ * Retries wait for an exponentially growing delay with full jitter, that is, a
+ * random delay between 0 and {@code min(maxDelay, baseDelay * 2^retry)}. This
+ * spreads out the retries of many servers that were restarted at the same time,
+ * rather than having all of them retry in lockstep.
+ */
+public final class RetryPolicy {
+
+    /**
+     * Retries twice, starting at 500ms, and gives up on a dependency after
+     * 5 minutes
+     */
+    public static final RetryPolicy DEFAULT = new RetryPolicy(2, 500, 10_000, TimeUnit.MINUTES.toMillis(5));
+
+    /**
+     * Never retries, and never gives up on a dependency while a request is
+     * still running
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(0, 0, 0, 0);
+
+    private final int maxRetries;
+    private final long baseDelay;
+    private final long maxDelay;
+    private final long deadline;
+
+    /**
+     * Creates a new retry policy
+     *
+     * @param maxRetries The number of times a request to the same repository
+     *                   is retried
+     * @param baseDelay  The delay before the first retry, in milliseconds
+     * @param maxDelay   The maximum delay before a retry, in milliseconds
+     * @param deadline   The time after which a dependency is given up on,
+     *                   across all repositories and retries, in milliseconds,
+     *                   or 0 to never give up
+     */
+    public RetryPolicy(int maxRetries, long baseDelay, long maxDelay, long deadline) {
+        if (maxRetries < 0 || baseDelay < 0 || maxDelay < baseDelay || deadline < 0)
+            throw new IllegalArgumentException("Invalid retry policy");
+        this.maxRetries = maxRetries;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Tests whether a request that failed with the given error may succeed
+     * if it is sent again
+     *
+     * @param error The error
+     * @return if the request should be retried
+     */
+    public static boolean isTransient(@Nullable Throwable error) {
+        if (error instanceof HttpStatusException) {
+            int statusCode = ((HttpStatusException) error).getStatusCode();
+            return statusCode == 408 || statusCode == 429 || statusCode == 500
+                    || statusCode == 502 || statusCode == 503 || statusCode == 504;
+        }
+        // connection refused, reset, or closed before the whole body was sent
+        return error instanceof SocketTimeoutException
+                || error instanceof ConnectException
+                || error instanceof SocketException
+                || error instanceof EOFException;
+    }
+
+    /**
+     * Tests whether a request that has failed with the given error should be
+     * retried
+     *
+     * @param retry The number of retries so far
+     * @param error The error
+     * @return if the request should be retried
+     */
+    public boolean shouldRetry(int retry, @NotNull Throwable error) {
+        return retry < maxRetries && isTransient(error);
+    }
+
+    /**
+     * Returns a random delay before the given retry
+     *
+     * @param retry The number of the retry, starting at 0
+     * @return The delay in milliseconds
+     */
+    public long delay(int retry) {
+        long cap;
+        if (baseDelay == 0)
+            cap = 0;
+        else if (retry >= Long.numberOfLeadingZeros(baseDelay) - 1)
+            cap = maxDelay; // baseDelay * 2^retry would overflow
+        else
+            cap = Math.min(maxDelay, baseDelay << retry);
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    /**
+     * Returns the number of times a request to the same repository is retried
+     *
+     * @return The number of retries
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Returns the time after which a dependency is given up on
+     *
+     * @return The deadline in milliseconds, or 0 if there is none
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy(maxRetries=" + maxRetries + ", baseDelay=" + baseDelay + ", maxDelay=" + maxDelay + ", deadline=" + deadline + ")";
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.metrics;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import revxrsal.zapper.Dependency;
+import revxrsal.zapper.repository.Repository;
+
+import java.io.File;
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Emits Java Flight Recorder events for the phases of loading dependencies,
+ * so that they can be lined up with the JVM's own events in a recording. The
+ * events are in the "Zapper" category:
+ * <ul>
+ *     <li>{@code zapper.Download}: a request for a dependency to a repository,
+ *     with the {@code dependency}, {@code repository}, {@code attempt},
+ *     {@code bytes} transferred and the {@code error}, if any</li>
+ *     <li>{@code zapper.Relocate}: relocating a jar, with the {@code jar} that is
+ *     written and its size in {@code bytes}</li>
+ *     <li>{@code zapper.Attach}: adding {@code jars} to the class loader</li>
+ * </ul>
+ * JFR is available on Java 11+ and on Java 8u262+. As this library is
+ * compiled against Java 8, the event types are created with
+ * {@code jdk.jfr.EventFactory} through method handles that are looked up once.
+ * When JFR is not available, or the events are not enabled in the running
+ * recordings, spans do nothing.
+ */
+public final class FlightRecorderEvents {
+
+    private static final @Nullable Handles HANDLES = Handles.lookup();
+
+    private static final @Nullable EventType DOWNLOAD = EventType.create(
+            "zapper.Download", "Download", "A request for a dependency to a repository",
+            field(String.class, "dependency", "Dependency"),
+            field(String.class, "repository", "Repository"),
+            field(int.class, "attempt", "Attempt"),
+            bytesField("bytes", "Bytes Transferred"),
+            field(String.class, "error", "Error")
+    );
+
+    private static final @Nullable EventType RELOCATE = EventType.create(
+            "zapper.Relocate", "Relocate", "Relocating a jar",
+            field(String.class, "jar", "Jar"),
+            bytesField("bytes", "Size")
+    );
+
+    private static final @Nullable EventType ATTACH = EventType.create(
+            "zapper.Attach", "Attach", "Adding jars to the class loader",
+            field(int.class, "jars", "Jars")
+    );
+
+    private FlightRecorderEvents() {
+    }
+
+    /**
+     * Tests whether JFR is available in the running JVM
+     *
+     * @return if events can be emitted
+     */
+    public static boolean isAvailable() {
+        return HANDLES != null;
+    }
+
+    /**
+     * Begins a {@code zapper.Download} event
+     *
+     * @param dependency The dependency that is requested
+     * @param repository The repository it is requested from
+     * @param attempt    The number of the attempt, starting at 0
+     * @return The span to commit once the request is over
+     */
+    public static @NotNull Span download(@NotNull Dependency dependency, @NotNull Repository repository, int attempt) {
+        return Span.begin(DOWNLOAD)
+                .set("dependency", dependency.toString())
+                .set("repository", repository.toString())
+                .set("attempt", attempt);
+    }
+
+    /**
+     * Begins a {@code zapper.Relocate} event
+     *
+     * @param output The relocated jar that is written
+     * @return The span to commit once the jar has been relocated
+     */
+    public static @NotNull Span relocate(@NotNull File output) {
+        return Span.begin(RELOCATE).set("jar", output.getName());
+    }
+
+    /**
+     * Begins a {@code zapper.Attach} event
+     *
+     * @param jars The number of jars that are added
+     * @return The span to commit once the jars have been added
+     */
+    public static @NotNull Span attach(int jars) {
+        return Span.begin(ATTACH).set("jars", jars);
+    }
+
+    /**
+     * An event that is in progress. Spans are not thread-safe, and must be
+     * committed on the thread that began them.
+     */
+    public static final class Span {
+
+        private static final Span NONE = new Span(null, null);
+
+        private final @Nullable EventType type;
+        private final @Nullable Object event;
+
+        private Span(@Nullable EventType type, @Nullable Object event) {
+            this.type = type;
+            this.event = event;
+        }
+
+        private static @NotNull Span begin(@Nullable EventType type) {
+            if (type == null)
+                return NONE;
+            Object event = type.begin();
+            return event == null ? NONE : new Span(type, event);
+        }
+
+        /**
+         * Sets a field of the event. Fields that the event does not have
+         * are ignored.
+         *
+         * @param field The field name
+         * @param value The value, which must match the type of the field
+         * @return This span
+         */
+        public @NotNull Span set(@NotNull String field, @Nullable Object value) {
+            if (type != null)
+                type.set(event, field, value);
+            return this;
+        }
+
+        /**
+         * Ends the event, and commits it if it passes the thresholds of
+         * the running recordings
+         */
+        public void commit() {
+            if (type != null)
+                type.commit(event);
+        }
+    }
+
+    private static @Nullable Object field(@NotNull Class<?> type, @NotNull String name, @NotNull String label) {
+        Handles h = HANDLES;
+        if (h == null)
+            return null;
+        try {
+            return h.newField.invoke(type, name, Collections.singletonList(h.newAnnotation.invoke(h.label, label)));
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    private static @Nullable Object bytesField(@NotNull String name, @NotNull String label) {
+        Handles h = HANDLES;
+        if (h == null)
+            return null;
+        try {
+            return h.newField.invoke(long.class, name, Arrays.asList(
+                    h.newAnnotation.invoke(h.label, label),
+                    h.newAnnotation.invoke(h.dataAmount, "BYTES")
+            ));
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    /**
+     * An event type that was created with {@code jdk.jfr.EventFactory}
+     */
+    private static final class EventType {
+
+        private final Object factory;
+        private final List<String> fields;
+
+        private EventType(Object factory, List<String> fields) {
+            this.factory = factory;
+            this.fields = fields;
+        }
+
+        static @Nullable EventType create(@NotNull String name, @NotNull String label, @NotNull String description, Object... fields) {
+            Handles h = HANDLES;
+            if (h == null)
+                return null;
+            try {
+                List<Object> annotations = Arrays.asList(
+                        h.newAnnotation.invoke(h.name, name),
+                        h.newAnnotation.invoke(h.label, label),
+                        h.newAnnotation.invoke(h.description, description),
+                        h.newAnnotation.invoke(h.category, new String[]{"Zapper"})
+                );
+                List<String> names = new ArrayList<>(fields.length);
+                for (Object field : fields) {
+                    if (field == null)
+                        return null;
+                    names.add((String) h.fieldName.invoke(field));
+                }
+                return new EventType(h.create.invoke(annotations, Arrays.asList(fields)), names);
+            } catch (Throwable t) {
+                return null;
+            }
+        }
+
+        @Nullable Object begin() {
+            Handles h = HANDLES;
+            try {
+                Object event = h.newEvent.invoke(factory);
+                if (!(boolean) h.isEnabled.invoke(event))
+                    return null;
+                h.begin.invoke(event);
+                return event;
+            } catch (Throwable t) {
+                return null;
+            }
+        }
+
+        void set(Object event, @NotNull String field, @Nullable Object value) {
+            int index = fields.indexOf(field);
+            if (index < 0)
+                return;
+            try {
+                HANDLES.set.invoke(event, index, value);
+            } catch (Throwable ignored) {
+            }
+        }
+
+        void commit(Object event) {
+            Handles h = HANDLES;
+            try {
+                h.end.invoke(event);
+                if ((boolean) h.shouldCommit.invoke(event))
+                    h.commit.invoke(event);
+            } catch (Throwable ignored) {
+            }
+        }
+    }
+
+    /**
+     * The method handles into {@code jdk.jfr}
+     */
+    private static final class Handles {
+
+        private MethodHandle newAnnotation, newField, fieldName;
+        private MethodHandle create, newEvent;
+        private MethodHandle isEnabled, begin, set, end, shouldCommit, commit;
+        private Class<? extends Annotation> name, label, description, category, dataAmount;
+
+        static @Nullable Handles lookup() {
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                Class<?> event = Class.forName("jdk.jfr.Event");
+                Class<?> factory = Class.forName("jdk.jfr.EventFactory");
+                Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+                Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+
+                Handles h = new Handles();
+                h.newAnnotation = lookup.findConstructor(annotationElement, MethodType.methodType(void.class, Class.class, Object.class));
+                h.newField = lookup.findConstructor(valueDescriptor, MethodType.methodType(void.class, Class.class, String.class, List.class));
+                h.fieldName = lookup.findVirtual(valueDescriptor, "getName", MethodType.methodType(String.class));
+                h.create = lookup.findStatic(factory, "create", MethodType.methodType(factory, List.class, List.class));
+                h.newEvent = lookup.findVirtual(factory, "newEvent", MethodType.methodType(event));
+                h.isEnabled = lookup.findVirtual(event, "isEnabled", MethodType.methodType(boolean.class));
+                h.begin = lookup.findVirtual(event, "begin", MethodType.methodType(void.class));
+                h.set = lookup.findVirtual(event, "set", MethodType.methodType(void.class, int.class, Object.class));
+                h.end = lookup.findVirtual(event, "end", MethodType.methodType(void.class));
+                h.shouldCommit = lookup.findVirtual(event, "shouldCommit", MethodType.methodType(boolean.class));
+                h.commit = lookup.findVirtual(event, "commit", MethodType.methodType(void.class));
+                h.name = annotation("jdk.jfr.Name");
+                h.label = annotation("jdk.jfr.Label");
+                h.description = annotation("jdk.jfr.Description");
+                h.category = annotation("jdk.jfr.Category");
+                h.dataAmount = annotation("jdk.jfr.DataAmount");
+                return h;
+            } catch (Throwable t) {
+                // not Java 11+ or 8u262+, or the jdk.jfr module is not available
+                return null;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Class<? extends Annotation> annotation(String name) throws ClassNotFoundException {
+            return (Class<? extends Annotation>) Class.forName(name);
+        }
+    }
+}
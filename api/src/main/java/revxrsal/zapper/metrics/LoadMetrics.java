@@ -0,0 +1,161 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.metrics;
+
+import org.jetbrains.annotations.NotNull;
+import revxrsal.zapper.Dependency;
+import revxrsal.zapper.repository.Repository;
+
+/**
+ * Receives measurements of what happens while dependencies are loaded, to
+ * be collected into metrics. All methods do nothing by default.
+ * <p>
+ * Methods may be invoked from several threads at once, including download
+ * and relocation threads, so implementations must be thread-safe, and should
+ * return quickly.
+ *
+ * @see MetricsCollector
+ */
+public interface LoadMetrics {
+
+    /**
+     * Metrics that are discarded
+     */
+    LoadMetrics NONE = new LoadMetrics() {
+    };
+
+    /**
+     * Invoked when a dependency is requested from a repository
+     *
+     * @param dependency The dependency
+     * @param repository The repository
+     * @param attempt    0 for the first request for the dependency, and higher
+     *                   for hedged requests, retries, and repositories that
+     *                   are tried after a failure
+     */
+    default void requestStarted(@NotNull Dependency dependency, @NotNull Repository repository, int attempt) {
+    }
+
+    /**
+     * Invoked when a dependency has been downloaded from a repository
+     *
+     * @param dependency The dependency
+     * @param repository The repository
+     * @param bytes      The number of bytes transferred, which excludes bytes
+     *                   of a download that has been resumed
+     * @param nanos      The duration of the request
+     */
+    default void requestFinished(@NotNull Dependency dependency, @NotNull Repository repository, long bytes, long nanos) {
+    }
+
+    /**
+     * Invoked when a request to a repository has failed, or was abandoned
+     * because another repository was faster, in which case the error is a
+     * {@link java.util.concurrent.CancellationException}
+     *
+     * @param dependency The dependency
+     * @param repository The repository
+     * @param error      The error
+     * @param nanos      The duration of the request
+     */
+    default void requestFailed(@NotNull Dependency dependency, @NotNull Repository repository, @NotNull Throwable error, long nanos) {
+    }
+
+    /**
+     * Invoked when a dependency could not be obtained from any source
+     *
+     * @param dependency The dependency
+     * @param error      The error
+     */
+    default void dependencyFailed(@NotNull Dependency dependency, @NotNull Throwable error) {
+    }
+
+    /**
+     * Invoked when a dependency has been relocated from the disk. Dependencies
+     * that are relocated while they are downloaded are not reported here, as
+     * their relocation time is part of the request.
+     *
+     * @param dependency The dependency
+     * @param nanos      The time it took to relocate it
+     */
+    default void relocated(@NotNull Dependency dependency, long nanos) {
+    }
+
+    /**
+     * Invoked when jars have been added to the class loader
+     *
+     * @param jars  The number of jars
+     * @param nanos The time it took to add them
+     */
+    default void attached(int jars, long nanos) {
+    }
+
+    /**
+     * Invoked when something is looked up in one of the caches
+     *
+     * @param cache The cache
+     * @param hit   Whether it was found
+     */
+    default void cacheLookup(@NotNull Cache cache, boolean hit) {
+    }
+
+    /**
+     * The caches that are looked up while loading
+     */
+    enum Cache {
+
+        /**
+         * The startup manifest, which is looked up once per load. A hit means
+         * that nothing had to be resolved.
+         */
+        STARTUP_MANIFEST,
+
+        /**
+         * Original jars in the libraries folder, looked up per dependency
+         */
+        ORIGINAL,
+
+        /**
+         * Relocated jars in the libraries folder, looked up per dependency
+         */
+        RELOCATED,
+
+        /**
+         * The shared artifact store, looked up per downloaded dependency
+         */
+        STORE,
+
+        /**
+         * Artifacts that other plugins in the JVM are downloading, or have
+         * downloaded, looked up per downloaded dependency
+         */
+        COORDINATOR,
+
+        /**
+         * Offline bundles, looked up per downloaded dependency when there
+         * are any
+         */
+        BUNDLE
+    }
+}
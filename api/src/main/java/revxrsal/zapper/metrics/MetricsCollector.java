@@ -0,0 +1,236 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.metrics;
+
+import org.jetbrains.annotations.NotNull;
+import revxrsal.zapper.Dependency;
+import revxrsal.zapper.repository.Repository;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link LoadMetrics} that keeps counters and latency histograms in
+ * memory, and that can be exposed over JMX with {@link #register(String)}.
+ */
+public final class MetricsCollector implements LoadMetrics, ZapperMetricsMXBean {
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failedRequests = new LongAdder();
+    private final LongAdder cancelledRequests = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder failedDependencies = new LongAdder();
+    private final LongAdder bytesDownloaded = new LongAdder();
+    private final LongAdder downloadNanos = new LongAdder();
+    private final Map<String, LongAdder> requestsByRepository = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> failuresByRepository = new ConcurrentHashMap<>();
+    private final LatencyHistogram requestLatency = new LatencyHistogram();
+    private final LatencyHistogram relocationTime = new LatencyHistogram();
+    private final LatencyHistogram attachTime = new LatencyHistogram();
+    private final Map<Cache, LongAdder> cacheHits = new EnumMap<>(Cache.class);
+    private final Map<Cache, LongAdder> cacheMisses = new EnumMap<>(Cache.class);
+
+    public MetricsCollector() {
+        for (Cache cache : Cache.values()) {
+            cacheHits.put(cache, new LongAdder());
+            cacheMisses.put(cache, new LongAdder());
+        }
+    }
+
+    /**
+     * Registers this collector in the platform MBean server, under
+     * {@code zapper:type=Metrics,name=<name>}. A collector that was registered
+     * under the same name before, like by a previous instance of a reloaded
+     * plugin, is replaced.
+     *
+     * @param name The name, like the name of the plugin
+     * @return The name this collector was registered under
+     * @throws JMException if the collector could not be registered
+     */
+    public @NotNull ObjectName register(@NotNull String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName("zapper:type=Metrics,name=" + ObjectName.quote(name));
+        try {
+            server.registerMBean(this, objectName);
+        } catch (InstanceAlreadyExistsException e) {
+            try {
+                server.unregisterMBean(objectName);
+            } catch (InstanceNotFoundException ignored) {
+            }
+            server.registerMBean(this, objectName);
+        }
+        return objectName;
+    }
+
+    @Override
+    public void requestStarted(@NotNull Dependency dependency, @NotNull Repository repository, int attempt) {
+        requests.increment();
+        if (attempt > 0)
+            retries.increment();
+        requestsByRepository.computeIfAbsent(repository.toString(), k -> new LongAdder()).increment();
+    }
+
+    @Override
+    public void requestFinished(@NotNull Dependency dependency, @NotNull Repository repository, long bytes, long nanos) {
+        bytesDownloaded.add(bytes);
+        downloadNanos.add(nanos);
+        requestLatency.record(nanos);
+    }
+
+    @Override
+    public void requestFailed(@NotNull Dependency dependency, @NotNull Repository repository, @NotNull Throwable error, long nanos) {
+        if (error instanceof CancellationException) {
+            cancelledRequests.increment();
+            return;
+        }
+        failedRequests.increment();
+        failuresByRepository.computeIfAbsent(repository.toString(), k -> new LongAdder()).increment();
+    }
+
+    @Override
+    public void dependencyFailed(@NotNull Dependency dependency, @NotNull Throwable error) {
+        failedDependencies.increment();
+    }
+
+    @Override
+    public void relocated(@NotNull Dependency dependency, long nanos) {
+        relocationTime.record(nanos);
+    }
+
+    @Override
+    public void attached(int jars, long nanos) {
+        attachTime.record(nanos);
+    }
+
+    @Override
+    public void cacheLookup(@NotNull Cache cache, boolean hit) {
+        (hit ? cacheHits : cacheMisses).get(cache).increment();
+    }
+
+    @Override
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    @Override
+    public long getFailedRequests() {
+        return failedRequests.sum();
+    }
+
+    @Override
+    public long getCancelledRequests() {
+        return cancelledRequests.sum();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    @Override
+    public long getFailedDependencies() {
+        return failedDependencies.sum();
+    }
+
+    @Override
+    public long getBytesDownloaded() {
+        return bytesDownloaded.sum();
+    }
+
+    @Override
+    public double getThroughputBytesPerSecond() {
+        long nanos = downloadNanos.sum();
+        return nanos == 0 ? 0 : bytesDownloaded.sum() / (nanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Override
+    public Map<String, Long> getRequestsByRepository() {
+        return sums(requestsByRepository);
+    }
+
+    @Override
+    public Map<String, Long> getFailuresByRepository() {
+        return sums(failuresByRepository);
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getRequestLatency() {
+        return requestLatency.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getRelocationTime() {
+        return relocationTime.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getAttachTime() {
+        return attachTime.snapshot();
+    }
+
+    @Override
+    public Map<String, Long> getCacheHits() {
+        return sums(cacheHits);
+    }
+
+    @Override
+    public Map<String, Long> getCacheMisses() {
+        return sums(cacheMisses);
+    }
+
+    @Override
+    public void reset() {
+        requests.reset();
+        failedRequests.reset();
+        cancelledRequests.reset();
+        retries.reset();
+        failedDependencies.reset();
+        bytesDownloaded.reset();
+        downloadNanos.reset();
+        requestsByRepository.clear();
+        failuresByRepository.clear();
+        requestLatency.reset();
+        relocationTime.reset();
+        attachTime.reset();
+        cacheHits.values().forEach(LongAdder::reset);
+        cacheMisses.values().forEach(LongAdder::reset);
+    }
+
+    private static @NotNull Map<String, Long> sums(@NotNull Map<?, LongAdder> adders) {
+        Map<String, Long> sums = new TreeMap<>();
+        adders.forEach((key, adder) -> sums.put(key.toString(), adder.sum()));
+        return sums;
+    }
+}
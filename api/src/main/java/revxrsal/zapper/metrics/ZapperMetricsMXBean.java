@@ -0,0 +1,110 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.metrics;
+
+import java.util.Map;
+
+/**
+ * The JMX view of a {@link MetricsCollector}. Durations are in milliseconds.
+ */
+public interface ZapperMetricsMXBean {
+
+    /**
+     * Returns the number of requests sent to repositories
+     */
+    long getRequests();
+
+    /**
+     * Returns the number of requests that failed
+     */
+    long getFailedRequests();
+
+    /**
+     * Returns the number of requests that were abandoned because another
+     * repository was faster
+     */
+    long getCancelledRequests();
+
+    /**
+     * Returns the number of requests that were not the first request for
+     * their dependency, like hedged requests and fallbacks after a failure
+     */
+    long getRetries();
+
+    /**
+     * Returns the number of dependencies that could not be obtained
+     */
+    long getFailedDependencies();
+
+    /**
+     * Returns the number of bytes downloaded
+     */
+    long getBytesDownloaded();
+
+    /**
+     * Returns the average download throughput of successful requests
+     */
+    double getThroughputBytesPerSecond();
+
+    /**
+     * Returns the number of requests per repository
+     */
+    Map<String, Long> getRequestsByRepository();
+
+    /**
+     * Returns the number of failed requests per repository, excluding
+     * abandoned ones
+     */
+    Map<String, Long> getFailuresByRepository();
+
+    /**
+     * Returns the durations of successful requests
+     */
+    LatencyHistogram.Snapshot getRequestLatency();
+
+    /**
+     * Returns the durations of relocating a single jar from the disk
+     */
+    LatencyHistogram.Snapshot getRelocationTime();
+
+    /**
+     * Returns the durations of adding jars to the class loader
+     */
+    LatencyHistogram.Snapshot getAttachTime();
+
+    /**
+     * Returns the number of hits per cache
+     */
+    Map<String, Long> getCacheHits();
+
+    /**
+     * Returns the number of misses per cache
+     */
+    Map<String, Long> getCacheMisses();
+
+    /**
+     * Resets all metrics
+     */
+    void reset();
+}
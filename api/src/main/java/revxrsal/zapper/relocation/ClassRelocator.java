@@ -0,0 +1,540 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.relocation;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Relocates a single class file by rewriting the strings in its constant
+ * pool, rather than parsing and regenerating the whole class.
+ * <p>
+ * Every reference to a {@code CONSTANT_Utf8} entry is classified by how it
+ * is used (a class name, a descriptor or signature, a string value, or
+ * anything else like a member name), and the entry is mapped accordingly.
+ * An entry is rewritten in place when all of its uses agree on the new
+ * value. Otherwise, the new value is appended to the pool, and only the
+ * references that need it are pointed at it.
+ * <p>
+ * Classes that do not reference any relocated name are returned untouched.
+ */
+final class ClassRelocator {
+
+    private static final int UTF8 = 1, INTEGER = 3, FLOAT = 4, LONG = 5, DOUBLE = 6, CLASS = 7, STRING = 8,
+            FIELD_REF = 9, METHOD_REF = 10, INTERFACE_METHOD_REF = 11, NAME_AND_TYPE = 12, METHOD_HANDLE = 15,
+            METHOD_TYPE = 16, DYNAMIC = 17, INVOKE_DYNAMIC = 18, MODULE = 19, PACKAGE = 20;
+
+    /**
+     * The ways a {@code CONSTANT_Utf8} entry can be used
+     */
+    private static final int OTHER = 0, TYPE = 1, SIGNATURE = 2, VALUE = 3, KINDS = 4;
+
+    private final RelocationMapper mapper;
+    private final byte[] b;
+    private final int[] offsets;
+    private final int[] ends;
+    private final String[] strings;
+
+    /**
+     * The kinds of use of every Utf8 entry, as a bit set
+     */
+    private final byte[] uses;
+
+    /**
+     * Offsets of every u2 that references a Utf8 entry, and how it uses it
+     */
+    private final List<int[]> references = new ArrayList<>();
+    private final int bodyStart;
+
+    private ClassRelocator(@NotNull RelocationMapper mapper, byte[] b) {
+        this.mapper = mapper;
+        this.b = b;
+        int count = u2(8);
+        this.offsets = new int[count];
+        this.ends = new int[count];
+        this.strings = new String[count];
+        this.uses = new byte[count];
+        int p = 10;
+        for (int i = 1; i < count; i++) {
+            offsets[i] = p;
+            int tag = b[p];
+            switch (tag) {
+                case UTF8:
+                    p += 3 + u2(p + 1);
+                    break;
+                case CLASS:
+                    p += 3;
+                    break;
+                case STRING:
+                case METHOD_TYPE:
+                case MODULE:
+                case PACKAGE:
+                case METHOD_HANDLE:
+                    p += tag == METHOD_HANDLE ? 4 : 3;
+                    break;
+                case INTEGER:
+                case FLOAT:
+                case FIELD_REF:
+                case METHOD_REF:
+                case INTERFACE_METHOD_REF:
+                case NAME_AND_TYPE:
+                case DYNAMIC:
+                case INVOKE_DYNAMIC:
+                    p += 5;
+                    break;
+                case LONG:
+                case DOUBLE:
+                    p += 9;
+                    i++; // takes two slots
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown constant pool tag " + tag + " at " + p);
+            }
+            ends[tag == LONG || tag == DOUBLE ? i - 1 : i] = p;
+        }
+        this.bodyStart = p;
+    }
+
+    /**
+     * Relocates the given class file
+     *
+     * @param mapper The mapper to relocate names with
+     * @param b      The class file
+     * @return The relocated class file. This is the same array if nothing
+     * had to be relocated.
+     */
+    static byte[] relocate(@NotNull RelocationMapper mapper, byte[] b) {
+        if (mapper.isEmpty())
+            return b;
+        return new ClassRelocator(mapper, b).relocate();
+    }
+
+    private byte[] relocate() {
+        collectPoolReferences();
+        collectBodyReferences();
+
+        // the new value of every Utf8 entry for every kind of use
+        String[][] mapped = new String[offsets.length][];
+        boolean changed = false;
+        for (int i = 1; i < offsets.length; i++) {
+            if ((uses[i] & ~(1 << OTHER)) == 0)
+                continue;
+            String value = utf8(i);
+            String[] values = new String[KINDS];
+            for (int kind = 0; kind < KINDS; kind++) {
+                if ((uses[i] & (1 << kind)) != 0) {
+                    values[kind] = map(kind, value);
+                    changed |= !values[kind].equals(value);
+                }
+            }
+            mapped[i] = values;
+        }
+        if (!changed)
+            return b;
+
+        Map<Integer, String> inPlace = new HashMap<>();
+        Map<String, Integer> appended = new LinkedHashMap<>();
+        Map<Integer, Integer> redirects = new HashMap<>();
+        for (int i = 1; i < offsets.length; i++) {
+            String[] values = mapped[i];
+            if (values == null)
+                continue;
+            String agreed = null;
+            boolean agree = true;
+            for (String v : values) {
+                if (v == null)
+                    continue;
+                if (agreed == null)
+                    agreed = v;
+                else if (!agreed.equals(v))
+                    agree = false;
+            }
+            if (agree) {
+                if (!agreed.equals(utf8(i)))
+                    inPlace.put(i, agreed);
+                continue;
+            }
+            // uses disagree: keep the original value, and append the others
+            for (int[] reference : references) {
+                if (reference[1] != i)
+                    continue;
+                String v = values[reference[2]];
+                if (!v.equals(utf8(i))) {
+                    Integer index = appended.get(v);
+                    if (index == null) {
+                        index = offsets.length + appended.size();
+                        appended.put(v, index);
+                    }
+                    redirects.put(reference[0], index);
+                }
+            }
+        }
+        if (offsets.length + appended.size() > 0xFFFF)
+            throw new IllegalStateException("Constant pool is too large after relocation");
+        return write(inPlace, appended, redirects);
+    }
+
+    private String map(int kind, String value) {
+        switch (kind) {
+            case TYPE:
+                return mapper.mapType(value);
+            case SIGNATURE:
+                return mapper.mapSignature(value);
+            case VALUE: {
+                String mapped = mapper.map(value, true);
+                return mapped == null ? value : mapped;
+            }
+            default:
+                return value;
+        }
+    }
+
+    private byte[] write(Map<Integer, String> inPlace, Map<String, Integer> appended, Map<Integer, Integer> redirects) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(b.length + 256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.write(b, 0, 8);
+            out.writeShort(offsets.length + appended.size());
+            for (int i = 1; i < offsets.length; i++) {
+                if (offsets[i] == 0)
+                    continue; // second slot of a long or double
+                String value = inPlace.get(i);
+                if (value != null) {
+                    out.writeByte(UTF8);
+                    out.writeUTF(value);
+                } else {
+                    writePatched(out, offsets[i], ends[i], redirects);
+                }
+            }
+            for (String value : appended.keySet()) {
+                out.writeByte(UTF8);
+                out.writeUTF(value);
+            }
+            writePatched(out, bodyStart, b.length, redirects);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writePatched(DataOutputStream out, int from, int to, Map<Integer, Integer> redirects) throws IOException {
+        if (redirects.isEmpty()) {
+            out.write(b, from, to - from);
+            return;
+        }
+        int p = from;
+        for (int offset = from; offset < to; offset++) {
+            Integer index = redirects.get(offset);
+            if (index == null)
+                continue;
+            out.write(b, p, offset - p);
+            out.writeShort(index);
+            p = offset + 2;
+            offset++;
+        }
+        out.write(b, p, to - p);
+    }
+
+    private void collectPoolReferences() {
+        for (int i = 1; i < offsets.length; i++) {
+            int p = offsets[i];
+            if (p == 0)
+                continue;
+            switch (b[p]) {
+                case CLASS:
+                    use(p + 1, TYPE);
+                    break;
+                case STRING:
+                    use(p + 1, VALUE);
+                    break;
+                case METHOD_TYPE:
+                    use(p + 1, SIGNATURE);
+                    break;
+                case NAME_AND_TYPE:
+                    use(p + 1, OTHER);
+                    use(p + 3, SIGNATURE);
+                    break;
+                case MODULE:
+                case PACKAGE:
+                    use(p + 1, OTHER);
+                    break;
+            }
+        }
+    }
+
+    private void collectBodyReferences() {
+        int p = bodyStart + 6; // access flags, this and super class
+        p += 2 + 2 * u2(p); // interfaces
+        for (int members = 0; members < 2; members++) { // fields, then methods
+            int count = u2(p);
+            p += 2;
+            for (int i = 0; i < count; i++) {
+                use(p + 2, OTHER);
+                use(p + 4, SIGNATURE);
+                p = attributes(p + 6);
+            }
+        }
+        attributes(p);
+    }
+
+    private int attributes(int p) {
+        int count = u2(p);
+        p += 2;
+        for (int i = 0; i < count; i++) {
+            use(p, OTHER);
+            String name = utf8(u2(p));
+            int length = u4(p + 2);
+            int info = p + 6;
+            switch (name) {
+                case "Signature":
+                    use(info, SIGNATURE);
+                    break;
+                case "SourceFile":
+                    use(info, OTHER);
+                    break;
+                case "RuntimeVisibleAnnotations":
+                case "RuntimeInvisibleAnnotations":
+                    annotations(info);
+                    break;
+                case "RuntimeVisibleParameterAnnotations":
+                case "RuntimeInvisibleParameterAnnotations": {
+                    int parameters = b[info] & 0xFF;
+                    int q = info + 1;
+                    for (int j = 0; j < parameters; j++)
+                        q = annotations(q);
+                    break;
+                }
+                case "RuntimeVisibleTypeAnnotations":
+                case "RuntimeInvisibleTypeAnnotations":
+                    typeAnnotations(info);
+                    break;
+                case "AnnotationDefault":
+                    elementValue(info);
+                    break;
+                case "Code": {
+                    int q = info + 8 + u4(info + 4); // max stack, max locals, code
+                    q += 2 + 8 * u2(q); // exception table
+                    attributes(q);
+                    break;
+                }
+                case "LocalVariableTable":
+                case "LocalVariableTypeTable": {
+                    int entries = u2(info);
+                    for (int j = 0, q = info + 2; j < entries; j++, q += 10) {
+                        use(q + 4, OTHER);
+                        use(q + 6, SIGNATURE);
+                    }
+                    break;
+                }
+                case "InnerClasses": {
+                    int classes = u2(info);
+                    for (int j = 0, q = info + 2; j < classes; j++, q += 8)
+                        if (u2(q + 4) != 0)
+                            use(q + 4, OTHER);
+                    break;
+                }
+                case "MethodParameters": {
+                    int parameters = b[info] & 0xFF;
+                    for (int j = 0, q = info + 1; j < parameters; j++, q += 4)
+                        if (u2(q) != 0)
+                            use(q, OTHER);
+                    break;
+                }
+                case "Record": {
+                    int components = u2(info);
+                    int q = info + 2;
+                    for (int j = 0; j < components; j++) {
+                        use(q, OTHER);
+                        use(q + 2, SIGNATURE);
+                        q = attributes(q + 4);
+                    }
+                    break;
+                }
+            }
+            p = info + length;
+        }
+        return p;
+    }
+
+    private int annotations(int p) {
+        int count = u2(p);
+        p += 2;
+        for (int i = 0; i < count; i++)
+            p = annotation(p);
+        return p;
+    }
+
+    private int annotation(int p) {
+        use(p, SIGNATURE);
+        int pairs = u2(p + 2);
+        p += 4;
+        for (int i = 0; i < pairs; i++) {
+            use(p, OTHER);
+            p = elementValue(p + 2);
+        }
+        return p;
+    }
+
+    private int elementValue(int p) {
+        char tag = (char) b[p++];
+        switch (tag) {
+            case 's':
+                use(p, VALUE);
+                return p + 2;
+            case 'e':
+                use(p, SIGNATURE);
+                use(p + 2, OTHER);
+                return p + 4;
+            case 'c':
+                use(p, SIGNATURE);
+                return p + 2;
+            case '@':
+                return annotation(p);
+            case '[': {
+                int count = u2(p);
+                p += 2;
+                for (int i = 0; i < count; i++)
+                    p = elementValue(p);
+                return p;
+            }
+            default: // primitive constants
+                return p + 2;
+        }
+    }
+
+    private void typeAnnotations(int p) {
+        int count = u2(p);
+        p += 2;
+        for (int i = 0; i < count; i++) {
+            int target = b[p++] & 0xFF;
+            switch (target) {
+                case 0x00:
+                case 0x01:
+                case 0x16:
+                    p += 1;
+                    break;
+                case 0x10:
+                case 0x17:
+                case 0x42:
+                case 0x43:
+                case 0x44:
+                case 0x45:
+                case 0x46:
+                    p += 2;
+                    break;
+                case 0x11:
+                case 0x12:
+                    p += 2;
+                    break;
+                case 0x13:
+                case 0x14:
+                case 0x15:
+                    break;
+                case 0x40:
+                case 0x41:
+                    p += 2 + 6 * u2(p);
+                    break;
+                case 0x47:
+                case 0x48:
+                case 0x49:
+                case 0x4A:
+                case 0x4B:
+                    p += 3;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown type annotation target " + target);
+            }
+            p += 1 + 2 * (b[p] & 0xFF); // type path
+            p = annotation(p);
+        }
+    }
+
+    /**
+     * Records that the u2 at the given offset references a Utf8 entry in
+     * the given way
+     */
+    private void use(int offset, int kind) {
+        int index = u2(offset);
+        uses[index] |= (byte) (1 << kind);
+        if (kind != OTHER)
+            references.add(new int[]{offset, index, kind});
+    }
+
+    private String utf8(int index) {
+        String value = strings[index];
+        if (value == null) {
+            int p = offsets[index];
+            if (b[p] != UTF8)
+                throw new IllegalArgumentException("Constant " + index + " is not a Utf8 entry");
+            value = strings[index] = decode(p + 3, u2(p + 1));
+        }
+        return value;
+    }
+
+    /**
+     * Decodes a modified UTF-8 string
+     */
+    private String decode(int p, int length) {
+        boolean ascii = true;
+        for (int i = p; i < p + length; i++) {
+            if (b[i] <= 0) {
+                ascii = false;
+                break;
+            }
+        }
+        if (ascii)
+            return new String(b, p, length, StandardCharsets.ISO_8859_1);
+        char[] chars = new char[length];
+        int n = 0;
+        for (int i = p; i < p + length; ) {
+            int c = b[i++] & 0xFF;
+            if (c < 0x80) {
+                chars[n++] = (char) c;
+            } else if ((c & 0xE0) == 0xC0) {
+                chars[n++] = (char) (((c & 0x1F) << 6) | (b[i++] & 0x3F));
+            } else {
+                chars[n++] = (char) (((c & 0x0F) << 12) | ((b[i++] & 0x3F) << 6) | (b[i++] & 0x3F));
+            }
+        }
+        return new String(chars, 0, n);
+    }
+
+    private int u2(int p) {
+        return ((b[p] & 0xFF) << 8) | (b[p + 1] & 0xFF);
+    }
+
+    private int u4(int p) {
+        return ((b[p] & 0xFF) << 24) | ((b[p + 1] & 0xFF) << 16) | ((b[p + 2] & 0xFF) << 8) | (b[p + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.relocation;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes a relocated jar, one entry at a time. This follows the same rules
+ * as jar-relocator:
+ * <ul>
+ *     <li>Classes are relocated, and moved to their relocated path</li>
+ *     <li>Other resources are moved to their relocated path as-is</li>
+ *     <li>Service files in {@code META-INF/services} are relocated and merged</li>
+ *     <li>Signatures and digests are dropped, as they no longer match</li>
+ * </ul>
+ * When shrinking, classes that are not {@link ReachableClasses reachable} are
+ * dropped, along with the service providers they implement.
+ */
+final class JarRelocator implements Closeable {
+
+    private static final Pattern SIGNATURE_FILE = Pattern.compile("META-INF/(?:[^/]+\\.(?:DSA|RSA|SF)|SIG-[^/]+)");
+    private static final Pattern SIGNATURE_PROPERTY = Pattern.compile(".*-Digest");
+    private static final String SERVICES = "META-INF/services/";
+    private static final String MULTI_RELEASE = "Multi-Release";
+
+    /**
+     * The time of entries that have none of their own, like directories and
+     * merged service files. This keeps the output reproducible.
+     */
+    private static final long CONSTANT_TIME = new GregorianCalendar(1980, Calendar.FEBRUARY, 1, 0, 0, 0).getTimeInMillis();
+
+    private final RelocationMapper mapper;
+    private final JarOutputStream out;
+    private final boolean merging;
+    private final @Nullable ReachableClasses reachable;
+    private boolean multiRelease;
+    private final Set<String> written = new HashSet<>();
+    private final Map<String, Set<String>> services = new LinkedHashMap<>();
+    private final byte[] buffer = new byte[8 * 1024];
+
+    JarRelocator(@NotNull RelocationMapper mapper, @NotNull OutputStream out) throws IOException {
+        this(mapper, out, false, null);
+    }
+
+    JarRelocator(@NotNull RelocationMapper mapper, @NotNull OutputStream out, boolean merging) throws IOException {
+        this(mapper, out, merging, null);
+    }
+
+    /**
+     * Creates a new jar relocator
+     *
+     * @param mapper  The relocation rules
+     * @param out     The stream to write the jar to
+     * @param merging Whether entries of several jars are written. If true, their
+     *                manifests are replaced by one that only says whether
+     *                any of the jars is a multi-release jar.
+     * @param reachable The classes to keep, or null to keep every class
+     */
+    JarRelocator(
+            @NotNull RelocationMapper mapper,
+            @NotNull OutputStream out,
+            boolean merging,
+            @Nullable ReachableClasses reachable
+    ) throws IOException {
+        this.mapper = mapper;
+        this.out = new JarOutputStream(out);
+        this.out.setLevel(Deflater.BEST_SPEED);
+        this.merging = merging;
+        this.reachable = reachable;
+    }
+
+    /**
+     * Relocates and writes the given entry
+     *
+     * @param entry The entry
+     * @param in    The content of the entry. This is not closed.
+     */
+    void accept(@NotNull ZipEntry entry, @NotNull InputStream in) throws IOException {
+        String name = entry.getName();
+        if (name.equals("META-INF/INDEX.LIST") || entry.isDirectory() || SIGNATURE_FILE.matcher(name).matches())
+            return;
+        if (name.equals(JarFile.MANIFEST_NAME)) {
+            if (merging)
+                multiRelease |= Boolean.parseBoolean(new Manifest(in).getMainAttributes().getValue(MULTI_RELEASE));
+            else
+                writeManifest(in, entry.getTime());
+        } else if (name.endsWith(".class")) {
+            if (reachable != null && !reachable.keeps(name))
+                return;
+            String className = name.substring(0, name.length() - ".class".length());
+            String mapped = mapper.map(className, false);
+            byte[] relocated;
+            try {
+                relocated = ClassRelocator.relocate(mapper, readFully(in, entry.getSize()));
+            } catch (RuntimeException e) {
+                throw new IOException("Error relocating class " + name, e);
+            }
+            write((mapped == null ? className : mapped) + ".class", entry.getTime(), relocated);
+        } else if (name.startsWith(SERVICES) && name.length() > SERVICES.length()) {
+            addServices(name, in);
+        } else {
+            String mapped = mapper.map(name, false);
+            if (!startEntry(mapped == null ? name : mapped, entry.getTime()))
+                return;
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+            out.closeEntry();
+        }
+    }
+
+    private void write(@NotNull String name, long time, byte[] content) throws IOException {
+        if (!startEntry(name, time))
+            return;
+        out.write(content);
+        out.closeEntry();
+    }
+
+    /**
+     * Starts a new entry, after writing the directories it is in. Returns
+     * false if the entry was already written.
+     */
+    private boolean startEntry(@NotNull String name, long time) throws IOException {
+        writeParentDirectories(name);
+        if (!written.add(name))
+            return false;
+        JarEntry entry = new JarEntry(name);
+        entry.setTime(time == -1 ? CONSTANT_TIME : time);
+        out.putNextEntry(entry);
+        return true;
+    }
+
+    private void writeParentDirectories(@NotNull String name) throws IOException {
+        for (int slash = name.indexOf('/'); slash != -1; slash = name.indexOf('/', slash + 1)) {
+            String directory = name.substring(0, slash + 1);
+            if (written.add(directory)) {
+                JarEntry entry = new JarEntry(directory);
+                entry.setTime(CONSTANT_TIME);
+                out.putNextEntry(entry);
+                out.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * Copies the manifest, without the digests of signed jars
+     */
+    private void writeManifest(@NotNull InputStream in, long time) throws IOException {
+        Manifest original = new Manifest(in);
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().putAll(original.getMainAttributes());
+        for (Map.Entry<String, Attributes> section : original.getEntries().entrySet()) {
+            Attributes attributes = new Attributes();
+            for (Map.Entry<Object, Object> attribute : section.getValue().entrySet()) {
+                if (!SIGNATURE_PROPERTY.matcher(attribute.getKey().toString()).matches())
+                    attributes.put(attribute.getKey(), attribute.getValue());
+            }
+            manifest.getEntries().put(section.getKey(), attributes);
+        }
+        if (!startEntry(JarFile.MANIFEST_NAME, time))
+            return;
+        manifest.write(out);
+        out.closeEntry();
+    }
+
+    private void addServices(@NotNull String name, @NotNull InputStream in) throws IOException {
+        String service = relocateClass(name.substring(SERVICES.length()));
+        Set<String> providers = services.computeIfAbsent(SERVICES + service, k -> new LinkedHashSet<>());
+        String content = new String(readFully(in, -1), StandardCharsets.UTF_8);
+        for (String line : content.replace('\r', '|').replace('\n', '|').split("\\|")) {
+            if (line.isEmpty() || reachable != null && !isReachableProvider(line))
+                continue;
+            providers.add(relocateClass(line));
+        }
+    }
+
+    /**
+     * Tests whether a line of a service file names a provider that is kept.
+     * Lines without a provider, like comments, are kept as well.
+     */
+    private boolean isReachableProvider(@NotNull String line) {
+        int comment = line.indexOf('#');
+        String provider = (comment == -1 ? line : line.substring(0, comment)).trim();
+        return provider.isEmpty() || reachable.contains(provider.replace('.', '/'));
+    }
+
+    private @NotNull String relocateClass(@NotNull String name) {
+        if (name.indexOf('/') != -1)
+            return name;
+        String mapped = mapper.map(name, true);
+        return mapped == null ? name : mapped;
+    }
+
+    private byte[] readFully(@NotNull InputStream in, long size) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(size > 0 ? (int) size : 8 * 1024);
+        int read;
+        while ((read = in.read(buffer)) != -1)
+            bytes.write(buffer, 0, read);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the merged service files, and finishes the jar
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (merging) {
+                Manifest manifest = new Manifest();
+                manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+                if (multiRelease)
+                    manifest.getMainAttributes().putValue(MULTI_RELEASE, "true");
+                startEntry(JarFile.MANIFEST_NAME, -1);
+                manifest.write(out);
+                out.closeEntry();
+            }
+            for (Map.Entry<String, Set<String>> service : services.entrySet()) {
+                if (service.getValue().isEmpty())
+                    continue;
+                StringBuilder content = new StringBuilder();
+                for (String provider : service.getValue())
+                    content.append(provider).append('\n');
+                write(service.getKey(), -1, content.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.relocation;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import revxrsal.zapper.download.PartFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.ObjLongConsumer;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Relocates several jars at once on a bounded {@link ForkJoinPool}.
+ * <p>
+ * Different jars are relocated in parallel. Jars that are larger than the
+ * split threshold are additionally split into ranges of entries, which are
+ * relocated in parallel and then merged back into a single jar, preserving
+ * the original entry order.
+ * <p>
+ * At most {@code parallelism} threads are ever used, and entries are streamed
+ * through temporary files rather than buffered, so memory usage is bounded by
+ * the number of threads rather than by the size of the jars.
+ */
+public final class ParallelRelocator {
+
+    /**
+     * Jars bigger than this are split into several parts
+     */
+    private static final long DEFAULT_SPLIT_THRESHOLD = 2 * 1024 * 1024;
+
+    /**
+     * Parts are never made smaller than this, as each part has a fixed cost
+     */
+    private static final long MIN_PART_SIZE = 512 * 1024;
+
+    private static final String SERVICES = "META-INF/services/";
+
+    private final int parallelism;
+    private final long splitThreshold;
+
+    public ParallelRelocator(int parallelism) {
+        this(parallelism, DEFAULT_SPLIT_THRESHOLD);
+    }
+
+    public ParallelRelocator(int parallelism, long splitThreshold) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1 (found " + parallelism + ")");
+        this.parallelism = parallelism;
+        this.splitThreshold = splitThreshold;
+    }
+
+    /**
+     * The default number of threads used for relocating. This deliberately
+     * leaves half of the cores to the server.
+     */
+    public static int defaultParallelism() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    }
+
+    /**
+     * Relocates every input jar into its output jar, and waits for all of
+     * them to finish.
+     *
+     * @param jars        The jars to relocate, mapped from input to output
+     * @param relocations The relocation rules
+     */
+    public void relocateAll(@NotNull Map<File, File> jars, @NotNull List<Relocation> relocations) {
+        relocateAll(jars, relocations, null);
+    }
+
+    /**
+     * Relocates every input jar into its output jar, and waits for all of
+     * them to finish.
+     *
+     * @param jars        The jars to relocate, mapped from input to output
+     * @param relocations The relocation rules
+     * @param onRelocated An optional callback that is invoked with the input jar
+     *                    and the time it took to relocate it in nanoseconds, every
+     *                    time a jar has been relocated. This may be invoked from
+     *                    several threads at once.
+     */
+    public void relocateAll(
+            @NotNull Map<File, File> jars,
+            @NotNull List<Relocation> relocations,
+            @Nullable ObjLongConsumer<File> onRelocated
+    ) {
+        relocateAll(jars, relocations, null, onRelocated);
+    }
+
+    /**
+     * Relocates every input jar into its output jar, dropping the classes
+     * that are not reachable, and waits for all of them to finish.
+     *
+     * @param jars        The jars to relocate, mapped from input to output
+     * @param relocations The relocation rules
+     * @param reachable   The classes to keep, or null to keep every class
+     * @param onRelocated An optional callback that is invoked with the input jar
+     *                    and the time it took to relocate it in nanoseconds, every
+     *                    time a jar has been relocated. This may be invoked from
+     *                    several threads at once.
+     */
+    public void relocateAll(
+            @NotNull Map<File, File> jars,
+            @NotNull List<Relocation> relocations,
+            @Nullable ReachableClasses reachable,
+            @Nullable ObjLongConsumer<File> onRelocated
+    ) {
+        if (jars.isEmpty())
+            return;
+        if (parallelism == 1) {
+            jars.forEach((input, output) -> {
+                long start = System.nanoTime();
+                Relocator.relocate(input, output, relocations, reachable);
+                if (onRelocated != null)
+                    onRelocated.accept(input, System.nanoTime() - start);
+            });
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism, RelocationThread::new, null, false);
+        try {
+            List<RecursiveAction> tasks = new ArrayList<>(jars.size());
+            jars.forEach((input, output) -> tasks.add(new RelocateJar(input, output, relocations, reachable, onRelocated)));
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private final class RelocateJar extends RecursiveAction {
+
+        private final File input, output;
+        private final List<Relocation> relocations;
+        private final @Nullable ReachableClasses reachable;
+        private final @Nullable ObjLongConsumer<File> onRelocated;
+
+        RelocateJar(
+                File input,
+                File output,
+                List<Relocation> relocations,
+                @Nullable ReachableClasses reachable,
+                @Nullable ObjLongConsumer<File> onRelocated
+        ) {
+            this.input = input;
+            this.output = output;
+            this.relocations = relocations;
+            this.reachable = reachable;
+            this.onRelocated = onRelocated;
+        }
+
+        @Override
+        protected void compute() {
+            long start = System.nanoTime();
+            relocate();
+            if (onRelocated != null)
+                onRelocated.accept(input, System.nanoTime() - start);
+        }
+
+        private void relocate() {
+            long size = input.length();
+            int parts = (int) Math.min(parallelism, size / Math.max(MIN_PART_SIZE, size / parallelism));
+            if (size <= splitThreshold || parts < 2) {
+                Relocator.relocate(input, output, relocations, reachable);
+                return;
+            }
+            List<RelocatePart> tasks = new ArrayList<>(parts);
+            PartFile merged = new PartFile(output);
+            try {
+                split(parts, tasks);
+                // unlike invokeAll(), every part is waited for even if another
+                // fails, so that none is still writing when they are deleted
+                for (RelocatePart task : tasks)
+                    task.fork();
+                for (RelocatePart task : tasks)
+                    task.quietlyJoin();
+                for (RelocatePart task : tasks)
+                    task.join();
+                merge(tasks, merged.getFile());
+                merged.publish();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                merged.delete();
+                for (RelocatePart task : tasks)
+                    task.delete();
+            }
+        }
+
+        /**
+         * Splits the entries of the jar into ranges of roughly equal
+         * compressed size, and adds a task for each range to the given list
+         */
+        private void split(int parts, List<RelocatePart> tasks) throws IOException {
+            try (ZipFile zip = new ZipFile(input)) {
+                long total = 0;
+                for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); )
+                    total += Math.max(0, e.nextElement().getCompressedSize());
+                long target = total / parts + 1;
+                int index = 0, start = 0;
+                long current = 0;
+                for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); index++) {
+                    current += Math.max(0, e.nextElement().getCompressedSize());
+                    if (current >= target && tasks.size() < parts - 1) {
+                        tasks.add(new RelocatePart(input, part(tasks.size()), start, index + 1, relocations, reachable));
+                        start = index + 1;
+                        current = 0;
+                    }
+                }
+                if (start < index)
+                    tasks.add(new RelocatePart(input, part(tasks.size()), start, index, relocations, reachable));
+            }
+        }
+
+        private File part(int index) {
+            return new File(output.getParentFile(), output.getName() + ".part" + index);
+        }
+
+        /**
+         * Concatenates the relocated parts into the given file, in order. Entries
+         * that appear in more than one part (like parent directories) are only
+         * written once. Service files that appear in more than one part have
+         * their providers merged, and are written last, like they are when the
+         * jar is relocated in one piece, so the output does not depend on how
+         * the jar was split.
+         */
+        private void merge(List<RelocatePart> tasks, File file) throws IOException {
+            Set<String> written = new HashSet<>();
+            Map<String, ZipEntry> serviceEntries = new LinkedHashMap<>();
+            Map<String, Set<String>> services = new HashMap<>();
+            byte[] buffer = new byte[8 * 1024];
+            try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(file.toPath()))) {
+                out.setLevel(Deflater.BEST_SPEED);
+                for (RelocatePart task : tasks) {
+                    try (ZipFile zip = new ZipFile(task.relocated)) {
+                        for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                            ZipEntry entry = e.nextElement();
+                            ZipEntry copy = new ZipEntry(entry.getName());
+                            copy.setTime(entry.getTime());
+                            if (entry.getName().startsWith(SERVICES)) {
+                                serviceEntries.putIfAbsent(entry.getName(), copy);
+                                Set<String> providers = services.computeIfAbsent(entry.getName(), k -> new LinkedHashSet<>());
+                                String content = new String(readFully(zip, entry), StandardCharsets.UTF_8);
+                                for (String line : content.split("\n"))
+                                    if (!line.isEmpty())
+                                        providers.add(line);
+                                continue;
+                            }
+                            if (!written.add(entry.getName()))
+                                continue;
+                            out.putNextEntry(copy);
+                            try (InputStream in = zip.getInputStream(entry)) {
+                                copy(in, out, buffer);
+                            }
+                            out.closeEntry();
+                        }
+                    }
+                }
+                for (Map.Entry<String, ZipEntry> service : serviceEntries.entrySet()) {
+                    StringBuilder content = new StringBuilder();
+                    for (String provider : services.get(service.getKey()))
+                        content.append(provider).append('\n');
+                    out.putNextEntry(service.getValue());
+                    out.write(content.toString().getBytes(StandardCharsets.UTF_8));
+                    out.closeEntry();
+                }
+            }
+        }
+    }
+
+    private static final class RelocatePart extends RecursiveAction {
+
+        private final File input, original, relocated;
+        private final int from, to;
+        private final List<Relocation> relocations;
+        private final @Nullable ReachableClasses reachable;
+
+        RelocatePart(File input, File part, int from, int to, List<Relocation> relocations, @Nullable ReachableClasses reachable) {
+            this.input = input;
+            this.original = new File(part.getPath() + ".jar");
+            this.relocated = new File(part.getPath() + "-relocated.jar");
+            this.from = from;
+            this.to = to;
+            this.relocations = relocations;
+            this.reachable = reachable;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                extract();
+                Relocator.relocate(original, relocated, relocations, reachable);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                original.delete();
+            }
+        }
+
+        /**
+         * Deletes the temporary jars of this part
+         */
+        void delete() {
+            original.delete();
+            relocated.delete();
+        }
+
+        /**
+         * Copies the entries in [from, to) into a temporary jar. Entries are
+         * stored uncompressed, as the jar is only read once.
+         */
+        private void extract() throws IOException {
+            byte[] buffer = new byte[8 * 1024];
+            try (ZipFile zip = new ZipFile(input);
+                 ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(original.toPath()))) {
+                int index = 0;
+                for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements() && index < to; index++) {
+                    ZipEntry entry = e.nextElement();
+                    if (index < from)
+                        continue;
+                    ZipEntry copy = new ZipEntry(entry.getName());
+                    copy.setTime(entry.getTime());
+                    copy.setMethod(ZipEntry.STORED);
+                    if (entry.getSize() >= 0 && entry.getCrc() >= 0) {
+                        copy.setSize(entry.getSize());
+                        copy.setCompressedSize(entry.getSize());
+                        copy.setCrc(entry.getCrc());
+                        out.putNextEntry(copy);
+                        try (InputStream in = zip.getInputStream(entry)) {
+                            copy(in, out, buffer);
+                        }
+                    } else {
+                        byte[] data = readFully(zip, entry);
+                        CRC32 crc = new CRC32();
+                        crc.update(data);
+                        copy.setSize(data.length);
+                        copy.setCompressedSize(data.length);
+                        copy.setCrc(crc.getValue());
+                        out.putNextEntry(copy);
+                        out.write(data);
+                    }
+                    out.closeEntry();
+                }
+            }
+        }
+    }
+
+    private static byte[] readFully(ZipFile zip, ZipEntry entry) throws IOException {
+        try (InputStream in = zip.getInputStream(entry)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            copy(in, out, new byte[8 * 1024]);
+            return out.toByteArray();
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out, byte[] buffer) throws IOException {
+        int bytesRead;
+        while ((bytesRead = in.read(buffer)) != -1)
+            out.write(buffer, 0, bytesRead);
+    }
+
+    private static final class RelocationThread extends ForkJoinWorkerThread {
+
+        RelocationThread(ForkJoinPool pool) {
+            super(pool);
+            setName("Zapper Relocation Thread #" + getPoolIndex());
+            setDaemon(true);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.relocation;
+
+import org.jetbrains.annotations.NotNull;
+import revxrsal.zapper.util.Checksums;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The classes of the dependencies that are reachable from a plugin, as
+ * computed by the Gradle plugin when shrinking is enabled. Classes of
+ * dependencies that are not reachable are dropped when relocating.
+ * <p>
+ * Names are the internal names of the original (not relocated) classes, like
+ * {@code com/google/gson/Gson}. The resource lists a package per line, followed
+ * by the simple names of its reachable classes:
+ * <pre>{@code
+ * com/google/gson Gson Gson$1 JsonElement
+ * }</pre>
+ */
+public final class ReachableClasses {
+
+    /**
+     * The resource that the Gradle plugin writes the reachable classes into
+     */
+    public static final String RESOURCE = "zapper/reachable.txt";
+
+    private static final String VERSIONS = "META-INF/versions/";
+
+    private final Set<String> classes;
+    private final String hash;
+
+    /**
+     * Creates a new set of reachable classes
+     *
+     * @param classes The internal names of the reachable classes
+     */
+    public ReachableClasses(@NotNull Collection<String> classes) {
+        this.classes = Collections.unmodifiableSet(new HashSet<>(classes));
+        StringBuilder builder = new StringBuilder();
+        for (String name : new TreeSet<>(classes))
+            builder.append(name).append('\n');
+        this.hash = Checksums.toHex(Checksums.sha256().digest(builder.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Reads the reachable classes in the format of {@link #RESOURCE}
+     *
+     * @param in The stream to read. This is closed.
+     * @return The reachable classes
+     * @throws IOException if the stream could not be read
+     */
+    public static @NotNull ReachableClasses read(@NotNull InputStream in) throws IOException {
+        Set<String> classes = new HashSet<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            for (String line; (line = reader.readLine()) != null; ) {
+                String[] split = line.split(" ");
+                // classes in the default package are listed after an empty package
+                String prefix = split[0].isEmpty() ? "" : split[0] + '/';
+                for (int i = 1; i < split.length; i++)
+                    if (!split[i].isEmpty())
+                        classes.add(prefix + split[i]);
+            }
+        }
+        return new ReachableClasses(classes);
+    }
+
+    /**
+     * Tests whether the given class is reachable
+     *
+     * @param internalName The internal name of the class
+     * @return true if the class should be kept
+     */
+    public boolean contains(@NotNull String internalName) {
+        return classes.contains(internalName);
+    }
+
+    /**
+     * Tests whether the given jar entry should be kept. Classes are kept if
+     * they are reachable, including the versions of them in multi-release
+     * jars, and resources are always kept, as they may be looked up by any
+     * name at runtime.
+     *
+     * @param entryName The name of the entry in the original jar
+     * @return true if the entry should be kept
+     */
+    public boolean keeps(@NotNull String entryName) {
+        if (!entryName.endsWith(".class"))
+            return true;
+        String name = entryName.substring(0, entryName.length() - ".class".length());
+        if (name.startsWith(VERSIONS)) {
+            int slash = name.indexOf('/', VERSIONS.length());
+            if (slash != -1)
+                name = name.substring(slash + 1);
+        }
+        if (name.equals("module-info") || name.endsWith("/package-info"))
+            return true;
+        return classes.contains(name);
+    }
+
+    /**
+     * Returns the number of reachable classes
+     *
+     * @return The number of classes
+     */
+    public int size() {
+        return classes.size();
+    }
+
+    /**
+     * Returns a hash of the reachable classes, which changes whenever a class
+     * is added or removed
+     *
+     * @return The hash, as lowercase hex
+     */
+    public @NotNull String hash() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "ReachableClasses(size=" + classes.size() + ", hash=" + hash.substring(0, 16) + ")";
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.relocation;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import revxrsal.zapper.Dependency;
+import revxrsal.zapper.util.Checksums;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Names relocated jars after what they were produced from: the digest of
+ * the original jar, and a canonical hash of the relocation rules. A relocated
+ * jar can therefore be reused for as long as both are unchanged, and a rule
+ * change is detected without having to look inside any jar.
+ * <p>
+ * Names are relative to the libraries folder, so the cache stays valid when
+ * the folder is moved.
+ * <p>
+ * When shrinking, the {@link ReachableClasses} are part of the rules, so jars
+ * are shrunk again whenever the plugin reaches different classes.
+ */
+public final class RelocationCache {
+
+    /**
+     * Bump this whenever the relocator produces different output for the
+     * same input, so that previously relocated jars are not reused
+     */
+    private static final String RELOCATOR_VERSION = "zapper-relocator 1";
+
+    private final File directory;
+    private final String rulesHash;
+
+    /**
+     * Creates a new relocation cache
+     *
+     * @param directory   The libraries folder
+     * @param relocations The rules that jars are relocated with
+     */
+    public RelocationCache(@NotNull File directory, @NotNull List<Relocation> relocations) {
+        this(directory, relocations, null);
+    }
+
+    /**
+     * Creates a new relocation cache
+     *
+     * @param directory   The libraries folder
+     * @param relocations The rules that jars are relocated with
+     * @param reachable   The classes that are kept, or null if jars are not shrunk
+     */
+    public RelocationCache(@NotNull File directory, @NotNull List<Relocation> relocations, @Nullable ReachableClasses reachable) {
+        this.directory = directory;
+        String rulesHash = hash(relocations);
+        if (reachable != null) {
+            String rules = rulesHash + "\nreachable " + reachable.hash();
+            rulesHash = Checksums.toHex(Checksums.sha256().digest(rules.getBytes(StandardCharsets.UTF_8)));
+        }
+        this.rulesHash = rulesHash;
+    }
+
+    /**
+     * Computes a hash of the given rules that does not depend on their
+     * order. When a pattern appears more than once, the first rule wins,
+     * as it does when relocating.
+     *
+     * @param relocations The rules
+     * @return The hash, as lowercase hex
+     */
+    public static @NotNull String hash(@NotNull List<Relocation> relocations) {
+        Map<String, String> rules = new TreeMap<>();
+        for (Relocation relocation : relocations)
+            rules.putIfAbsent(relocation.getPattern().replace('/', '.'), relocation.getNewPattern().replace('/', '.'));
+        StringBuilder builder = new StringBuilder(RELOCATOR_VERSION).append('\n');
+        rules.forEach((pattern, newPattern) -> builder.append(pattern).append(' ').append(newPattern).append('\n'));
+        return Checksums.toHex(Checksums.sha256().digest(builder.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Returns the file that the given dependency is relocated into
+     *
+     * @param dependency  The dependency
+     * @param inputDigest The SHA-256 of the original jar
+     * @return The relocated jar
+     */
+    public @NotNull File file(@NotNull Dependency dependency, @NotNull String inputDigest) {
+        MessageDigest digest = Checksums.sha256();
+        digest.update(inputDigest.toLowerCase().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) '\n');
+        digest.update(rulesHash.getBytes(StandardCharsets.UTF_8));
+        String key = Checksums.toHex(digest.digest()).substring(0, 16);
+        return new File(directory, prefix(dependency) + key + ".jar");
+    }
+
+    /**
+     * Returns the classifier that jars relocated with these rules are
+     * published with in a pre-relocated repository
+     *
+     * @return The classifier
+     * @see revxrsal.zapper.repository.Repository#preRelocated(String)
+     */
+    public @NotNull String classifier() {
+        return "zapper-" + rulesHash.substring(0, 16);
+    }
+
+    /**
+     * Deletes every relocated jar of the given dependency, except for the
+     * given one. These were produced from other rules or another original,
+     * and can be recreated from the original if they are ever needed again.
+     *
+     * @param dependency The dependency
+     * @param keep       The relocated jar that is in use
+     */
+    public void prune(@NotNull Dependency dependency, @NotNull File keep) {
+        String prefix = prefix(dependency);
+        // relocated jars from before they were keyed
+        String legacy = String.format("%s.%s-%s-relocated.jar", dependency.getGroupId(), dependency.getArtifactId(), dependency.getVersion());
+        File[] files = directory.listFiles((dir, name) -> name.equals(legacy)
+                || name.startsWith(prefix) && name.length() == prefix.length() + 16 + ".jar".length() && name.endsWith(".jar"));
+        if (files == null)
+            return;
+        for (File file : files)
+            if (!file.getName().equals(keep.getName()))
+                file.delete();
+    }
+
+    private static @NotNull String prefix(@NotNull Dependency dependency) {
+        return String.format("%s.%s-%s-relocated-", dependency.getGroupId(), dependency.getArtifactId(), dependency.getVersion());
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.relocation;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps class names, descriptors and strings according to a list of
+ * relocation rules.
+ * <p>
+ * Rules are stored in a prefix trie keyed by their path form ({@code com/google}),
+ * so that a name is matched against all rules in a single pass over its
+ * characters. When several rules match, the longest one wins.
+ * <p>
+ * Like jar-relocator, patterns are plain prefixes: {@code com.google} also
+ * matches {@code com.googlecode}.
+ */
+final class RelocationMapper {
+
+    private static final String VERSIONS = "META-INF/versions/";
+
+    private final Node root = new Node();
+    private final boolean empty;
+
+    RelocationMapper(@NotNull List<Relocation> relocations) {
+        for (Relocation relocation : relocations) {
+            String pattern = relocation.getPattern().replace('.', '/');
+            Node node = root;
+            for (int i = 0; i < pattern.length(); i++)
+                node = node.children.computeIfAbsent(pattern.charAt(i), c -> new Node());
+            if (node.relocatedPath == null) { // the first rule for a pattern wins
+                node.length = pattern.length();
+                node.relocatedPath = relocation.getNewPattern().replace('.', '/');
+            }
+        }
+        this.empty = relocations.isEmpty();
+    }
+
+    /**
+     * Tests whether there are no rules at all
+     *
+     * @return true if nothing is ever relocated
+     */
+    boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * Maps a class name, a resource path or a string constant.
+     * <p>
+     * This accepts internal names ({@code com/google/Foo}), paths with a leading
+     * slash, multi-release paths ({@code META-INF/versions/9/...}) and type
+     * descriptors ({@code Lcom/google/Foo;}). If {@code isValue} is true, binary
+     * names ({@code com.google.Foo}) are mapped as well, which is how string
+     * constants in classes are treated.
+     *
+     * @param name    The name to map
+     * @param isValue Whether the name is a string constant
+     * @return The mapped name, or null if no rule matches
+     */
+    @Nullable String map(@NotNull String name, boolean isValue) {
+        int start = 0, end = name.length();
+        if (name.startsWith(VERSIONS)) {
+            int slash = name.indexOf('/', VERSIONS.length());
+            if (slash > VERSIONS.length() && isDigits(name, VERSIONS.length(), slash))
+                start = slash + 1;
+        }
+        int dims = start;
+        while (dims < end && name.charAt(dims) == '[')
+            dims++;
+        if (end - dims > 2 && name.charAt(dims) == 'L' && name.charAt(end - 1) == ';') {
+            start = dims + 1;
+            end--;
+        }
+        if (isValue && name.indexOf('/', start) == -1) {
+            String relocated = relocate(name, start, end, true);
+            if (relocated != null)
+                return relocated;
+        }
+        return relocate(name, start, end, false);
+    }
+
+    /**
+     * Maps an internal name, as found in {@code CONSTANT_Class}. Array types
+     * are mapped as descriptors.
+     *
+     * @param name The internal name
+     * @return The mapped name. This is the same instance if nothing changed.
+     */
+    @NotNull String mapType(@NotNull String name) {
+        if (name.startsWith("["))
+            return mapSignature(name);
+        String mapped = map(name, false);
+        return mapped == null ? name : mapped;
+    }
+
+    /**
+     * Maps every class type in a descriptor or a generic signature.
+     *
+     * @param signature The descriptor or signature
+     * @return The mapped signature. This is the same instance if nothing changed.
+     */
+    @NotNull String mapSignature(@NotNull String signature) {
+        if (signature.indexOf('L') == -1)
+            return signature;
+        try {
+            StringBuilder out = new StringBuilder(signature.length() + 16);
+            int i = 0;
+            if (signature.charAt(0) == '<')
+                i = typeParameters(signature, 0, out);
+            while (i < signature.length()) {
+                char c = signature.charAt(i);
+                if (c == '(' || c == ')' || c == '^') {
+                    out.append(c);
+                    i++;
+                } else {
+                    i = type(signature, i, out);
+                }
+            }
+            String mapped = out.toString();
+            return mapped.equals(signature) ? signature : mapped;
+        } catch (IndexOutOfBoundsException e) {
+            // not a valid signature. leave it as it is
+            return signature;
+        }
+    }
+
+    private int typeParameters(String s, int i, StringBuilder out) {
+        out.append('<');
+        i++;
+        while (s.charAt(i) != '>') {
+            int colon = s.indexOf(':', i);
+            out.append(s, i, colon); // the name of the type parameter
+            i = colon;
+            while (s.charAt(i) == ':') {
+                out.append(':');
+                i++;
+                // the class bound may be empty if there are interface bounds
+                if (s.charAt(i) != ':')
+                    i = type(s, i, out);
+            }
+        }
+        out.append('>');
+        return i + 1;
+    }
+
+    private int type(String s, int i, StringBuilder out) {
+        char c = s.charAt(i);
+        switch (c) {
+            case 'L':
+                return classType(s, i, out);
+            case 'T': {
+                int end = s.indexOf(';', i) + 1;
+                out.append(s, i, end);
+                return end;
+            }
+            case '[':
+            case '+':
+            case '-':
+                out.append(c);
+                return type(s, i + 1, out);
+            default:
+                out.append(c);
+                return i + 1;
+        }
+    }
+
+    private int classType(String s, int i, StringBuilder out) {
+        out.append('L');
+        int start = ++i;
+        while (!isClassNameEnd(s.charAt(i)))
+            i++;
+        String name = s.substring(start, i);
+        String mapped = map(name, false);
+        out.append(mapped == null ? name : mapped);
+        while (true) {
+            char c = s.charAt(i);
+            if (c == ';') {
+                out.append(';');
+                return i + 1;
+            } else if (c == '<') {
+                out.append('<');
+                i++;
+                while (s.charAt(i) != '>')
+                    i = s.charAt(i) == '*' ? append(s, i, out) : type(s, i, out);
+                out.append('>');
+                i++;
+            } else { // '.' followed by the simple name of an inner class
+                int nameStart = i;
+                i++;
+                while (!isClassNameEnd(s.charAt(i)))
+                    i++;
+                out.append(s, nameStart, i);
+            }
+        }
+    }
+
+    private static int append(String s, int i, StringBuilder out) {
+        out.append(s.charAt(i));
+        return i + 1;
+    }
+
+    private static boolean isClassNameEnd(char c) {
+        return c == ';' || c == '<' || c == '.';
+    }
+
+    /**
+     * Finds the longest rule whose pattern is a prefix of the given range, and
+     * replaces it. A single leading separator is allowed, like jar-relocator does.
+     */
+    private @Nullable String relocate(String name, int start, int end, boolean dotted) {
+        char separator = dotted ? '.' : '/';
+        Node match = match(name, start, end, separator);
+        if (match == null && start < end && name.charAt(start) == separator)
+            match = match(name, ++start, end, separator);
+        if (match == null)
+            return null;
+        String replacement = dotted ? match.relocatedPath.replace('/', '.') : match.relocatedPath;
+        return name.substring(0, start) + replacement + name.substring(start + match.length);
+    }
+
+    private @Nullable Node match(String name, int start, int end, char separator) {
+        Node node = root, match = null;
+        for (int i = start; i < end; i++) {
+            char c = name.charAt(i);
+            node = node.children.get(c == separator ? '/' : c);
+            if (node == null)
+                break;
+            if (node.relocatedPath != null)
+                match = node;
+        }
+        return match;
+    }
+
+    private static boolean isDigits(String s, int from, int to) {
+        for (int i = from; i < to; i++)
+            if (!Character.isDigit(s.charAt(i)))
+                return false;
+        return true;
+    }
+
+    private static final class Node {
+        private final Map<Character, Node> children = new HashMap<>(4);
+        private int length;
+        private String relocatedPath;
+    }
+}
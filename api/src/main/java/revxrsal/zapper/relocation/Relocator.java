@@ -24,78 +24,132 @@
 package revxrsal.zapper.relocation;
 
 import org.jetbrains.annotations.NotNull;
-import revxrsal.zapper.Dependency;
-import revxrsal.zapper.classloader.IsolatedClassLoader;
-import revxrsal.zapper.repository.Repository;
+import org.jetbrains.annotations.Nullable;
+import revxrsal.zapper.download.PartFile;
+import revxrsal.zapper.metrics.FlightRecorderEvents;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Method;
-import java.net.URL;
-import java.util.Arrays;
-import java.util.LinkedHashMap;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.List;
-import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 
 /**
  * The relocator utility
  */
 public final class Relocator {
 
-    private static boolean initialized = false;
-
     private Relocator() {
     }
 
-    private static final List<Dependency> dependencies = Arrays.asList(
-            new Dependency("org.ow2.asm", "asm", "9.7.1"),
-            new Dependency("org.ow2.asm", "asm-commons", "9.7.1"),
-            new Dependency("me.lucko", "jar-relocator", "1.7")
-    );
-
-    private static Constructor<?> relocatorConstructor;
-    private static Method relocateMethod;
-
     public static void relocate(
             @NotNull File input,
             @NotNull File output,
             @NotNull List<Relocation> relocations
     ) {
-        if (!initialized) {
-            downloadJarRelocator(input.getParentFile());
-            initialized = true;
-        }
+        relocate(input, output, relocations, null);
+    }
+
+    /**
+     * Relocates the given jar, and drops the classes that are not reachable
+     *
+     * @param input       The original jar
+     * @param output      The file to write the relocated jar to. This is only
+     *                    created once the whole jar has been relocated.
+     * @param relocations The relocation rules
+     * @param reachable   The classes to keep, or null to keep every class
+     */
+    public static void relocate(
+            @NotNull File input,
+            @NotNull File output,
+            @NotNull List<Relocation> relocations,
+            @Nullable ReachableClasses reachable
+    ) {
+        FlightRecorderEvents.Span span = FlightRecorderEvents.relocate(output);
+        // relocated jars are trusted as long as they exist, so a jar that
+        // failed to relocate must never be left at the output
+        PartFile part = new PartFile(output);
         try {
-            Map<String, String> rules = new LinkedHashMap<>();
-            for (Relocation relocation : relocations) {
-                rules.put(relocation.getPattern(), relocation.getNewPattern());
+            try (ZipFile zip = new ZipFile(input);
+                 JarRelocator relocator = new JarRelocator(new RelocationMapper(relocations), new BufferedOutputStream(new FileOutputStream(part.getFile())), false, reachable)) {
+                for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                    ZipEntry entry = e.nextElement();
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        relocator.accept(entry, in);
+                    }
+                }
             }
-            Object relocator = relocatorConstructor.newInstance(input, output, rules);
-            relocateMethod.invoke(relocator);
-        } catch (Throwable e) {
-            throw new RuntimeException(e);
+            part.publish();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            part.delete();
         }
+        span.set("bytes", output.length()).commit();
     }
 
-    private static void downloadJarRelocator(File dir) {
-        try {
-            URL[] urls = new URL[3];
-            dir.mkdirs();
-            for (int i = 0; i < dependencies.size(); i++) {
-                Dependency d = dependencies.get(i);
-                File file = new File(dir, String.format("%s.%s-%s.jar", d.getGroupId(), d.getArtifactId(), d.getVersion()));
-                if (!file.exists())
-                    d.download(file, Repository.mavenCentral());
-                urls[i] = file.toURI().toURL();
+    /**
+     * Merges the given jars into one. When several jars have an entry with
+     * the same name, the first jar wins, except for service files, which are
+     * merged.
+     *
+     * @param inputs The jars to merge, in order
+     * @param output The file to write the merged jar to
+     * @throws IOException if a jar could not be read, or the output could not be written
+     */
+    public static void merge(@NotNull List<File> inputs, @NotNull File output) throws IOException {
+        RelocationMapper mapper = new RelocationMapper(Collections.emptyList());
+        try (JarRelocator merger = new JarRelocator(mapper, new BufferedOutputStream(new FileOutputStream(output)), true)) {
+            for (File input : inputs) {
+                try (ZipFile zip = new ZipFile(input)) {
+                    for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                        ZipEntry entry = e.nextElement();
+                        try (InputStream in = zip.getInputStream(entry)) {
+                            merger.accept(entry, in);
+                        }
+                    }
+                }
             }
-            IsolatedClassLoader classLoader = new IsolatedClassLoader(urls);
-            Class<?> jarRelocator = classLoader.loadClass("me.lucko.jarrelocator.JarRelocator");
-            relocatorConstructor = jarRelocator.getDeclaredConstructor(File.class, File.class, Map.class);
-            relocatorConstructor.setAccessible(true);
-            relocateMethod = jarRelocator.getDeclaredMethod("run");
-            relocateMethod.setAccessible(true);
-        } catch (Throwable t) {
-            throw new RuntimeException(t);
         }
     }
+
+    /**
+     * Relocates a jar that is read from the given stream, without ever writing
+     * the original jar to disk. Entries are relocated one by one as they are
+     * read, so memory usage is bounded by the largest entry.
+     * <p>
+     * The stream is read up to the last entry of the jar, and is not closed.
+     *
+     * @param input       The stream to read the original jar from
+     * @param output      The file to write the relocated jar to
+     * @param relocations The relocation rules
+     * @throws IOException if the stream is not a valid jar, or cannot be read
+     */
+    public static void relocate(
+            @NotNull InputStream input,
+            @NotNull File output,
+            @NotNull List<Relocation> relocations
+    ) throws IOException {
+        FlightRecorderEvents.Span span = FlightRecorderEvents.relocate(output);
+        try (JarRelocator relocator = new JarRelocator(new RelocationMapper(relocations), new BufferedOutputStream(new FileOutputStream(output)))) {
+            ZipInputStream zipIn = new ZipInputStream(input);
+            InputStream entryIn = new FilterInputStream(zipIn) {
+                @Override
+                public void close() {
+                    // the entry is closed by the next call to getNextEntry()
+                }
+            };
+            for (ZipEntry entry; (entry = zipIn.getNextEntry()) != null; )
+                relocator.accept(entry, entryIn);
+        }
+        span.set("bytes", output.length()).commit();
+    }
 }
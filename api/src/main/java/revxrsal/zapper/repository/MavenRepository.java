@@ -56,15 +56,25 @@ final class MavenRepository implements Repository {
     }
 
     public static @NotNull MavenRepository maven(@NotNull String url) {
-        return new MavenRepository(url);
+        return new MavenRepository(url, false);
+    }
+
+    public static @NotNull MavenRepository preRelocated(@NotNull String url) {
+        return new MavenRepository(url, true);
     }
 
     private final String repoURL;
+    private final boolean preRelocated;
 
     private MavenRepository(@NotNull String repoURL) {
+        this(repoURL, false);
+    }
+
+    private MavenRepository(@NotNull String repoURL, boolean preRelocated) {
         if (repoURL.charAt(repoURL.length() - 1) != '/')
             repoURL += '/';
         this.repoURL = repoURL;
+        this.preRelocated = preRelocated;
     }
 
     public String getRepositoryURL() {
@@ -76,6 +86,11 @@ final class MavenRepository implements Repository {
         return getRepositoryURL();
     }
 
+    @Override
+    public boolean isPreRelocated() {
+        return preRelocated;
+    }
+
     public @NotNull URL resolve(@NotNull Dependency dependency) throws Exception {
         return new URL(repoURL + dependency.getMavenPath());
     }
@@ -84,11 +99,11 @@ final class MavenRepository implements Repository {
     public boolean equals(Object o) {
         if (o == null || getClass() != o.getClass()) return false;
         MavenRepository that = (MavenRepository) o;
-        return Objects.equals(repoURL, that.repoURL);
+        return preRelocated == that.preRelocated && Objects.equals(repoURL, that.repoURL);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hashCode(repoURL);
+        return Objects.hash(repoURL, preRelocated);
     }
 }
@@ -22,6 +22,18 @@ public interface Repository {
      */
     @NotNull URL resolve(@NotNull Dependency dependency) throws Exception;
 
+    /**
+     * Returns whether this repository serves jars that have already been
+     * relocated, like a mirror generated by the {@code generateZapperMirror}
+     * Gradle task. Jars from such repositories are used as-is.
+     *
+     * @return Whether jars are relocated already
+     * @see #preRelocated(String)
+     */
+    default boolean isPreRelocated() {
+        return false;
+    }
+
     /**
      * Creates a Maven repository from the specified URL.
      *
@@ -42,6 +54,19 @@ public interface Repository {
         return MavenRepository.maven(url);
     }
 
+    /**
+     * Creates a Maven repository of relocated jars from the specified URL
+     * string. Jars are looked up with a classifier that identifies the
+     * relocation rules, so jars relocated with other rules are never used.
+     *
+     * @param url the URL of the repository as a string
+     * @return the configured Maven repository
+     * @see revxrsal.zapper.relocation.RelocationCache#classifier()
+     */
+    static @NotNull Repository preRelocated(@NotNull String url) {
+        return MavenRepository.preRelocated(url);
+    }
+
     /**
      * Returns a repository representing the local Maven directory (default: ~/.m2).
      *
@@ -0,0 +1,168 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.repository;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import revxrsal.zapper.ArtifactIntegrityException;
+
+import java.io.FileNotFoundException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Skips repositories that are down, so that every dependency does not have to
+ * wait for them to fail again.
+ * <p>
+ * A repository is opened (skipped) once several requests to it have failed in
+ * a row, or as soon as its host cannot be resolved or reached. It stays open
+ * for a while, which covers the rest of a normal startup, and is then
+ * half-open: requests are sent to it again, and it is opened again after the
+ * first failure. Requests for artifacts that the repository does not have
+ * tell that it is up, and so count as successes.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class RepositoryCircuitBreaker {
+
+    private static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    private static final long DEFAULT_OPEN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private final Map<String, State> states = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new circuit breaker that opens after 3 failures in a row,
+     * for 5 minutes
+     */
+    public RepositoryCircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS);
+    }
+
+    /**
+     * Creates a new circuit breaker
+     *
+     * @param failureThreshold The number of failures in a row after which
+     *                         a repository is skipped
+     * @param openMillis       How long a repository is skipped for
+     */
+    public RepositoryCircuitBreaker(int failureThreshold, long openMillis) {
+        if (failureThreshold < 1 || openMillis < 0)
+            throw new IllegalArgumentException("Invalid circuit breaker settings");
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Tests whether requests may be sent to the given repository
+     *
+     * @param repository The repository
+     * @return false if the repository is skipped
+     */
+    public boolean allows(@NotNull Repository repository) {
+        State state = states.get(repository.toString());
+        return state == null || state.allows(System.currentTimeMillis());
+    }
+
+    /**
+     * Records a successful request to the given repository
+     *
+     * @param repository The repository
+     */
+    public void recordSuccess(@NotNull Repository repository) {
+        State state = states.get(repository.toString());
+        if (state != null)
+            state.reset();
+    }
+
+    /**
+     * Records a failed request to the given repository. Artifacts that do
+     * not match their checksum or size are ignored, as they say nothing
+     * about the repository being down.
+     *
+     * @param repository The repository
+     * @param error      The error the request failed with
+     */
+    public void recordFailure(@NotNull Repository repository, @NotNull Throwable error) {
+        if (error instanceof ArtifactIntegrityException)
+            return;
+        if (error instanceof FileNotFoundException) {
+            recordSuccess(repository);
+            return;
+        }
+        State state = states.computeIfAbsent(repository.toString(), k -> new State());
+        boolean unreachable = error instanceof UnknownHostException
+                || error instanceof ConnectException
+                || error instanceof NoRouteToHostException;
+        state.fail(error, unreachable ? failureThreshold : 1, failureThreshold, System.currentTimeMillis() + openMillis);
+    }
+
+    /**
+     * Returns the error of the last failed request to the given repository,
+     * if it is skipped
+     *
+     * @param repository The repository
+     * @return The error, or null if the repository is not skipped
+     */
+    public @Nullable Throwable lastError(@NotNull Repository repository) {
+        State state = states.get(repository.toString());
+        if (state == null)
+            return null;
+        synchronized (state) {
+            return state.allows(System.currentTimeMillis()) ? null : state.lastError;
+        }
+    }
+
+    private static final class State {
+
+        private int failures;
+        private long openUntil;
+        private @Nullable Throwable lastError;
+
+        synchronized boolean allows(long now) {
+            return now >= openUntil;
+        }
+
+        synchronized void reset() {
+            failures = 0;
+            openUntil = 0;
+            lastError = null;
+        }
+
+        synchronized void fail(@NotNull Throwable error, int weight, int threshold, long openUntil) {
+            failures += weight;
+            lastError = error;
+            if (failures >= threshold) {
+                this.openUntil = openUntil;
+                // half-open once it expires, so the next failure opens it again
+                failures = threshold - 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.repository;
+
+import org.jetbrains.annotations.NotNull;
+import revxrsal.zapper.Dependency;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides which repositories are asked for a dependency, and in which order.
+ * <p>
+ * Repositories are tried in the following order:
+ * <ol>
+ *     <li>The repository the dependency is pinned to, which is normally the
+ *     repository that served it at build time</li>
+ *     <li>Repositories routed to the dependency's group, longest prefix first</li>
+ *     <li>All other repositories, ranked by their past performance</li>
+ * </ol>
+ * Repositories that recently did not have a dependency are remembered in
+ * a negative cache, and are skipped until the entry expires.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class RepositoryRouter {
+
+    /**
+     * The name of the file that the negative cache is persisted into
+     */
+    public static final String MISSES_FILE_NAME = "zapper-misses.txt";
+
+    private static final long DEFAULT_MISS_TTL = TimeUnit.HOURS.toMillis(24);
+
+    private final Map<Dependency, Repository> pins = new ConcurrentHashMap<>();
+    private final List<Route> routes = new ArrayList<>();
+    private final Map<String, Long> misses = new ConcurrentHashMap<>();
+    private long missTtl = DEFAULT_MISS_TTL;
+
+    /**
+     * Pins the given dependency to the given repository, so that it is
+     * always asked first
+     *
+     * @param dependency The dependency
+     * @param repository The repository
+     */
+    public void pin(@NotNull Dependency dependency, @NotNull Repository repository) {
+        pins.put(dependency, repository);
+    }
+
+    /**
+     * Routes all dependencies whose group starts with the given prefix to the
+     * given repository. The prefix may end with {@code .*}, which is ignored.
+     * <p>
+     * For example, routing {@code org.jetbrains} matches {@code org.jetbrains}
+     * and {@code org.jetbrains.kotlin}, but not {@code org.jetbrainsx}.
+     *
+     * @param groupPrefix The group prefix
+     * @param repository  The repository
+     */
+    public synchronized void route(@NotNull String groupPrefix, @NotNull Repository repository) {
+        if (groupPrefix.endsWith(".*"))
+            groupPrefix = groupPrefix.substring(0, groupPrefix.length() - 2);
+        routes.add(new Route(groupPrefix, repository));
+        routes.sort(Comparator.comparingInt((Route r) -> r.prefix.length()).reversed());
+    }
+
+    /**
+     * Sets how long a repository that did not have a dependency is skipped
+     * for that dependency
+     *
+     * @param ttl  The duration
+     * @param unit The unit of the duration
+     */
+    public void missTtl(long ttl, @NotNull TimeUnit unit) {
+        this.missTtl = unit.toMillis(ttl);
+    }
+
+    /**
+     * Returns the repositories to try for the given dependency, in order
+     *
+     * @param dependency   The dependency
+     * @param repositories The generally available repositories
+     * @param scorer       The scorer used to rank repositories that are neither
+     *                     pinned nor routed
+     * @return The repositories to try
+     */
+    public @NotNull List<Repository> candidates(
+            @NotNull Dependency dependency,
+            @NotNull Collection<Repository> repositories,
+            @NotNull RepositoryScorer scorer
+    ) {
+        Set<Repository> ordered = new LinkedHashSet<>();
+        Repository pinned = pins.get(dependency);
+        if (pinned != null)
+            ordered.add(pinned);
+        synchronized (this) {
+            for (Route route : routes) {
+                if (route.matches(dependency.getGroupId()))
+                    ordered.add(route.repository);
+            }
+        }
+        ordered.addAll(scorer.rank(repositories));
+
+        long now = System.currentTimeMillis();
+        List<Repository> candidates = new ArrayList<>(ordered.size());
+        for (Repository repository : ordered) {
+            Long expiry = misses.get(missKey(repository, dependency));
+            if (expiry == null || expiry < now)
+                candidates.add(repository);
+        }
+        // the cache may be stale. trying everything is better than trying nothing
+        return candidates.isEmpty() ? new ArrayList<>(ordered) : candidates;
+    }
+
+    /**
+     * Records that the given repository does not have the given dependency
+     *
+     * @param repository The repository
+     * @param dependency The dependency
+     */
+    public void recordMiss(@NotNull Repository repository, @NotNull Dependency dependency) {
+        misses.put(missKey(repository, dependency), System.currentTimeMillis() + missTtl);
+    }
+
+    /**
+     * Loads the negative cache persisted in the given directory. Missing or
+     * malformed files are ignored, and so are expired entries.
+     *
+     * @param directory The directory to read from
+     */
+    public void loadMisses(@NotNull File directory) {
+        File file = new File(directory, MISSES_FILE_NAME);
+        if (!file.exists())
+            return;
+        long now = System.currentTimeMillis();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space == -1)
+                    continue;
+                long expiry = Long.parseLong(line.substring(0, space));
+                if (expiry >= now)
+                    misses.put(line.substring(space + 1), expiry);
+            }
+        } catch (IOException | NumberFormatException ignored) {
+        }
+    }
+
+    /**
+     * Persists the negative cache into the given directory. The file is
+     * replaced atomically, so that it is never read half-written.
+     *
+     * @param directory The directory to write to
+     */
+    public void saveMisses(@NotNull File directory) throws IOException {
+        long now = System.currentTimeMillis();
+        Map<String, Long> live = new HashMap<>(misses);
+        live.values().removeIf(expiry -> expiry < now);
+        File file = new File(directory, MISSES_FILE_NAME);
+        if (live.isEmpty()) {
+            file.delete();
+            return;
+        }
+        directory.mkdirs();
+        File temp = File.createTempFile(MISSES_FILE_NAME, ".tmp", directory);
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Long> entry : live.entrySet()) {
+                    writer.write(entry.getValue() + " " + entry.getKey());
+                    writer.write('\n');
+                }
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
+    private static @NotNull String missKey(@NotNull Repository repository, @NotNull Dependency dependency) {
+        return repository + " " + dependency.getMavenPath();
+    }
+
+    private static final class Route {
+
+        private final String prefix;
+        private final Repository repository;
+
+        Route(String prefix, Repository repository) {
+            this.prefix = prefix;
+            this.repository = repository;
+        }
+
+        boolean matches(@NotNull String group) {
+            return group.startsWith(prefix)
+                    && (group.length() == prefix.length() || group.charAt(prefix.length()) == '.');
+        }
+    }
+}
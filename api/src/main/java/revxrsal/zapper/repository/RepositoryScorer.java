@@ -0,0 +1,259 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.repository;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Keeps track of the latency and success rate of repositories, so that the
+ * fastest and most reliable repositories can be tried first.
+ * <p>
+ * Latencies are measured as the time until the first byte of an artifact
+ * is received, and only the most recent samples of every repository are
+ * kept. Successes and failures decay in the same way, so that a repository
+ * that recovers from an outage is trusted again. Statistics can be persisted
+ * to a small file, so that they survive restarts, where they count half as
+ * much as what is seen afterwards.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class RepositoryScorer {
+
+    /**
+     * The name of the file that statistics are persisted into
+     */
+    public static final String FILE_NAME = "zapper-repositories.txt";
+
+    private static final int MAX_SAMPLES = 32;
+
+    /**
+     * How much every outcome weighs less than the next one, so that about
+     * the last {@link #MAX_SAMPLES} outcomes count
+     */
+    private static final double DECAY = 1 - 1.0 / MAX_SAMPLES;
+
+    /**
+     * The assumed latency of repositories that we know nothing about
+     */
+    private static final long DEFAULT_LATENCY = 500;
+
+    private final Map<String, Stats> stats = new HashMap<>();
+
+    /**
+     * Loads the statistics persisted in the given directory. Missing or
+     * malformed files are ignored.
+     *
+     * @param directory The directory to read from
+     * @return The scorer
+     */
+    public static @NotNull RepositoryScorer load(@NotNull File directory) {
+        RepositoryScorer scorer = new RepositoryScorer();
+        File file = new File(directory, FILE_NAME);
+        if (!file.exists())
+            return scorer;
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] split = line.split(" ", 4);
+                if (split.length != 4)
+                    continue;
+                Stats stats = new Stats();
+                stats.restore(Double.parseDouble(split[0]), Double.parseDouble(split[1]));
+                if (!split[2].equals("-")) {
+                    for (String sample : split[2].split(","))
+                        stats.addSample(Long.parseLong(sample));
+                }
+                scorer.stats.put(split[3], stats);
+            }
+        } catch (IOException | NumberFormatException ignored) {
+        }
+        return scorer;
+    }
+
+    /**
+     * Persists the statistics into the given directory. The file is replaced
+     * atomically, so that it is never read half-written.
+     *
+     * @param directory The directory to write to
+     */
+    public synchronized void save(@NotNull File directory) throws IOException {
+        directory.mkdirs();
+        File temp = File.createTempFile(FILE_NAME, ".tmp", directory);
+        try {
+            write(temp);
+            try {
+                Files.move(temp.toPath(), new File(directory, FILE_NAME).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), new File(directory, FILE_NAME).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
+    private void write(@NotNull File file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+                Stats stats = entry.getValue();
+                StringBuilder samples = new StringBuilder();
+                for (int i = 0; i < stats.sampleCount; i++) {
+                    if (i > 0)
+                        samples.append(',');
+                    samples.append(stats.samples[i]);
+                }
+                writer.write(String.format(Locale.ROOT, "%.3f %.3f ", stats.successes, stats.failures)
+                        + (samples.length() == 0 ? "-" : samples) + " " + entry.getKey());
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Records a successful request to the given repository
+     *
+     * @param repository     The repository
+     * @param latencyMillis  The time until the first byte was received
+     */
+    public synchronized void recordSuccess(@NotNull Repository repository, long latencyMillis) {
+        Stats stats = statsOf(repository);
+        stats.addOutcome(true);
+        stats.addSample(latencyMillis);
+    }
+
+    /**
+     * Records a failed request to the given repository. Repositories that do
+     * not have an artifact have not failed, and should not be recorded.
+     *
+     * @param repository The repository
+     */
+    public synchronized void recordFailure(@NotNull Repository repository) {
+        statsOf(repository).addOutcome(false);
+    }
+
+    /**
+     * Records a latency sample for the given repository, without counting it
+     * as a success or failure. This is used for requests that were abandoned
+     * because another repository was faster.
+     *
+     * @param repository    The repository
+     * @param latencyMillis The time that was spent waiting
+     */
+    public synchronized void recordLatency(@NotNull Repository repository, long latencyMillis) {
+        statsOf(repository).addSample(latencyMillis);
+    }
+
+    /**
+     * Returns the given percentile of the latencies of the given repository
+     *
+     * @param repository The repository
+     * @param percentile The percentile, between 0 and 1
+     * @return The latency in milliseconds
+     */
+    public synchronized long latencyPercentile(@NotNull Repository repository, double percentile) {
+        Stats stats = this.stats.get(repository.toString());
+        if (stats == null || stats.sampleCount == 0)
+            return DEFAULT_LATENCY;
+        long[] sorted = Arrays.copyOf(stats.samples, stats.sampleCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * Sorts the given repositories so that the best ones come first.
+     * Repositories are scored by their median latency divided by their
+     * success rate. Repositories with equal scores keep their original order.
+     *
+     * @param repositories The repositories to rank
+     * @return The ranked repositories
+     */
+    public synchronized @NotNull List<Repository> rank(@NotNull Collection<Repository> repositories) {
+        Map<Repository, Double> scores = new HashMap<>();
+        for (Repository repository : repositories)
+            scores.put(repository, score(repository));
+        List<Repository> ranked = new ArrayList<>(repositories);
+        ranked.sort(Comparator.comparingDouble(scores::get));
+        return ranked;
+    }
+
+    private double score(@NotNull Repository repository) {
+        Stats stats = this.stats.get(repository.toString());
+        if (stats == null)
+            return DEFAULT_LATENCY;
+        // add-one smoothing, so that a single failure is not fatal
+        double successRate = (stats.successes + 1.0) / (stats.successes + stats.failures + 2.0);
+        return latencyPercentile(repository, 0.5) / successRate;
+    }
+
+    private @NotNull Stats statsOf(@NotNull Repository repository) {
+        return stats.computeIfAbsent(repository.toString(), k -> new Stats());
+    }
+
+    private static final class Stats {
+
+        private double successes, failures;
+        private final long[] samples = new long[MAX_SAMPLES];
+        private int sampleCount, nextSample;
+
+        void addOutcome(boolean success) {
+            successes *= DECAY;
+            failures *= DECAY;
+            if (success)
+                successes++;
+            else
+                failures++;
+        }
+
+        /**
+         * Restores persisted outcomes at half their weight
+         */
+        void restore(double successes, double failures) {
+            this.successes = Math.max(0, successes / 2);
+            this.failures = Math.max(0, failures / 2);
+        }
+
+        void addSample(long sample) {
+            samples[nextSample] = sample;
+            nextSample = (nextSample + 1) % MAX_SAMPLES;
+            sampleCount = Math.min(sampleCount + 1, MAX_SAMPLES);
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.transport;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.channels.UnresolvedAddressException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+/**
+ * A {@link Transport} backed by the JDK {@code java.net.http.HttpClient}, which
+ * is only available on Java 11+. The client keeps a pool of connections (and
+ * TLS sessions) per host, and multiplexes concurrent requests to the same
+ * host over a single connection when the server supports HTTP/2.
+ * <p>
+ * As this library is compiled against Java 8, the client is accessed through
+ * method handles that are looked up once.
+ */
+final class HttpClientTransport implements Transport {
+
+    private static final @Nullable Handles HANDLES = Handles.lookup();
+
+    private final Object client;
+    private final long readTimeout;
+
+    /**
+     * Creates a new transport
+     *
+     * @param connectTimeout The time to wait for a connection to be established,
+     *                       in milliseconds, or 0 to wait forever
+     * @param readTimeout    The time to wait for the response headers, and then for
+     *                       the next bytes of the body, in milliseconds, or 0 to wait forever
+     */
+    HttpClientTransport(long connectTimeout, long readTimeout) {
+        this(newClient(connectTimeout), readTimeout);
+    }
+
+    /**
+     * Creates a new transport that sends requests with the given client, and
+     * so shares its connections with every other transport that uses it
+     *
+     * @param client      The {@code java.net.http.HttpClient}
+     * @param readTimeout The time to wait for the response headers, and then for
+     *                    the next bytes of the body, in milliseconds, or 0 to wait forever
+     * @see #newClient(long)
+     */
+    HttpClientTransport(@NotNull Object client, long readTimeout) {
+        if (HANDLES == null)
+            throw new UnsupportedOperationException("HttpClient requires Java 11 or newer");
+        this.client = client;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Creates a new {@code java.net.http.HttpClient}, which follows redirects
+     * and prefers HTTP/2
+     *
+     * @param connectTimeout The time to wait for a connection to be established,
+     *                       in milliseconds, or 0 to wait forever
+     * @return The client
+     */
+    static @NotNull Object newClient(long connectTimeout) {
+        if (HANDLES == null)
+            throw new UnsupportedOperationException("HttpClient requires Java 11 or newer");
+        try {
+            Object builder = HANDLES.newClientBuilder.invoke();
+            if (connectTimeout > 0)
+                builder = HANDLES.connectTimeout.invoke(builder, Duration.ofMillis(connectTimeout));
+            return HANDLES.buildClient.invoke(builder);
+        } catch (Throwable t) {
+            throw new IllegalStateException("Failed to create HttpClient", t);
+        }
+    }
+
+    static boolean isAvailable() {
+        return HANDLES != null;
+    }
+
+    @Override
+    public @NotNull Response get(@NotNull URL url, @NotNull Map<String, String> headers) throws IOException {
+        String protocol = url.getProtocol();
+        if (!protocol.equals("http") && !protocol.equals("https"))
+            return URLConnectionTransport.INSTANCE.get(url, headers);
+        Handles h = HANDLES;
+        Object response;
+        try {
+            Object builder = h.newRequestBuilder.invoke(url.toURI());
+            for (Map.Entry<String, String> header : headers.entrySet())
+                builder = h.header.invoke(builder, header.getKey(), header.getValue());
+            if (readTimeout > 0)
+                builder = h.timeout.invoke(builder, Duration.ofMillis(readTimeout));
+            Object request = h.build.invoke(builder);
+            response = h.send.invoke(client, request, h.bodyHandler);
+        } catch (IOException e) {
+            // thrown as SocketTimeoutExceptions and UnknownHostExceptions by URLConnections
+            if (h.timeoutException.isInstance(e)) {
+                SocketTimeoutException timeout = new SocketTimeoutException(e.getMessage());
+                timeout.initCause(e);
+                throw timeout;
+            }
+            if (e instanceof ConnectException && isUnresolved(e)) {
+                UnknownHostException unknownHost = new UnknownHostException(url.getHost());
+                unknownHost.initCause(e);
+                throw unknownHost;
+            }
+            throw e;
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while requesting " + url);
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid URL: " + url, e);
+        } catch (Throwable t) {
+            throw new IOException(t);
+        }
+        try {
+            int statusCode = (int) h.statusCode.invoke(response);
+            InputStream body = (InputStream) h.body.invoke(response);
+            // the stream has no read timeout of its own
+            if (readTimeout > 0)
+                body = new ReadTimeoutInputStream(body, readTimeout);
+            Object responseHeaders = h.headers.invoke(response);
+            if (statusCode >= 400) {
+                body.close();
+                if (statusCode == 404 || statusCode == 410)
+                    throw new FileNotFoundException(url.toString());
+                throw new HttpStatusException(url, statusCode);
+            }
+            return new HttpClientResponse(statusCode, body, responseHeaders);
+        } catch (IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IOException(t);
+        }
+    }
+
+    private static boolean isUnresolved(@NotNull Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause())
+            if (cause instanceof UnresolvedAddressException)
+                return true;
+        return false;
+    }
+
+    private static final class HttpClientResponse implements Response {
+
+        private final int statusCode;
+        private final InputStream body;
+        private final Object headers;
+
+        HttpClientResponse(int statusCode, InputStream body, Object headers) {
+            this.statusCode = statusCode;
+            this.body = body;
+            this.headers = headers;
+        }
+
+        @Override
+        public int statusCode() {
+            return statusCode;
+        }
+
+        @Override
+        public long contentLength() {
+            try {
+                OptionalLong length = (OptionalLong) HANDLES.firstValueAsLong.invoke(headers, "content-length");
+                return length.orElse(-1);
+            } catch (Throwable t) {
+                return -1;
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public @Nullable String header(@NotNull String name) {
+            try {
+                return ((Optional<String>) HANDLES.firstValue.invoke(headers, name)).orElse(null);
+            } catch (Throwable t) {
+                return null;
+            }
+        }
+
+        @Override
+        public @NotNull InputStream body() {
+            return body;
+        }
+
+        @Override
+        public void close() throws IOException {
+            body.close();
+        }
+    }
+
+    /**
+     * The method handles into {@code java.net.http}
+     */
+    private static final class Handles {
+
+        private MethodHandle newClientBuilder, connectTimeout, buildClient;
+        private MethodHandle newRequestBuilder, header, timeout, build;
+        private MethodHandle send;
+        private Object bodyHandler;
+        private MethodHandle statusCode, body, headers;
+        private MethodHandle firstValue, firstValueAsLong;
+        private Class<?> timeoutException;
+
+        static @Nullable Handles lookup() {
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                Class<?> client = Class.forName("java.net.http.HttpClient");
+                Class<?> clientBuilder = Class.forName("java.net.http.HttpClient$Builder");
+                Class<?> version = Class.forName("java.net.http.HttpClient$Version");
+                Class<?> redirect = Class.forName("java.net.http.HttpClient$Redirect");
+                Class<?> request = Class.forName("java.net.http.HttpRequest");
+                Class<?> requestBuilder = Class.forName("java.net.http.HttpRequest$Builder");
+                Class<?> response = Class.forName("java.net.http.HttpResponse");
+                Class<?> bodyHandler = Class.forName("java.net.http.HttpResponse$BodyHandler");
+                Class<?> bodyHandlers = Class.forName("java.net.http.HttpResponse$BodyHandlers");
+                Class<?> httpHeaders = Class.forName("java.net.http.HttpHeaders");
+
+                Handles h = new Handles();
+                MethodHandle newBuilder = lookup.findStatic(client, "newBuilder", MethodType.methodType(clientBuilder));
+                MethodHandle setVersion = lookup.findVirtual(clientBuilder, "version", MethodType.methodType(clientBuilder, version));
+                MethodHandle setRedirect = lookup.findVirtual(clientBuilder, "followRedirects", MethodType.methodType(clientBuilder, redirect));
+                MethodHandle buildClient = lookup.findVirtual(clientBuilder, "build", MethodType.methodType(client));
+                Object http2 = enumConstant(version, "HTTP_2");
+                Object normal = enumConstant(redirect, "NORMAL");
+                h.newClientBuilder = MethodHandles.filterReturnValue(
+                        MethodHandles.filterReturnValue(newBuilder, MethodHandles.insertArguments(setVersion, 1, http2)),
+                        MethodHandles.insertArguments(setRedirect, 1, normal));
+                h.connectTimeout = lookup.findVirtual(clientBuilder, "connectTimeout", MethodType.methodType(clientBuilder, Duration.class));
+                h.buildClient = buildClient;
+
+                h.newRequestBuilder = lookup.findStatic(request, "newBuilder", MethodType.methodType(requestBuilder, URI.class));
+                h.header = lookup.findVirtual(requestBuilder, "header", MethodType.methodType(requestBuilder, String.class, String.class));
+                h.timeout = lookup.findVirtual(requestBuilder, "timeout", MethodType.methodType(requestBuilder, Duration.class));
+                h.build = lookup.findVirtual(requestBuilder, "build", MethodType.methodType(request));
+                h.send = lookup.findVirtual(client, "send", MethodType.methodType(response, request, bodyHandler));
+                h.bodyHandler = lookup.findStatic(bodyHandlers, "ofInputStream", MethodType.methodType(bodyHandler)).invoke();
+                h.statusCode = lookup.findVirtual(response, "statusCode", MethodType.methodType(int.class));
+                h.body = lookup.findVirtual(response, "body", MethodType.methodType(Object.class));
+                h.headers = lookup.findVirtual(response, "headers", MethodType.methodType(httpHeaders));
+                h.firstValue = lookup.findVirtual(httpHeaders, "firstValue", MethodType.methodType(Optional.class, String.class));
+                h.firstValueAsLong = lookup.findVirtual(httpHeaders, "firstValueAsLong", MethodType.methodType(OptionalLong.class, String.class));
+                h.timeoutException = Class.forName("java.net.http.HttpTimeoutException");
+                return h;
+            } catch (Throwable t) {
+                // not Java 11+, or the java.net.http module is not available
+                return null;
+            }
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static Object enumConstant(Class<?> type, String name) {
+            return Enum.valueOf((Class) type, name);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.transport;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Closes the underlying stream if a read blocks for longer than the read
+ * timeout, for streams that have no read timeout of their own, like the
+ * bodies of {@code HttpClient} responses. The read that was blocked then
+ * fails with a {@link SocketTimeoutException}, as it would on a socket.
+ * <p>
+ * Streams are checked by a single daemon thread, which is only woken up
+ * once per timeout for every stream.
+ */
+final class ReadTimeoutInputStream extends FilterInputStream {
+
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "zapper-read-timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long timeoutNanos;
+    private volatile long lastActivity = System.nanoTime();
+    private volatile boolean reading, timedOut, closed;
+    private ScheduledFuture<?> check;
+
+    ReadTimeoutInputStream(@NotNull InputStream in, long timeoutMillis) {
+        super(in);
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        schedule(timeoutNanos);
+    }
+
+    private synchronized void schedule(long delayNanos) {
+        if (!closed)
+            check = WATCHDOG.schedule(this::check, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void check() {
+        long idle = System.nanoTime() - lastActivity;
+        // the caller may take its time between reads
+        if (!reading || idle < timeoutNanos) {
+            schedule(reading ? timeoutNanos - idle : timeoutNanos);
+            return;
+        }
+        timedOut = true;
+        try {
+            in.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        begin();
+        try {
+            return (int) checked(in.read());
+        } catch (IOException e) {
+            throw timedOut(e);
+        } finally {
+            end();
+        }
+    }
+
+    @Override
+    public int read(@NotNull byte[] b, int off, int len) throws IOException {
+        begin();
+        try {
+            return (int) checked(in.read(b, off, len));
+        } catch (IOException e) {
+            throw timedOut(e);
+        } finally {
+            end();
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        begin();
+        try {
+            return checked(in.skip(n));
+        } catch (IOException e) {
+            throw timedOut(e);
+        } finally {
+            end();
+        }
+    }
+
+    private void begin() {
+        lastActivity = System.nanoTime();
+        reading = true;
+    }
+
+    private void end() {
+        reading = false;
+        lastActivity = System.nanoTime();
+    }
+
+    /**
+     * Fails reads that returned because the stream was closed when it timed
+     * out, which some streams report as the end of the stream
+     */
+    private long checked(long result) throws IOException {
+        if (timedOut)
+            throw new SocketTimeoutException("Read timed out");
+        return result;
+    }
+
+    private @NotNull IOException timedOut(@NotNull IOException e) {
+        if (!timedOut)
+            return e;
+        SocketTimeoutException timeout = new SocketTimeoutException("Read timed out");
+        timeout.initCause(e);
+        return timeout;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            if (check != null)
+                check.cancel(false);
+        }
+        in.close();
+    }
+}
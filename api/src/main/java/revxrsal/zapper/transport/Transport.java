@@ -0,0 +1,195 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.transport;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Performs requests for downloading artifacts from repositories.
+ * <p>
+ * Implementations are expected to be thread-safe, and to reuse connections
+ * to the same host between requests where possible.
+ *
+ * @see #create()
+ */
+public interface Transport {
+
+    /**
+     * The default time to wait for a connection to be established, in
+     * milliseconds. Can be overridden with {@code -Dzapper.connectTimeout=<millis>}.
+     */
+    long DEFAULT_CONNECT_TIMEOUT = Long.getLong("zapper.connectTimeout", 10_000);
+
+    /**
+     * The default time to wait for a response, or for the next bytes of a
+     * response body, in milliseconds. Can be overridden with
+     * {@code -Dzapper.readTimeout=<millis>}.
+     */
+    long DEFAULT_READ_TIMEOUT = Long.getLong("zapper.readTimeout", 30_000);
+
+    /**
+     * Sends a GET request to the given URL. Redirects are followed.
+     *
+     * @param url     The URL to request
+     * @param headers Additional request headers
+     * @return The response. This must be closed after use.
+     * @throws java.io.FileNotFoundException if the server responded with 404 or 410
+     * @throws HttpStatusException          if the server responded with any other error
+     * @throws java.net.SocketTimeoutException if the connection could not be established,
+     *                                         or the server stopped responding, in time
+     * @throws IOException                   if the request failed
+     */
+    @NotNull Response get(@NotNull URL url, @NotNull Map<String, String> headers) throws IOException;
+
+    /**
+     * Creates the best transport available for the running JVM. On Java 11+,
+     * this uses the JDK {@code HttpClient}, which pools connections and
+     * multiplexes requests to the same host over HTTP/2. Otherwise, this
+     * falls back to {@link #urlConnection()}.
+     * <p>
+     * Non-HTTP URLs (like local Maven repositories) are always requested
+     * through {@link java.net.URLConnection}.
+     *
+     * @return The transport
+     */
+    static @NotNull Transport create() {
+        return create(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * Creates the best transport available for the running JVM, with the
+     * given timeouts
+     *
+     * @param connectTimeout The time to wait for a connection to be established,
+     *                       in milliseconds, or 0 to wait forever
+     * @param readTimeout    The time to wait for a response, or for the next bytes of
+     *                       a response body, in milliseconds, or 0 to wait forever
+     * @return The transport
+     * @see #create()
+     */
+    static @NotNull Transport create(long connectTimeout, long readTimeout) {
+        if (HttpClientTransport.isAvailable())
+            return new HttpClientTransport(connectTimeout, readTimeout);
+        return urlConnection(connectTimeout, readTimeout);
+    }
+
+    /**
+     * Creates the best transport available for the running JVM, like
+     * {@link #create(long, long)}, whose connections are shared with every
+     * other transport created with the same map and connect timeout.
+     * <p>
+     * The map only ever holds JDK types, so it can be shared with copies of
+     * Zapper that are relocated differently.
+     *
+     * @param clients        The clients to share, keyed by their settings
+     * @param connectTimeout The time to wait for a connection to be established,
+     *                       in milliseconds, or 0 to wait forever
+     * @param readTimeout    The time to wait for a response, or for the next bytes of
+     *                       a response body, in milliseconds, or 0 to wait forever
+     * @return The transport
+     */
+    static @NotNull Transport shared(@NotNull ConcurrentMap<String, Object> clients, long connectTimeout, long readTimeout) {
+        // URLConnections share the JDK's keep-alive cache already
+        if (!HttpClientTransport.isAvailable())
+            return urlConnection(connectTimeout, readTimeout);
+        Object client = clients.computeIfAbsent("http-client/" + connectTimeout, k -> HttpClientTransport.newClient(connectTimeout));
+        return new HttpClientTransport(client, readTimeout);
+    }
+
+    /**
+     * Returns a transport that uses plain {@link java.net.URLConnection}s,
+     * which rely on the JDK's keep-alive cache for connection reuse.
+     *
+     * @return The transport
+     */
+    static @NotNull Transport urlConnection() {
+        return URLConnectionTransport.INSTANCE;
+    }
+
+    /**
+     * Returns a transport that uses plain {@link java.net.URLConnection}s,
+     * with the given timeouts
+     *
+     * @param connectTimeout The time to wait for a connection to be established,
+     *                       in milliseconds, or 0 to wait forever
+     * @param readTimeout    The time to wait for the next bytes of a response,
+     *                       in milliseconds, or 0 to wait forever
+     * @return The transport
+     */
+    static @NotNull Transport urlConnection(long connectTimeout, long readTimeout) {
+        if (connectTimeout == DEFAULT_CONNECT_TIMEOUT && readTimeout == DEFAULT_READ_TIMEOUT)
+            return URLConnectionTransport.INSTANCE;
+        return new URLConnectionTransport(connectTimeout, readTimeout);
+    }
+
+    /**
+     * A response to a successful request
+     */
+    interface Response extends Closeable {
+
+        /**
+         * Returns the HTTP status code of the response, or 200 for non-HTTP URLs
+         *
+         * @return The status code
+         */
+        int statusCode();
+
+        /**
+         * Returns the length of the response body
+         *
+         * @return The length in bytes, or -1 if unknown
+         */
+        long contentLength();
+
+        /**
+         * Returns the first value of the given response header
+         *
+         * @param name The header name, case-insensitive
+         * @return The header value, or null if absent
+         */
+        @Nullable String header(@NotNull String name);
+
+        /**
+         * Returns the response body
+         *
+         * @return The body stream
+         */
+        @NotNull InputStream body();
+
+        /**
+         * Closes the response body. If the body has not been read fully, the
+         * request is aborted.
+         */
+        @Override
+        void close() throws IOException;
+    }
+}
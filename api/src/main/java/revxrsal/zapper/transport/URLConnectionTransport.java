@@ -0,0 +1,124 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.transport;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Map;
+
+/**
+ * A {@link Transport} that uses plain {@link URLConnection}s. Connections are
+ * reused through the JDK's keep-alive cache, as long as response bodies are
+ * read fully and closed.
+ */
+final class URLConnectionTransport implements Transport {
+
+    static final URLConnectionTransport INSTANCE = new URLConnectionTransport(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+
+    private final int connectTimeout, readTimeout;
+
+    URLConnectionTransport(long connectTimeout, long readTimeout) {
+        this.connectTimeout = (int) Math.min(Integer.MAX_VALUE, connectTimeout);
+        this.readTimeout = (int) Math.min(Integer.MAX_VALUE, readTimeout);
+    }
+
+    @Override
+    public @NotNull Response get(@NotNull URL url, @NotNull Map<String, String> headers) throws IOException {
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        headers.forEach(connection::setRequestProperty);
+        if (connection instanceof HttpURLConnection) {
+            HttpURLConnection http = (HttpURLConnection) connection;
+            int statusCode = http.getResponseCode();
+            if (statusCode >= 400) {
+                discard(http.getErrorStream());
+                if (statusCode == HttpURLConnection.HTTP_NOT_FOUND || statusCode == HttpURLConnection.HTTP_GONE)
+                    throw new FileNotFoundException(url.toString());
+                throw new HttpStatusException(url, statusCode);
+            }
+            return new URLConnectionResponse(connection, statusCode, http.getInputStream());
+        }
+        return new URLConnectionResponse(connection, 200, connection.getInputStream());
+    }
+
+    /**
+     * Reads the error stream fully, so that the connection can be reused
+     */
+    private static void discard(@Nullable InputStream stream) {
+        if (stream == null)
+            return;
+        try (InputStream in = stream) {
+            byte[] buffer = new byte[1024];
+            //noinspection StatementWithEmptyBody
+            while (in.read(buffer) != -1) ;
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static final class URLConnectionResponse implements Response {
+
+        private final URLConnection connection;
+        private final int statusCode;
+        private final InputStream body;
+
+        URLConnectionResponse(URLConnection connection, int statusCode, InputStream body) {
+            this.connection = connection;
+            this.statusCode = statusCode;
+            this.body = body;
+        }
+
+        @Override
+        public int statusCode() {
+            return statusCode;
+        }
+
+        @Override
+        public long contentLength() {
+            return connection.getContentLengthLong();
+        }
+
+        @Override
+        public @Nullable String header(@NotNull String name) {
+            return connection.getHeaderField(name);
+        }
+
+        @Override
+        public @NotNull InputStream body() {
+            return body;
+        }
+
+        @Override
+        public void close() throws IOException {
+            body.close();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * Utilities for computing and formatting checksums
+ */
+public final class Checksums {
+
+    /**
+     * The suffix of the files that record that a file has been verified
+     *
+     * @see #verify(File, String)
+     */
+    public static final String VERIFIED_SUFFIX = ".verified";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Checksums() {
+    }
+
+    /**
+     * Creates a new SHA-256 digest
+     *
+     * @return The digest
+     */
+    public static @NotNull MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Computes the SHA-256 of the given file
+     *
+     * @param file The file
+     * @return The lowercase hex checksum
+     */
+    public static @NotNull String sha256(@NotNull File file) throws IOException {
+        MessageDigest digest = sha256();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            byte[] buffer = new byte[8 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                digest.update(buffer, 0, read);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Tests whether the given file has the given SHA-256. Once it does, its
+     * size, modification time and checksum are recorded next to it, so that
+     * it is only hashed again once it has changed.
+     *
+     * @param file   The file
+     * @param sha256 The expected checksum, as hex
+     * @return true if the file matches. Files that cannot be read do not.
+     */
+    public static boolean verify(@NotNull File file, @NotNull String sha256) {
+        File record = new File(file.getPath() + VERIFIED_SUFFIX);
+        String verified = file.length() + " " + file.lastModified() + " " + sha256.toLowerCase(Locale.ROOT);
+        try {
+            if (record.isFile() && verified.equals(new String(Files.readAllBytes(record.toPath()), StandardCharsets.UTF_8)))
+                return true;
+            if (!sha256(file).equalsIgnoreCase(sha256))
+                return false;
+        } catch (IOException e) {
+            return false;
+        }
+        try {
+            Files.write(record.toPath(), verified.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ignored) {
+            // it is hashed again next time
+        }
+        return true;
+    }
+
+    /**
+     * Formats the given bytes as a lowercase hex string
+     *
+     * @param bytes Bytes to format
+     * @return The hex string
+     */
+    public static @NotNull String toHex(@NotNull byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
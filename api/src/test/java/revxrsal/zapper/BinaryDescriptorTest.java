@@ -0,0 +1,136 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import revxrsal.zapper.repository.Repository;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * The fixture in the descriptor resources was generated from its text files
+ * by descriptor.kt in the Gradle plugin, and must be generated again whenever
+ * the format changes.
+ */
+class BinaryDescriptorTest {
+
+    private static final String FIXTURE = "/descriptor/";
+    private static final List<String> TEXT_FILES = Arrays.asList(
+            "dependencies.txt", "dependencies.lock", "repositories.txt", "relocations.txt", "routes.txt",
+            "packages.txt", "background.txt", "relocated.lock", "reachable.txt", "zapper.properties"
+    );
+
+    @TempDir
+    File directory;
+
+    @Test
+    void fixtureHasTheMagicAndVersionOfTheReader() throws IOException {
+        try (DataInputStream in = new DataInputStream(resource(BinaryDescriptor.RESOURCE))) {
+            assertEquals(BinaryDescriptor.MAGIC, in.readInt());
+            assertEquals(BinaryDescriptor.VERSION, in.readUnsignedByte());
+        }
+        assertNotNull(BinaryDescriptor.read(resource(BinaryDescriptor.RESOURCE)));
+    }
+
+    @Test
+    void readsTheSameAsTheTextFiles() throws IOException {
+        List<String> withDescriptor = new ArrayList<>(TEXT_FILES);
+        withDescriptor.add("zapper.bin");
+        RuntimeLibPluginConfiguration binary = parse("binary.jar", withDescriptor);
+        RuntimeLibPluginConfiguration text = parse("text.jar", TEXT_FILES);
+
+        assertEquals(text.toString(), binary.toString());
+        assertEquals(describe(text.getDependencies()), describe(binary.getDependencies()));
+        assertEquals(describe(text.getRelocatedJars()), describe(binary.getRelocatedJars()));
+        assertEquals(preRelocated(text.getRepositories()), preRelocated(binary.getRepositories()));
+        assertEquals(describe(text.getOrigins()), describe(binary.getOrigins()));
+        assertNotNull(binary.getReachableClasses());
+        assertEquals(text.getReachableClasses().hash(), binary.getReachableClasses().hash());
+        assertEquals(3, binary.getReachableClasses().size());
+    }
+
+    @Test
+    void skipsTheTextFilesWhenTheDescriptorIsRead() throws IOException {
+        RuntimeLibPluginConfiguration binary = parse("binary.jar", Arrays.asList("zapper.bin", "zapper.properties"));
+        RuntimeLibPluginConfiguration text = parse("text.jar", TEXT_FILES);
+        assertEquals(text.toString(), binary.toString());
+    }
+
+    private RuntimeLibPluginConfiguration parse(String name, List<String> files) throws IOException {
+        File jar = new File(directory, name);
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+            for (String file : files) {
+                out.putNextEntry(new ZipEntry("zapper/" + file));
+                try (InputStream in = resource("zapper/" + file)) {
+                    byte[] buffer = new byte[8192];
+                    for (int read; (read = in.read(buffer)) != -1; )
+                        out.write(buffer, 0, read);
+                }
+                out.closeEntry();
+            }
+        }
+        try (ZipFile zip = new ZipFile(jar)) {
+            return RuntimeLibPluginConfiguration.parse(zip);
+        }
+    }
+
+    private static InputStream resource(String name) {
+        InputStream in = BinaryDescriptorTest.class.getResourceAsStream(FIXTURE + name);
+        assertNotNull(in, name);
+        return in;
+    }
+
+    private static List<String> describe(List<Dependency> dependencies) {
+        return dependencies.stream()
+                .map(dependency -> dependency + " " + dependency.getSize() + " " + dependency.getSha256())
+                .collect(Collectors.toList());
+    }
+
+    private static List<String> describe(Map<Dependency, Repository> origins) {
+        return origins.entrySet().stream()
+                .map(entry -> entry.getKey() + " " + entry.getValue())
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    private static List<Boolean> preRelocated(List<Repository> repositories) {
+        return repositories.stream().map(Repository::isPreRelocated).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import revxrsal.zapper.classloader.URLClassLoaderWrapper;
+import revxrsal.zapper.download.ArtifactStore;
+import revxrsal.zapper.download.OfflineBundle;
+import revxrsal.zapper.download.RetryPolicy;
+import revxrsal.zapper.transport.Transport;
+import revxrsal.zapper.util.Checksums;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DependencyManagerTest {
+
+    @TempDir
+    File directory;
+
+    @Test
+    void backgroundLoadFailsWhenOffline() {
+        List<URL> added = new ArrayList<>();
+        DependencyManager manager = new DependencyManager(directory, new URLClassLoaderWrapper() {
+            @Override
+            public void addURL(URL url) {
+                added.add(url);
+            }
+        });
+        manager.transport((url, headers) -> {
+            throw new UnknownHostException(url.getHost());
+        });
+        manager.retryPolicy(RetryPolicy.NONE);
+        Dependency dependency = new Dependency("com.example", "example", "1.0");
+        manager.dependency(dependency);
+        manager.background(dependency);
+
+        CompletableFuture<Void> background = manager.loadAsync();
+        CompletionException error = assertThrows(CompletionException.class, background::join);
+        assertTrue(error.getCause() instanceof DependencyDownloadException, error.getCause().toString());
+        assertTrue(added.isEmpty());
+    }
+
+    @Test
+    void downloadsLeftoversOfTheRightSizeAgain() throws Exception {
+        byte[] artifact = new byte[64 * 1024];
+        new Random(1).nextBytes(artifact);
+        Dependency dependency = new Dependency("com.example", "example", "1.0", null, artifact.length,
+                Checksums.toHex(Checksums.sha256().digest(artifact)));
+        // like a download that crashed after pre-allocating the file
+        File leftover = new File(directory, "com.example.example-1.0.jar");
+        Files.write(leftover.toPath(), new byte[artifact.length]);
+
+        List<URL> added = new ArrayList<>();
+        DependencyManager manager = new DependencyManager(directory, new URLClassLoaderWrapper() {
+            @Override
+            public void addURL(URL url) {
+                added.add(url);
+            }
+        });
+        manager.transport((url, headers) -> response(artifact));
+        manager.dependency(dependency);
+        manager.load();
+
+        assertArrayEquals(artifact, Files.readAllBytes(leftover.toPath()));
+        assertEquals(1, added.size());
+    }
+
+    @Test
+    void addsJarsInDeclarationOrder() throws Exception {
+        List<Dependency> dependencies = new ArrayList<>();
+        Map<String, byte[]> artifacts = new HashMap<>();
+        // downloaded largest-first, so in the reverse order
+        for (int i = 1; i <= 4; i++) {
+            byte[] artifact = new byte[i * 4 * 1024];
+            new Random(i).nextBytes(artifact);
+            artifacts.put("example" + i + "-1.0.jar", artifact);
+            dependencies.add(new Dependency("com.example", "example" + i, "1.0", null, artifact.length,
+                    Checksums.toHex(Checksums.sha256().digest(artifact))));
+        }
+        List<URL> added = new CopyOnWriteArrayList<>();
+        DependencyManager manager = new DependencyManager(directory, new URLClassLoaderWrapper() {
+            @Override
+            public void addURL(URL url) {
+                added.add(url);
+            }
+        });
+        manager.transport((url, headers) -> response(artifacts.get(url.getPath().substring(url.getPath().lastIndexOf('/') + 1))));
+        dependencies.forEach(manager::dependency);
+        manager.load();
+
+        List<String> names = new ArrayList<>();
+        for (URL url : added)
+            names.add(new File(url.toURI()).getName());
+        assertEquals(Arrays.asList(
+                "com.example.example1-1.0.jar",
+                "com.example.example2-1.0.jar",
+                "com.example.example3-1.0.jar",
+                "com.example.example4-1.0.jar"
+        ), names);
+    }
+
+    @Test
+    void reportsDownloadedBytesToTheLoadListener() throws Exception {
+        byte[] artifact = new byte[32 * 1024];
+        new Random(3).nextBytes(artifact);
+        Dependency dependency = new Dependency("com.example", "example", "1.0", null, artifact.length,
+                Checksums.toHex(Checksums.sha256().digest(artifact)));
+        DependencyManager manager = new DependencyManager(directory, new URLClassLoaderWrapper() {
+            @Override
+            public void addURL(URL url) {
+            }
+        });
+        List<LoadProgress> events = new CopyOnWriteArrayList<>();
+        manager.transport((url, headers) -> response(artifact));
+        manager.loadListener(events::add);
+        manager.dependency(dependency);
+        manager.load();
+
+        LoadProgress lastDownload = null;
+        for (LoadProgress event : events)
+            if (event.getPhase() == LoadProgress.Phase.DOWNLOADING)
+                lastDownload = event;
+        assertNotNull(lastDownload);
+        assertEquals(artifact.length, lastDownload.getBytesDone());
+        assertEquals(artifact.length, lastDownload.getTotalBytes());
+        assertEquals(LoadProgress.Phase.LOADED, events.get(events.size() - 1).getPhase());
+    }
+
+    @Test
+    void importsFromABundleWhenOffline() throws Exception {
+        byte[] artifact = new byte[16 * 1024];
+        new Random(4).nextBytes(artifact);
+        Dependency dependency = new Dependency("com.example", "example", "1.0", null, artifact.length,
+                Checksums.toHex(Checksums.sha256().digest(artifact)));
+        bundle(dependency, artifact, artifact);
+
+        List<URL> added = new ArrayList<>();
+        DependencyManager manager = new DependencyManager(directory, new URLClassLoaderWrapper() {
+            @Override
+            public void addURL(URL url) {
+                added.add(url);
+            }
+        });
+        manager.transport((url, headers) -> {
+            throw new UnknownHostException(url.getHost());
+        });
+        manager.dependency(dependency);
+        manager.load();
+
+        assertArrayEquals(artifact, Files.readAllBytes(new File(directory, "com.example.example-1.0.jar").toPath()));
+        assertEquals(1, added.size());
+    }
+
+    @Test
+    void downloadsTamperedBundleEntriesInstead() throws Exception {
+        byte[] artifact = new byte[16 * 1024];
+        new Random(5).nextBytes(artifact);
+        byte[] tampered = artifact.clone();
+        tampered[100] ^= 1;
+        Dependency dependency = new Dependency("com.example", "example", "1.0", null, artifact.length,
+                Checksums.toHex(Checksums.sha256().digest(artifact)));
+        bundle(dependency, artifact, tampered);
+
+        AtomicInteger requests = new AtomicInteger();
+        DependencyManager manager = new DependencyManager(directory, new URLClassLoaderWrapper() {
+            @Override
+            public void addURL(URL url) {
+            }
+        });
+        manager.transport((url, headers) -> {
+            requests.incrementAndGet();
+            return response(artifact);
+        });
+        manager.dependency(dependency);
+        manager.load();
+
+        assertEquals(1, requests.get());
+        assertArrayEquals(artifact, Files.readAllBytes(new File(directory, "com.example.example-1.0.jar").toPath()));
+    }
+
+    @Test
+    void prefetchesIntoTheStoreOnly() throws Exception {
+        byte[] artifact = new byte[16 * 1024];
+        new Random(2).nextBytes(artifact);
+        Dependency dependency = new Dependency("com.example", "example", "1.0", null, artifact.length,
+                Checksums.toHex(Checksums.sha256().digest(artifact)));
+        File libraries = new File(directory, "libs");
+        ArtifactStore store = new ArtifactStore(new File(directory, "store"));
+
+        DependencyManager manager = new DependencyManager(libraries, new URLClassLoaderWrapper() {
+            @Override
+            public void addURL(URL url) {
+                throw new AssertionError(url);
+            }
+        });
+        manager.transport((url, headers) -> response(artifact));
+        manager.dependency(dependency);
+        manager.store(store);
+        manager.prefetch();
+
+        assertTrue(store.contains(dependency));
+        assertArrayEquals(artifact, Files.readAllBytes(store.file(dependency).toPath()));
+        assertFalse(new File(libraries, "com.example.example-1.0.jar").exists());
+    }
+
+    @Test
+    void prefetchesNothingWithoutAStore() {
+        DependencyManager manager = new DependencyManager(directory, new URLClassLoaderWrapper() {
+            @Override
+            public void addURL(URL url) {
+                throw new AssertionError(url);
+            }
+        });
+        manager.dependency(new Dependency("com.example", "example", "1.0"));
+        assertThrows(IllegalStateException.class, manager::prefetch);
+    }
+
+    /**
+     * Writes a bundle into the libraries folder whose index describes the
+     * given artifact, but which holds the given contents
+     */
+    private void bundle(Dependency dependency, byte[] indexed, byte[] contents) throws IOException {
+        String name = "com.example.example-1.0.jar";
+        String index = "# Zapper bundle v1\n" + dependency + " " + indexed.length + " "
+                + Checksums.toHex(Checksums.sha256().digest(indexed)) + " " + name + "\n";
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(new File(directory, "test" + OfflineBundle.EXTENSION)))) {
+            zip.putNextEntry(new ZipEntry(OfflineBundle.INDEX));
+            zip.write(index.getBytes(StandardCharsets.UTF_8));
+            zip.putNextEntry(new ZipEntry(name));
+            zip.write(contents);
+        }
+    }
+
+    private static Transport.Response response(byte[] body) {
+        return new Transport.Response() {
+            private final InputStream in = new ByteArrayInputStream(body);
+
+            @Override
+            public int statusCode() {
+                return 200;
+            }
+
+            @Override
+            public long contentLength() {
+                return body.length;
+            }
+
+            @Override
+            public String header(String name) {
+                return null;
+            }
+
+            @Override
+            public InputStream body() {
+                return in;
+            }
+
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import revxrsal.zapper.relocation.ReachableClasses;
+import revxrsal.zapper.relocation.Relocation;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StartupManifestTest {
+
+    private static final List<Dependency> DEPENDENCIES = Arrays.asList(
+            new Dependency("com.example", "first", "1.0"),
+            new Dependency("com.example", "second", "2.0")
+    );
+    private static final List<Relocation> RELOCATIONS = Collections.singletonList(
+            new Relocation("com.example", "me.plugin.libs.example")
+    );
+    private static final long LAST_MODIFIED = 1_600_000_000_000L;
+
+    @TempDir
+    File directory;
+
+    private File first, second;
+    private String configHash;
+
+    @BeforeEach
+    void writeManifest() throws IOException {
+        first = jar("first-1.0.jar", "first");
+        second = jar("second-2.0.jar", "second");
+        configHash = StartupManifest.hash(DEPENDENCIES, RELOCATIONS, false, null);
+        StartupManifest.write(directory, null, configHash, Arrays.asList(first, second));
+    }
+
+    @Test
+    void acceptsAnUnchangedClasspath() throws IOException {
+        List<URL> classpath = read().validate(directory, configHash);
+        assertEquals(Arrays.asList(first.toURI().toURL(), second.toURI().toURL()), classpath);
+    }
+
+    @Test
+    void hashesEverythingThatChangesTheClasspath() {
+        List<Dependency> upgraded = Arrays.asList(DEPENDENCIES.get(0), new Dependency("com.example", "second", "2.1"));
+        List<Relocation> relocated = Collections.singletonList(new Relocation("com.example", "me.plugin.example"));
+        ReachableClasses reachable = new ReachableClasses(Collections.singletonList("com/example/Main"));
+        assertEquals(configHash, StartupManifest.hash(DEPENDENCIES, RELOCATIONS, false, null));
+        assertNotEquals(configHash, StartupManifest.hash(upgraded, RELOCATIONS, false, null));
+        assertNotEquals(configHash, StartupManifest.hash(DEPENDENCIES, relocated, false, null));
+        assertNotEquals(configHash, StartupManifest.hash(DEPENDENCIES, Collections.emptyList(), false, null));
+        assertNotEquals(configHash, StartupManifest.hash(DEPENDENCIES, RELOCATIONS, true, null));
+        assertNotEquals(configHash, StartupManifest.hash(DEPENDENCIES, RELOCATIONS, false, reachable));
+    }
+
+    @Test
+    void rejectsAChangedConfiguration() {
+        List<Relocation> relocated = Collections.singletonList(new Relocation("com.example", "me.plugin.example"));
+        assertNull(read().validate(directory, StartupManifest.hash(DEPENDENCIES, relocated, false, null)));
+    }
+
+    @Test
+    void rejectsAJarWhoseSizeChanged() throws IOException {
+        Files.write(second.toPath(), new byte[]{0}, StandardOpenOption.APPEND);
+        assertTrue(second.setLastModified(LAST_MODIFIED));
+        assertNull(read().validate(directory, configHash));
+    }
+
+    @Test
+    void rejectsAJarWhoseModificationTimeChanged() {
+        assertTrue(first.setLastModified(LAST_MODIFIED + 2000));
+        assertNull(read().validate(directory, configHash));
+    }
+
+    @Test
+    void rejectsAMissingJar() {
+        assertTrue(second.delete());
+        assertNull(read().validate(directory, configHash));
+    }
+
+    @Test
+    void keepsTiersApart() {
+        assertNull(StartupManifest.read(directory, "late"));
+        StartupManifest.delete(directory, null);
+        assertNull(StartupManifest.read(directory, null));
+    }
+
+    private StartupManifest read() {
+        StartupManifest manifest = StartupManifest.read(directory, null);
+        assertNotNull(manifest);
+        return manifest;
+    }
+
+    private File jar(String name, String content) throws IOException {
+        File file = new File(directory, name);
+        Files.write(file.toPath(), content.getBytes());
+        assertTrue(file.setLastModified(LAST_MODIFIED));
+        return file;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.classloader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class ClassLoadingProfilerTest {
+
+    private static final String PROBE = Probe.class.getName().replace('.', '/') + ".class";
+
+    @TempDir
+    File directory;
+
+    @Test
+    void profilesJarsThatAreAddedAsIs() throws Exception {
+        File jar = jar();
+        try (ClassLoadingProfiler profiler = new ClassLoadingProfiler();
+             URLClassLoader loader = new URLClassLoader(new URL[0], null)) {
+            assumeTrue(profiler.isRecording(), "JFR is not available");
+            URLClassLoaderWrapper.profiled(loader, profiler).addURL(jar.toURI().toURL());
+            Class.forName(Probe.class.getName(), true, loader);
+
+            List<ClassLoadingProfiler.JarProfile> profiles = profiler.snapshot();
+            assertEquals(1, profiles.size());
+            ClassLoadingProfiler.JarProfile profile = profiles.get(0);
+            assertEquals("probe", profile.getName());
+            assertEquals(1, profile.getClasses());
+            assertTrue(profile.getBytes() > 0);
+            assertTrue(profile.getDefineTime() >= 0);
+            assertEquals(-1, profile.getReadTime());
+            assertEquals(-1, profile.getMetaspace());
+        }
+    }
+
+    private File jar() throws IOException {
+        File file = new File(directory, "probe.jar");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file))) {
+            out.putNextEntry(new ZipEntry(PROBE));
+            try (InputStream in = ClassLoadingProfilerTest.class.getClassLoader().getResourceAsStream(PROBE)) {
+                byte[] buffer = new byte[8 * 1024];
+                for (int read; (read = in.read(buffer)) != -1; )
+                    out.write(buffer, 0, read);
+            }
+            out.closeEntry();
+        }
+        return file;
+    }
+
+    public static final class Probe {
+    }
+}
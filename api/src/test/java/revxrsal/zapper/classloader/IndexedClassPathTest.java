@@ -0,0 +1,137 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.classloader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class IndexedClassPathTest {
+
+    private static final String PROBE = Probe.class.getName().replace('.', '/') + ".class";
+    private static final boolean JAVA_9 = !System.getProperty("java.specification.version").startsWith("1.");
+
+    @TempDir
+    File directory;
+
+    @Test
+    void readsMultiReleaseJarsAtTheRunningVersion() throws Exception {
+        File jar = jar();
+        try (URLClassLoader loader = load(jar)) {
+            assertEquals(JAVA_9 ? "versioned" : "base", read(loader.getResource("com/example/resource.txt")));
+            URL versionedOnly = loader.getResource("com/example/versioned.txt");
+            if (JAVA_9)
+                assertEquals("versioned", read(versionedOnly));
+            else
+                assertNull(versionedOnly);
+            assertNull(loader.getResource("com/example/future.txt"));
+        }
+    }
+
+    @Test
+    void definesPackagesWithTheManifestOfTheirJar() throws Exception {
+        try (URLClassLoader loader = load(jar())) {
+            Class<?> probe = loader.loadClass(Probe.class.getName());
+            assertNotNull(probe.getPackage());
+            assertEquals("1.2.3", probe.getPackage().getImplementationVersion());
+            assertEquals("Example", probe.getPackage().getImplementationTitle());
+        }
+    }
+
+    private static URLClassLoader load(File jar) throws IOException {
+        URLClassLoader loader = new URLClassLoader(new URL[0], null);
+        IndexedClassPath classPath = new IndexedClassPath(null, loader);
+        classPath.add(jar);
+        URLClassLoaderWrapper.wrap(loader).addURL(classPath.toURL());
+        return loader;
+    }
+
+    /**
+     * Creates a multi-release jar with resources for Java 9 and for a future
+     * version of Java, and the probe class
+     */
+    private File jar() throws IOException {
+        File file = new File(directory, "example.jar");
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.putValue("Multi-Release", "true");
+        attributes.put(Attributes.Name.IMPLEMENTATION_TITLE, "Example");
+        attributes.put(Attributes.Name.IMPLEMENTATION_VERSION, "1.2.3");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file), manifest)) {
+            write(out, "com/example/resource.txt", "base");
+            write(out, "META-INF/versions/9/com/example/resource.txt", "versioned");
+            write(out, "META-INF/versions/9/com/example/versioned.txt", "versioned");
+            write(out, "META-INF/versions/1000/com/example/future.txt", "future");
+            out.putNextEntry(new ZipEntry(PROBE));
+            try (InputStream in = IndexedClassPathTest.class.getClassLoader().getResourceAsStream(PROBE)) {
+                out.write(readFully(in));
+            }
+            out.closeEntry();
+        }
+        return file;
+    }
+
+    private static void write(JarOutputStream out, String name, String content) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(content.getBytes(StandardCharsets.UTF_8));
+        out.closeEntry();
+    }
+
+    private static String read(URL url) throws IOException {
+        try (InputStream in = url.openStream()) {
+            return new String(readFully(in), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8 * 1024];
+        for (int read; (read = in.read(buffer)) != -1; )
+            out.write(buffer, 0, read);
+        return out.toByteArray();
+    }
+
+    /**
+     * A class that is loaded from the jar
+     */
+    public static final class Probe {
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.classloader;
+
+import org.junit.jupiter.api.Test;
+import revxrsal.zapper.Dependency;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LazyClassPathTest {
+
+    private static final Dependency DEPENDENCY = new Dependency("com.example", "example", "1.0");
+    private static final Map<String, List<Dependency>> PACKAGES = Collections.singletonMap("com.example", Collections.singletonList(DEPENDENCY));
+
+    @Test
+    void attachesAgainAfterAFailure() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        LazyClassPath classPath = new LazyClassPath(PACKAGES, dependencies -> {
+            if (attempts.incrementAndGet() == 1)
+                throw new IllegalStateException("offline");
+        });
+        request(classPath);
+        request(classPath);
+        request(classPath);
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    void attachesOnceForConcurrentRequests() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Consumer<List<Dependency>> attach = dependencies -> {
+            attempts.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+        LazyClassPath classPath = new LazyClassPath(PACKAGES, attach);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> first = executor.submit(() -> request(classPath));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            Future<?> second = executor.submit(() -> request(classPath));
+            // the second request waits for the dependency to be attached
+            Thread.sleep(200);
+            assertFalse(second.isDone());
+            release.countDown();
+            first.get(10, TimeUnit.SECONDS);
+            second.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, attempts.get());
+    }
+
+    private static Void request(LazyClassPath classPath) throws IOException {
+        URL url = new URL(classPath.toURL(), "com/example/Example.class");
+        // the class is found in the entries after this one
+        assertThrows(ResourceNotFoundException.class, url::openConnection);
+        return null;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.download;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import revxrsal.zapper.Dependency;
+import revxrsal.zapper.util.Checksums;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ArtifactStoreTest {
+
+    private static final Dependency DEPENDENCY = new Dependency("com.example", "example", "1.0");
+
+    @TempDir
+    File directory;
+
+    @Test
+    void waitsForLocksHeldElsewhereInTheJvm() throws Exception {
+        ArtifactStore store = new ArtifactStore(new File(directory, "store"));
+        File stored = store.file(DEPENDENCY);
+        stored.getParentFile().mkdirs();
+        File lockFile = new File(stored.getParentFile(), stored.getName() + ".lock");
+        File target = new File(directory, "libs/example.jar");
+        CompletableFuture<Void> obtained;
+        // like the copy of Zapper in another plugin
+        try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock ignored = channel.lock()) {
+            obtained = CompletableFuture.runAsync(() -> {
+                try {
+                    store.obtain(DEPENDENCY, target, file -> write(file, "downloaded"));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            Thread.sleep(200);
+            assertFalse(obtained.isDone());
+            write(stored, "stored");
+        }
+        obtained.get(10, TimeUnit.SECONDS);
+        // downloaded by the other copy while we were waiting
+        assertEquals("stored", new String(Files.readAllBytes(target.toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void downloadsCorruptFilesAgain() throws IOException {
+        byte[] artifact = "the artifact".getBytes(StandardCharsets.UTF_8);
+        Dependency dependency = new Dependency("com.example", "example", "1.0", null, artifact.length,
+                Checksums.toHex(Checksums.sha256().digest(artifact)));
+        ArtifactStore store = new ArtifactStore(new File(directory, "store"));
+        File stored = store.file(dependency);
+        stored.getParentFile().mkdirs();
+        // the right size, but not the right content
+        write(stored, "the artefact");
+        File target = new File(directory, "libs/example.jar");
+        AtomicInteger downloads = new AtomicInteger();
+        store.obtain(dependency, target, file -> {
+            downloads.incrementAndGet();
+            write(file, "the artifact");
+        });
+        assertEquals(1, downloads.get());
+        assertArrayEquals(artifact, Files.readAllBytes(target.toPath()));
+        assertTrue(store.contains(dependency));
+    }
+
+    private static void write(File file, String content) {
+        try {
+            Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.download;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import revxrsal.zapper.Dependency;
+import revxrsal.zapper.util.Checksums;
+
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DownloadCoordinatorTest {
+
+    @TempDir
+    File directory;
+
+    @Test
+    void registersNothingWhenDisabled() throws Exception {
+        String previous = System.setProperty(DownloadCoordinator.PROPERTY, "false");
+        try {
+            assertNull(DownloadCoordinator.shared());
+        } finally {
+            if (previous == null)
+                System.clearProperty(DownloadCoordinator.PROPERTY);
+            else
+                System.setProperty(DownloadCoordinator.PROPERTY, previous);
+        }
+    }
+
+    @Test
+    void doesNotLinkFilesThatNoLongerMatch() throws Exception {
+        byte[] artifact = "the artifact".getBytes(StandardCharsets.UTF_8);
+        Dependency dependency = new Dependency("com.example", "coordinated", "1.0", null, artifact.length,
+                Checksums.toHex(Checksums.sha256().digest(artifact)));
+        DownloadCoordinator coordinator = DownloadCoordinator.shared();
+        assertNotNull(coordinator);
+        File first = new File(directory, "first/example.jar");
+        File second = new File(directory, "second/example.jar");
+        first.getParentFile().mkdirs();
+        second.getParentFile().mkdirs();
+        coordinator.fetch(dependency, first, file -> write(file, artifact));
+        // changed by the plugin it belongs to, after it was downloaded
+        write(first, "the artefact".getBytes(StandardCharsets.UTF_8));
+        AtomicInteger downloads = new AtomicInteger();
+        coordinator.fetch(dependency, second, file -> {
+            downloads.incrementAndGet();
+            write(file, artifact);
+        });
+        assertEquals(1, downloads.get());
+        assertArrayEquals(artifact, Files.readAllBytes(second.toPath()));
+    }
+
+    @Test
+    void sharesTheRegistryThroughAnOperationOnly() throws Exception {
+        DownloadCoordinator coordinator = DownloadCoordinator.shared();
+        assertNotNull(coordinator);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(DownloadCoordinator.OBJECT_NAME);
+        assertTrue(server.isRegistered(name));
+        for (MBeanAttributeInfo attribute : server.getMBeanInfo(name).getAttributes())
+            assertFalse(attribute.getType().contains("Map"), attribute.getName());
+        Object registry = server.invoke(name, "registry", new Object[0], new String[0]);
+        assertTrue(registry == coordinator.registry());
+        assertTrue(registry instanceof ConcurrentMap);
+    }
+
+    private static void write(File file, byte[] content) {
+        try {
+            Files.write(file.toPath(), content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.download;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import revxrsal.zapper.ArtifactIntegrityException;
+import revxrsal.zapper.Dependency;
+import revxrsal.zapper.DependencyDownloadException;
+import revxrsal.zapper.metrics.LoadMetrics;
+import revxrsal.zapper.repository.Repository;
+import revxrsal.zapper.repository.RepositoryCircuitBreaker;
+import revxrsal.zapper.repository.RepositoryRouter;
+import revxrsal.zapper.repository.RepositoryScorer;
+import revxrsal.zapper.transport.Transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HedgedDownloaderTest {
+
+    private static final Repository CORRUPT = Repository.maven("https://corrupt.example.com/");
+    private static final Repository OTHER = Repository.maven("https://other.example.com/");
+
+    @TempDir
+    File directory;
+
+    @Test
+    void doesNotHoldCorruptArtifactsAgainstTheRepository() {
+        byte[] body = "not the artifact".getBytes();
+        Dependency dependency = new Dependency("com.example", "example", "1.0", null, body.length,
+                "0000000000000000000000000000000000000000000000000000000000000000");
+        AtomicInteger requests = new AtomicInteger();
+        RepositoryScorer scorer = new RepositoryScorer();
+        RepositoryCircuitBreaker breaker = new RepositoryCircuitBreaker(1, 60_000);
+        ExecutorService executor = DownloadExecutors.createUnbounded();
+        try {
+            HedgedDownloader downloader = new HedgedDownloader(scorer, new RepositoryRouter(), (url, headers) -> {
+                requests.incrementAndGet();
+                return response(body);
+            }, executor, 1, LoadMetrics.NONE, RetryPolicy.DEFAULT, breaker);
+            File file = new File(directory, "example.jar");
+            DependencyDownloadException error = assertThrows(DependencyDownloadException.class,
+                    () -> downloader.download(dependency, file, Collections.singletonList(CORRUPT), null));
+            assertTrue(error.getCause() instanceof ArtifactIntegrityException, String.valueOf(error.getCause()));
+            assertFalse(file.exists());
+        } finally {
+            executor.shutdown();
+        }
+        // neither retried nor skipped, nor ranked lower than a repository we know nothing about
+        assertEquals(1, requests.get());
+        assertTrue(breaker.allows(CORRUPT));
+        scorer.recordSuccess(OTHER, 500);
+        scorer.recordFailure(OTHER);
+        List<Repository> ranked = scorer.rank(Arrays.asList(OTHER, CORRUPT));
+        assertEquals(Arrays.asList(CORRUPT, OTHER), ranked);
+    }
+
+    private static Transport.Response response(byte[] body) {
+        return new Transport.Response() {
+            private final InputStream in = new ByteArrayInputStream(body);
+
+            @Override
+            public int statusCode() {
+                return 200;
+            }
+
+            @Override
+            public long contentLength() {
+                return body.length;
+            }
+
+            @Override
+            public String header(String name) {
+                return null;
+            }
+
+            @Override
+            public InputStream body() {
+                return in;
+            }
+
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.download;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import revxrsal.zapper.Dependency;
+import revxrsal.zapper.util.Checksums;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OfflineBundleTest {
+
+    private static final Dependency DEPENDENCY = new Dependency("com.example", "example", "1.0");
+    private static final String NAME = "com.example.example-1.0.jar";
+
+    @TempDir
+    File directory;
+
+    @Test
+    void extractsEntriesThatMatchTheIndex() throws IOException {
+        byte[] artifact = artifact();
+        File target = new File(directory, "libs/" + NAME);
+        try (OfflineBundle bundle = OfflineBundle.open(bundle(artifact, artifact))) {
+            assertNotNull(bundle);
+            OfflineBundle.Entry entry = bundle.entry(DEPENDENCY);
+            assertNotNull(entry);
+            assertEquals(NAME, entry.getName());
+            bundle.extract(entry, target);
+        }
+        assertArrayEquals(artifact, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    void rejectsTamperedEntries() throws IOException {
+        byte[] artifact = artifact();
+        byte[] tampered = artifact.clone();
+        tampered[100] ^= 1;
+        assertRejected(bundle(artifact, tampered));
+    }
+
+    @Test
+    void rejectsTruncatedEntries() throws IOException {
+        byte[] artifact = artifact();
+        assertRejected(bundle(artifact, Arrays.copyOf(artifact, artifact.length / 2)));
+    }
+
+    @Test
+    void ignoresZipsWithoutAnIndex() throws IOException {
+        File file = new File(directory, "other" + OfflineBundle.EXTENSION);
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+            zip.putNextEntry(new ZipEntry(NAME));
+            zip.write(artifact());
+        }
+        assertNull(OfflineBundle.open(file));
+    }
+
+    private void assertRejected(File file) throws IOException {
+        File target = new File(directory, "libs/" + NAME);
+        try (OfflineBundle bundle = OfflineBundle.open(file)) {
+            assertNotNull(bundle);
+            OfflineBundle.Entry entry = bundle.entry(DEPENDENCY);
+            assertNotNull(entry);
+            assertThrows(IOException.class, () -> bundle.extract(entry, target));
+        }
+        assertFalse(target.exists());
+        assertFalse(new PartFile(target).getFile().exists());
+    }
+
+    /**
+     * Writes a bundle whose index describes the given artifact, but which
+     * holds the given contents
+     */
+    private File bundle(byte[] indexed, byte[] contents) throws IOException {
+        File file = new File(directory, "test" + OfflineBundle.EXTENSION);
+        String index = "# Zapper bundle v1\n" + DEPENDENCY + " " + indexed.length + " "
+                + Checksums.toHex(Checksums.sha256().digest(indexed)) + " " + NAME + "\n";
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+            zip.putNextEntry(new ZipEntry(OfflineBundle.INDEX));
+            zip.write(index.getBytes(StandardCharsets.UTF_8));
+            zip.putNextEntry(new ZipEntry(NAME));
+            zip.write(contents);
+        }
+        return file;
+    }
+
+    private static byte[] artifact() {
+        byte[] artifact = new byte[16 * 1024];
+        new Random(4).nextBytes(artifact);
+        return artifact;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.download;
+
+import org.junit.jupiter.api.Test;
+import revxrsal.zapper.Dependency;
+import revxrsal.zapper.DependencyDownloadException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ParallelDownloaderTest {
+
+    @Test
+    void startsTheLargestDependenciesFirst() {
+        List<Dependency> dependencies = Arrays.asList(
+                dependency("small", 10),
+                dependency("unknown", -1),
+                dependency("large", 30),
+                dependency("medium", 20),
+                dependency("also-unknown", -1)
+        );
+        List<String> started = new ArrayList<>();
+        new ParallelDownloader(Runnable::run, 1).downloadAll(dependencies, dep -> started.add(dep.getArtifactId()));
+        assertEquals(Arrays.asList("large", "medium", "small", "unknown", "also-unknown"), started);
+    }
+
+    @Test
+    void runsAtMostParallelismDownloadsAtOnce() throws InterruptedException {
+        List<Dependency> dependencies = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            dependencies.add(dependency("example" + i, 100 - i));
+        AtomicInteger running = new AtomicInteger(), mostRunning = new AtomicInteger();
+        // every download waits for another one, so two always run at once
+        CyclicBarrier pair = new CyclicBarrier(2);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            new ParallelDownloader(executor, 2).downloadAll(dependencies, dep -> {
+                mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    pair.await(5, TimeUnit.SECONDS);
+                } finally {
+                    running.decrementAndGet();
+                }
+            });
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        assertEquals(2, mostRunning.get());
+    }
+
+    @Test
+    void runsRejectedDownloadsInline() {
+        List<Dependency> dependencies = Arrays.asList(dependency("first", 1), dependency("second", 2));
+        List<Thread> threads = new CopyOnWriteArrayList<>();
+        new ParallelDownloader(task -> {
+            throw new RejectedExecutionException();
+        }, 1).downloadAll(dependencies, dep -> threads.add(Thread.currentThread()));
+        assertEquals(2, threads.size());
+        for (Thread thread : threads)
+            assertSame(Thread.currentThread(), thread);
+    }
+
+    @Test
+    void finishesEveryDownloadBeforeRethrowingTheFirstFailure() {
+        List<Dependency> dependencies = Arrays.asList(
+                dependency("first", 1),
+                dependency("second", 2),
+                dependency("third", 3)
+        );
+        List<String> downloaded = new CopyOnWriteArrayList<>();
+        DependencyDownloadException error = assertThrows(DependencyDownloadException.class,
+                () -> new ParallelDownloader(Runnable::run, 1).downloadAll(dependencies, dep -> {
+                    // the third fails first, as it is the largest
+                    if (!dep.getArtifactId().equals("second"))
+                        throw new IOException(dep.getArtifactId());
+                    downloaded.add(dep.getArtifactId());
+                }));
+        assertEquals("first", error.getCause().getMessage());
+        assertEquals(Arrays.asList("second"), downloaded);
+    }
+
+    private static Dependency dependency(String artifact, long size) {
+        return new Dependency("com.example", artifact, "1.0", null, size);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.download;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import revxrsal.zapper.Dependency;
+import revxrsal.zapper.DependencyDownloadResult;
+import revxrsal.zapper.repository.Repository;
+import revxrsal.zapper.transport.Transport;
+import revxrsal.zapper.util.Checksums;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class PartFileTest {
+
+    private static final String ETAG = "\"v2\"";
+
+    @TempDir
+    File directory;
+
+    private final byte[] artifact = bytes(64 * 1024, 7);
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+    private volatile int cutOffAt = -1;
+    private HttpServer server;
+    private Repository repository;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::serve);
+        server.start();
+        repository = Repository.maven("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void resumesAPartialDownload() throws IOException {
+        Dependency dependency = dependency(artifact);
+        File file = new File(directory, "example.jar");
+        PartFile part = new PartFile(file);
+        Files.write(part.getFile().toPath(), Arrays.copyOf(artifact, 1000));
+        part.setValidator(ETAG);
+
+        DependencyDownloadResult result = dependency.download(file, repository, Transport.create(), null);
+
+        assertSuccessful(result);
+        assertEquals(Arrays.asList("bytes=1000- " + ETAG), ranges);
+        assertArrayEquals(artifact, Files.readAllBytes(file.toPath()));
+        assertFalse(part.getFile().exists());
+        assertNull(part.getValidator());
+    }
+
+    @Test
+    void startsOverWhenTheArtifactChanged() throws IOException {
+        Dependency dependency = dependency(artifact);
+        File file = new File(directory, "example.jar");
+        PartFile part = new PartFile(file);
+        // the start of a different version of the artifact
+        Files.write(part.getFile().toPath(), bytes(30_000, 3));
+        part.setValidator("\"v1\"");
+
+        DependencyDownloadResult result = dependency.download(file, repository, Transport.create(), null);
+
+        assertSuccessful(result);
+        assertEquals(Arrays.asList("bytes=30000- \"v1\""), ranges);
+        assertArrayEquals(artifact, Files.readAllBytes(file.toPath()));
+        assertFalse(part.getFile().exists());
+    }
+
+    @Test
+    void publishesOnlyCompleteDownloads() throws IOException {
+        Dependency dependency = dependency(artifact);
+        File file = new File(directory, "example.jar");
+        PartFile part = new PartFile(file);
+        cutOffAt = 20_000;
+
+        DependencyDownloadResult interrupted = dependency.download(file, repository, Transport.create(), null);
+
+        assertFalse(interrupted.wasSuccessful());
+        assertFalse(file.exists());
+        assertEquals(20_000, part.length());
+        assertEquals(ETAG, part.getValidator());
+
+        cutOffAt = -1;
+        DependencyDownloadResult resumed = dependency.download(file, repository, Transport.create(), null);
+
+        assertSuccessful(resumed);
+        assertEquals(Arrays.asList("none", "bytes=20000- " + ETAG), ranges);
+        assertArrayEquals(artifact, Files.readAllBytes(file.toPath()));
+        assertFalse(part.getFile().exists());
+    }
+
+    /**
+     * Serves the artifact, honouring {@code Range} requests as long as their
+     * {@code If-Range} matches its current ETag
+     */
+    private void serve(HttpExchange exchange) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        ranges.add(range == null ? "none" : range + " " + ifRange);
+        int offset = 0;
+        if (range != null && ETAG.equals(ifRange))
+            offset = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+        exchange.getResponseHeaders().add("ETag", ETAG);
+        if (offset > 0)
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + offset + "-" + (artifact.length - 1) + "/" + artifact.length);
+        int end = cutOffAt >= 0 ? cutOffAt : artifact.length;
+        // chunked, so that a cut-off response ends cleanly instead of failing the request
+        exchange.sendResponseHeaders(offset > 0 ? 206 : 200, cutOffAt >= 0 ? 0 : end - offset);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(artifact, offset, end - offset);
+        }
+    }
+
+    private static void assertSuccessful(DependencyDownloadResult result) {
+        if (!result.wasSuccessful())
+            fail(result.asFailure().getError());
+    }
+
+    private static Dependency dependency(byte[] artifact) {
+        return new Dependency("com.example", "example", "1.0", null, artifact.length,
+                Checksums.toHex(Checksums.sha256().digest(artifact)));
+    }
+
+    private static byte[] bytes(int length, int seed) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+            bytes[i] = (byte) (i * 31 + seed);
+        return bytes;
+    }
+}
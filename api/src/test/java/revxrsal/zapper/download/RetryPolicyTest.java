@@ -0,0 +1,63 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.download;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetryPolicyTest {
+
+    @Test
+    void delaysGrowExponentiallyUpToTheMaximum() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1_000, 0);
+        for (int i = 0; i < 1_000; i++) {
+            assertTrue(policy.delay(0) <= 100);
+            assertTrue(policy.delay(2) <= 400);
+            assertTrue(policy.delay(4) <= 1_000);
+        }
+    }
+
+    @Test
+    void saturatesInsteadOfOverflowing() {
+        long baseDelay = 3L << 40;
+        RetryPolicy policy = new RetryPolicy(100, baseDelay, Long.MAX_VALUE / 2, 0);
+        boolean grown = false;
+        for (int retry = 0; retry < 100; retry++) {
+            long delay = policy.delay(retry);
+            assertTrue(delay >= 0 && delay <= Long.MAX_VALUE / 2, retry + ": " + delay);
+            grown |= delay > baseDelay << 20;
+        }
+        assertTrue(grown);
+    }
+
+    @Test
+    void aBaseDelayOfZeroNeverWaits() {
+        RetryPolicy policy = new RetryPolicy(100, 0, 10_000, 0);
+        for (int retry : new int[]{0, 1, 62, 63, 64, 1_000})
+            assertEquals(0, policy.delay(retry));
+        assertEquals(0, RetryPolicy.NONE.delay(63));
+    }
+}
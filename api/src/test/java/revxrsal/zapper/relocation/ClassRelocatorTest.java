@@ -0,0 +1,365 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.relocation;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.RecordComponentVisitor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.reflect.AnnotatedParameterizedType;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.TypeVariable;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Compares {@link ClassRelocator} with jar-relocator, which Zapper used before,
+ * and checks that the classes it relocates still load.
+ */
+class ClassRelocatorTest {
+
+    private static final String FIXTURE = ClassRelocatorTest.class.getName();
+    private static final String RELOCATED_FIXTURE = "me.plugin.fixture.ClassRelocatorTest";
+    private static final List<Relocation> GUAVA = Collections.singletonList(new Relocation("com.google", "me.plugin.libs.google"));
+    private static final List<Relocation> EXAMPLE = Collections.singletonList(new Relocation("com.example", "me.plugin.libs.example"));
+
+    @TempDir
+    File directory;
+
+    @Test
+    void relocatesGuavaLikeJarRelocator() throws Exception {
+        assertSameAsJarRelocator(jarOf(ImmutableList.class), GUAVA);
+    }
+
+    @Test
+    void relocatesSignaturesAndAnnotationsLikeJarRelocator() throws Exception {
+        assertSameAsJarRelocator(fixtureJar(), Collections.singletonList(new Relocation(FIXTURE, RELOCATED_FIXTURE)));
+    }
+
+    @Test
+    void relocatesRecordsAndMultiReleaseClassesLikeJarRelocator() throws Exception {
+        assertSameAsJarRelocator(recordJar(), EXAMPLE);
+    }
+
+    @Test
+    void relocatedGuavaPassesTheVerifier() throws Exception {
+        List<URL> urls = new ArrayList<>();
+        File guava = relocate(jarOf(ImmutableList.class), GUAVA);
+        urls.add(guava.toURI().toURL());
+        // needed by the futures of recent versions
+        File failureAccess = jarOf("com.google.common.util.concurrent.internal.InternalFutureFailureAccess");
+        if (failureAccess != null)
+            urls.add(relocate(failureAccess, GUAVA).toURI().toURL());
+        int loaded = 0;
+        try (URLClassLoader loader = new URLClassLoader(urls.toArray(new URL[0]), ClassLoader.getSystemClassLoader().getParent())) {
+            for (String name : entries(guava).keySet()) {
+                if (!name.endsWith(".class") || name.startsWith("META-INF/") || name.endsWith("module-info.class"))
+                    continue;
+                String className = name.substring(0, name.length() - ".class".length()).replace('/', '.');
+                try {
+                    // initializing links the class, which verifies it
+                    Class.forName(className, true, loader);
+                    loaded++;
+                } catch (NoClassDefFoundError e) {
+                    // optional dependencies, which must be relocated as well
+                    assertFalse(String.valueOf(e.getMessage()).startsWith("com/google"), className + ": " + e);
+                } catch (ExceptionInInitializerError ignored) {
+                }
+            }
+        }
+        assertFalse(loaded == 0);
+    }
+
+    @Test
+    void relocatesSignaturesAndAnnotations() throws Exception {
+        File relocated = relocate(fixtureJar(), Collections.singletonList(new Relocation(FIXTURE, RELOCATED_FIXTURE)));
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{relocated.toURI().toURL()}, ClassLoader.getSystemClassLoader().getParent())) {
+            Class<?> fixture = loader.loadClass(RELOCATED_FIXTURE + "$Fixture");
+            Class<?> target = loader.loadClass(RELOCATED_FIXTURE + "$Target");
+            @SuppressWarnings("unchecked")
+            Class<? extends Annotation> marker = (Class<? extends Annotation>) loader.loadClass(RELOCATED_FIXTURE + "$Marker");
+            @SuppressWarnings("unchecked")
+            Class<? extends Annotation> typeMarker = (Class<? extends Annotation>) loader.loadClass(RELOCATED_FIXTURE + "$TypeMarker");
+
+            // class, enum and nested annotation values
+            Annotation annotation = fixture.getAnnotation(marker);
+            assertNotNull(annotation);
+            assertEquals(target, marker.getMethod("value").invoke(annotation));
+            Enum<?> kind = (Enum<?>) marker.getMethod("kind").invoke(annotation);
+            assertEquals(RELOCATED_FIXTURE + "$Kind", kind.getDeclaringClass().getName());
+            assertEquals("B", kind.name());
+            Annotation nested = ((Annotation[]) marker.getMethod("nested").invoke(annotation))[0];
+            assertEquals(target, nested.annotationType().getMethod("value").invoke(nested));
+
+            // generic signatures
+            Method targets = fixture.getMethod("targets");
+            assertEquals(target, ((ParameterizedType) targets.getGenericReturnType()).getActualTypeArguments()[0]);
+            TypeVariable<Method> variable = fixture.getMethod("byName").getTypeParameters()[0];
+            assertEquals(target, variable.getBounds()[0]);
+
+            // type annotations
+            AnnotatedParameterizedType annotated = (AnnotatedParameterizedType) targets.getAnnotatedReturnType();
+            assertNotNull(annotated.getAnnotatedActualTypeArguments()[0].getAnnotation(typeMarker));
+
+            // string constants
+            Object instance = fixture.getConstructor().newInstance();
+            assertEquals(RELOCATED_FIXTURE + "$Target", fixture.getMethod("constant").invoke(instance));
+        }
+    }
+
+    @Test
+    void relocatesRecordsAndMultiReleaseClasses() throws Exception {
+        File relocated = relocate(recordJar(), EXAMPLE);
+        Map<String, byte[]> entries = entries(relocated);
+        for (String name : new String[]{"me/plugin/libs/example/Point.class", "META-INF/versions/16/me/plugin/libs/example/Point.class"}) {
+            byte[] point = entries.get(name);
+            assertNotNull(point, name);
+            List<String> components = new ArrayList<>();
+            new ClassReader(point).accept(new ClassVisitor(Opcodes.ASM9) {
+                @Override
+                public RecordComponentVisitor visitRecordComponent(String componentName, String descriptor, String signature) {
+                    components.add(descriptor);
+                    components.add(signature);
+                    return new RecordComponentVisitor(Opcodes.ASM9) {
+                        @Override
+                        public AnnotationVisitor visitAnnotation(String annotation, boolean visible) {
+                            components.add(annotation);
+                            return null;
+                        }
+                    };
+                }
+            }, 0);
+            assertEquals(Arrays.asList(
+                    "Lme/plugin/libs/example/Target;",
+                    "Ljava/util/List<Lme/plugin/libs/example/Target;>;",
+                    "Lme/plugin/libs/example/Marker;"
+            ), components, name);
+        }
+        try (JarFile jar = new JarFile(relocated)) {
+            assertEquals("true", jar.getManifest().getMainAttributes().getValue("Multi-Release"));
+        }
+    }
+
+    /**
+     * Relocates the given jar with both relocators, and checks that they have
+     * the same entries, and the same classes once written again by ASM, which
+     * orders their constant pools the same way
+     */
+    private void assertSameAsJarRelocator(File input, List<Relocation> relocations) throws Exception {
+        Map<String, String> rules = new TreeMap<>();
+        for (Relocation relocation : relocations)
+            rules.put(relocation.getPattern(), relocation.getNewPattern());
+        File expected = new File(directory, "jar-relocator.jar");
+        new me.lucko.jarrelocator.JarRelocator(input, expected, rules).run();
+        Map<String, byte[]> expectedEntries = entries(expected);
+        Map<String, byte[]> actualEntries = entries(relocate(input, relocations));
+        expectedEntries.remove(JarFile.MANIFEST_NAME);
+        actualEntries.remove(JarFile.MANIFEST_NAME);
+        assertEquals(expectedEntries.keySet(), actualEntries.keySet());
+        for (Map.Entry<String, byte[]> entry : expectedEntries.entrySet()) {
+            String name = entry.getKey();
+            byte[] actual = actualEntries.get(name);
+            if (name.endsWith(".class"))
+                assertArrayEquals(rewrite(entry.getValue()), rewrite(actual), name);
+            else
+                assertArrayEquals(entry.getValue(), actual, name);
+        }
+    }
+
+    private File relocate(File input, List<Relocation> relocations) {
+        File output = new File(directory, input.getName().replace(".jar", "") + "-relocated.jar");
+        Relocator.relocate(input, output, relocations);
+        return output;
+    }
+
+    private static byte[] rewrite(byte[] classFile) {
+        ClassWriter writer = new ClassWriter(0);
+        new ClassReader(classFile).accept(writer, 0);
+        return writer.toByteArray();
+    }
+
+    /**
+     * Returns the content of every file in the given jar, by name
+     */
+    private static Map<String, byte[]> entries(File jar) throws IOException {
+        Map<String, byte[]> entries = new TreeMap<>();
+        try (JarFile file = new JarFile(jar)) {
+            for (Enumeration<? extends ZipEntry> e = file.entries(); e.hasMoreElements(); ) {
+                ZipEntry entry = e.nextElement();
+                if (entry.isDirectory())
+                    continue;
+                try (InputStream in = file.getInputStream(entry)) {
+                    entries.put(entry.getName(), readFully(in));
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static File jarOf(Class<?> type) throws URISyntaxException {
+        return new File(type.getProtectionDomain().getCodeSource().getLocation().toURI());
+    }
+
+    private static File jarOf(String className) throws URISyntaxException {
+        try {
+            return jarOf(Class.forName(className));
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates a jar with the fixtures below, and this class that they are
+     * nested in
+     */
+    private File fixtureJar() throws IOException {
+        File file = new File(directory, "fixture.jar");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file))) {
+            for (Class<?> type : new Class<?>[]{ClassRelocatorTest.class, Marker.class, Nested.class, TypeMarker.class, Kind.class, Target.class, Fixture.class}) {
+                String name = type.getName().replace('.', '/') + ".class";
+                try (InputStream in = ClassRelocatorTest.class.getClassLoader().getResourceAsStream(name)) {
+                    write(out, name, readFully(in));
+                }
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Creates a multi-release jar with a record, in the base and in the
+     * versioned classes
+     */
+    private File recordJar() throws IOException {
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V16, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER | Opcodes.ACC_RECORD,
+                "com/example/Point", null, "java/lang/Record", null);
+        RecordComponentVisitor component = writer.visitRecordComponent("target", "Lcom/example/Target;", "Ljava/util/List<Lcom/example/Target;>;");
+        component.visitAnnotation("Lcom/example/Marker;", true).visitEnd();
+        component.visitEnd();
+        writer.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, "target", "Lcom/example/Target;", null, null).visitEnd();
+        writer.visitEnd();
+        byte[] point = writer.toByteArray();
+
+        File file = new File(directory, "record.jar");
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Multi-Release", "true");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file), manifest)) {
+            write(out, "com/example/Point.class", point);
+            write(out, "META-INF/versions/16/com/example/Point.class", point);
+        }
+        return file;
+    }
+
+    private static void write(JarOutputStream out, String name, byte[] content) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(content);
+        out.closeEntry();
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8 * 1024];
+        for (int read; (read = in.read(buffer)) != -1; )
+            out.write(buffer, 0, read);
+        return out.toByteArray();
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @java.lang.annotation.Target(ElementType.TYPE)
+    public @interface Marker {
+        Class<?> value();
+
+        Kind kind();
+
+        Nested[] nested() default {};
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface Nested {
+        Class<?> value();
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @java.lang.annotation.Target(ElementType.TYPE_USE)
+    public @interface TypeMarker {
+    }
+
+    public enum Kind {
+        A, B
+    }
+
+    public static final class Target {
+    }
+
+    @Marker(value = Target.class, kind = Kind.B, nested = @Nested(Target.class))
+    public static final class Fixture {
+
+        public List<@TypeMarker Target> targets() {
+            return null;
+        }
+
+        public <T extends Target> Map<String, T> byName() {
+            return null;
+        }
+
+        public String constant() {
+            return "revxrsal.zapper.relocation.ClassRelocatorTest$Target";
+        }
+    }
+}
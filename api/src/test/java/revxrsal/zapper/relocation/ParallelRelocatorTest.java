@@ -0,0 +1,153 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.relocation;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ParallelRelocatorTest {
+
+    private static final byte[] BROKEN_CLASS = {
+            (byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE, 0, 0, 0, 52, 0, 2, (byte) 0xFF
+    };
+
+    private static final List<Relocation> RELOCATIONS = Collections.singletonList(new Relocation("com.example", "me.plugin.libs.example"));
+
+    @TempDir
+    File directory;
+
+    @Test
+    void splitJarsHaveTheSameEntriesAsWholeJars() throws IOException {
+        File input = jar("input.jar", false);
+        File whole = new File(directory, "whole.jar");
+        File split = new File(directory, "split.jar");
+        Relocator.relocate(input, whole, RELOCATIONS);
+        new ParallelRelocator(4, 0).relocateAll(Collections.singletonMap(input, split), RELOCATIONS);
+        assertEquals(entries(whole), entries(split));
+        assertEquals(Arrays.asList("input.jar", "split.jar", "whole.jar"), files());
+    }
+
+    @Test
+    void mergesServiceFilesFromDifferentParts() throws IOException {
+        File input = new File(directory, "input.jar");
+        Random random = new Random(0);
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(input))) {
+            // both are named after the same service once relocated
+            writeEntry(out, "META-INF/services/com.example.Service", "com.example.FirstProvider\n".getBytes(StandardCharsets.UTF_8));
+            for (int i = 0; i < 40; i++) {
+                byte[] data = new byte[64 * 1024];
+                random.nextBytes(data);
+                writeEntry(out, "com/example/resource" + i + ".bin", data);
+            }
+            writeEntry(out, "META-INF/services/me.plugin.libs.example.Service", "me.plugin.libs.example.SecondProvider\n".getBytes(StandardCharsets.UTF_8));
+        }
+        File whole = new File(directory, "whole.jar");
+        File split = new File(directory, "split.jar");
+        Relocator.relocate(input, whole, RELOCATIONS);
+        new ParallelRelocator(4, 0).relocateAll(Collections.singletonMap(input, split), RELOCATIONS);
+
+        String service = "META-INF/services/me.plugin.libs.example.Service";
+        assertEquals("me.plugin.libs.example.FirstProvider\nme.plugin.libs.example.SecondProvider\n", read(whole, service));
+        assertEquals(read(whole, service), read(split, service));
+    }
+
+    @Test
+    void leavesNoFilesWhenAPartFails() throws IOException {
+        File input = jar("input.jar", true);
+        File output = new File(directory, "output.jar");
+        ParallelRelocator relocator = new ParallelRelocator(4, 0);
+        assertThrows(UncheckedIOException.class, () -> relocator.relocateAll(Collections.singletonMap(input, output), RELOCATIONS));
+        assertEquals(Collections.singletonList("input.jar"), files());
+    }
+
+    /**
+     * Creates a jar that is big enough to be split, with a class that cannot
+     * be relocated in the middle if requested
+     */
+    private File jar(String name, boolean broken) throws IOException {
+        File file = new File(directory, name);
+        Random random = new Random(0);
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+            for (int i = 0; i < 40; i++) {
+                if (broken && i == 20) {
+                    out.putNextEntry(new ZipEntry("com/example/Broken.class"));
+                    out.write(BROKEN_CLASS);
+                    out.closeEntry();
+                }
+                byte[] data = new byte[64 * 1024];
+                random.nextBytes(data);
+                out.putNextEntry(new ZipEntry("com/example/resource" + i + ".bin"));
+                out.write(data);
+                out.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    private static void writeEntry(ZipOutputStream out, String name, byte[] data) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(data);
+        out.closeEntry();
+    }
+
+    private static String read(File jar, String name) throws IOException {
+        try (ZipFile zip = new ZipFile(jar); InputStream in = zip.getInputStream(zip.getEntry(name))) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8 * 1024];
+            for (int read; (read = in.read(buffer)) != -1; )
+                bytes.write(buffer, 0, read);
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private List<String> files() {
+        return Arrays.stream(directory.list()).sorted().collect(Collectors.toList());
+    }
+
+    private static List<String> entries(File jar) throws IOException {
+        try (ZipFile zip = new ZipFile(jar)) {
+            return zip.stream().map(ZipEntry::getName).collect(Collectors.toList());
+        }
+    }
+}
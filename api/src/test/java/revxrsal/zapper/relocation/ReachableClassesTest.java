@@ -0,0 +1,205 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.relocation;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReachableClassesTest {
+
+    private static final List<Relocation> RELOCATIONS = Collections.singletonList(new Relocation("com.example", "me.plugin.libs.example"));
+
+    /**
+     * What the Gradle plugin writes when the plugin uses {@code com.example.Main},
+     * which loads {@code com.example.impl.Loaded} with {@code Class.forName} and
+     * the {@code com.example.spi.Service} service, and {@code com.example.keep.**}
+     * is kept
+     */
+    private static final String REACHABLE = String.join("\n",
+            "com/example Main",
+            "com/example/impl Loaded",
+            "com/example/keep Kept Kept$Inner",
+            "com/example/spi Provider Service"
+    );
+
+    @TempDir
+    File directory;
+
+    @Test
+    void readsTheResourceFormat() throws IOException {
+        ReachableClasses reachable = read("com/example Main Main$1\n Default\n\n");
+        assertEquals(3, reachable.size());
+        assertTrue(reachable.contains("com/example/Main"));
+        assertTrue(reachable.contains("com/example/Main$1"));
+        assertTrue(reachable.contains("Default"));
+        assertFalse(reachable.contains("com/example/Other"));
+    }
+
+    @Test
+    void keepsReachableClassesAndEveryResource() throws IOException {
+        ReachableClasses reachable = read(REACHABLE);
+        assertTrue(reachable.keeps("com/example/Main.class"));
+        assertTrue(reachable.keeps("META-INF/versions/11/com/example/Main.class"));
+        assertTrue(reachable.keeps("com/example/messages.properties"));
+        assertTrue(reachable.keeps("module-info.class"));
+        assertTrue(reachable.keeps("com/example/unused/package-info.class"));
+        assertFalse(reachable.keeps("com/example/Unused.class"));
+        assertFalse(reachable.keeps("META-INF/versions/11/com/example/Unused.class"));
+    }
+
+    @Test
+    void hashesTheClassesInAnyOrder() throws IOException {
+        ReachableClasses reachable = read(REACHABLE);
+        assertEquals(reachable.hash(), new ReachableClasses(Arrays.asList(
+                "com/example/spi/Service", "com/example/spi/Provider", "com/example/keep/Kept$Inner",
+                "com/example/keep/Kept", "com/example/impl/Loaded", "com/example/Main")).hash());
+        assertNotEquals(reachable.hash(), read("com/example Main").hash());
+    }
+
+    @Test
+    void dropsUnreachableClassesWhenRelocating() throws IOException {
+        File input = new File(directory, "input.jar");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(input))) {
+            write(out, "com/example/Main.class", classLoading("com/example/Main", "com.example.impl.Loaded"));
+            for (String name : new String[]{"impl/Loaded", "keep/Kept", "keep/Kept$Inner", "spi/Service", "spi/Provider", "spi/UnusedProvider", "Unused"})
+                write(out, "com/example/" + name + ".class", emptyClass("com/example/" + name));
+            write(out, "META-INF/services/com.example.spi.Service",
+                    "# providers\ncom.example.spi.Provider\ncom.example.spi.UnusedProvider\n".getBytes(StandardCharsets.UTF_8));
+            write(out, "com/example/messages.properties", "greeting=hi".getBytes(StandardCharsets.UTF_8));
+        }
+        File output = new File(directory, "output.jar");
+        Relocator.relocate(input, output, RELOCATIONS, read(REACHABLE));
+
+        try (ZipFile zip = new ZipFile(output)) {
+            Set<String> names = new TreeSet<>();
+            zip.stream().filter(e -> !e.isDirectory()).forEach(e -> names.add(e.getName()));
+            assertEquals(new TreeSet<>(Arrays.asList(
+                    "me/plugin/libs/example/Main.class",
+                    "me/plugin/libs/example/impl/Loaded.class",
+                    "me/plugin/libs/example/keep/Kept.class",
+                    "me/plugin/libs/example/keep/Kept$Inner.class",
+                    "me/plugin/libs/example/spi/Service.class",
+                    "me/plugin/libs/example/spi/Provider.class",
+                    "me/plugin/libs/example/messages.properties",
+                    "META-INF/services/me.plugin.libs.example.spi.Service"
+            )), names);
+            try (InputStream in = zip.getInputStream(zip.getEntry("META-INF/services/me.plugin.libs.example.spi.Service"))) {
+                assertEquals("# providers\nme.plugin.libs.example.spi.Provider\n", new String(readFully(in), StandardCharsets.UTF_8));
+            }
+            // Class.forName still finds the class it loads
+            try (InputStream in = zip.getInputStream(zip.getEntry("me/plugin/libs/example/Main.class"))) {
+                assertEquals(Collections.singletonList("me.plugin.libs.example.impl.Loaded"), constants(readFully(in)));
+            }
+        }
+    }
+
+    private static ReachableClasses read(String resource) throws IOException {
+        return ReachableClasses.read(new ByteArrayInputStream(resource.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static byte[] emptyClass(String name) {
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    /**
+     * Creates a class that loads the given class with {@code Class.forName}
+     */
+    private static byte[] classLoading(String name, String loaded) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+        MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "load", "()Ljava/lang/Class;", null, new String[]{"java/lang/ClassNotFoundException"});
+        method.visitCode();
+        method.visitLdcInsn(loaded);
+        method.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Class", "forName", "(Ljava/lang/String;)Ljava/lang/Class;", false);
+        method.visitInsn(Opcodes.ARETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    /**
+     * Returns the string constants that the given class loads
+     */
+    private static List<String> constants(byte[] classFile) {
+        List<String> constants = new ArrayList<>();
+        new ClassReader(classFile).accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM9) {
+                    @Override
+                    public void visitLdcInsn(Object value) {
+                        if (value instanceof String)
+                            constants.add((String) value);
+                    }
+                };
+            }
+        }, 0);
+        return constants;
+    }
+
+    private static void write(ZipOutputStream out, String name, byte[] content) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(content);
+        out.closeEntry();
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8 * 1024];
+        for (int read; (read = in.read(buffer)) != -1; )
+            out.write(buffer, 0, read);
+        return out.toByteArray();
+    }
+}
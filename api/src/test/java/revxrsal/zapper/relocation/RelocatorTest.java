@@ -0,0 +1,109 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.relocation;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RelocatorTest {
+
+    /**
+     * A class file with a constant pool tag that does not exist
+     */
+    private static final byte[] BROKEN_CLASS = {
+            (byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE, 0, 0, 0, 52, 0, 2, (byte) 0xFF
+    };
+
+    private static final List<Relocation> RELOCATIONS = Collections.singletonList(new Relocation("com.example", "me.plugin.libs.example"));
+
+    @TempDir
+    File directory;
+
+    @Test
+    void relocatesIntoOutput() throws IOException {
+        File input = jar("input.jar", 50, false);
+        File output = new File(directory, "output.jar");
+        Relocator.relocate(input, output, RELOCATIONS);
+        try (ZipFile zip = new ZipFile(output)) {
+            assertEquals(50, zip.stream().filter(e -> !e.isDirectory()).count());
+            assertTrue(zip.getEntry("me/plugin/libs/example/resource0.txt") != null);
+        }
+        assertFalse(new File(directory, "output.jar.part").exists());
+    }
+
+    @Test
+    void leavesNoOutputWhenAClassFailsToRelocate() throws IOException {
+        File input = jar("input.jar", 50, true);
+        File output = new File(directory, "output.jar");
+        assertThrows(UncheckedIOException.class, () -> Relocator.relocate(input, output, RELOCATIONS));
+        assertFalse(output.exists());
+        assertFalse(new File(directory, "output.jar.part").exists());
+    }
+
+    @Test
+    void keepsThePreviousOutputWhenAClassFailsToRelocate() throws IOException {
+        File output = new File(directory, "output.jar");
+        Relocator.relocate(jar("good.jar", 10, false), output, RELOCATIONS);
+        long length = output.length();
+        assertThrows(UncheckedIOException.class, () -> Relocator.relocate(jar("bad.jar", 50, true), output, RELOCATIONS));
+        assertEquals(length, output.length());
+    }
+
+    /**
+     * Creates a jar with the given number of resources, followed by a class
+     * that cannot be relocated if requested
+     */
+    private File jar(String name, int resources, boolean broken) throws IOException {
+        File file = new File(directory, name);
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+            for (int i = 0; i < resources; i++) {
+                out.putNextEntry(new ZipEntry("com/example/resource" + i + ".txt"));
+                out.write(("resource " + i).getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+            if (broken) {
+                out.putNextEntry(new ZipEntry("com/example/Broken.class"));
+                out.write(BROKEN_CLASS);
+                out.closeEntry();
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.repository;
+
+import org.junit.jupiter.api.Test;
+import revxrsal.zapper.ArtifactIntegrityException;
+
+import java.io.FileNotFoundException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RepositoryCircuitBreakerTest {
+
+    private static final Repository REPOSITORY = Repository.maven("https://repository.example.com/");
+
+    @Test
+    void opensAfterFailuresInARow() {
+        RepositoryCircuitBreaker breaker = new RepositoryCircuitBreaker(3, 60_000);
+        SocketTimeoutException error = new SocketTimeoutException();
+        breaker.recordFailure(REPOSITORY, error);
+        breaker.recordFailure(REPOSITORY, error);
+        assertTrue(breaker.allows(REPOSITORY));
+        assertNull(breaker.lastError(REPOSITORY));
+        breaker.recordFailure(REPOSITORY, error);
+        assertFalse(breaker.allows(REPOSITORY));
+        assertSame(error, breaker.lastError(REPOSITORY));
+    }
+
+    @Test
+    void opensAsSoonAsTheHostIsUnknown() {
+        RepositoryCircuitBreaker breaker = new RepositoryCircuitBreaker(3, 60_000);
+        breaker.recordFailure(REPOSITORY, new UnknownHostException("repository.example.com"));
+        assertFalse(breaker.allows(REPOSITORY));
+    }
+
+    @Test
+    void countsMissingArtifactsAndSuccessesAsUp() {
+        RepositoryCircuitBreaker breaker = new RepositoryCircuitBreaker(2, 60_000);
+        breaker.recordFailure(REPOSITORY, new SocketTimeoutException());
+        breaker.recordFailure(REPOSITORY, new FileNotFoundException());
+        breaker.recordFailure(REPOSITORY, new SocketTimeoutException());
+        assertTrue(breaker.allows(REPOSITORY));
+        breaker.recordSuccess(REPOSITORY);
+        breaker.recordFailure(REPOSITORY, new SocketTimeoutException());
+        assertTrue(breaker.allows(REPOSITORY));
+    }
+
+    @Test
+    void reopensAfterTheFirstFailureOnceHalfOpen() throws InterruptedException {
+        RepositoryCircuitBreaker breaker = new RepositoryCircuitBreaker(3, 50);
+        for (int i = 0; i < 3; i++)
+            breaker.recordFailure(REPOSITORY, new SocketTimeoutException());
+        assertFalse(breaker.allows(REPOSITORY));
+        Thread.sleep(100);
+        assertTrue(breaker.allows(REPOSITORY));
+        breaker.recordFailure(REPOSITORY, new SocketTimeoutException());
+        assertFalse(breaker.allows(REPOSITORY));
+    }
+
+    @Test
+    void ignoresCorruptArtifacts() {
+        RepositoryCircuitBreaker breaker = new RepositoryCircuitBreaker(1, 60_000);
+        breaker.recordFailure(REPOSITORY, new ArtifactIntegrityException("Checksum mismatch"));
+        assertTrue(breaker.allows(REPOSITORY));
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.repository;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import revxrsal.zapper.Dependency;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RepositoryRouterTest {
+
+    private static final Repository MISSING = Repository.maven("https://missing.example.com/");
+    private static final Repository FOUND = Repository.maven("https://found.example.com/");
+    private static final List<Repository> REPOSITORIES = Arrays.asList(MISSING, FOUND);
+    private static final Dependency DEPENDENCY = new Dependency("com.example", "example", "1.0");
+
+    @TempDir
+    File directory;
+
+    @Test
+    void keepsMissesAcrossRestarts() throws IOException {
+        RepositoryRouter router = new RepositoryRouter();
+        router.recordMiss(MISSING, DEPENDENCY);
+        router.saveMisses(directory);
+        router.saveMisses(directory);
+        assertArrayEquals(new String[]{RepositoryRouter.MISSES_FILE_NAME}, directory.list());
+
+        RepositoryRouter restarted = new RepositoryRouter();
+        restarted.loadMisses(directory);
+        assertEquals(Collections.singletonList(FOUND), restarted.candidates(DEPENDENCY, REPOSITORIES, new RepositoryScorer()));
+    }
+}
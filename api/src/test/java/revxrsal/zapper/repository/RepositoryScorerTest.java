@@ -0,0 +1,95 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.repository;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RepositoryScorerTest {
+
+    private static final Repository RECOVERED = Repository.maven("https://recovered.example.com/");
+    private static final Repository SLOWER = Repository.maven("https://slower.example.com/");
+    private static final List<Repository> REPOSITORIES = Arrays.asList(SLOWER, RECOVERED);
+
+    @TempDir
+    File directory;
+
+    @Test
+    void trustsARepositoryAgainOnceItRecovers() {
+        RepositoryScorer scorer = new RepositoryScorer();
+        for (int i = 0; i < 100; i++)
+            scorer.recordFailure(RECOVERED);
+        for (int i = 0; i < 64; i++) {
+            scorer.recordSuccess(RECOVERED, 100);
+            scorer.recordSuccess(SLOWER, 150);
+        }
+        assertEquals(Arrays.asList(RECOVERED, SLOWER), scorer.rank(REPOSITORIES));
+    }
+
+    @Test
+    void weighsPersistedFailuresLessThanNewOutcomes() throws IOException {
+        Files.write(new File(directory, RepositoryScorer.FILE_NAME).toPath(), Arrays.asList(
+                "0.000 32.000 100 " + RECOVERED,
+                "32.000 0.000 150 " + SLOWER
+        ), StandardCharsets.UTF_8);
+        RepositoryScorer scorer = RepositoryScorer.load(directory);
+        assertEquals(Arrays.asList(SLOWER, RECOVERED), scorer.rank(REPOSITORIES));
+        for (int i = 0; i < 64; i++)
+            scorer.recordSuccess(RECOVERED, 100);
+        assertEquals(Arrays.asList(RECOVERED, SLOWER), scorer.rank(REPOSITORIES));
+    }
+
+    @Test
+    void keepsOutcomesAcrossRestarts() throws IOException {
+        RepositoryScorer scorer = new RepositoryScorer();
+        for (int i = 0; i < 32; i++) {
+            scorer.recordFailure(RECOVERED);
+            scorer.recordSuccess(SLOWER, 150);
+        }
+        scorer.recordSuccess(RECOVERED, 100);
+        scorer.save(directory);
+        assertEquals(Arrays.asList(SLOWER, RECOVERED), RepositoryScorer.load(directory).rank(REPOSITORIES));
+    }
+
+    @Test
+    void replacesTheFileWhenSaving() throws IOException {
+        RepositoryScorer scorer = new RepositoryScorer();
+        scorer.recordSuccess(SLOWER, 150);
+        scorer.save(directory);
+        scorer.recordSuccess(RECOVERED, 100);
+        scorer.save(directory);
+        assertArrayEquals(new String[]{RepositoryScorer.FILE_NAME}, directory.list());
+        assertEquals(2, Files.readAllLines(new File(directory, RepositoryScorer.FILE_NAME).toPath()).size());
+    }
+}
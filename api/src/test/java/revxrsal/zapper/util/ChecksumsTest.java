@@ -0,0 +1,61 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChecksumsTest {
+
+    @TempDir
+    File directory;
+
+    @Test
+    void hashesVerifiedFilesAgainOnlyOnceTheyChange() throws IOException {
+        File file = new File(directory, "example.jar");
+        Files.write(file.toPath(), "the artifact".getBytes(StandardCharsets.UTF_8));
+        String sha256 = Checksums.sha256(file);
+        long modified = file.lastModified();
+
+        assertFalse(Checksums.verify(file, sha256.replace(sha256.charAt(0), sha256.charAt(0) == 'a' ? 'b' : 'a')));
+        assertTrue(Checksums.verify(file, sha256));
+        assertTrue(new File(directory, "example.jar" + Checksums.VERIFIED_SUFFIX).isFile());
+
+        // same size and modification time, so it is not read again
+        Files.write(file.toPath(), "the artefact".getBytes(StandardCharsets.UTF_8));
+        assertTrue(file.setLastModified(modified));
+        assertTrue(Checksums.verify(file, sha256));
+
+        assertTrue(file.setLastModified(modified - 2000));
+        assertFalse(Checksums.verify(file, sha256));
+    }
+}
@@ -0,0 +1,25 @@
+plugins {
+    id("java")
+    id("me.champeau.jmh") version "0.7.2"
+}
+
+repositories {
+    mavenCentral()
+    maven("https://hub.spigotmc.org/nexus/content/repositories/snapshots/")
+    maven("https://oss.sonatype.org/content/repositories/snapshots")
+    maven("https://oss.sonatype.org/content/repositories/central")
+}
+
+dependencies {
+    jmh(project(":api"))
+    jmh("org.spigotmc:spigot-api:1.12.2-R0.1-SNAPSHOT")
+    jmh("org.jetbrains:annotations:24.1.0")
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("results/jmh/results.json"))
+    // e.g. ./gradlew :benchmarks:jmh -PjmhIncludes=Relocator
+    providers.gradleProperty("jmhIncludes").orNull?.let { includes.add(it) }
+}
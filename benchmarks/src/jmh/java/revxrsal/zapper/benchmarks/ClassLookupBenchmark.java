@@ -0,0 +1,121 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import revxrsal.zapper.classloader.URLClassLoaderWrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looking up classes in a class loader that jars were added to. Classes
+ * are looked up as resources, which searches the class path the same way
+ * {@code loadClass} does, but is not cached once the class is defined.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClassLookupBenchmark {
+
+    /**
+     * The number of jars on the class path
+     */
+    @Param({"5", "30", "100"})
+    public int jars;
+
+    /**
+     * How the jars are added: {@code plain} adds every jar to the class
+     * path, and {@code indexed} adds them through an index by package
+     */
+    @Param({"plain", "indexed"})
+    public String classPath;
+
+    private File directory;
+    private URLClassLoader classLoader;
+    private String lastJarClass;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("zapper-class-lookup").toFile();
+        classLoader = new URLClassLoader(new URL[0], null);
+        URLClassLoaderWrapper wrapper = classPath.equals("indexed")
+                ? URLClassLoaderWrapper.indexed(classLoader)
+                : URLClassLoaderWrapper.wrap(classLoader);
+        List<URL> urls = new ArrayList<>(jars);
+        for (int i = 0; i < jars; i++)
+            urls.add(Jars.write(new File(directory, "lib" + i + ".jar"), "bench/lib" + i, 50).toURI().toURL());
+        wrapper.addURLs(urls);
+        lastJarClass = Jars.className("bench/lib" + (jars - 1), 25) + ".class";
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        classLoader.close();
+        File[] children = directory.listFiles();
+        if (children != null) {
+            for (File child : children)
+                child.delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * A class in the last jar, which is the worst case for a plain class path
+     */
+    @Benchmark
+    public URL findInLastJar() {
+        return classLoader.getResource(lastJarClass);
+    }
+
+    /**
+     * A class that is in none of the jars, like the lookups that Bukkit
+     * makes in every plugin for classes of other plugins
+     */
+    @Benchmark
+    public URL findMissing() {
+        return classLoader.getResource("bench/missing/Missing.class");
+    }
+}
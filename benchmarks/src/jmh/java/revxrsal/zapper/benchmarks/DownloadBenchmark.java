@@ -0,0 +1,107 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import revxrsal.zapper.Dependency;
+import revxrsal.zapper.DependencyDownloadResult;
+import revxrsal.zapper.repository.Repository;
+import revxrsal.zapper.transport.Transport;
+import revxrsal.zapper.util.Checksums;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloading a dependency from a repository on the loopback interface,
+ * which leaves out the network and measures the overhead of the client
+ * and of verifying the download
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// otherwise, small responses wait for delayed acknowledgements on the loopback interface
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+public class DownloadBenchmark {
+
+    /**
+     * The number of classes in the jar. 20000 classes are about 2 MB.
+     */
+    @Param({"100", "20000"})
+    public int classes;
+
+    /**
+     * The transport to download with: {@code default} is the JDK
+     * {@code HttpClient} on Java 11+
+     */
+    @Param({"default", "urlConnection"})
+    public String transport;
+
+    private LocalRepository server;
+    private Repository repository;
+    private Dependency dependency;
+    private Transport client;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        byte[] jar = Jars.bytes("bench/lib", classes);
+        dependency = new Dependency("benchmark", "library", "1.0", null, jar.length, Checksums.toHex(Checksums.sha256().digest(jar)));
+        server = new LocalRepository();
+        server.put(dependency, jar);
+        repository = server.repository();
+        client = transport.equals("default") ? Transport.create() : Transport.urlConnection();
+        file = File.createTempFile("zapper-download", ".jar");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public DependencyDownloadResult download() {
+        file.delete();
+        DependencyDownloadResult result = dependency.download(file, repository, client, null);
+        if (!result.wasSuccessful())
+            throw new IllegalStateException(result.asFailure().getError());
+        return result;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.benchmarks;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes jars of generated classes for benchmarks, so that they do not
+ * depend on artifacts being downloaded
+ */
+final class Jars {
+
+    private Jars() {
+    }
+
+    /**
+     * Writes a jar with the given number of classes in the given package.
+     * Every class has a field that refers to the class before it, so that
+     * relocation has references to rewrite.
+     *
+     * @param file        The file to write to
+     * @param packageName The package of the classes, like {@code bench/lib0}
+     * @param classes     The number of classes
+     * @return The file
+     */
+    static @NotNull File write(@NotNull File file, @NotNull String packageName, int classes) throws IOException {
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file))) {
+            for (int i = 0; i < classes; i++) {
+                out.putNextEntry(new ZipEntry(className(packageName, i) + ".class"));
+                out.write(classFile(className(packageName, i), className(packageName, Math.max(0, i - 1))));
+                out.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Returns the bytes of a jar with the given number of classes
+     */
+    static @NotNull byte[] bytes(@NotNull String packageName, int classes) throws IOException {
+        File file = File.createTempFile("zapper-benchmark", ".jar");
+        try {
+            return Files.readAllBytes(write(file, packageName, classes).toPath());
+        } finally {
+            file.delete();
+        }
+    }
+
+    static @NotNull String className(@NotNull String packageName, int index) {
+        return packageName + "/Class" + index;
+    }
+
+    /**
+     * Returns a class file of a public class with a single field
+     *
+     * @param name      The internal name of the class
+     * @param reference The internal name of the type of the field
+     * @return The class file
+     */
+    private static @NotNull byte[] classFile(@NotNull String name, @NotNull String reference) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(52);
+        // constant pool
+        out.writeShort(7);
+        out.writeByte(1);
+        out.writeUTF(name);
+        out.writeByte(7);
+        out.writeShort(1);
+        out.writeByte(1);
+        out.writeUTF("java/lang/Object");
+        out.writeByte(7);
+        out.writeShort(3);
+        out.writeByte(1);
+        out.writeUTF("previous");
+        out.writeByte(1);
+        out.writeUTF("L" + reference + ";");
+        // public super, this class, super class, no interfaces
+        out.writeShort(0x0021);
+        out.writeShort(2);
+        out.writeShort(4);
+        out.writeShort(0);
+        // one public field, no methods or attributes
+        out.writeShort(1);
+        out.writeShort(0x0001);
+        out.writeShort(5);
+        out.writeShort(6);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(0);
+        return bytes.toByteArray();
+    }
+}
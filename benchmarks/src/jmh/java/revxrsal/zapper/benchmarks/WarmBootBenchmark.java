@@ -0,0 +1,123 @@
+/*
+ * This file is part of Zapper, licensed under the MIT License.
+ *
+ *  Copyright (c) Revxrsal <reflxction.github@gmail.com>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+package revxrsal.zapper.benchmarks;
+
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import revxrsal.zapper.Dependency;
+import revxrsal.zapper.DependencyManager;
+import revxrsal.zapper.classloader.URLClassLoaderWrapper;
+import revxrsal.zapper.relocation.Relocation;
+import revxrsal.zapper.repository.Repository;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading dependencies that have all been downloaded and relocated before,
+ * which is what happens on every start of the server but the first
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WarmBootBenchmark {
+
+    /**
+     * The number of dependencies
+     */
+    @Param({"5", "30", "100"})
+    public int dependencies;
+
+    private final List<Dependency> declared = new ArrayList<>();
+    private LocalRepository server;
+    private Repository repository;
+    private File directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new LocalRepository();
+        repository = server.repository();
+        for (int i = 0; i < dependencies; i++) {
+            Dependency dependency = new Dependency("benchmark", "library" + i, "1.0");
+            server.put(dependency, Jars.bytes("bench/lib" + i, 50));
+            declared.add(dependency);
+        }
+        directory = Files.createTempDirectory("zapper-warm-boot").toFile();
+        // the first boot downloads and relocates everything
+        load();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.close();
+        delete(directory);
+    }
+
+    @Benchmark
+    public URLClassLoader load() {
+        URLClassLoader classLoader = new URLClassLoader(new URL[0], null);
+        DependencyManager manager = manager(URLClassLoaderWrapper.wrap(classLoader));
+        manager.load();
+        return classLoader;
+    }
+
+    private @NotNull DependencyManager manager(@NotNull URLClassLoaderWrapper wrapper) {
+        DependencyManager manager = new DependencyManager(directory, wrapper);
+        manager.repository(repository);
+        manager.route("benchmark", repository);
+        manager.relocate(new Relocation("bench", "relocated.bench"));
+        declared.forEach(manager::dependency);
+        return manager;
+    }
+
+    private static void delete(@NotNull File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                delete(child);
+        }
+        file.delete();
+    }
+}
@@ -21,13 +21,14 @@ version = "1.0.2"
 subprojects {
 
     val isExample = project.path.startsWith(":example")
+    val isPublished = !isExample && project.path != ":benchmarks"
 
     group = rootProject.group
     version = rootProject.version
 
     apply(plugin = "java")
 
-    if (!isExample)
+    if (isPublished)
         apply(plugin = "com.vanniktech.maven.publish")
 
     java {
@@ -36,7 +37,7 @@ subprojects {
         }
     }
 
-    if (!isExample) {
+    if (isPublished) {
         mavenPublishing {
             coordinates(
                 groupId = group as String,
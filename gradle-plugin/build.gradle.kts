@@ -9,8 +9,25 @@ repositories {
     gradlePluginPortal()
 }
 
+/**
+ * The API jar of this build, which is embedded in the plugin so that jars are
+ * relocated at build time exactly like they are relocated at runtime
+ */
+val zapperApi: Configuration by configurations.creating {
+    isCanBeConsumed = false
+    isTransitive = false
+}
+
 dependencies {
     compileOnly("com.github.johnrengelman.shadow:com.github.johnrengelman.shadow.gradle.plugin:8.1.1")
+    zapperApi(project(":api"))
+}
+
+tasks.processResources {
+    from(zapperApi) {
+        rename { "zapper-api.jar" }
+        into("revxrsal/zapper/gradle")
+    }
 }
 
 gradlePlugin {
@@ -23,6 +23,37 @@ open class ZapperExtension {
      */
     var relocationPrefix: String = "zapperlib"
 
+    /**
+     * Should libraries be indexed by package, so that looking up a class
+     * does not search every library jar? Useful with many libraries.
+     */
+    var indexedClassPath: Boolean = false
+
+    /**
+     * Should libraries be merged into a single jar at runtime, so that
+     * only one jar is opened and searched?
+     */
+    var mergeLibraries: Boolean = false
+
+    /**
+     * Should the classes loaded from libraries be profiled, to tell which
+     * libraries take the longest to load? Only useful for diagnosing startup.
+     */
+    var profileClassLoading: Boolean = false
+
+    /**
+     * Should the offline bundle contain relocated jars, so that they do
+     * not have to be relocated on the server?
+     */
+    var bundleRelocated: Boolean = false
+
+    /**
+     * Should classes of libraries that are not reachable from the plugin be
+     * dropped at runtime? Classes that are only loaded by name, like with
+     * reflection, may need to be kept with [keep].
+     */
+    var shrink: Boolean = false
+
     /**
      * The repositories URLs
      */
@@ -33,6 +64,21 @@ open class ZapperExtension {
      */
     private var _relocations = mutableListOf<Relocation>()
 
+    /**
+     * The group routes
+     */
+    private var _routes = linkedMapOf<String, String>()
+
+    /**
+     * The repositories of relocated jars
+     */
+    private var _preRelocatedRepositories = mutableListOf<String>()
+
+    /**
+     * The patterns of classes to keep when shrinking
+     */
+    private var _keepPatterns = mutableListOf<String>()
+
     /**
      * The currently added repositories
      */
@@ -43,6 +89,21 @@ open class ZapperExtension {
      */
     val relocations: List<Relocation> get() = _relocations
 
+    /**
+     * The current group routes, mapping group prefixes to repository URLs
+     */
+    val routes: Map<String, String> get() = _routes
+
+    /**
+     * The current repositories of relocated jars
+     */
+    val preRelocatedRepositories: List<String> get() = _preRelocatedRepositories
+
+    /**
+     * The current patterns of classes to keep when shrinking
+     */
+    val keepPatterns: List<String> get() = _keepPatterns
+
     /**
      * Should project repositories be remembered for downloading
      * repositories at runtime?
@@ -58,6 +119,8 @@ open class ZapperExtension {
         val dsl = BasicRepositoryDsl()
         configure.execute(dsl)
         _repositories = dsl.repositories
+        _routes = dsl.routes
+        _preRelocatedRepositories = dsl.preRelocated
         includeProjectRepositories = dsl.includeProjectRepositories
     }
 
@@ -68,6 +131,16 @@ open class ZapperExtension {
         _relocations.add(Relocation(pattern, newPattern))
     }
 
+    /**
+     * Keeps the library classes that match the given patterns when shrinking,
+     * even if they are not reachable from the plugin. Patterns are class names
+     * (before relocation), where `*` matches part of a name, and `**` matches
+     * any number of packages, like `com.google.gson.**`.
+     */
+    fun keep(vararg patterns: String) {
+        _keepPatterns.addAll(patterns)
+    }
+
     /**
      * A fancy toString implementation
      */
@@ -83,6 +156,10 @@ open class ZapperExtension {
         return """
             libs-folder=${libsFolder}
             relocation-prefix=${relocationPrefix}
+            indexed-class-path=${indexedClassPath}
+            merge-libraries=${mergeLibraries}
+            profile-class-loading=${profileClassLoading}
+            shrink=${shrink}
         """.trimIndent()
     }
 }
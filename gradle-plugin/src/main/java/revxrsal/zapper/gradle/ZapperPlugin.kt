@@ -4,19 +4,48 @@ import com.github.jengelman.gradle.plugins.shadow.tasks.ShadowJar
 import org.gradle.api.Plugin
 import org.gradle.api.Project
 import org.gradle.api.artifacts.Configuration
+import org.gradle.api.artifacts.Dependency
+import org.gradle.api.artifacts.ResolvedArtifact
 import org.gradle.api.artifacts.repositories.MavenArtifactRepository
+import org.gradle.api.artifacts.result.ResolvedComponentResult
+import org.gradle.api.artifacts.result.ResolvedDependencyResult
+import org.gradle.api.tasks.SourceSetContainer
+import org.gradle.api.tasks.bundling.Zip
+import org.gradle.api.tasks.bundling.ZipEntryCompression
 import org.gradle.jvm.tasks.Jar
 import org.gradle.kotlin.dsl.withType
 import java.io.File
+import java.net.URLClassLoader
+import java.security.MessageDigest
+import java.util.stream.Collectors
+import java.util.zip.ZipFile
 
 /**
  * The plugin version
  */
 private const val PLUGIN_VERSION: String = "1.0.2"
 
+/**
+ * The files that generateZapperFiles generates, which are put in the jar
+ */
+private val GENERATED_FILES = listOf(
+    "dependencies.txt",
+    "dependencies.lock",
+    "relocations.txt",
+    "repositories.txt",
+    "routes.txt",
+    "packages.txt",
+    "background.txt",
+    "reachable.txt",
+    "relocated.lock",
+    "zapper.bin",
+    "zapper.properties"
+)
+
 /**
  * The Zapper Gradle plugin collects information about the zapped dependencies
- * and merges them into raw text files that are read by the Zapper API.
+ * and merges them into raw text files that are read by the Zapper API, along
+ * with a binary descriptor that has the content of all of them.
  */
 class ZapperPlugin : Plugin<Project> {
 
@@ -34,31 +63,104 @@ class ZapperPlugin : Plugin<Project> {
             description = "Marks a dependency for downloading at runtime"
         }
 
+        // creates the 'zapLazy' configuration
+        val zapLazy = project.configurations.create("zapLazy") {
+            isCanBeResolved = true
+            isCanBeConsumed = false
+            description = "Marks a dependency for downloading at runtime, the first time it is used"
+        }
+        zap.extendsFrom(zapLazy)
+
+        // creates the 'zapBackground' configuration
+        val zapBackground = project.configurations.create("zapBackground") {
+            isCanBeResolved = true
+            isCanBeConsumed = false
+            description = "Marks a dependency for downloading at runtime, in the background"
+        }
+        zap.extendsFrom(zapBackground)
+
         // include zapped dependencies as compileOnly
         project.afterEvaluate {
             configurations.getByName("compileOnly").extendsFrom(zap)
         }
 
         val outputDir = project.layout.buildDirectory.asFile.get().resolve("zapper")
+        val mirrorDir = project.layout.buildDirectory.asFile.get().resolve("zapper-mirror")
         project.tasks.register("generateZapperFiles") {
             group = "build"
             description = "Generates information about dependencies to install and relocate at runtime"
+            inputs.files(zap).withPropertyName("dependencies")
+            inputs.files(zapLazy).withPropertyName("lazyDependencies")
+            inputs.files(zapBackground).withPropertyName("backgroundDependencies")
+            inputs.property("repositories", project.provider { project.collectRepositories(project.zapper).toList() })
+            inputs.property("settings", project.provider {
+                with(project.zapper) { listOf(toPropertiesFile(), relocations, routes, preRelocatedRepositories, keepPatterns).toString() }
+            })
+            // origins are not looked up offline, so they are once back online
+            inputs.property("offline", project.gradle.startParameter.isOffline)
+            outputs.files(GENERATED_FILES.map { outputDir.resolve(it) })
+            // shrinking needs the compiled classes of the plugin
+            project.plugins.withId("java") {
+                dependsOn("classes")
+                val classesDirs = project.extensions.getByType(SourceSetContainer::class.java).getByName("main").output.classesDirs
+                inputs.files(project.provider { if (project.zapper.shrink) classesDirs else project.files() })
+                    .withPropertyName("classes")
+            }
             doLast {
                 outputDir.mkdirs()
 
                 val extension = project.zapper
-                project.createRepositoriesFile(outputDir, extension)
+                val repositories = project.collectRepositories(extension)
+                createRepositoriesFile(outputDir, repositories, extension.preRelocatedRepositories)
 
                 if (extension.relocations.isNotEmpty()) {
                     project.createRelocationsFile(outputDir, extension)
                 }
 
+                createRoutesFile(outputDir, extension)
                 createZappersFile(outputDir, zap)
+                val origins = OriginCache(project.gradle.gradleUserHomeDir.resolve("caches/zapper/origins.txt"))
+                createLockFile(outputDir, zap, repositories + extension.routes.values, origins, project.gradle.startParameter.isOffline)
+                project.createPackagesFile(outputDir, zap, extension)
+                project.createBackgroundFile(outputDir, zap)
+                project.createReachableFile(outputDir, zap, extension)
+                createRelocatedLockFile(outputDir, mirrorDir, zap, extension)
 
                 val configFile = outputDir.resolve("zapper.properties")
                 configFile.writeText(extension.toPropertiesFile())
+                createDescriptorFile(outputDir)
+            }
+        }
+
+        project.tasks.register("generateZapperMirror") {
+            group = "build"
+            description = "Relocates the dependencies to download at runtime into a Maven repository, to be used with preRelocated()"
+            outputs.dir(mirrorDir)
+            doLast {
+                generateMirror(mirrorDir, zap, project.zapper)
+            }
+        }
+
+        val bundleDir = outputDir.resolve("bundle")
+        val prepareZapperBundle = project.tasks.register("prepareZapperBundle") {
+            description = "Collects the dependencies to download at runtime into an offline bundle"
+            outputs.dir(bundleDir)
+            doLast {
+                project.prepareBundle(bundleDir, zap, project.zapper)
             }
         }
+        project.tasks.register("zapperBundle", Zip::class.java) {
+            group = "build"
+            description = "Builds an offline bundle of the dependencies to download at runtime"
+            from(prepareZapperBundle)
+            // jars are compressed already, and stored entries can be extracted faster
+            entryCompression = ZipEntryCompression.STORED
+            destinationDirectory.set(project.layout.buildDirectory.dir("libs"))
+            // named after the plugin jar, so that it can be put next to it
+            archiveFileName.set(project.tasks.named("shadowJar", ShadowJar::class.java)
+                .flatMap { it.archiveFile }
+                .map { it.asFile.nameWithoutExtension + BUNDLE_EXTENSION })
+        }
 
         project.addZapperDependencies()
 
@@ -66,10 +168,7 @@ class ZapperPlugin : Plugin<Project> {
             dependsOn("generateZapperFiles")
 
             from(outputDir) {
-                include("dependencies.txt")
-                include("relocations.txt")
-                include("repositories.txt")
-                include("zapper.properties")
+                include(GENERATED_FILES)
                 into("zapper")
             }
         }
@@ -107,10 +206,305 @@ private fun createZappersFile(outputDir: File, runtimeLib: Configuration) {
 }
 
 /**
- * Generates the repositories.txt file
+ * Generates the packages.txt file, which maps every package of a lazy
+ * dependency (after relocation) to the dependency, so that it can be
+ * loaded the first time a class from it is requested.
+ *
+ * Dependencies that are also needed by a non-lazy dependency are loaded
+ * eagerly, and so are left out.
  */
-private fun Project.createRepositoriesFile(outputDir: File, extension: ZapperExtension) {
-    val repositoriesFile = outputDir.resolve("repositories.txt")
+private fun Project.createPackagesFile(outputDir: File, runtimeLib: Configuration, extension: ZapperExtension) {
+    val packagesFile = outputDir.resolve("packages.txt")
+    if (configurations.getByName("zapLazy").dependencies.isEmpty()) {
+        packagesFile.delete()
+        return
+    }
+    val eager = runtimeLib.modulesReachableFrom(runtimeLib.dependencies + configurations.getByName("zapBackground").dependencies)
+    val relocations = extension.relocations.map { it.pattern to "${extension.relocationPrefix}.${it.newPattern}" }
+    val entries = runtimeLib.resolvedConfiguration
+        .resolvedArtifacts
+        .filter { it.moduleIdentity() !in eager }
+        .flatMap { artifact ->
+            artifact.file.packages().map { "${relocate(it, relocations)} ${artifact.moduleVersion.id}" }
+        }
+    packagesFile.writeText(entries.joinToString("\n"))
+}
+
+/**
+ * Generates the background.txt file, which lists the dependencies that are
+ * loaded in the background rather than on startup.
+ *
+ * Dependencies that are also needed by a dependency that is loaded on
+ * startup are loaded on startup, and so are left out.
+ */
+private fun Project.createBackgroundFile(outputDir: File, runtimeLib: Configuration) {
+    val backgroundFile = outputDir.resolve("background.txt")
+    if (configurations.getByName("zapBackground").dependencies.isEmpty()) {
+        backgroundFile.delete()
+        return
+    }
+    val startup = runtimeLib.modulesReachableFrom(runtimeLib.dependencies + configurations.getByName("zapLazy").dependencies)
+    val entries = runtimeLib.resolvedConfiguration
+        .resolvedArtifacts
+        .filter { it.moduleIdentity() !in startup }
+        .map { it.moduleVersion.id.toString() }
+    backgroundFile.writeText(entries.joinToString("\n"))
+}
+
+/**
+ * Returns the modules, as `group:name`, that the given declared dependencies
+ * pull in, in the resolution graph of this configuration. Versions are left
+ * out, as conflicts are resolved across the whole graph, so a module may be
+ * requested at one version and resolved at another.
+ */
+private fun Configuration.modulesReachableFrom(declared: Collection<Dependency>): Set<String> {
+    val roots = declared.filter { it.group != null }.map { "${it.group}:${it.name}" }.toSet()
+    val reached = mutableSetOf<String>()
+    val queue = ArrayDeque<ResolvedComponentResult>()
+    for (dependency in incoming.resolutionResult.root.dependencies) {
+        val selected = (dependency as? ResolvedDependencyResult)?.selected ?: continue
+        val id = selected.moduleVersion ?: continue
+        if ("${id.group}:${id.name}" in roots)
+            queue.add(selected)
+    }
+    while (queue.isNotEmpty()) {
+        val component = queue.removeFirst()
+        val id = component.moduleVersion ?: continue
+        if (!reached.add("${id.group}:${id.name}"))
+            continue
+        for (dependency in component.dependencies) {
+            if (dependency is ResolvedDependencyResult)
+                queue.add(dependency.selected)
+        }
+    }
+    return reached
+}
+
+/**
+ * Returns the module of this artifact, as `group:name`
+ */
+private fun ResolvedArtifact.moduleIdentity(): String = "${moduleVersion.id.group}:${moduleVersion.id.name}"
+
+/**
+ * Lists the packages that contain classes in this jar
+ */
+private fun File.packages(): Set<String> {
+    return ZipFile(this).use { zip ->
+        zip.entries().asSequence()
+            .map { it.name.replace(MULTI_RELEASE_PREFIX, "") }
+            .filter { it.endsWith(".class") && it.contains('/') && !it.startsWith("META-INF/") }
+            .map { it.substringBeforeLast('/').replace('/', '.') }
+            .toSortedSet()
+    }
+}
+
+private val MULTI_RELEASE_PREFIX = Regex("^META-INF/versions/\\d+/")
+
+/**
+ * Applies the longest matching relocation rule to the given package
+ */
+private fun relocate(packageName: String, relocations: List<Pair<String, String>>): String {
+    val rule = relocations
+        .filter { packageName == it.first || packageName.startsWith(it.first + ".") }
+        .maxByOrNull { it.first.length }
+        ?: return packageName
+    return rule.second + packageName.substring(rule.first.length)
+}
+
+/**
+ * Collects the dependencies into the given directory, along with the index
+ * of the bundle, which records the dependency, size, SHA-256 and name of
+ * every jar. Jars are named the way they are named in the libraries folder.
+ */
+private fun Project.prepareBundle(bundleDir: File, runtimeLib: Configuration, extension: ZapperExtension) {
+    bundleDir.deleteRecursively()
+    bundleDir.mkdirs()
+    var bundleRelocated = extension.bundleRelocated && extension.relocations.isNotEmpty()
+    if (bundleRelocated && extension.shrink) {
+        // jars are shrunk at runtime, so relocated jars would not be named as expected
+        logger.warn("Zapper: bundleRelocated is ignored when shrinking. The bundle will contain the original jars.")
+        bundleRelocated = false
+    }
+    val relocator = if (bundleRelocated) apiRelocator(extension, bundleDir) else null
+    relocator.use {
+        val entries = runtimeLib.resolvedConfiguration
+            .resolvedArtifacts
+            .parallelStream()
+            .map { artifact ->
+                val id = artifact.moduleVersion.id
+                val jar = relocator?.relocate(artifact, relocator.file(artifact))
+                    ?: artifact.file.copyTo(bundleDir.resolve("${id.group}.${id.name}-${id.version}.jar"))
+                "$id ${jar.length()} ${jar.sha256()} ${jar.name}"
+            }
+            .collect(Collectors.toList())
+        bundleDir.resolve("zapper-bundle.txt").writeText(BUNDLE_HEADER + "\n" + entries.joinToString("\n"))
+    }
+}
+
+/**
+ * Relocates the dependencies into a Maven repository, with a classifier that
+ * identifies the relocation rules. Jars that have been relocated before are
+ * kept, so the same directory can be used for several versions of a plugin.
+ *
+ * @return The relocated jars, by their notation with the classifier
+ */
+private fun generateMirror(mirrorDir: File, runtimeLib: Configuration, extension: ZapperExtension): List<Pair<String, File>> {
+    if (extension.relocations.isEmpty())
+        error("There are no relocation rules, so there is nothing to mirror. Add some with zapper { relocate(...) }")
+    return apiRelocator(extension, mirrorDir).use { relocator ->
+        runtimeLib.resolvedConfiguration
+            .resolvedArtifacts
+            .parallelStream()
+            .map { artifact ->
+                val id = artifact.moduleVersion.id
+                val jar = mirrorDir.resolve("${id.group.replace('.', '/')}/${id.name}/${id.version}/${id.name}-${id.version}-${relocator.classifier}.jar")
+                if (!jar.exists()) {
+                    jar.parentFile.mkdirs()
+                    val temp = File(jar.parentFile, jar.name + ".tmp")
+                    relocator.relocate(artifact, temp)
+                    if (!temp.renameTo(jar)) {
+                        temp.delete()
+                        error("Failed to move $temp to $jar")
+                    }
+                }
+                "$id:${relocator.classifier}" to jar
+            }
+            .collect(Collectors.toList())
+    }
+}
+
+/**
+ * Generates the relocated.lock file, which records the size and SHA-256 of
+ * the jars in the pre-relocated repositories, so that they can be verified
+ * at runtime. Jars are relocated into the mirror like `generateZapperMirror`
+ * does, so the mirror that is hosted must be the one of the same build.
+ * Jars that are not in the file are never downloaded from a mirror.
+ */
+private fun createRelocatedLockFile(outputDir: File, mirrorDir: File, runtimeLib: Configuration, extension: ZapperExtension) {
+    val lockFile = outputDir.resolve("relocated.lock")
+    // shrunk jars are never downloaded from a mirror
+    if (extension.preRelocatedRepositories.isEmpty() || extension.relocations.isEmpty() || extension.shrink) {
+        lockFile.delete()
+        return
+    }
+    val entries = generateMirror(mirrorDir, runtimeLib, extension)
+        .map { (notation, jar) -> "$notation ${jar.length()} ${jar.sha256()}" }
+    lockFile.writeText(entries.joinToString("\n"))
+}
+
+/**
+ * Creates a relocator that relocates with the rules of the given extension,
+ * and names jars as they are named in the given directory at runtime.
+ *
+ * The API jar is the one that this plugin was built with, rather than one
+ * resolved from a repository, so that it always has the same relocator as
+ * the API that this plugin adds to the project.
+ */
+private fun apiRelocator(extension: ZapperExtension, directory: File): ApiRelocator {
+    // a copy per relocator, as tasks that use one may run in parallel
+    val apiJar = File.createTempFile("zapper-api", ".jar")
+    try {
+        val resource = ZapperPlugin::class.java.getResourceAsStream("zapper-api.jar")
+            ?: error("The Zapper API is missing from the Zapper Gradle plugin")
+        resource.use { input -> apiJar.outputStream().use { input.copyTo(it) } }
+        val rules = extension.relocations.map { it.pattern to "${extension.relocationPrefix}.${it.newPattern}" }
+        return ApiRelocator(apiJar, rules, directory)
+    } catch (e: Throwable) {
+        apiJar.delete()
+        throw e
+    }
+}
+
+private const val BUNDLE_EXTENSION = ".zapper-bundle.zip"
+private const val BUNDLE_HEADER = "# Zapper bundle v1"
+
+/**
+ * Relocates jars with the relocator of the Zapper API, loaded in isolation,
+ * so that they are identical to the jars relocated at runtime, and named
+ * the same
+ */
+private class ApiRelocator(private val apiJar: File, rules: List<Pair<String, String>>, directory: File) : AutoCloseable {
+
+    private val loader = URLClassLoader(arrayOf(apiJar.toURI().toURL()), null)
+    private val dependency = loader.loadClass("revxrsal.zapper.Dependency")
+        .getConstructor(String::class.java, String::class.java, String::class.java)
+    private val relocations: List<Any> = loader.loadClass("revxrsal.zapper.relocation.Relocation")
+        .getConstructor(String::class.java, String::class.java)
+        .let { constructor -> rules.map { constructor.newInstance(it.first, it.second) } }
+    private val cache: Any = loader.loadClass("revxrsal.zapper.relocation.RelocationCache")
+        .getConstructor(File::class.java, List::class.java)
+        .newInstance(directory, relocations)
+    private val file = cache.javaClass.getMethod("file", dependency.declaringClass, String::class.java)
+    private val relocate = loader.loadClass("revxrsal.zapper.relocation.Relocator")
+        .getMethod("relocate", File::class.java, File::class.java, List::class.java)
+
+    /**
+     * The classifier that relocated jars are published with in a mirror
+     */
+    val classifier = cache.javaClass.getMethod("classifier").invoke(cache) as String
+
+    /**
+     * Returns the file that the given artifact is relocated into at runtime
+     */
+    fun file(artifact: ResolvedArtifact): File {
+        val id = artifact.moduleVersion.id
+        return file.invoke(cache, dependency.newInstance(id.group, id.name, id.version), artifact.file.sha256()) as File
+    }
+
+    fun relocate(artifact: ResolvedArtifact, output: File): File {
+        relocate.invoke(null, artifact.file, output, relocations)
+        return output
+    }
+
+    override fun close() {
+        loader.close()
+        apiJar.delete()
+    }
+}
+
+/**
+ * Generates the dependencies.lock file, which records the size and SHA-256
+ * of every resolved artifact so that downloads can be verified at runtime,
+ * along with the repository that has it so that it can be downloaded from
+ * there directly. Origins are looked up in the given cache first, and
+ * repositories are not probed at all when offline.
+ */
+private fun createLockFile(outputDir: File, runtimeLib: Configuration, repositories: Collection<String>, origins: OriginCache, offline: Boolean) {
+    val lockFile = outputDir.resolve("dependencies.lock")
+    val entries = runtimeLib.resolvedConfiguration
+        .resolvedArtifacts
+        .parallelStream()
+        .map {
+            val sha256 = it.file.sha256()
+            val origin = origins.find(it, sha256, repositories, probe = !offline)
+            "${it.moduleVersion.id} ${it.file.length()} $sha256" + if (origin != null) " $origin" else ""
+        }
+        .collect(Collectors.joining("\n"))
+    origins.save()
+
+    lockFile.writeText(entries)
+}
+
+/**
+ * Computes the lowercase hex SHA-256 of this file
+ */
+private fun File.sha256(): String {
+    val digest = MessageDigest.getInstance("SHA-256")
+    inputStream().use { input ->
+        val buffer = ByteArray(8 * 1024)
+        var read = input.read(buffer)
+        while (read != -1) {
+            digest.update(buffer, 0, read)
+            read = input.read(buffer)
+        }
+    }
+    return digest.digest().joinToString("") { "%02x".format(it) }
+}
+
+/**
+ * Collects the repositories that dependencies are downloaded from
+ */
+private fun Project.collectRepositories(extension: ZapperExtension): Set<String> {
     val repositories = extension.repositries.toMutableSet()
     if (extension.includeProjectRepositories) {
         project.repositories.forEach {
@@ -119,7 +513,28 @@ private fun Project.createRepositoriesFile(outputDir: File, extension: ZapperExt
             }
         }
     }
-    repositoriesFile.writeText(repositories.joinToString("\n"))
+    return repositories
+}
+
+/**
+ * Generates the repositories.txt file. Repositories of relocated jars are
+ * marked with `pre-relocated`.
+ */
+private fun createRepositoriesFile(outputDir: File, repositories: Set<String>, preRelocated: List<String>) {
+    val repositoriesFile = outputDir.resolve("repositories.txt")
+    repositoriesFile.writeText((repositories + preRelocated.map { "$it pre-relocated" }).joinToString("\n"))
+}
+
+/**
+ * Generates the routes.txt file
+ */
+private fun createRoutesFile(outputDir: File, extension: ZapperExtension) {
+    val routesFile = outputDir.resolve("routes.txt")
+    if (extension.routes.isEmpty()) {
+        routesFile.delete()
+        return
+    }
+    routesFile.writeText(extension.routes.entries.joinToString("\n") { "${it.key} ${it.value}" })
 }
 
 /**
@@ -0,0 +1,166 @@
+package revxrsal.zapper.gradle
+
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.util.Properties
+
+/**
+ * The version of the zapper.bin format. Must match BinaryDescriptor
+ * in the Zapper API.
+ */
+private const val DESCRIPTOR_VERSION = 2
+
+/**
+ * The magic number that zapper.bin starts with, "ZAPR"
+ */
+private const val DESCRIPTOR_MAGIC = 0x5A415052
+
+/**
+ * Generates the zapper.bin file from the text files in the given directory,
+ * including zapper.properties, so that the runtime can read all of them in
+ * one pass. The text files are
+ * still included in the jar, for versions of the API that do not read it.
+ *
+ * See BinaryDescriptor in the Zapper API for the format.
+ */
+internal fun createDescriptorFile(outputDir: File) {
+    fun lines(name: String): List<String> {
+        val file = outputDir.resolve(name)
+        return if (file.exists()) file.readLines().filter { it.isNotBlank() } else emptyList()
+    }
+
+    val strings = linkedMapOf<String, Int>()
+    fun ref(value: String) = strings.getOrPut(value) { strings.size }
+    fun optionalRef(value: String?) = if (value == null) 0 else ref(value) + 1
+    fun sha256Bytes(hex: String?) = hex?.chunked(2)?.map { it.toInt(16).toByte() }?.toByteArray() ?: ByteArray(0)
+
+    val lock = lines("dependencies.lock")
+        .map { it.split(' ') }
+        .filter { it.size == 3 || it.size == 4 }
+        .associateBy { it[0] }
+    val dependencies = lines("dependencies.txt")
+    val dependencyIndex = dependencies.withIndex().associate { it.value to it.index }
+
+    // the string table comes first, so the sections are written separately
+    val body = ByteArrayOutputStream()
+    DataOutputStream(body).use { out ->
+        out.writeVarLong(dependencies.size.toLong())
+        for (notation in dependencies) {
+            val split = notation.split(':')
+            val locked = lock[notation]
+            out.writeVarLong(ref(split[0]).toLong())
+            out.writeVarLong(ref(split[1]).toLong())
+            out.writeVarLong(ref(split[2]).toLong())
+            out.writeVarLong(optionalRef(split.getOrNull(3)).toLong())
+            out.writeVarLong(if (locked == null) 0 else locked[1].toLong() + 1)
+            val sha256 = sha256Bytes(locked?.get(2))
+            out.writeByte(sha256.size)
+            out.write(sha256)
+            out.writeVarLong(optionalRef(locked?.getOrNull(3)).toLong())
+        }
+
+        val repositories = lines("repositories.txt").map { it.split(' ') }
+        out.writeVarLong(repositories.size.toLong())
+        for (repository in repositories) {
+            out.writeVarLong(ref(repository[0]).toLong())
+            out.writeByte(if (repository.getOrNull(1) == "pre-relocated") 1 else 0)
+        }
+
+        val relocations = lines("relocations.txt").map { it.split(':') }
+        out.writeVarLong(relocations.size.toLong())
+        for (relocation in relocations) {
+            out.writeVarLong(ref(relocation[0]).toLong())
+            out.writeVarLong(ref(relocation[1]).toLong())
+        }
+
+        val routes = lines("routes.txt").map { it.split(' ', limit = 2) }.filter { it.size == 2 }
+        out.writeVarLong(routes.size.toLong())
+        for (route in routes) {
+            out.writeVarLong(ref(route[0]).toLong())
+            out.writeVarLong(ref(route[1]).toLong())
+        }
+
+        val packages = lines("packages.txt")
+            .map { it.split(' ') }
+            .filter { it.size == 2 && it[1] in dependencyIndex }
+        out.writeVarLong(packages.size.toLong())
+        for (entry in packages) {
+            out.writeVarLong(ref(entry[0]).toLong())
+            out.writeVarLong(dependencyIndex.getValue(entry[1]).toLong())
+        }
+
+        val background = lines("background.txt").mapNotNull { dependencyIndex[it] }
+        out.writeVarLong(background.size.toLong())
+        for (index in background) {
+            out.writeVarLong(index.toLong())
+        }
+
+        val config = Properties()
+        val configFile = outputDir.resolve("zapper.properties")
+        if (configFile.exists()) {
+            configFile.reader().use { config.load(it) }
+        }
+        val names = config.stringPropertyNames().sorted()
+        out.writeVarLong(names.size.toLong())
+        for (name in names) {
+            out.writeVarLong(ref(name).toLong())
+            out.writeVarLong(ref(config.getProperty(name)).toLong())
+        }
+
+        val relocatedJars = lines("relocated.lock")
+            .map { it.split(' ') }
+            .filter { it.size == 3 && it[0].split(':').size == 4 }
+        out.writeVarLong(relocatedJars.size.toLong())
+        for (jar in relocatedJars) {
+            val split = jar[0].split(':')
+            out.writeVarLong(ref(split[0]).toLong())
+            out.writeVarLong(ref(split[1]).toLong())
+            out.writeVarLong(ref(split[2]).toLong())
+            out.writeVarLong(ref(split[3]).toLong())
+            out.writeVarLong(jar[1].toLong())
+            val sha256 = sha256Bytes(jar[2])
+            out.writeByte(sha256.size)
+            out.write(sha256)
+        }
+
+        // an empty file keeps nothing, while a missing one keeps everything
+        val reachableFile = outputDir.resolve("reachable.txt")
+        if (reachableFile.exists()) {
+            val packages = reachableFile.readLines().filter { it.isNotEmpty() }.map { it.split(' ') }
+            out.writeVarLong(packages.size + 1L)
+            for (entry in packages) {
+                val classes = entry.drop(1).filter { it.isNotEmpty() }
+                out.writeVarLong(ref(entry[0]).toLong())
+                out.writeVarLong(classes.size.toLong())
+                for (name in classes) {
+                    out.writeVarLong(ref(name).toLong())
+                }
+            }
+        } else {
+            out.writeVarLong(0)
+        }
+    }
+
+    DataOutputStream(outputDir.resolve("zapper.bin").outputStream().buffered()).use { out ->
+        out.writeInt(DESCRIPTOR_MAGIC)
+        out.writeByte(DESCRIPTOR_VERSION)
+        out.writeVarLong(strings.size.toLong())
+        for (string in strings.keys) {
+            out.writeUTF(string)
+        }
+        body.writeTo(out)
+    }
+}
+
+/**
+ * Writes an unsigned varint, 7 bits at a time
+ */
+private fun DataOutputStream.writeVarLong(value: Long) {
+    var remaining = value
+    while (remaining and 0x7F.inv().toLong() != 0L) {
+        writeByte(((remaining and 0x7F) or 0x80).toInt())
+        remaining = remaining ushr 7
+    }
+    writeByte(remaining.toInt())
+}
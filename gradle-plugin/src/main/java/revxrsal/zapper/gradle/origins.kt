@@ -0,0 +1,111 @@
+package revxrsal.zapper.gradle
+
+import org.gradle.api.artifacts.ResolvedArtifact
+import java.io.File
+import java.io.IOException
+import java.net.HttpURLConnection
+import java.net.URL
+import java.nio.file.AtomicMoveNotSupportedException
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * The repositories that artifacts were found in, by their id and SHA-256,
+ * so that repositories are only probed the first time an artifact is locked.
+ * An artifact with the same id and SHA-256 is the same artifact whichever
+ * project locks it, so the cache is shared by every build of the user.
+ */
+internal class OriginCache(private val file: File) {
+
+    private val origins = ConcurrentHashMap<String, String>()
+
+    @Volatile
+    private var changed = false
+
+    init {
+        read(origins)
+    }
+
+    /**
+     * Finds the first repository that has the given artifact, requesting the
+     * same path that Zapper requests at runtime. Repositories are only probed
+     * if the artifact is not cached, and [probe] is true.
+     */
+    fun find(artifact: ResolvedArtifact, sha256: String, repositories: Collection<String>, probe: Boolean): String? {
+        val key = "${artifact.moduleVersion.id} $sha256"
+        val cached = origins[key]
+        if (cached != null && cached in repositories)
+            return cached
+        if (!probe)
+            return null
+        val origin = artifact.findOrigin(repositories) ?: return null
+        origins[key] = origin
+        changed = true
+        return origin
+    }
+
+    /**
+     * Writes the origins that were found to the cache, along with the ones
+     * that other builds have written in the meantime
+     */
+    fun save() {
+        if (!changed)
+            return
+        val merged = HashMap<String, String>()
+        read(merged)
+        merged.putAll(origins)
+        file.parentFile.mkdirs()
+        val temp = File.createTempFile(file.name, ".tmp", file.parentFile)
+        try {
+            temp.writeText(merged.entries.joinToString("\n") { "${it.key} ${it.value}" })
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+            } catch (e: AtomicMoveNotSupportedException) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING)
+            }
+        } finally {
+            temp.delete()
+        }
+    }
+
+    private fun read(into: MutableMap<String, String>) {
+        if (!file.isFile)
+            return
+        file.forEachLine { line ->
+            val parts = line.split(' ')
+            if (parts.size == 3)
+                into["${parts[0]} ${parts[1]}"] = parts[2]
+        }
+    }
+}
+
+/**
+ * Finds the first repository that has this artifact, requesting the
+ * same path that Zapper requests at runtime
+ */
+private fun ResolvedArtifact.findOrigin(repositories: Collection<String>): String? {
+    val id = moduleVersion.id
+    val path = "${id.group.replace('.', '/')}/${id.name}/${id.version}/${id.name}-${id.version}.jar"
+    return repositories.firstOrNull { exists(it.removeSuffix("/") + "/" + path) }
+}
+
+/**
+ * Tests whether the given URL exists, using a HEAD request for HTTP URLs
+ */
+private fun exists(url: String): Boolean {
+    return try {
+        val connection = URL(url).openConnection()
+        connection.connectTimeout = 5000
+        connection.readTimeout = 5000
+        if (connection is HttpURLConnection) {
+            connection.requestMethod = "HEAD"
+            connection.responseCode == HttpURLConnection.HTTP_OK
+        } else {
+            connection.getInputStream().close()
+            true
+        }
+    } catch (e: IOException) {
+        false
+    }
+}
@@ -16,6 +16,20 @@ interface RepositoryDsl {
      * resolving dependencies
      */
     fun includeProjectRepositories()
+
+    /**
+     * Routes all dependencies whose group starts with the given prefix
+     * (like `org.jetbrains` or `org.jetbrains.*`) to the given repository,
+     * so that it is tried first at runtime
+     */
+    fun route(groupPrefix: String, url: String)
+
+    /**
+     * Adds a repository of jars that were relocated with the same rules by
+     * the `generateZapperMirror` task. Relocated jars are downloaded from it
+     * before any other repository, and are not relocated again at runtime.
+     */
+    fun preRelocated(url: String)
 }
 
 /**
@@ -33,6 +47,16 @@ internal class BasicRepositoryDsl : RepositoryDsl {
      */
     var includeProjectRepositories = false
 
+    /**
+     * The group routes, mapping group prefixes to repository URLs
+     */
+    val routes = linkedMapOf<String, String>()
+
+    /**
+     * The repositories of relocated jars
+     */
+    val preRelocated = mutableListOf<String>()
+
     /**
      * Adds the given repository to the repositories list
      */
@@ -47,5 +71,19 @@ internal class BasicRepositoryDsl : RepositoryDsl {
     override fun includeProjectRepositories() {
         includeProjectRepositories = true
     }
-}
 
+    /**
+     * Routes all dependencies whose group starts with the given prefix
+     * to the given repository
+     */
+    override fun route(groupPrefix: String, url: String) {
+        routes[groupPrefix] = url
+    }
+
+    /**
+     * Adds a repository of relocated jars
+     */
+    override fun preRelocated(url: String) {
+        preRelocated.add(url)
+    }
+}
@@ -0,0 +1,219 @@
+package revxrsal.zapper.gradle
+
+import org.gradle.api.Project
+import org.gradle.api.artifacts.Configuration
+import org.gradle.api.tasks.SourceSetContainer
+import java.io.ByteArrayInputStream
+import java.io.DataInputStream
+import java.io.File
+import java.io.IOException
+import java.util.zip.ZipFile
+
+/**
+ * Type descriptors and signatures in UTF-8 constants, like `Lcom/google/gson/Gson;`
+ */
+private val CLASS_DESCRIPTOR = Regex("L([^;<>.\\[]+)[;<]")
+
+private val VERSIONED_CLASS = Regex("^META-INF/versions/\\d+/")
+
+private const val SERVICES = "META-INF/services/"
+
+/**
+ * Generates the reachable.txt file, which lists the classes of the zapped
+ * dependencies that are reachable from the plugin's own classes. Classes
+ * that are not listed are dropped when dependencies are relocated at runtime.
+ *
+ * Classes are reachable if they are referenced in the constant pool of the
+ * plugin's classes, or of another reachable class. As libraries also load
+ * classes by name, these are kept as well:
+ * - Classes whose name appears in a string constant of a reachable class,
+ *   as they are likely loaded with `Class.forName`
+ * - Providers in `META-INF/services` of services that are referenced,
+ *   as they are loaded with `ServiceLoader`
+ * - Classes that match a [ZapperExtension.keep] pattern
+ *
+ * See ReachableClasses in the Zapper API for the format.
+ */
+internal fun Project.createReachableFile(outputDir: File, runtimeLib: Configuration, extension: ZapperExtension) {
+    val reachableFile = outputDir.resolve("reachable.txt")
+    if (!extension.shrink) {
+        reachableFile.delete()
+        return
+    }
+    val classesDirs = extensions.getByType(SourceSetContainer::class.java).getByName("main").output.classesDirs.files
+    val jars = runtimeLib.resolvedConfiguration.resolvedArtifacts.map { ZipFile(it.file) }
+    try {
+        val libraries = LibraryIndex(jars)
+        val keep = extension.keepPatterns.map { it.toKeepRegex() }
+        val reachable = Reachability(libraries)
+        for (dir in classesDirs) {
+            dir.walkTopDown()
+                .filter { it.isFile && it.name.endsWith(".class") }
+                .forEach { reachable.visit(it.readBytes()) }
+        }
+        libraries.classes.keys
+            .filter { name -> keep.any { it.matches(name.replace('/', '.')) } }
+            .forEach(reachable::reach)
+        reachable.complete()
+
+        val lines = reachable.classes
+            .groupBy { it.substringBeforeLast('/', "") }
+            .toSortedMap()
+            .map { (pkg, classes) -> pkg + " " + classes.map { it.substringAfterLast('/') }.sorted().joinToString(" ") }
+        reachableFile.writeText(lines.joinToString("\n"))
+        logger.lifecycle("Zapper: shrinking keeps ${reachable.classes.size} of ${libraries.classes.size} classes of the zapped dependencies")
+    } finally {
+        jars.forEach { it.close() }
+    }
+}
+
+/**
+ * Converts a keep pattern to a regex over binary class names. `**` matches
+ * any number of packages, and `*` matches part of a name.
+ */
+private fun String.toKeepRegex(): Regex {
+    val regex = StringBuilder()
+    var i = 0
+    while (i < length) {
+        when {
+            startsWith("**", i) -> regex.append(".*").also { i++ }
+            this[i] == '*' -> regex.append("[^.]*")
+            else -> regex.append(Regex.escape(this[i].toString()))
+        }
+        i++
+    }
+    return Regex(regex.toString())
+}
+
+/**
+ * The classes and service providers of the zapped dependencies
+ */
+private class LibraryIndex(jars: List<ZipFile>) {
+
+    /**
+     * The entries of every class by internal name, including the versions
+     * of it in multi-release jars
+     */
+    val classes = hashMapOf<String, MutableList<Pair<ZipFile, String>>>()
+
+    /**
+     * The providers of every service, by the internal name of the service
+     */
+    val services = hashMapOf<String, MutableSet<String>>()
+
+    init {
+        for (jar in jars) {
+            for (entry in jar.entries()) {
+                val name = entry.name
+                if (name.endsWith(".class")) {
+                    val className = name.replace(VERSIONED_CLASS, "").removeSuffix(".class")
+                    classes.getOrPut(className) { mutableListOf() }.add(jar to name)
+                } else if (name.startsWith(SERVICES) && name.length > SERVICES.length && !entry.isDirectory) {
+                    val providers = jar.getInputStream(entry).bufferedReader().use { it.readLines() }
+                        .map { it.substringBefore('#').trim() }
+                        .filter { it.isNotEmpty() }
+                        .map { it.replace('.', '/') }
+                    services.getOrPut(name.substring(SERVICES.length).replace('.', '/')) { mutableSetOf() }.addAll(providers)
+                }
+            }
+        }
+    }
+}
+
+/**
+ * Walks the classes of the dependencies that are reachable from the
+ * visited classes
+ */
+private class Reachability(private val libraries: LibraryIndex) {
+
+    /**
+     * Every class that has been referenced, including the classes of the
+     * JDK and of the plugin, so that services they define can be tracked
+     */
+    private val referenced = hashSetOf<String>()
+    private val queue = ArrayDeque<String>()
+
+    /**
+     * The reachable classes of the dependencies
+     */
+    val classes = sortedSetOf<String>()
+
+    fun reach(name: String) {
+        if (referenced.add(name) && name in libraries.classes) {
+            classes.add(name)
+            queue.add(name)
+        }
+    }
+
+    /**
+     * Reaches the classes that the given class file references
+     */
+    fun visit(classFile: ByteArray) {
+        classFile.forEachReference(::reach)
+    }
+
+    /**
+     * Visits reachable classes, and providers of referenced services, until
+     * no more classes are reached
+     */
+    fun complete() {
+        do {
+            while (queue.isNotEmpty()) {
+                for ((jar, entry) in libraries.classes.getValue(queue.removeFirst()))
+                    visit(jar.getInputStream(jar.getEntry(entry)).use { it.readBytes() })
+            }
+            // services may also be defined by the JDK or the plugin
+            for ((service, providers) in libraries.services) {
+                if (service in referenced)
+                    providers.forEach(::reach)
+            }
+        } while (queue.isNotEmpty())
+    }
+}
+
+/**
+ * Invokes the given function with the internal name of every class that may
+ * be referenced by this class file: classes in the constant pool, classes in
+ * descriptors and signatures, and string constants that look like class names.
+ * Names of classes that do not exist are harmless, as only classes of the
+ * dependencies are ever reached.
+ */
+private fun ByteArray.forEachReference(action: (String) -> Unit) {
+    val input = DataInputStream(ByteArrayInputStream(this))
+    if (input.readInt() != 0xCAFEBABE.toInt())
+        throw IOException("Not a class file")
+    input.skipBytes(4) // minor and major version
+    val count = input.readUnsignedShort()
+    val utf8 = arrayOfNulls<String>(count)
+    val classes = mutableListOf<Int>()
+    val strings = mutableListOf<Int>()
+    var index = 1
+    while (index < count) {
+        when (val tag = input.readUnsignedByte()) {
+            1 -> utf8[index] = input.readUTF()
+            7 -> classes.add(input.readUnsignedShort())
+            8 -> strings.add(input.readUnsignedShort())
+            16, 19, 20 -> input.skipBytes(2) // method type, module, package
+            15 -> input.skipBytes(3) // method handle
+            3, 4, 9, 10, 11, 12, 17, 18 -> input.skipBytes(4)
+            5, 6 -> input.skipBytes(8).also { index++ } // longs and doubles take two entries
+            else -> throw IOException("Unknown constant pool tag $tag")
+        }
+        index++
+    }
+    for (i in classes) {
+        val name = utf8[i] ?: continue
+        // array classes are named by their descriptor, which is matched below
+        if (!name.startsWith("["))
+            action(name)
+    }
+    for (value in utf8) {
+        if (value != null && value.indexOf(';') != -1)
+            CLASS_DESCRIPTOR.findAll(value).forEach { action(it.groupValues[1]) }
+    }
+    for (i in strings) {
+        val value = utf8[i] ?: continue
+        if (value.isNotEmpty() && value.indexOf(' ') == -1)
+            action(value.replace('.', '/'))
+    }
+}
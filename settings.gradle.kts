@@ -12,6 +12,7 @@ plugins {
 
 include("api")
 include("gradle-plugin")
+include("benchmarks")
 
 /*
  * -------- Example projects --------